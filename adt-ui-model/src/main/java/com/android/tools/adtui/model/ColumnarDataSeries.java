@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.RandomAccess;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link DataSeries} that stores its samples column by column: the x values in a {@code long[]} and the values in a parallel column.
+ * While every value added is a {@link Long}, the value column is a {@code long[]} as well, so numeric series do not box their values;
+ * adding any other value switches to an object column.
+ * <p>
+ * Range lookups are a binary search over the primitive x column and do not allocate. Callers that go through many samples, such as
+ * renderers, should use the index based accessors ({@link #getFirstIndexForRange(Range)}, {@link #getLastIndexForRange(Range)},
+ * {@link #getX(int)}, {@link #getLongValue(int)} and {@link #getValue(int)}), which do not create any object.
+ * {@link #getDataForRange(Range)} returns a read-only view over the columns instead of a copy of the samples in range. The view creates
+ * the {@link SeriesData} of a sample the first time it is read and returns the same instance afterwards.
+ * <p>
+ * Samples must be added in non-decreasing x order. The series either grows as needed, or, when created as a ring buffer, keeps only the
+ * newest {@code capacity} samples and overwrites the oldest ones. A view returned by {@link #getDataForRange(Range)} keeps seeing the
+ * samples it was created with; reading a sample that has been overwritten since throws {@link ConcurrentModificationException}.
+ */
+public class ColumnarDataSeries<E> implements DataSeries<E> {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private final boolean myIsRingBuffer;
+  @NotNull private long[] myX;
+  // Exactly one of the value columns is set.
+  @Nullable private long[] myLongValues;
+  @Nullable private Object[] myValues;
+
+  /**
+   * Every sample gets a sequence number when it is added, and the sample with sequence number s is stored at index s % capacity. Samples
+   * with a sequence number in [myFirstSequence, myNextSequence) are currently stored.
+   */
+  private long myFirstSequence;
+  private long myNextSequence;
+
+  public ColumnarDataSeries() {
+    this(DEFAULT_CAPACITY, false);
+  }
+
+  /**
+   * @param capacity     the initial capacity of the series, or the number of samples kept if this is a ring buffer.
+   * @param isRingBuffer whether to overwrite the oldest sample once {@code capacity} samples are stored, instead of growing.
+   */
+  public ColumnarDataSeries(int capacity, boolean isRingBuffer) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    myIsRingBuffer = isRingBuffer;
+    myX = new long[capacity];
+    myLongValues = new long[capacity];
+  }
+
+  /**
+   * @return a new series holding the given samples, which must be sorted by {@link SeriesData#x}.
+   */
+  @NotNull
+  public static <E> ColumnarDataSeries<E> copyOf(@NotNull List<SeriesData<E>> seriesDataList) {
+    ColumnarDataSeries<E> series = new ColumnarDataSeries<>(Math.max(DEFAULT_CAPACITY, seriesDataList.size()), false);
+    for (SeriesData<E> data : seriesDataList) {
+      series.append(data.x, data.value);
+    }
+    return series;
+  }
+
+  public void add(long x, E value) {
+    if (size() > 0 && x < getX(size() - 1)) {
+      throw new IllegalArgumentException(String.format("Samples must be added in order: %d added after %d", x, getX(size() - 1)));
+    }
+    append(x, value);
+  }
+
+  /**
+   * Same as {@link #add(long, Object)} without checking the order of the samples, for callers that do not enforce it.
+   */
+  void append(long x, E value) {
+    if (size() == myX.length) {
+      if (myIsRingBuffer) {
+        myFirstSequence++;
+      }
+      else {
+        myX = Arrays.copyOf(myX, myX.length * 2);
+        if (myLongValues != null) {
+          myLongValues = Arrays.copyOf(myLongValues, myLongValues.length * 2);
+        }
+        else {
+          myValues = Arrays.copyOf(myValues, myValues.length * 2);
+        }
+      }
+    }
+    int index = toArrayIndex(myNextSequence);
+    myX[index] = x;
+    if (myLongValues != null && value instanceof Long) {
+      myLongValues[index] = (Long)value;
+    }
+    else {
+      getObjectValues()[index] = value;
+    }
+    myNextSequence++;
+  }
+
+  /**
+   * @return the object value column, converting the long value column to it first if needed. The long column is left untouched, so views
+   * created before keep seeing the same samples.
+   */
+  @NotNull
+  private Object[] getObjectValues() {
+    if (myValues == null) {
+      long[] longValues = myLongValues;
+      assert longValues != null;
+      Object[] values = new Object[longValues.length];
+      for (long sequence = myFirstSequence; sequence < myNextSequence; sequence++) {
+        int index = toArrayIndex(sequence);
+        values[index] = longValues[index];
+      }
+      myValues = values;
+      myLongValues = null;
+    }
+    return myValues;
+  }
+
+  /**
+   * Removes all samples. Views returned so far are not affected.
+   */
+  public void clear() {
+    myX = new long[myX.length];
+    myLongValues = new long[myX.length];
+    myValues = null;
+    myFirstSequence = 0;
+    myNextSequence = 0;
+  }
+
+  public int size() {
+    return (int)(myNextSequence - myFirstSequence);
+  }
+
+  /**
+   * @return the x value of the sample at the given index, where index 0 is the oldest sample still stored.
+   */
+  public long getX(int index) {
+    return myX[toArrayIndex(myFirstSequence + index)];
+  }
+
+  /**
+   * @return the value of the sample at the given index, where index 0 is the oldest sample still stored. Values of a series holding
+   * {@link Long} values are boxed, use {@link #getLongValue(int)} to read them without allocating.
+   */
+  @SuppressWarnings("unchecked")
+  public E getValue(int index) {
+    int arrayIndex = toArrayIndex(myFirstSequence + index);
+    return myLongValues != null ? (E)(Long)myLongValues[arrayIndex] : (E)myValues[arrayIndex];
+  }
+
+  /**
+   * @return the value of the sample at the given index, which must be a {@link Number}, as a long.
+   */
+  public long getLongValue(int index) {
+    int arrayIndex = toArrayIndex(myFirstSequence + index);
+    return myLongValues != null ? myLongValues[arrayIndex] : ((Number)myValues[arrayIndex]).longValue();
+  }
+
+  /**
+   * @return the index of the first sample returned by {@link #getDataForRange(Range)} for the given range. If the range is empty or the
+   * series has no samples, the result is greater than {@link #getLastIndexForRange(Range)}.
+   */
+  public int getFirstIndexForRange(@NotNull Range range) {
+    int size = size();
+    if (size == 0 || range.isEmpty()) {
+      return 0;
+    }
+    long min = (long)range.getMin();
+    int fromIndex = lowerBound(min);
+    if (fromIndex == size || getX(fromIndex) != min) {
+      fromIndex = Math.max(fromIndex - 1, 0);
+    }
+    return fromIndex;
+  }
+
+  /**
+   * @return the index of the last sample returned by {@link #getDataForRange(Range)} for the given range, inclusive.
+   */
+  public int getLastIndexForRange(@NotNull Range range) {
+    int size = size();
+    if (size == 0 || range.isEmpty()) {
+      return -1;
+    }
+    long max = (long)range.getMax();
+    int toIndex = upperBound(max) - 1;
+    if (toIndex < 0 || getX(toIndex) != max) {
+      toIndex = Math.min(toIndex + 1, size - 1);
+    }
+    return toIndex;
+  }
+
+  /**
+   * @return all samples within the given range, plus the samples right before and after it unless samples lie exactly on the range
+   * boundaries.
+   */
+  @Override
+  public List<SeriesData<E>> getDataForRange(Range range) {
+    int fromIndex = getFirstIndexForRange(range);
+    int toIndex = getLastIndexForRange(range);
+    return getData(fromIndex, toIndex + 1);
+  }
+
+  @NotNull
+  public List<SeriesData<E>> getAllData() {
+    return getData(0, size());
+  }
+
+  /**
+   * @return a read-only view over the samples from {@code fromIndex} (inclusive) to {@code toIndex} (exclusive).
+   */
+  @NotNull
+  public List<SeriesData<E>> getData(int fromIndex, int toIndex) {
+    if (fromIndex >= toIndex) {
+      return Collections.emptyList();
+    }
+    return new ColumnView(myFirstSequence + fromIndex, toIndex - fromIndex);
+  }
+
+  /**
+   * @return the index of the first sample with an x value of at least {@code x}, or {@link #size()} if there is none.
+   */
+  private int lowerBound(long x) {
+    int low = 0;
+    int high = size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getX(mid) < x) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the index of the first sample with an x value greater than {@code x}, or {@link #size()} if there is none.
+   */
+  private int upperBound(long x) {
+    int low = 0;
+    int high = size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getX(mid) <= x) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int toArrayIndex(long sequence) {
+    return (int)(sequence % myX.length);
+  }
+
+  /**
+   * Read-only view over a run of samples. It holds on to the columns it was created with: growing or clearing the series, or switching to
+   * an object value column, replaces the columns and leaves the view untouched, and only a ring buffer overwriting the viewed samples
+   * invalidates it.
+   */
+  private final class ColumnView extends AbstractList<SeriesData<E>> implements RandomAccess {
+    @NotNull private final long[] myViewX;
+    @Nullable private final long[] myViewLongValues;
+    @Nullable private final Object[] myViewValues;
+    private final long myFromSequence;
+    private final int mySize;
+    // Samples already read, so that reading a sample again neither allocates nor returns a different instance.
+    @Nullable private SeriesData<E>[] mySamples;
+
+    private ColumnView(long fromSequence, int size) {
+      myViewX = myX;
+      myViewLongValues = myLongValues;
+      myViewValues = myValues;
+      myFromSequence = fromSequence;
+      mySize = size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public SeriesData<E> get(int index) {
+      if (index < 0 || index >= mySize) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mySize);
+      }
+      long sequence = myFromSequence + index;
+      if (myViewX == myX && sequence < myFirstSequence) {
+        throw new ConcurrentModificationException("Sample has been overwritten");
+      }
+      if (mySamples == null) {
+        mySamples = new SeriesData[mySize];
+      }
+      SeriesData<E> sample = mySamples[index];
+      if (sample == null) {
+        int arrayIndex = (int)(sequence % myViewX.length);
+        E value = myViewLongValues != null ? (E)(Long)myViewLongValues[arrayIndex] : (E)myViewValues[arrayIndex];
+        sample = new SeriesData<>(myViewX[arrayIndex], value);
+        mySamples[index] = sample;
+      }
+      return sample;
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+  }
+}
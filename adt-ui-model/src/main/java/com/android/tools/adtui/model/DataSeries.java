@@ -23,4 +23,22 @@ import java.util.List;
 public interface DataSeries<E> {
 
   List<SeriesData<E>> getDataForRange(Range range);
+
+  /**
+   * @return true if new samples are only ever added after the newest one, and only the newest sample can still change once it has been
+   * returned. {@link RangedSeries} then only queries the data that is newer than what it has already fetched while the range is streaming.
+   * See {@link StreamingSeriesCache}.
+   */
+  default boolean isAppendOnly() {
+    return false;
+  }
+
+  /**
+   * @return for an append-only series, how far before the newest sample (in the same unit as {@link SeriesData#x}) a sample may still
+   * be inserted after the newest one has been returned, e.g. because the samples are collected by several pollers. Streaming queries
+   * fetch that part of the series again to pick up such samples.
+   */
+  default long getLateSampleWindow() {
+    return 0;
+  }
 }
@@ -15,63 +15,64 @@
  */
 package com.android.tools.adtui.model;
 
-import com.intellij.util.containers.ContainerUtil;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import org.jetbrains.annotations.NotNull;
 
-
+/**
+ * A {@link DataSeries} holding its samples in memory, in a {@link ColumnarDataSeries} so that the x values and numeric values are stored
+ * in primitive columns. Use {@link #getX(int)}, {@link #getY(int)} and {@link #getLongY(int)} with {@link #getNearestXIndex(long)} to go
+ * through the samples without creating a {@link SeriesData} for each of them.
+ */
 public class DefaultDataSeries<E> implements DataSeries<E> {
-  @NotNull protected final List<SeriesData<E>> mSeriesList = new ArrayList<>();
-
-  @NotNull
-  private List<SeriesData<E>> getDataSubList(final int fromIndex, final int toIndex) {
-    return IntStream.range(fromIndex, toIndex).mapToObj(index -> mSeriesList.get(index)).collect(Collectors.toList());
-  }
+  @NotNull private final ColumnarDataSeries<E> myColumns = new ColumnarDataSeries<>();
 
   @Override
   public List<SeriesData<E>> getDataForRange(Range range) {
     //If the size of our data is 0, early return an empty list.
     if (size() == 0 || range.isEmpty()) {
-      return getDataSubList(0, 0);
+      return myColumns.getData(0, 0);
     }
 
     int fromIndex = getNearestXIndex((long)range.getMin());
     int toIndex = getNearestXIndex((long)range.getMax()) + 1;
-    return getDataSubList(fromIndex, toIndex);
+    return myColumns.getData(fromIndex, toIndex);
   }
 
   public List<SeriesData<E>> getAllData() {
-    return getDataSubList(0, size());
+    return myColumns.getAllData();
   }
 
   /**
    * Implementations need to store both the x, and y values. For a given index the X value should correspond to the Y value.
    */
   public void add(long x, E y) {
-    mSeriesList.add(new SeriesData<>(x, y));
+    myColumns.append(x, y);
   }
 
   public int size() {
-    return mSeriesList.size();
+    return myColumns.size();
   }
 
   public long getX(int index) {
-    return mSeriesList.get(index).x;
+    return myColumns.getX(index);
   }
 
   /**
    * Returns the value of Y at a given index.
    */
   public E getY(int index) {
-    return mSeriesList.get(index).value;
+    return myColumns.getValue(index);
+  }
+
+  /**
+   * Returns the value of Y at a given index, which must be a {@link Number}, without boxing it.
+   */
+  public long getLongY(int index) {
+    return myColumns.getLongValue(index);
   }
 
   public int getNearestXIndex(long x) {
-    int index = Collections.binarySearch(ContainerUtil.map(mSeriesList, data -> data.x), x);
+    int index = binarySearchX(x);
 
     if (index < 0) {
       // No exact match, returns position to the left of the insertion point.
@@ -84,4 +85,26 @@ public class DefaultDataSeries<E> implements DataSeries<E> {
 
     return Math.max(0, Math.min(index, size() - 1));
   }
+
+  /**
+   * Same contract as {@link java.util.Collections#binarySearch(List, Object)}, on the x values of the series without boxing them.
+   */
+  private int binarySearchX(long x) {
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midX = myColumns.getX(mid);
+      if (midX < x) {
+        low = mid + 1;
+      }
+      else if (midX > x) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
 }
@@ -33,7 +33,12 @@ public class DurationDataModel<E extends DurationData> extends AspectModel<Durat
   @Nullable private BiPredicate<SeriesData<E>, RangedContinuousSeries> myRenderSeriesPredicate = null;
   @Nullable private Interpolatable<Long, Double> myInterpolatable = null;
 
+  /**
+   * @param series a series that is not append-only (see {@link DataSeries#isAppendOnly()}). The duration of a sample is only known once
+   *               it ends, long after the sample may have been returned, so durations are always queried in full.
+   */
   public DurationDataModel(@NotNull RangedSeries<E> series) {
+    assert !series.isAppendOnly();
     mySeries = series;
     mySeries.getXRange().addDependency(this).onChange(Range.Aspect.RANGE, () -> changed(Aspect.DURATION_DATA));
   }
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.jetbrains.annotations.NotNull;
@@ -37,6 +38,15 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
   @NotNull
   private final List<RangedContinuousSeries> mySeries = new ArrayList<>();
 
+  @NotNull
+  private final Map<RangedContinuousSeries, SeriesDownsampler> myDownsamplers = new ConcurrentHashMap<>();
+
+  /**
+   * Width the series are downsampled to when looking for their maximum. Downsampling keeps the minimum and maximum samples whatever the
+   * width, so this only bounds the number of samples looked at.
+   */
+  private static final int Y_RANGE_PIXEL_WIDTH = 256;
+
   /**
    * During the first update, skip the y range interpolation and snap to the initial max value.
    */
@@ -78,7 +88,8 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
       Range range = ranged.getYRange();
       double yMax = -Double.MAX_VALUE;
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
+      // Downsampling keeps the minimum and maximum samples, so the max is the same as over all the data.
+      List<SeriesData<Long>> seriesList = getDownsampledSeries(ranged, Y_RANGE_PIXEL_WIDTH);
       if (seriesList.isEmpty()) {
         continue;
       }
@@ -123,12 +134,26 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
 
   public void add(@NotNull RangedContinuousSeries series) {
     mySeries.add(series);
+    myDownsamplers.put(series, new SeriesDownsampler(series.isAppendOnly(), series.getLateSampleWindow()));
     series.getXRange().addDependency(this).onChange(Range.Aspect.RANGE, () -> changed(Aspect.LINE_CHART));
   }
 
   public void remove(@NotNull RangedContinuousSeries series) {
     series.getXRange().removeDependencies(this);
     mySeries.remove(series);
+    myDownsamplers.remove(series);
+  }
+
+  /**
+   * @param pixelWidth the number of pixels the x range of the series is drawn over by the caller, or 0 to get all of the data. Each chart
+   *                   showing this model passes its own width.
+   * @return the data of the given series in its current range, reduced to a few samples per pixel. See {@link SeriesDownsampler}.
+   */
+  @NotNull
+  public List<SeriesData<Long>> getDownsampledSeries(@NotNull RangedContinuousSeries series, int pixelWidth) {
+    List<SeriesData<Long>> data = series.getSeries();
+    SeriesDownsampler downsampler = myDownsamplers.get(series);
+    return downsampler == null ? data : downsampler.downsample(data, series.getXRange(), pixelWidth);
   }
 
   @NotNull
@@ -37,12 +37,23 @@ open class RangedSeries<E>
 
   private var lastQueriedRange = Range()
   private var lastQueriedSeries = emptyList<SeriesData<E>>()
+  private val streamingCache = if (_series.isAppendOnly) StreamingSeriesCache(_series, _series.lateSampleWindow) else null
 
   /**
    * A new range object that represents the intersection between the default and intersect ranges.
    */
   val intersection: Range get() = xRange.getIntersection(intersectRange)
 
+  /**
+   * Whether the underlying [DataSeries] is append-only, see [DataSeries.isAppendOnly].
+   */
+  val isAppendOnly: Boolean get() = _series.isAppendOnly
+
+  /**
+   * How far before the newest sample a sample may still be inserted, see [DataSeries.getLateSampleWindow].
+   */
+  val lateSampleWindow: Long get() = _series.lateSampleWindow
+
   /**
    * A new, immutable [SeriesDataList] consisting of items in the DataStore scoped to the range(s) that the RangedSeries was
    * initialized with.
@@ -50,11 +61,14 @@ open class RangedSeries<E>
    * Note - this call is frequently made by UI components on the main thread, so the last queried results are cached and returned if the
    * query range is determined to not have changed to avoid hitting the Datastore redundantly. If the query range's max value is
    * Long.MAX_VALUE or Double.MAX_VALUE, however, then the cache is bypassed since there might be new data that are still streaming in.
+   * If the underlying [DataSeries] is append-only, a [StreamingSeriesCache] is used instead, which only queries the data newer than
+   * what has already been fetched.
    */
   val series: List<SeriesData<E>>
     get() = xRange.getIntersection(intersectRange).let { queryRange ->
       when {
-        queryRange.max == Long.MAX_VALUE.toDouble() || queryRange.max == Double.MAX_VALUE -> getSeriesForRange(queryRange)
+        streamingCache != null -> streamingCache.getSeries(queryRange)
+        StreamingSeriesCache.isUnbounded(queryRange) -> getSeriesForRange(queryRange)
         lastQueriedRange.isSameAs(queryRange) -> lastQueriedSeries
         else -> getSeriesForRange(queryRange).also {
           lastQueriedSeries = it
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reduces a series of samples to a handful of samples per pixel before it is drawn as a line.
+ * <p>
+ * The x axis is split into buckets no wider than a pixel, and each bucket is reduced to its first, minimum, maximum and last samples. A
+ * line drawn through the reduced samples covers the same pixels as the line drawn through all of them, and the y extremes of the series
+ * are preserved.
+ * <p>
+ * Buckets are aligned on powers of two of the x unit, so each zoom level shares its buckets across pans. If the series is append-only
+ * (see {@link DataSeries#isAppendOnly()}), the reduction of every bucket that can no longer change is kept per zoom level, and later
+ * queries at that level only go over the samples of the buckets that were not summarized yet. Buckets within the late sample window of
+ * the series (see {@link DataSeries#getLateSampleWindow()}) can still receive samples, so they are not kept.
+ */
+public class SeriesDownsampler {
+  /**
+   * Series with fewer samples than this many per pixel are returned as is.
+   */
+  private static final int MIN_SAMPLES_PER_PIXEL = 4;
+  /**
+   * Number of zoom levels whose summaries are kept around, and number of buckets kept per level.
+   */
+  private static final int MAX_CACHED_LEVELS = 4;
+  private static final int MAX_CACHED_BUCKETS_PER_LEVEL = 1 << 16;
+
+  private final boolean myCacheSummaries;
+  private final long myLateSampleWindow;
+
+  private final Map<Integer, Map<Long, List<SeriesData<Long>>>> mySummariesPerLevel =
+    new LinkedHashMap<Integer, Map<Long, List<SeriesData<Long>>>>(MAX_CACHED_LEVELS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Map<Long, List<SeriesData<Long>>>> eldest) {
+        return size() > MAX_CACHED_LEVELS;
+      }
+    };
+
+  /**
+   * @param cacheSummaries whether the series is append-only, so that the reductions of older buckets can be kept across queries.
+   */
+  public SeriesDownsampler(boolean cacheSummaries) {
+    this(cacheSummaries, 0);
+  }
+
+  /**
+   * @param cacheSummaries   whether the series is append-only, so that the reductions of older buckets can be kept across queries.
+   * @param lateSampleWindow how far before the newest sample a sample may still be inserted, see {@link DataSeries#getLateSampleWindow()}.
+   */
+  public SeriesDownsampler(boolean cacheSummaries, long lateSampleWindow) {
+    myCacheSummaries = cacheSummaries;
+    myLateSampleWindow = lateSampleWindow;
+  }
+
+  /**
+   * @param data       samples sorted by x, as returned by a {@link RangedSeries}.
+   * @param xRange     the range of x values the samples are drawn over.
+   * @param pixelWidth the number of pixels the range is drawn over.
+   * @return the reduced samples, sorted by x.
+   */
+  @NotNull
+  public synchronized List<SeriesData<Long>> downsample(@NotNull List<SeriesData<Long>> data, @NotNull Range xRange, int pixelWidth) {
+    if (pixelWidth <= 0 || data.size() <= (long)pixelWidth * MIN_SAMPLES_PER_PIXEL || xRange.isEmpty() || xRange.isPoint()) {
+      return data;
+    }
+    // Use the widest power of two bucket that still fits in a pixel.
+    double pixelLength = xRange.getLength() / pixelWidth;
+    int level = pixelLength < 2 ? 0 : Math.min(62, 63 - Long.numberOfLeadingZeros((long)pixelLength));
+    long bucketWidth = 1L << level;
+
+    Map<Long, List<SeriesData<Long>>> summaries = null;
+    if (myCacheSummaries) {
+      summaries = mySummariesPerLevel.computeIfAbsent(level, unused -> new HashMap<>());
+      if (summaries.size() > MAX_CACHED_BUCKETS_PER_LEVEL) {
+        summaries.clear();
+      }
+    }
+
+    // Only buckets entirely within the samples are complete, and the buckets within the late sample window can still change.
+    long firstX = data.get(0).x;
+    long sealedEndX = data.get(data.size() - 1).x - myLateSampleWindow;
+
+    List<SeriesData<Long>> reduced = new ArrayList<>();
+    int index = 0;
+    while (index < data.size()) {
+      long bucket = Math.floorDiv(data.get(index).x, bucketWidth);
+      long bucketStart = bucket * bucketWidth;
+      long bucketEnd = bucketStart + bucketWidth;
+      boolean isSealed = bucketStart > firstX && bucketEnd <= sealedEndX;
+
+      List<SeriesData<Long>> summary = isSealed && summaries != null ? summaries.get(bucket) : null;
+      if (summary != null) {
+        index = lowerBound(data, bucketEnd, index);
+      }
+      else {
+        int end = lowerBound(data, bucketEnd, index);
+        summary = reduceBucket(data, index, end);
+        if (isSealed && summaries != null) {
+          summaries.put(bucket, summary);
+        }
+        index = end;
+      }
+      reduced.addAll(summary);
+    }
+    return reduced;
+  }
+
+  /**
+   * @return the first, minimum, maximum and last samples in [from, to), in x order and without duplicates.
+   */
+  @NotNull
+  private static List<SeriesData<Long>> reduceBucket(@NotNull List<SeriesData<Long>> data, int from, int to) {
+    int minIndex = from;
+    int maxIndex = from;
+    for (int i = from + 1; i < to; i++) {
+      long value = data.get(i).value;
+      if (value < data.get(minIndex).value) {
+        minIndex = i;
+      }
+      if (value >= data.get(maxIndex).value) {
+        maxIndex = i;
+      }
+    }
+    int last = to - 1;
+    List<SeriesData<Long>> summary = new ArrayList<>(4);
+    summary.add(data.get(from));
+    int firstExtreme = Math.min(minIndex, maxIndex);
+    int secondExtreme = Math.max(minIndex, maxIndex);
+    if (firstExtreme != from && firstExtreme != last) {
+      summary.add(data.get(firstExtreme));
+    }
+    if (secondExtreme != firstExtreme && secondExtreme != from && secondExtreme != last) {
+      summary.add(data.get(secondExtreme));
+    }
+    if (last != from) {
+      summary.add(data.get(last));
+    }
+    return summary;
+  }
+
+  /**
+   * @return the index of the first sample at or after {@code fromIndex} whose x value is at least {@code x}.
+   */
+  private static int lowerBound(@NotNull List<SeriesData<Long>> data, long x, int fromIndex) {
+    int low = fromIndex;
+    int high = data.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (data.get(mid).x < x) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
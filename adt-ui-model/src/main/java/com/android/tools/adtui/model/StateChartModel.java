@@ -36,7 +36,12 @@ public class StateChartModel<E> extends AspectModel<StateChartModel.Aspect> {
     return mSeriesList;
   }
 
+  /**
+   * @param series a series that is not append-only (see {@link DataSeries#isAppendOnly()}). The state a sample starts may still end
+   *               after it has been returned, so states are always queried in full.
+   */
   public void addSeries(@NotNull RangedSeries<E> series) {
+    assert !series.isAppendOnly();
     mSeriesList.add(series);
     series.getXRange().addDependency(this).onChange(Range.Aspect.RANGE, () -> changed(Aspect.MODEL_CHANGED));
     changed(Aspect.MODEL_CHANGED);
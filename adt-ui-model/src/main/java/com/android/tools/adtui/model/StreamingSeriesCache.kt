@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model
+
+/**
+ * Caches the data of an append-only [DataSeries] (see [DataSeries.isAppendOnly]) for a query range that only ever grows at its end or
+ * slides forward, which is what a streaming timeline does on every frame.
+ *
+ * Instead of querying the whole range again, only the data from the newest cached sample onwards is fetched and appended to the data
+ * fetched before. The newest sample is always fetched again, so a sample that was still being updated when it was last queried gets
+ * replaced, as are the samples within [lateSampleWindow] before it, so that samples inserted late are picked up. If the sample returned
+ * before the fetched data is not the one cached, an older sample was inserted late and the whole range is queried again. Samples that
+ * fall off the start of the range are dropped, except for the last one before it. Queries that move the start of the range backwards or
+ * shrink its end fall back to querying the whole range.
+ *
+ * Lists returned by [getSeries] are immutable and stay valid after later queries.
+ */
+class StreamingSeriesCache<E> @JvmOverloads constructor(private val dataSeries: DataSeries<E>, private val lateSampleWindow: Long = 0) {
+
+  /**
+   * Cached samples are stored in [data] between [start] (inclusive) and [end] (exclusive). Slots past [end] may be written to by later
+   * queries, but slots before it never are: a query that needs to change them allocates a new array instead, so the lists previously
+   * handed out keep seeing the same samples.
+   */
+  private var data = arrayOfNulls<Any>(INITIAL_CAPACITY)
+  private var start = 0
+  private var end = 0
+  private var lastQueriedRange: Range? = null
+  private var lastQueriedSeries = emptyList<SeriesData<E>>()
+
+  /**
+   * Number of times the whole range was queried from the underlying [DataSeries].
+   */
+  var fullQueryCount = 0
+    private set
+
+  /**
+   * Number of times only the data newer than the cached samples was queried from the underlying [DataSeries].
+   */
+  var tailQueryCount = 0
+    private set
+
+  // Line charts query their series both from the update executor and from the EDT.
+  @Synchronized
+  fun getSeries(range: Range): List<SeriesData<E>> {
+    val lastRange = lastQueriedRange
+    when {
+      lastRange == null || range.isEmpty || range.min < lastRange.min || range.max < lastRange.max -> queryAll(range)
+      lastRange.isSameAs(range) && !isUnbounded(range) -> return lastQueriedSeries
+      start == end -> queryAll(range)
+      else -> queryTail(range)
+    }
+    dropBefore(range.min)
+    lastQueriedRange = Range(range)
+    lastQueriedSeries = SeriesWindow(data, start, end - start)
+    return lastQueriedSeries
+  }
+
+  private fun queryAll(range: Range) {
+    val fetched = dataSeries.getDataForRange(range)
+    fullQueryCount++
+    data = arrayOfNulls(maxOf(INITIAL_CAPACITY, fetched.size * 2))
+    fetched.forEachIndexed { index, sample -> data[index] = sample }
+    start = 0
+    end = fetched.size
+  }
+
+  private fun queryTail(range: Range) {
+    val lastX = sampleAt(end - 1).x
+    if (lastX > range.max) {
+      // The cache already reaches past the end of the range, no newer data can be part of it.
+      return
+    }
+    val tailStartX = lastX - lateSampleWindow
+    val fetched = dataSeries.getDataForRange(Range(tailStartX.toDouble(), range.max))
+    tailQueryCount++
+
+    // Both the cache and the fetched data may hold several samples from tailStartX on, and the fetched data may start with samples
+    // before it.
+    val overlapStart = findFirstAtOrAfter(tailStartX.toDouble())
+    var fetchedStart = 0
+    while (fetchedStart < fetched.size && fetched[fetchedStart].x < tailStartX) {
+      fetchedStart++
+    }
+    if (fetchedStart > 0 && overlapStart > start && fetched[fetchedStart - 1] != sampleAt(overlapStart - 1)) {
+      // The sample before the fetched range is not the one cached: a sample older than what is fetched again was inserted late.
+      queryAll(range)
+      return
+    }
+
+    val overlapSize = end - overlapStart
+    val unchanged = fetched.size - fetchedStart >= overlapSize &&
+                    (0 until overlapSize).all { sampleAt(overlapStart + it) == fetched[fetchedStart + it] }
+    if (unchanged) {
+      append(fetched, fetchedStart + overlapSize)
+    }
+    else {
+      // The newest samples changed since the last query. Copy the samples that did not change, so that lists handed out so far are left
+      // untouched, and replace the rest.
+      val oldData = data
+      val oldStart = start
+      val keptSize = overlapStart - start
+      data = arrayOfNulls(maxOf(INITIAL_CAPACITY, (keptSize + fetched.size - fetchedStart) * 2))
+      System.arraycopy(oldData, oldStart, data, 0, keptSize)
+      start = 0
+      end = keptSize
+      append(fetched, fetchedStart)
+    }
+  }
+
+  private fun append(fetched: List<SeriesData<E>>, fromIndex: Int) {
+    val newSize = end - start + fetched.size - fromIndex
+    if (end + fetched.size - fromIndex > data.size) {
+      // Grow, and reclaim the slots of the samples that fell off the start of the range at the same time.
+      val oldData = data
+      data = arrayOfNulls(maxOf(INITIAL_CAPACITY, newSize * 2))
+      System.arraycopy(oldData, start, data, 0, end - start)
+      end -= start
+      start = 0
+    }
+    for (index in fromIndex until fetched.size) {
+      data[end++] = fetched[index]
+    }
+  }
+
+  private fun dropBefore(min: Double) {
+    // Keep the one sample before the first sample at or after min.
+    start = maxOf(start, findFirstAtOrAfter(min) - 1)
+  }
+
+  /**
+   * Binary searches for the index of the first cached sample at or after x, or [end] if there is none.
+   */
+  private fun findFirstAtOrAfter(x: Double): Int {
+    var low = start
+    var high = end
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (sampleAt(mid).x < x) low = mid + 1 else high = mid
+    }
+    return low
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  private fun sampleAt(index: Int) = data[index] as SeriesData<E>
+
+  private class SeriesWindow<E>(private val data: Array<Any?>, private val offset: Int, override val size: Int)
+    : AbstractList<SeriesData<E>>(), RandomAccess {
+
+    @Suppress("UNCHECKED_CAST")
+    override fun get(index: Int): SeriesData<E> {
+      if (index < 0 || index >= size) {
+        throw IndexOutOfBoundsException("index: $index, size: $size")
+      }
+      return data[offset + index] as SeriesData<E>
+    }
+  }
+
+  companion object {
+    private const val INITIAL_CAPACITY = 64
+
+    /**
+     * Whether the given range extends into the future, as is the case for ranges of data that are still streaming in.
+     */
+    @JvmStatic
+    fun isUnbounded(range: Range) = range.max == Long.MAX_VALUE.toDouble() || range.max == Double.MAX_VALUE
+  }
+}
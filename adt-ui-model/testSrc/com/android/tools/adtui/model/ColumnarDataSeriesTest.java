@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import org.junit.Test;
+
+public class ColumnarDataSeriesTest {
+
+  @Test
+  public void rangeIncludesNeighborsUnlessOnBoundary() {
+    ColumnarDataSeries<Long> series = createSeries(1, 10);
+    // 1 2 | 3 4 5 | 6 7
+    assertThat(series.getDataForRange(new Range(25, 55))).containsExactly(
+      new SeriesData<>(20, 2L), new SeriesData<>(30, 3L), new SeriesData<>(40, 4L), new SeriesData<>(50, 5L), new SeriesData<>(60, 6L))
+      .inOrder();
+    // 1 |2 3 4| 5
+    assertThat(series.getDataForRange(new Range(20, 40))).containsExactly(
+      new SeriesData<>(20, 2L), new SeriesData<>(30, 3L), new SeriesData<>(40, 4L)).inOrder();
+    assertThat(series.getDataForRange(new Range(0, 5))).containsExactly(new SeriesData<>(10, 1L));
+    assertThat(series.getDataForRange(new Range(101, 105))).containsExactly(new SeriesData<>(100, 10L));
+    assertThat(series.getDataForRange(new Range())).isEmpty();
+    assertThat(new ColumnarDataSeries<Long>().getDataForRange(new Range(0, 100))).isEmpty();
+  }
+
+  @Test
+  public void viewsAreNotAffectedByLaterAdds() {
+    ColumnarDataSeries<Long> series = new ColumnarDataSeries<>(2, false);
+    series.add(10, 1L);
+    series.add(20, 2L);
+    List<SeriesData<Long>> view = series.getAllData();
+
+    // Growing the series past its initial capacity.
+    series.add(30, 3L);
+    series.add(40, 4L);
+    assertThat(view).containsExactly(new SeriesData<>(10, 1L), new SeriesData<>(20, 2L)).inOrder();
+    assertThat(series.getAllData()).hasSize(4);
+
+    series.clear();
+    assertThat(series.size()).isEqualTo(0);
+    assertThat(view).hasSize(2);
+  }
+
+  @Test
+  public void ringBufferKeepsNewestSamples() {
+    ColumnarDataSeries<Long> series = new ColumnarDataSeries<>(4, true);
+    for (long i = 1; i <= 6; i++) {
+      series.add(i * 10, i);
+    }
+    assertThat(series.size()).isEqualTo(4);
+    assertThat(series.getX(0)).isEqualTo(30);
+    assertThat(series.getValue(3)).isEqualTo(6L);
+    assertThat(series.getDataForRange(new Range(0, 45))).containsExactly(
+      new SeriesData<>(30, 3L), new SeriesData<>(40, 4L), new SeriesData<>(50, 5L)).inOrder();
+
+    List<SeriesData<Long>> view = series.getDataForRange(new Range(30, 30));
+    series.add(70, 7L);
+    try {
+      view.get(0);
+      fail();
+    }
+    catch (ConcurrentModificationException expected) {
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void samplesMustBeAddedInOrder() {
+    ColumnarDataSeries<Long> series = createSeries(1, 2);
+    series.add(5, 0L);
+  }
+
+  @Test
+  public void copyOfList() {
+    List<SeriesData<Long>> data = createSeries(1, 5).getAllData();
+    ColumnarDataSeries<Long> series = ColumnarDataSeries.copyOf(data);
+    assertThat(series.getAllData()).containsExactlyElementsIn(data).inOrder();
+  }
+
+  @Test
+  public void indexAccessorsMatchRangeView() {
+    ColumnarDataSeries<Long> series = createSeries(0, 10);
+    Range range = new Range(25, 55);
+    int fromIndex = series.getFirstIndexForRange(range);
+    int toIndex = series.getLastIndexForRange(range);
+    assertThat(fromIndex).isEqualTo(2);
+    assertThat(toIndex).isEqualTo(6);
+    List<SeriesData<Long>> view = series.getDataForRange(range);
+    assertThat(view).hasSize(toIndex - fromIndex + 1);
+    for (int i = fromIndex; i <= toIndex; i++) {
+      assertThat(view.get(i - fromIndex).x).isEqualTo(series.getX(i));
+      assertThat(view.get(i - fromIndex).value).isEqualTo(series.getLongValue(i));
+    }
+    assertThat(series.getFirstIndexForRange(new Range())).isGreaterThan(series.getLastIndexForRange(new Range()));
+  }
+
+  @Test
+  public void viewReturnsSameSampleInstance() {
+    List<SeriesData<Long>> view = createSeries(0, 5).getAllData();
+    assertThat(view.get(3)).isSameAs(view.get(3));
+  }
+
+  @Test
+  public void switchesToObjectValuesKeepingEarlierSamples() {
+    ColumnarDataSeries<Object> series = new ColumnarDataSeries<>();
+    series.add(0, 10L);
+    series.add(1, 20L);
+    List<SeriesData<Object>> longView = series.getAllData();
+    series.add(2, "text");
+    assertThat(series.getValue(0)).isEqualTo(10L);
+    assertThat(series.getLongValue(1)).isEqualTo(20L);
+    assertThat(series.getValue(2)).isEqualTo("text");
+    assertThat(longView).containsExactly(new SeriesData<>(0, 10L), new SeriesData<>(1, 20L)).inOrder();
+  }
+
+  @Test
+  public void defaultDataSeriesKeepsNearestIndexSemantics() {
+    DefaultDataSeries<Long> series = new DefaultDataSeries<>();
+    for (long x = 0; x <= 10; x += 2) {
+      series.add(x, x * 10);
+    }
+    assertThat(series.getDataForRange(new Range(3, 7))).containsExactly(
+      new SeriesData<>(2, 20L), new SeriesData<>(4, 40L), new SeriesData<>(6, 60L)).inOrder();
+    assertThat(series.getNearestXIndex(5)).isEqualTo(2);
+    assertThat(series.getLongY(4)).isEqualTo(80L);
+    assertThat(series.getY(5)).isEqualTo(100L);
+  }
+
+  private static ColumnarDataSeries<Long> createSeries(long first, long last) {
+    ColumnarDataSeries<Long> series = new ColumnarDataSeries<>();
+    for (long i = first; i <= last; i++) {
+      series.add(i * 10, i);
+    }
+    return series;
+  }
+}
@@ -147,4 +147,23 @@ public class LineChartModelTest {
     assertTrue(updated[0]);
     // TODO(b/80503984) We can't assert range max is at 7L since it needs many steps to interpolate.
   }
+
+  @Test
+  public void testDownsampledSeriesDependsOnCallerWidth() {
+    Range xRange = new Range(0, 10000);
+    DefaultDataSeries<Long> testSeries = new DefaultDataSeries<>();
+    for (int i = 0; i <= 10000; i++) {
+      testSeries.add(i, (long)(i % 7));
+    }
+    RangedContinuousSeries rangedSeries = new RangedContinuousSeries("test", xRange, new Range(0, 10), testSeries);
+    LineChartModel model = new LineChartModel(newDirectExecutorService());
+    model.add(rangedSeries);
+
+    int narrow = model.getDownsampledSeries(rangedSeries, 10).size();
+    int wide = model.getDownsampledSeries(rangedSeries, 1000).size();
+    assertTrue(narrow < wide);
+    // A chart drawing at another width in between does not change what a chart gets for its own width.
+    assertEquals(narrow, model.getDownsampledSeries(rangedSeries, 10).size());
+    assertEquals(10001, model.getDownsampledSeries(rangedSeries, 0).size());
+  }
 }
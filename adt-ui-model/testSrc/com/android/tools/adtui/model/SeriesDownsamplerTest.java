@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class SeriesDownsamplerTest {
+
+  @Test
+  public void smallSeriesAreNotReduced() {
+    List<SeriesData<Long>> data = createData(0, 40);
+    assertThat(new SeriesDownsampler(false).downsample(data, new Range(0, 40), 10)).isSameAs(data);
+    assertThat(new SeriesDownsampler(false).downsample(data, new Range(0, 40), 0)).isSameAs(data);
+  }
+
+  @Test
+  public void reducesToFirstMinMaxLastPerBucket() {
+    List<SeriesData<Long>> data = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      // Saw tooth with a spike in the middle.
+      data.add(new SeriesData<>(i, i == 500 ? 1000L : i % 10));
+    }
+    List<SeriesData<Long>> reduced = new SeriesDownsampler(false).downsample(data, new Range(0, 1000), 100);
+
+    // Buckets are 8 wide, the largest power of two not wider than a pixel of 10.
+    assertThat(reduced.size()).isAtMost(4 * 125);
+    assertThat(reduced.get(0)).isSameAs(data.get(0));
+    assertThat(reduced.get(reduced.size() - 1)).isSameAs(data.get(999));
+    assertThat(reduced).contains(data.get(500));
+    for (int i = 1; i < reduced.size(); i++) {
+      assertThat(reduced.get(i).x).isGreaterThan(reduced.get(i - 1).x);
+    }
+  }
+
+  @Test
+  public void cachedSummariesMatchFullReduction() {
+    SeriesDownsampler cached = new SeriesDownsampler(true);
+    SeriesDownsampler uncached = new SeriesDownsampler(false);
+    List<SeriesData<Long>> data = createData(0, 2000);
+    Range xRange = new Range(0, 2000);
+    assertThat(cached.downsample(data, xRange, 100)).isEqualTo(uncached.downsample(data, xRange, 100));
+
+    // Stream in more data and pan, the summaries of the older buckets are reused.
+    data = createData(500, 3000);
+    xRange.set(500, 3000);
+    assertThat(cached.downsample(data, xRange, 100)).isEqualTo(uncached.downsample(data, xRange, 100));
+
+    // Zoom in, which uses another level.
+    data = createData(1000, 1500);
+    xRange.set(1000, 1500);
+    assertThat(cached.downsample(data, xRange, 100)).isEqualTo(uncached.downsample(data, xRange, 100));
+  }
+
+  @Test
+  public void bucketsWithinLateSampleWindowAreNotCached() {
+    SeriesDownsampler cached = new SeriesDownsampler(true, 500);
+    SeriesDownsampler uncached = new SeriesDownsampler(false);
+    List<SeriesData<Long>> data = createData(0, 2000);
+    Range xRange = new Range(0, 2000);
+    assertThat(cached.downsample(data, xRange, 100)).isEqualTo(uncached.downsample(data, xRange, 100));
+
+    // A sample arriving late changes a bucket before the newest sample, which must not have been kept.
+    data.set(1700, new SeriesData<>(1700, 1000L));
+    List<SeriesData<Long>> reduced = cached.downsample(data, xRange, 100);
+    assertThat(reduced).isEqualTo(uncached.downsample(data, xRange, 100));
+    assertThat(reduced).contains(data.get(1700));
+  }
+
+  private static List<SeriesData<Long>> createData(int from, int to) {
+    List<SeriesData<Long>> data = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      data.add(new SeriesData<>(i, (long)(i * 7919 % 101)));
+    }
+    return data;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class StreamingSeriesCacheTest {
+  private val dataSeries = AppendOnlyDataSeries()
+  private val cache = StreamingSeriesCache(dataSeries)
+
+  @Test
+  fun streamingRangeOnlyQueriesNewData() {
+    addData(0 until 50)
+    val range = Range(0.0, Long.MAX_VALUE.toDouble())
+    assertThat(cache.getSeries(range).map { it.x }).isEqualTo((0L until 50L).toList())
+    assertThat(cache.fullQueryCount).isEqualTo(1)
+
+    addData(50 until 75)
+    assertThat(cache.getSeries(range).map { it.x }).isEqualTo((0L until 75L).toList())
+    assertThat(cache.fullQueryCount).isEqualTo(1)
+    assertThat(cache.tailQueryCount).isEqualTo(1)
+    assertThat(dataSeries.lastQueriedRange.min).isEqualTo(49.0)
+  }
+
+  @Test
+  fun slidingRangeDropsOldDataButKeepsOneSampleBefore() {
+    addData(0 until 100)
+    assertThat(cache.getSeries(Range(0.0, 99.0))).hasSize(100)
+
+    addData(100 until 120)
+    val series = cache.getSeries(Range(50.0, 119.0))
+    assertThat(series.map { it.x }).isEqualTo((49L until 120L).toList())
+    assertThat(cache.fullQueryCount).isEqualTo(1)
+  }
+
+  @Test
+  fun newestSampleIsReplacedWhenUpdated() {
+    addData(0 until 10)
+    val range = Range(0.0, Long.MAX_VALUE.toDouble())
+    val oldSeries = cache.getSeries(range)
+
+    dataSeries.data[9] = SeriesData(9, -1L)
+    addData(10 until 20)
+    val newSeries = cache.getSeries(range)
+    assertThat(newSeries.map { it.x }).isEqualTo((0L until 20L).toList())
+    assertThat(newSeries[9].value).isEqualTo(-1L)
+
+    // Lists handed out before are not affected by later queries.
+    assertThat(oldSeries).hasSize(10)
+    assertThat(oldSeries[9].value).isEqualTo(9L)
+  }
+
+  @Test
+  fun movingRangeBackwardsQueriesEverything() {
+    addData(0 until 100)
+    cache.getSeries(Range(50.0, 99.0))
+    assertThat(cache.getSeries(Range(10.0, 60.0)).map { it.x }).isEqualTo((9L..60L).toList())
+    assertThat(cache.fullQueryCount).isEqualTo(2)
+    assertThat(cache.tailQueryCount).isEqualTo(0)
+  }
+
+  @Test
+  fun sameBoundedRangeIsNotQueriedAgain() {
+    addData(0 until 10)
+    val range = Range(0.0, 20.0)
+    val series = cache.getSeries(range)
+    assertThat(cache.getSeries(range)).isSameAs(series)
+    assertThat(cache.fullQueryCount).isEqualTo(1)
+    assertThat(cache.tailQueryCount).isEqualTo(0)
+  }
+
+  @Test
+  fun rangedSeriesUsesCacheForAppendOnlySeries() {
+    addData(0 until 10)
+    val rangedSeries = RangedSeries(Range(0.0, Long.MAX_VALUE.toDouble()), dataSeries)
+    assertThat(rangedSeries.series).hasSize(10)
+
+    addData(10 until 20)
+    assertThat(rangedSeries.series).hasSize(20)
+    assertThat(dataSeries.lastQueriedRange.min).isEqualTo(9.0)
+  }
+
+  @Test
+  fun lateSampleWithinWindowIsPickedUp() {
+    val windowedCache = StreamingSeriesCache(dataSeries, 5)
+    addData(0..20 step 2)
+    val range = Range(0.0, Long.MAX_VALUE.toDouble())
+    windowedCache.getSeries(range)
+
+    insertData(19)
+    addData(22..22)
+    assertThat(windowedCache.getSeries(range).map { it.x }).isEqualTo(listOf(0L, 2L, 4L, 6L, 8L, 10L, 12L, 14L, 16L, 18L, 19L, 20L, 22L))
+    assertThat(windowedCache.fullQueryCount).isEqualTo(1)
+    assertThat(windowedCache.tailQueryCount).isEqualTo(1)
+    assertThat(dataSeries.lastQueriedRange.min).isEqualTo(15.0)
+  }
+
+  @Test
+  fun lateSampleBeforeWindowQueriesEverything() {
+    addData(0..20 step 2)
+    val range = Range(0.0, Long.MAX_VALUE.toDouble())
+    cache.getSeries(range)
+
+    insertData(19)
+    addData(22..22)
+    assertThat(cache.getSeries(range).map { it.x }).isEqualTo(dataSeries.data.map { it.x })
+    assertThat(cache.fullQueryCount).isEqualTo(2)
+  }
+
+  private fun addData(xs: IntProgression) = xs.forEach { dataSeries.data.add(SeriesData(it.toLong(), it.toLong())) }
+
+  private fun insertData(x: Int) {
+    val index = dataSeries.data.indexOfFirst { it.x > x }.let { if (it < 0) dataSeries.data.size else it }
+    dataSeries.data.add(index, SeriesData(x.toLong(), x.toLong()))
+  }
+
+  /**
+   * Returns the samples within the queried range, plus the one before the range, like the datastore does.
+   */
+  private class AppendOnlyDataSeries : DataSeries<Long> {
+    val data = mutableListOf<SeriesData<Long>>()
+    var lastQueriedRange = Range()
+
+    override fun getDataForRange(range: Range): List<SeriesData<Long>> {
+      lastQueriedRange = Range(range)
+      val from = maxOf(0, data.indexOfFirst { it.x >= range.min }.let { if (it < 0) data.size else it } - 1)
+      return data.subList(from, data.size).filter { it.x <= range.max }
+    }
+
+    override fun isAppendOnly() = true
+  }
+}
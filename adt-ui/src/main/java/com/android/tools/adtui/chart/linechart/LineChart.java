@@ -194,7 +194,10 @@ public class LineChart extends AnimatedComponent {
       }
       final LineConfig config = getLineConfig(ranged);
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
+      // Stacked lines are added up sample by sample, and bars draw every sample, so they need all of the data.
+      List<SeriesData<Long>> seriesList = config.isStacked() || config.getDataBucketInterval() > 0
+                                          ? ranged.getSeries()
+                                          : myModel.getDownsampledSeries(ranged, dim.width);
       if (config.isStacked()) {
         if (lastStackedSeries == null) {
           // Create a new list of SeriesData to prevent modifying the backing data series, which could be cached.
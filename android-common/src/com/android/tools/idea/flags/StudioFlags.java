@@ -167,6 +167,26 @@ public final class StudioFlags {
     "Show migration messaging to guide users to the App Inspection tool window",
     true);
 
+  public static final Flag<Boolean> PROFILER_EVENT_PARTITIONING = Flag.create(
+    PROFILER, "event.partitioning", "Partition profiler events",
+    "Store profiler events in one datastore table per time bucket, so that range queries scan less data and old events can be dropped.",
+    false);
+
+  public static final Flag<Integer> PROFILER_EVENT_PARTITION_MINUTES = Flag.create(
+    PROFILER, "event.partition.minutes", "Profiler event partition width",
+    "Width, in minutes, of the time buckets the datastore partitions profiler events into.",
+    5);
+
+  public static final Flag<Integer> PROFILER_EVENT_RETENTION_MINUTES = Flag.create(
+    PROFILER, "event.retention.minutes", "Profiler event retention",
+    "Profiler events older than this many minutes are dropped from the datastore. 0 keeps all events.",
+    0);
+
+  public static final Flag<Integer> PROFILER_EVENT_DISK_BUDGET_MB = Flag.create(
+    PROFILER, "event.disk.budget.mb", "Profiler event disk budget",
+    "Oldest profiler events are dropped from the datastore once they take more than this many megabytes. 0 means no limit.",
+    0);
+
   // PROFILEABLE_IN_QR is an extension of PROFILEABLE. When it's true, it assumes PROFILEABLE is also true.
   public static final Flag<Boolean> PROFILEABLE_IN_QR = Flag.create(
     PROFILER, "profileable.qr", "Support profileable processes on Q & R",
@@ -496,6 +516,10 @@ public final class StudioFlags {
     RESOURCE_REPOSITORY, "trace.size", "Maximum Size of Resource Repository Update Trace",
     "Size of the in-memory cyclic buffer used for tracing of resource repository updates",
     10000);
+  public static final Flag<Boolean> RESOURCE_REPOSITORY_PARALLEL_LOADING = Flag.create(
+    RESOURCE_REPOSITORY, "parallel.loading", "Parse Resource Files in Parallel",
+    "Parses the XML files of a resource folder that are missing from its cache file on several threads",
+    false);
   //endregion
 
   //endregion
@@ -626,6 +650,13 @@ public final class StudioFlags {
     "Use adblib instead of ddmlib for Device Explorer",
     false);
 
+  public static final Flag<Boolean> DEVICE_EXPLORER_DIRECTORY_DOWNLOAD = Flag.create(
+    RUNDEBUG,
+    "device.explorer.directory.download",
+    "Download whole directories at once in Device Explorer",
+    "Download directories through concurrent connections, streaming small files in batches and skipping files that are up to date",
+    false);
+
   public static final Flag<Boolean> ADBLIB_MIGRATION_WIFI_PAIRING = Flag.create(
     RUNDEBUG,
     "adblib.migration.wifi.pairing",
@@ -672,6 +703,14 @@ public final class StudioFlags {
     "Enables version 2 of the Logcat tool window",
     false
   );
+
+  public static final Flag<Boolean> LOGCAT_V2_SESSION_CAPTURE_ENABLE = Flag.create(
+    RUNDEBUG,
+    "logcat.v2.session.capture.enable",
+    "Enable Logcat V2 session capture",
+    "Saves the messages of Logcat V2 sessions to disk, so that they can be opened again without the device",
+    false
+  );
   //endregion
 
   //region Gradle Project System
@@ -1280,6 +1319,11 @@ public final class StudioFlags {
     COMPOSE, "preview.loader.affinity", "Enable the class loading affinity.",
     "If enabled, the class loading will cache which class loaders are more likely to have the class.",
     true);
+
+  public static final Flag<Boolean> COMPOSE_PREVIEW_PERSISTENT_CLASS_CACHE = Flag.create(
+    COMPOSE, "preview.persistent.class.cache", "Enable the persistent cache of transformed library classes.",
+    "If enabled, the library classes transformed for previews are stored on disk so they are not transformed again after a restart.",
+    false);
   // endregion
 
   // region WorkManager Inspector
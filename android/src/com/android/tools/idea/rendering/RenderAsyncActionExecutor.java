@@ -20,6 +20,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Interface to be implemented by executors of rendered async actions.
@@ -37,6 +38,25 @@ public interface RenderAsyncActionExecutor {
                                                           ApplicationManager.getApplication().isUnitTestMode()) ? 50 : 60)
   );
 
+  /**
+   * Priority of a render action. Queued actions of a higher priority run before the ones of a lower priority, and the actions of the
+   * lowest priority are the first to be evicted when too many actions are queued.
+   */
+  enum RenderingPriority {
+    /**
+     * Actions the user is actively waiting for, like handling touch events in an interactive preview.
+     */
+    INTERACTIVE,
+    /**
+     * Actions for content that is visible on screen. This is the priority of actions that don't specify one.
+     */
+    VISIBLE,
+    /**
+     * Actions for content that is not visible, like previews scrolled out of view.
+     */
+    BACKGROUND
+  }
+
   /**
    * Runs an action that requires the rendering lock. Layoutlib is not thread safe so any rendering actions should be called using this
    * method.
@@ -55,6 +75,24 @@ public interface RenderAsyncActionExecutor {
     long actionTimeout, @NotNull TimeUnit actionTimeoutUnit,
     @NotNull Callable<T> callable);
 
+  /**
+   * Same as {@link #runAsyncActionWithTimeout(long, TimeUnit, long, TimeUnit, Callable)} but with the given {@code priority}.
+   * <p/>
+   * If {@code coalescingKey} is not null, a queued action with the same key that has not started running yet is superseded by this
+   * one: it is not run, and its future completes with the result of this action instead. Actions sharing a key must return the same
+   * type, e.g. the renders of the same {@link RenderTask}.
+   * <p/>
+   * Executors that don't schedule actions by priority ignore {@code priority} and {@code coalescingKey}.
+   */
+  @NotNull
+  default <T> CompletableFuture<T> runAsyncActionWithTimeout(
+    long queueingTimeout, @NotNull TimeUnit queueingTimeoutUnit,
+    long actionTimeout, @NotNull TimeUnit actionTimeoutUnit,
+    @NotNull RenderingPriority priority, @Nullable Object coalescingKey,
+    @NotNull Callable<T> callable) {
+    return runAsyncActionWithTimeout(queueingTimeout, queueingTimeoutUnit, actionTimeout, actionTimeoutUnit, callable);
+  }
+
   /**
    * Runs an action that requires the rendering lock. Layoutlib is not thread safe so any rendering actions should be called using this
    * method.
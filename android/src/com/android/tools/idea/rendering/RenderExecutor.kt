@@ -16,7 +16,10 @@
 package com.android.tools.idea.rendering
 
 import com.android.annotations.concurrency.GuardedBy
+import com.android.tools.idea.rendering.RenderAsyncActionExecutor.RenderingPriority
 import com.intellij.openapi.diagnostic.Logger
+import org.HdrHistogram.Histogram
+import org.HdrHistogram.SingleWriterRecorder
 import org.jetbrains.annotations.TestOnly
 import java.util.LinkedList
 import java.util.Queue
@@ -46,12 +49,21 @@ private fun singleThreadExecutor(factory: ThreadFactory): ExecutorService = Thre
                                                                                                LinkedBlockingQueue(),
                                                                                                factory)
 
+/**
+ * Histograms of the times, in milliseconds, that render actions spent waiting in the queue and running.
+ */
+data class RenderActionTimings(val queueWaitMs: Histogram, val executionTimeMs: Histogram)
+
 /**
  * Intended to be used for executing render tasks of layoutlib [RenderSession].
  * Currently, all calls to the layoutlib should be done from the same thread.
  * This executor guarantees that unit of work passed to [runAction] or [runAsyncAction]
  * will be executed sequentially from the same thread.
  *
+ * Queued actions run by [RenderingPriority] and, within the same priority, in the order they were queued. When there are more than
+ * [maxQueueingTasks] queued actions, the oldest ones of the lowest priority are evicted. An action queued with a coalescing key
+ * supersedes the queued action with the same key, so that only the latest render of a [RenderTask] runs.
+ *
  * @param maxQueueingTasks max number of tasks that can be queueing waiting for a task to complete.
  * @param executorProvider a provider of the [ExecutorService] using the given [ThreadFactory].
  * @param timeoutExecutorProvider a [ScheduledExecutorService] to keep track of the task timeout.
@@ -73,13 +85,20 @@ class RenderExecutor private constructor(private val maxQueueingTasks: Int,
   }
   private val pendingActionsQueueLock: Lock = ReentrantLock()
 
+  /**
+   * Queued actions, by [RenderingPriority] ordinal.
+   */
   @GuardedBy("pendingActionsQueueLock")
-  private val pendingActionsQueue: Queue<CompletableFuture<*>> = LinkedList()
+  private val pendingActionsQueues: Array<Queue<PendingAction>> = Array(RenderingPriority.values().size) { LinkedList() }
   private val renderingExecutor: ExecutorService = executorProvider(threadFactory)
   private val timeoutExecutor: ScheduledExecutorService = timeoutExecutorProvider()
   private val accumulatedTimeoutExceptions = AtomicInteger(0)
   private val isBusy = AtomicBoolean(false)
 
+  // Only recorded from the render thread.
+  private val queueWaitRecorders = Array(RenderingPriority.values().size) { SingleWriterRecorder(2) }
+  private val executionTimeRecorders = Array(RenderingPriority.values().size) { SingleWriterRecorder(2) }
+
   fun interrupt() = renderingThread.get()?.interrupt()
 
   fun shutdown() {
@@ -118,6 +137,18 @@ class RenderExecutor private constructor(private val maxQueueingTasks: Int,
 
   private class EvictedException(message: String?) : Exception(message)
 
+  /**
+   * An action waiting in the queue. [run] is not called if the [future] is completed before the action gets to run, e.g. because it
+   * timed out, was evicted or was superseded. [queueTimeoutFuture] is cancelled when the action leaves the queue without running.
+   */
+  private class PendingAction(val future: CompletableFuture<*>,
+                              val priority: RenderingPriority,
+                              val coalescingKey: Any?,
+                              val queueTimeoutFuture: ScheduledFuture<*>?,
+                              val run: () -> Unit) {
+    val queuedAtNanos = System.nanoTime()
+  }
+
   private fun scheduleTimeoutAction(timeout: Long, unit: TimeUnit, action: () -> Unit): ScheduledFuture<*> =
     timeoutExecutor.schedule(
       action,
@@ -128,6 +159,16 @@ class RenderExecutor private constructor(private val maxQueueingTasks: Int,
                                                     queueingTimeoutUnit: TimeUnit,
                                                     actionTimeout: Long,
                                                     actionTimeoutUnit: TimeUnit,
+                                                    callable: Callable<T>): CompletableFuture<T> =
+    runAsyncActionWithTimeout(queueingTimeout, queueingTimeoutUnit, actionTimeout, actionTimeoutUnit, RenderingPriority.VISIBLE, null,
+                              callable)
+
+  override fun <T : Any?> runAsyncActionWithTimeout(queueingTimeout: Long,
+                                                    queueingTimeoutUnit: TimeUnit,
+                                                    actionTimeout: Long,
+                                                    actionTimeoutUnit: TimeUnit,
+                                                    priority: RenderingPriority,
+                                                    coalescingKey: Any?,
                                                     callable: Callable<T>): CompletableFuture<T> {
     val future = object : CompletableFuture<T>() {
       override fun cancel(mayInterruptIfRunning: Boolean): Boolean = super.cancel(mayInterruptIfRunning).also {
@@ -143,57 +184,78 @@ class RenderExecutor private constructor(private val maxQueueingTasks: Int,
         Preview timed out (${queueingTimeoutUnit.toMillis(queueingTimeout)}ms).
         This typically happens when there is an infinite loop or unbounded recursion in one of the custom views.
       """.trimIndent()
-        future.completeExceptionally(createRenderTimeoutException(message))
-        accumulatedTimeoutExceptions.incrementAndGet()
+        if (future.completeExceptionally(createRenderTimeoutException(message)) && priority != RenderingPriority.BACKGROUND) {
+          // Background actions are expected to wait behind the rest, so missing their deadline does not mean the render thread is stuck.
+          accumulatedTimeoutExceptions.incrementAndGet()
+        }
       }
     }
     else {
       // No queue timeout. This will wait indefinitely unless is evicted by other actions being added to the queue.
       null
     }
-    pendingActionsQueueLock.withLock {
-      pendingActionsQueue.add(future)
-      // We have reached the maximum, evict overflow
-      if (maxQueueingTasks > 0) {
-        while (pendingActionsQueue.size > maxQueueingTasks) {
-          pendingActionsQueue.remove().completeExceptionally(EvictedException("Max number ($maxQueueingTasks) of render actions reached"))
-        }
-      }
-    }
-    renderingExecutor.execute {
-      // Clear the interrupted state
-      Thread.interrupted()
-      isBusy.set(true)
-      try {
-        queueTimeoutFuture?.cancel(false)
-        pendingActionsQueueLock.withLock {
-          pendingActionsQueue.remove(future)
-        }
 
-        if (future.isDone) return@execute
+    val action = PendingAction(future, priority, coalescingKey, queueTimeoutFuture) {
+      queueTimeoutFuture?.cancel(false)
+      if (future.isDone) return@PendingAction
 
-        val actionTimeoutFuture = scheduleTimeoutAction(actionTimeout, actionTimeoutUnit) {
-          if (!future.isDone) {
-            interrupt()
-          }
-          future.completeExceptionally(
-            createRenderTimeoutException("The render action was too slow to execute (${actionTimeoutUnit.toMillis(actionTimeout)}ms)"))
+      val actionTimeoutFuture = scheduleTimeoutAction(actionTimeout, actionTimeoutUnit) {
+        if (!future.isDone) {
+          interrupt()
         }
-        future.whenComplete { _, _ -> actionTimeoutFuture.cancel(false) }
+        future.completeExceptionally(
+          createRenderTimeoutException("The render action was too slow to execute (${actionTimeoutUnit.toMillis(actionTimeout)}ms)"))
+      }
+      future.whenComplete { _, _ -> actionTimeoutFuture.cancel(false) }
 
-        // The request got called, so reset the timeout counter.
-        accumulatedTimeoutExceptions.set(0)
-        try {
-          future.complete(callable.call())
+      // The request got called, so reset the timeout counter.
+      accumulatedTimeoutExceptions.set(0)
+      try {
+        future.complete(callable.call())
+      }
+      catch (t: Throwable) {
+        future.completeExceptionally(t)
+      }
+    }
+    val superseded = mutableListOf<PendingAction>()
+    val evicted = mutableListOf<PendingAction>()
+    pendingActionsQueueLock.withLock {
+      // Actions that timed out while queued do not count towards the maximum.
+      pendingActionsQueues.forEach { queue -> queue.removeIf { it.future.isDone } }
+      if (coalescingKey != null) {
+        pendingActionsQueues.forEach { queue ->
+          queue.removeIf { pending -> (pending.coalescingKey == coalescingKey).also { if (it) superseded.add(pending) } }
         }
-        catch (t: Throwable) {
-          future.completeExceptionally(t)
+      }
+      pendingActionsQueues[priority.ordinal].add(action)
+      // We have reached the maximum, evict overflow starting with the oldest actions of the lowest priority
+      if (maxQueueingTasks > 0) {
+        var queuedCount = pendingActionsQueues.sumBy { it.size }
+        while (queuedCount-- > maxQueueingTasks) {
+          evicted.add(pendingActionsQueues.last { it.isNotEmpty() }.remove())
         }
       }
-      finally {
-        isBusy.set(false)
+    }
+    // A superseded action completes with the result of this one, so its own queue timeout must not fire and count as a timeout.
+    superseded.forEach { it.queueTimeoutFuture?.cancel(false) }
+    evicted.forEach { it.queueTimeoutFuture?.cancel(false) }
+    // Complete the futures outside of the lock, since that runs their dependent actions.
+    evicted.forEach { it.future.completeExceptionally(EvictedException("Max number ($maxQueueingTasks) of render actions reached")) }
+    superseded.forEach {
+      @Suppress("UNCHECKED_CAST")
+      val supersededFuture = it.future as CompletableFuture<T>
+      future.whenComplete { result, exception ->
+        if (exception != null) {
+          supersededFuture.completeExceptionally(exception)
+        }
+        else {
+          supersededFuture.complete(result)
+        }
       }
     }
+
+    // Every queued action gets one run of the executor, which runs whichever queued action comes first at that point.
+    renderingExecutor.execute { runNextAction() }
     return future
       .whenComplete { result, exception ->
         queueTimeoutFuture?.cancel(true)
@@ -206,6 +268,48 @@ class RenderExecutor private constructor(private val maxQueueingTasks: Int,
       }
   }
 
+  private fun runNextAction() {
+    // Clear the interrupted state
+    Thread.interrupted()
+    isBusy.set(true)
+    try {
+      val action = pendingActionsQueueLock.withLock { pollNextAction() } ?: return
+      val startNanos = System.nanoTime()
+      queueWaitRecorders[action.priority.ordinal].recordValue(TimeUnit.NANOSECONDS.toMillis(startNanos - action.queuedAtNanos))
+      try {
+        action.run()
+      }
+      finally {
+        executionTimeRecorders[action.priority.ordinal].recordValue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+      }
+    }
+    finally {
+      isBusy.set(false)
+    }
+  }
+
+  /**
+   * Removes and returns the oldest queued action of the highest priority, skipping the ones that completed while queued.
+   */
+  @GuardedBy("pendingActionsQueueLock")
+  private fun pollNextAction(): PendingAction? {
+    for (queue in pendingActionsQueues) {
+      while (true) {
+        val action = queue.poll() ?: break
+        if (!action.future.isDone) {
+          return action
+        }
+      }
+    }
+    return null
+  }
+
+  /**
+   * Returns the [RenderActionTimings] of the actions of the given [priority] that ran since the previous call.
+   */
+  fun getIntervalTimings(priority: RenderingPriority) =
+    RenderActionTimings(queueWaitRecorders[priority.ordinal].intervalHistogram, executionTimeRecorders[priority.ordinal].intervalHistogram)
+
   @TestOnly
   fun shutdown(timeoutSeconds: Long) {
     if (timeoutSeconds > 0) {
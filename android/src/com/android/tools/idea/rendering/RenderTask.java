@@ -56,6 +56,7 @@ import com.android.tools.idea.model.ActivityAttributesSnapshot;
 import com.android.tools.idea.model.AndroidModuleInfo;
 import com.android.tools.idea.model.MergedManifestSnapshot;
 import com.android.tools.idea.projectsystem.GoogleMavenArtifactId;
+import com.android.tools.idea.rendering.RenderAsyncActionExecutor.RenderingPriority;
 import com.android.tools.idea.rendering.classloading.ClassTransform;
 import com.android.tools.idea.rendering.imagepool.ImagePool;
 import com.android.tools.idea.rendering.multi.CompatibilityRenderTarget;
@@ -177,6 +178,7 @@ public class RenderTask {
   private boolean myShowWithToolsVisibilityAndPosition = true;
   private AssetRepositoryImpl myAssetRepository;
   private long myTimeout;
+  @NotNull private volatile RenderingPriority myPriority = RenderingPriority.VISIBLE;
   @NotNull private final Locale myLocale;
   @NotNull private final Object myCredential;
   private boolean myProvideCookiesForIncludedViews = false;
@@ -507,6 +509,19 @@ public class RenderTask {
     return this;
   }
 
+  /**
+   * Sets the {@link RenderingPriority} of the render actions of this task, e.g. {@link RenderingPriority#BACKGROUND} while its preview
+   * is not visible. Touch events and callbacks always run as {@link RenderingPriority#INTERACTIVE}.
+   *
+   * @return this (such that chains of setters can be stringed together)
+   */
+  @SuppressWarnings("UnusedReturnValue")
+  @NotNull
+  public RenderTask setPriority(@NotNull RenderingPriority priority) {
+    myPriority = priority;
+    return this;
+  }
+
   /**
    * Sets the transparent background to be used.
    *
@@ -837,18 +852,22 @@ public class RenderTask {
    *                 (see {@link RenderAsyncActionExecutor#DEFAULT_RENDER_THREAD_TIMEOUT_MS}) will be used.
    * @param unit     the {@link TimeUnit} for the timeout.
    *                 See {@link RenderService#getRenderAsyncActionExecutor()}.
+   * @param priority the {@link RenderingPriority} of the action.
+   * @param coalescingKey if not null, a queued action with the same key is superseded by this one.
    */
-  @VisibleForTesting
   @NotNull
-  private <V> CompletableFuture<V> runAsyncRenderAction(@NotNull Callable<V> callable, long timeout, @NotNull TimeUnit unit) {
+  private <V> CompletableFuture<V> runAsyncRenderAction(@NotNull Callable<V> callable, long timeout, @NotNull TimeUnit unit,
+                                                        @NotNull RenderingPriority priority, @Nullable Object coalescingKey) {
     if (isDisposed.get()) {
       return immediateFailedFuture(new IllegalStateException("RenderTask was already disposed"));
     }
 
     synchronized (myRunningFutures) {
-      CompletableFuture<V> newFuture = timeout < 1 ?
-                                       RenderService.getRenderAsyncActionExecutor().runAsyncAction(callable) :
-                                       RenderService.getRenderAsyncActionExecutor().runAsyncActionWithTimeout(timeout, unit, callable);
+      long actionTimeoutMs = timeout < 1 ? RenderAsyncActionExecutor.DEFAULT_RENDER_THREAD_TIMEOUT_MS : unit.toMillis(timeout);
+      CompletableFuture<V> newFuture = RenderService.getRenderAsyncActionExecutor().runAsyncActionWithTimeout(
+        RenderAsyncActionExecutor.DEFAULT_RENDER_THREAD_QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS,
+        actionTimeoutMs, TimeUnit.MILLISECONDS,
+        priority, coalescingKey, callable);
       myRunningFutures.add(newFuture);
       newFuture
         .whenCompleteAsync((result, ex) -> {
@@ -861,6 +880,15 @@ public class RenderTask {
     }
   }
 
+  /**
+   * Same as {@link #runAsyncRenderAction(Callable, long, TimeUnit, RenderingPriority, Object)} with the priority set in
+   * {@link #setPriority(RenderingPriority)}.
+   */
+  @NotNull
+  private <V> CompletableFuture<V> runAsyncRenderAction(@NotNull Callable<V> callable, long timeout, @NotNull TimeUnit unit) {
+    return runAsyncRenderAction(callable, timeout, unit, myPriority, null);
+  }
+
   /**
    * Executes the passed {@link Callable} as an async render action and keeps track of it. If {@link #dispose()} is called, the call will
    * wait until all the async actions have finished running. This will wait the default timeout
@@ -973,7 +1001,7 @@ public class RenderTask {
       long start = System.currentTimeMillis();
       boolean hasMoreCallbacks = myRenderSession.executeCallbacks(timeNanos);
       return ExecuteCallbacksResult.create(hasMoreCallbacks, System.currentTimeMillis() - start);
-    }, 500, TimeUnit.MILLISECONDS);
+    }, 500, TimeUnit.MILLISECONDS, RenderingPriority.INTERACTIVE, null);
   }
 
   /**
@@ -996,7 +1024,7 @@ public class RenderTask {
       long start = System.currentTimeMillis();
       myRenderSession.triggerTouchEvent(touchEventType, x, y);
       return TouchEventResult.create(System.currentTimeMillis() - start);
-    });
+    }, 0, TimeUnit.SECONDS, RenderingPriority.INTERACTIVE, null);
   }
 
   /**
@@ -1057,16 +1085,17 @@ public class RenderTask {
                             myLogger.getLinkManager().createBuildProjectUrl());
             myLogger.addMessage(problem);
           }
-          return result;
-        }).handle((result, ex) -> {
-          // After render clean-up. Dispose the GapWorker cache.
-          clearGapWorkerCache();
+          // The stats are added here, rather than by each caller, so that callers whose render was superseded by a newer one get the
+          // very same result, and disposing one of them does not dispose the image of the other.
           return result.createWithStats(new RenderResultStats(
             inflateResult != null ? inflateResult.getStats().getInflateDurationMs() : result.getStats().getInflateDurationMs(),
             System.currentTimeMillis() - startRenderTimeMs,
             myModuleClassLoader.getStats().getClassesFound(),
             myModuleClassLoader.getStats().getAccumulatedFindTimeMs(),
             myModuleClassLoader.getStats().getAccumulatedRewriteTimeMs()));
+        }, 0, TimeUnit.SECONDS, myPriority, this).whenComplete((result, ex) -> {
+          // After render clean-up. Dispose the GapWorker cache.
+          clearGapWorkerCache();
         });
       }
       catch (Exception e) {
@@ -46,7 +46,8 @@ class RepackageTransform(delegate: ClassVisitor,
   ClassRemapper(delegate,
                 RepackageRemapper(packagePrefixes.map { it.fromPackageNameToBinaryName() },
                                   remappedPrefix.fromPackageNameToBinaryName())), ClassVisitorUniqueIdProvider {
-  override val uniqueId: String = RepackageTransform::class.qualifiedName + "," + com.google.common.hash.Hashing.goodFastHash(64)
+  // The id is used by persistent caches too, so it uses a hash function that is not seeded differently on every IDE run.
+  override val uniqueId: String = RepackageTransform::class.qualifiedName + "," + com.google.common.hash.Hashing.murmur3_128()
     .newHasher()
     .putString(packagePrefixes.joinToString(","), Charsets.UTF_8)
     .putString(remappedPrefix, Charsets.UTF_8)
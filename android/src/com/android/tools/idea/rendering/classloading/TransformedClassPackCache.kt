@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.classloading
+
+import com.android.annotations.concurrency.GuardedBy
+import com.google.common.hash.HashCode
+import com.google.common.hash.Hashing
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import java.util.zip.CRC32
+
+private const val PACK_MAGIC = 0x50434c53 // "PCLS"
+private const val PACK_FORMAT_VERSION = 2
+private const val PACK_FILE_PREFIX = "classes-"
+private const val PACK_FILE_SUFFIX = ".pack"
+private const val KEY_BYTES = 16
+private const val RECORD_HEADER_BYTES = KEY_BYTES + Int.SIZE_BYTES + Int.SIZE_BYTES
+private const val OPEN_TIMEOUT_MS = 500L // How long a lookup waits for the pack file to be indexed
+private const val DEFAULT_MAX_SIZE_BYTES = 200L * 1024 * 1024 // We will store no more than 200Mb of transformed classes on disk
+
+/**
+ * Disk cache of transformed classes, so that the library classes used by previews do not need to be transformed again after the IDE
+ * restarts or the class loaders are recreated.
+ *
+ * Classes are keyed by the [ClassTransform.persistentId] of the transformation applied, which hashes the transform pipeline, and the hash
+ * of their bytes before the transformation. Entries never go stale and there is no need to track the library they come from. The whole
+ * cache is only dropped when [version], which identifies the format of the cached classes, changes.
+ *
+ * All entries live in a single pack file in [directory], made of a header followed by (key, length, checksum, bytes) records, which is
+ * appended to as classes are transformed. Once the pack file exceeds [maxSizeBytes], it is rewritten into a new pack file with the most
+ * recently used entries only, least recently used first, so that their order is kept across restarts.
+ *
+ * The pack file is only opened, written, mapped and compacted on [ioExecutor]. The lock of the cache only guards the in-memory index, so
+ * [put] never waits for the disk: it queues the class for writing. [get] copies the class from a mapping of the part of the pack file that
+ * contains it. Each part of the pack file is mapped once, when the records in it have been written. The only time [get] waits is when a
+ * class is not found while the pack file is still being indexed, for at most [OPEN_TIMEOUT_MS], so that the classes loaded first after a
+ * restart are not all missed.
+ */
+class TransformedClassPackCache @JvmOverloads constructor(
+  private val directory: Path,
+  private val version: String = "",
+  private val maxSizeBytes: Long = DEFAULT_MAX_SIZE_BYTES,
+  private val ioExecutor: Executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("TransformedClassPackCache", 1)) {
+  /**
+   * A cached class, at [offset] in the current pack file. [pendingBytes] holds the class until it has been written.
+   */
+  private class Entry(val offset: Long, val length: Int, val checksum: Int, val pendingBytes: ByteArray? = null)
+
+  /**
+   * A mapping of the pack file, starting at the record at [start]. Records are never split between two regions.
+   */
+  private class Region(val start: Long, val buffer: ByteBuffer)
+
+  /**
+   * Entries in the current pack file, from the least to the most recently used.
+   */
+  @GuardedBy("this")
+  private val entries = LinkedHashMap<HashCode, Entry>(1024, 0.75f, true)
+
+  /**
+   * Keys of the entries that have not been written yet.
+   */
+  @GuardedBy("this")
+  private val pendingKeys = mutableListOf<HashCode>()
+
+  @GuardedBy("this")
+  private var isWriteScheduled = false
+
+  @GuardedBy("this")
+  private var regions = listOf<Region>()
+
+  /**
+   * Set once the cache failed, so that it is not used anymore.
+   */
+  @GuardedBy("this")
+  private var isDisabled = false
+
+  /**
+   * Counted down once the pack file has been indexed, or null if it has not been scheduled to open since the cache was created or closed.
+   */
+  private val openedLatch = AtomicReference<CountDownLatch?>(null)
+
+  // Only accessed from ioExecutor.
+  private var channel: FileChannel? = null
+  private var generation = 0
+  private var fileSize = 0L
+
+  /**
+   * Returns the bytes of the class [input] transformed by the transformation [transformationId], or null if they are not cached.
+   */
+  fun get(transformationId: String, input: ByteArray): ByteArray? {
+    val opened = scheduleOpen()
+    val key = getKey(transformationId, input)
+    var found = synchronized(this) { entries[key]?.let { it to regions } }
+    if (found == null && opened.count > 0) {
+      try {
+        if (!opened.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          return null
+        }
+      }
+      catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        return null
+      }
+      found = synchronized(this) { entries[key]?.let { it to regions } }
+    }
+    val (entry, currentRegions) = found ?: return null
+    entry.pendingBytes?.let { return it }
+    val record = getRecord(currentRegions, entry.offset, entry.length) ?: return null
+    val bytes = ByteArray(entry.length)
+    record.position(record.position() + RECORD_HEADER_BYTES)
+    record.get(bytes)
+    if (checksum(bytes) != entry.checksum) {
+      // Forget the corrupted entry so that the class is cached again once transformed.
+      synchronized(this) { entries.remove(key, entry) }
+      return null
+    }
+    return bytes
+  }
+
+  /**
+   * Records the [output] of applying the transformation [transformationId] to the class [input]. The class is written to disk
+   * asynchronously.
+   */
+  fun put(transformationId: String, input: ByteArray, output: ByteArray) {
+    scheduleOpen()
+    val key = getKey(transformationId, input)
+    val scheduleWrite = synchronized(this) {
+      if (isDisabled || entries.containsKey(key)) {
+        return
+      }
+      entries[key] = Entry(-1, output.size, checksum(output), output)
+      pendingKeys.add(key)
+      !isWriteScheduled.also { isWriteScheduled = true }
+    }
+    if (scheduleWrite) {
+      ioExecutor.execute { writePendingEntries() }
+    }
+  }
+
+  /**
+   * Closes the current pack file once the queued classes have been written. The cache is reopened on the next access.
+   */
+  fun close() {
+    ioExecutor.execute {
+      closeChannel()
+      synchronized(this) {
+        entries.clear()
+        pendingKeys.clear()
+        regions = emptyList()
+      }
+      openedLatch.set(null)
+    }
+  }
+
+  /**
+   * Schedules the pack file to be opened if it is not open yet, and returns the latch counted down once it has been indexed.
+   */
+  private fun scheduleOpen(): CountDownLatch {
+    while (true) {
+      openedLatch.get()?.let { return it }
+      val latch = CountDownLatch(1)
+      if (openedLatch.compareAndSet(null, latch)) {
+        ioExecutor.execute {
+          try {
+            open()
+          }
+          finally {
+            latch.countDown()
+          }
+        }
+        return latch
+      }
+    }
+  }
+
+  /**
+   * Opens the most recent pack file and indexes its entries, deleting older pack files and discarding the content of the pack file if
+   * it was written by another [version]. Classes can not be found in the cache until this completes.
+   */
+  private fun open() {
+    try {
+      Files.createDirectories(directory)
+      val packFiles = Files.list(directory).use { files ->
+        files.iterator().asSequence()
+          .filter { it.fileName.toString().let { name -> name.startsWith(PACK_FILE_PREFIX) && name.endsWith(PACK_FILE_SUFFIX) } }
+          .sortedBy { getGeneration(it) }
+          .toList()
+      }
+      packFiles.dropLast(1).forEach { deleteQuietly(it) }
+      generation = packFiles.lastOrNull()?.let { getGeneration(it) } ?: 0
+      val channel = FileChannel.open(getPackFile(generation), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                     StandardOpenOption.WRITE)
+      this.channel = channel
+      fileSize = channel.size()
+      val readEntries = LinkedHashMap<HashCode, Entry>()
+      val region = readEntries(channel, readEntries)
+      if (region == null) {
+        // Start a new pack file rather than truncating this one, which might still be mapped.
+        val oldPackFile = getPackFile(generation)
+        channel.close()
+        deleteQuietly(oldPackFile)
+        generation++
+        val newChannel = FileChannel.open(getPackFile(generation), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                          StandardOpenOption.READ, StandardOpenOption.WRITE)
+        this.channel = newChannel
+        fileSize = writeHeader(newChannel)
+        return
+      }
+      synchronized(this) {
+        // Classes put while the file was being read are more recent than the ones in the file.
+        readEntries.putAll(entries)
+        entries.clear()
+        entries.putAll(readEntries)
+        regions = listOf(region)
+      }
+    }
+    catch (e: IOException) {
+      fail(e)
+    }
+  }
+
+  /**
+   * Indexes the records of the pack file into [readEntries], ignoring a partially written record at its end.
+   *
+   * @return a mapping of the records, or null if the file does not have a valid header for the current [version].
+   */
+  private fun readEntries(channel: FileChannel, readEntries: MutableMap<HashCode, Entry>): Region? {
+    if (fileSize == 0L) {
+      return null
+    }
+    val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize)
+    try {
+      if (buffer.int != PACK_MAGIC || buffer.int != PACK_FORMAT_VERSION) {
+        return null
+      }
+      val versionBytes = ByteArray(buffer.int)
+      buffer.get(versionBytes)
+      if (String(versionBytes, Charsets.UTF_8) != version) {
+        return null
+      }
+    }
+    catch (e: RuntimeException) {
+      // The header itself was not fully written.
+      return null
+    }
+    val key = ByteArray(KEY_BYTES)
+    var end = buffer.position()
+    while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+      buffer.get(key)
+      val length = buffer.int
+      val checksum = buffer.int
+      if (length < 0 || length > buffer.remaining()) {
+        break
+      }
+      buffer.position(buffer.position() + length)
+      readEntries[HashCode.fromBytes(key)] = Entry(end.toLong(), length, checksum)
+      end = buffer.position()
+    }
+    // New records overwrite the partially written one, if any.
+    fileSize = end.toLong()
+    return Region(0, buffer.duplicate().apply {
+      clear()
+      limit(end)
+    })
+  }
+
+  /**
+   * Appends the queued classes to the pack file and maps the part of the file they were written to.
+   */
+  private fun writePendingEntries() {
+    val pending = synchronized(this) {
+      isWriteScheduled = false
+      pendingKeys.mapNotNull { key -> entries[key]?.takeIf { it.pendingBytes != null }?.let { key to it } }.also { pendingKeys.clear() }
+    }
+    val channel = channel ?: return
+    if (pending.isEmpty()) {
+      return
+    }
+    try {
+      val start = fileSize
+      val written = pending.map { (key, entry) ->
+        val bytes = entry.pendingBytes!!
+        val record = ByteBuffer.allocate(RECORD_HEADER_BYTES + bytes.size)
+          .put(key.asBytes())
+          .putInt(bytes.size)
+          .putInt(entry.checksum)
+          .put(bytes)
+        record.flip()
+        writeFully(channel, record, fileSize)
+        Entry(fileSize, bytes.size, entry.checksum).also { fileSize += record.capacity() }
+      }
+      val region = Region(start, channel.map(FileChannel.MapMode.READ_ONLY, start, fileSize - start))
+      synchronized(this) {
+        regions = regions + region
+        pending.forEachIndexed { i, (key, entry) -> entries.replace(key, entry, written[i]) }
+      }
+      if (fileSize > maxSizeBytes) {
+        compact()
+      }
+    }
+    catch (e: IOException) {
+      fail(e)
+    }
+  }
+
+  /**
+   * Writes the entries of the current pack file into a new one, dropping the least recently used entries so that the rest take no more
+   * than three quarters of [maxSizeBytes].
+   */
+  private fun compact() {
+    val (snapshot, sourceRegions) = synchronized(this) {
+      entries.entries.filter { it.value.pendingBytes == null }.map { it.key to it.value } to regions
+    }
+    var bytesToDrop = snapshot.fold(0L) { sum, (_, entry) -> sum + RECORD_HEADER_BYTES + entry.length } - maxSizeBytes * 3 / 4
+    val newGeneration = generation + 1
+    val newChannel = FileChannel.open(getPackFile(newGeneration),
+                                      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                                      StandardOpenOption.WRITE)
+    try {
+      var newFileSize = writeHeader(newChannel)
+      val dropped = mutableListOf<Pair<HashCode, Entry>>()
+      val moved = mutableListOf<Triple<HashCode, Entry, Entry>>()
+      for ((key, entry) in snapshot) {
+        val record = if (bytesToDrop > 0) null else getRecord(sourceRegions, entry.offset, entry.length)
+        if (record == null) {
+          bytesToDrop -= RECORD_HEADER_BYTES + entry.length
+          dropped.add(key to entry)
+          continue
+        }
+        writeFully(newChannel, record, newFileSize)
+        moved.add(Triple(key, entry, Entry(newFileSize, entry.length, entry.checksum)))
+        newFileSize += RECORD_HEADER_BYTES + entry.length
+      }
+      val newRegion = Region(0, newChannel.map(FileChannel.MapMode.READ_ONLY, 0, newFileSize))
+      val oldPackFile = getPackFile(generation)
+      closeChannel()
+      channel = newChannel
+      generation = newGeneration
+      fileSize = newFileSize
+      synchronized(this) {
+        dropped.forEach { (key, entry) -> entries.remove(key, entry) }
+        moved.forEach { (key, entry, newEntry) -> entries.replace(key, entry, newEntry) }
+        regions = listOf(newRegion)
+      }
+      // The mappings of the old file are released once the reads using them complete. Until then, this fails on platforms that do not
+      // allow deleting mapped files, in which case it is deleted the next time the cache is opened.
+      deleteQuietly(oldPackFile)
+    }
+    catch (e: IOException) {
+      newChannel.close()
+      deleteQuietly(getPackFile(newGeneration))
+      throw e
+    }
+  }
+
+  private fun fail(e: IOException) {
+    Logger.getInstance(TransformedClassPackCache::class.java).warn("Disabling the transformed class cache in $directory", e)
+    closeChannel()
+    synchronized(this) {
+      isDisabled = true
+      entries.clear()
+      pendingKeys.clear()
+      regions = emptyList()
+    }
+  }
+
+  private fun closeChannel() {
+    try {
+      channel?.close()
+    }
+    catch (ignored: IOException) {
+    }
+    channel = null
+  }
+
+  /**
+   * Writes the header of a new pack file and returns its size.
+   */
+  private fun writeHeader(channel: FileChannel): Long {
+    val versionBytes = version.toByteArray(Charsets.UTF_8)
+    val header = ByteBuffer.allocate(3 * Int.SIZE_BYTES + versionBytes.size)
+      .putInt(PACK_MAGIC)
+      .putInt(PACK_FORMAT_VERSION)
+      .putInt(versionBytes.size)
+      .put(versionBytes)
+    header.flip()
+    writeFully(channel, header, 0)
+    return header.capacity().toLong()
+  }
+
+  private fun getPackFile(generation: Int): Path = directory.resolve("$PACK_FILE_PREFIX$generation$PACK_FILE_SUFFIX")
+
+  companion object {
+    private val instance by lazy {
+      TransformedClassPackCache(Paths.get(PathManager.getSystemPath(), "preview-classes"))
+    }
+
+    @JvmStatic
+    fun getInstance() = instance
+
+    private fun getKey(transformationId: String, input: ByteArray): HashCode =
+      Hashing.murmur3_128().newHasher()
+        .putString(transformationId, Charsets.UTF_8)
+        .putBytes(input)
+        .hash()
+
+    private fun checksum(bytes: ByteArray): Int = CRC32().apply { update(bytes) }.value.toInt()
+
+    /**
+     * Returns a buffer over the record at [offset] with a class of [length] bytes, or null if it is not in one of the [regions].
+     */
+    private fun getRecord(regions: List<Region>, offset: Long, length: Int): ByteBuffer? {
+      val region = regions.lastOrNull { it.start <= offset } ?: return null
+      val start = offset - region.start
+      val end = start + RECORD_HEADER_BYTES + length
+      if (end > region.buffer.limit()) {
+        return null
+      }
+      return region.buffer.duplicate().apply {
+        limit(end.toInt())
+        position(start.toInt())
+      }
+    }
+
+    private fun getGeneration(packFile: Path): Int =
+      packFile.fileName.toString().removePrefix(PACK_FILE_PREFIX).removeSuffix(PACK_FILE_SUFFIX).toIntOrNull() ?: -1
+
+    private fun writeFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+      var writePosition = position
+      while (buffer.hasRemaining()) {
+        writePosition += channel.write(buffer, writePosition)
+      }
+    }
+
+    private fun deleteQuietly(file: Path) {
+      try {
+        Files.deleteIfExists(file)
+      }
+      catch (ignored: IOException) {
+      }
+    }
+  }
+}
@@ -67,6 +67,36 @@ class ClassTransform(private val transforms: List<java.util.function.Function<Cl
     Hashing.goodFastHash(64).hashString(debugId, Charsets.UTF_8).toString()
   }
 
+  /**
+   * Hash of the transform pipeline that is stable across IDE restarts, or null if one of the [ClassVisitor]s does not implement
+   * [ClassVisitorUniqueIdProvider], since its id is then only valid for this instance. Besides [debugId], it covers the bytecode of the
+   * [ClassVisitor] classes, so that it changes when the implementation of one of them does. Used to identify the transformations done by
+   * this transform in persistent caches.
+   */
+  val persistentId: String? by lazy {
+    val visitorClasses = visitorClasses()
+    if (!visitorClasses.all { ClassVisitorUniqueIdProvider::class.java.isAssignableFrom(it) }) {
+      return@lazy null
+    }
+    val hasher = Hashing.sha256().newHasher().putString(debugId, Charsets.UTF_8)
+    visitorClasses.forEach { visitorClass ->
+      hasher.putString(visitorClass.name, Charsets.UTF_8)
+      visitorClass.getResourceAsStream("/${visitorClass.name.fromPackageNameToBinaryName()}.class")?.use { hasher.putBytes(it.readBytes()) }
+    }
+    hasher.hash().toString()
+  }
+
+  /**
+   * Returns the classes of the [ClassVisitor]s added by this transform, in the order they are applied.
+   */
+  private fun visitorClasses(): List<Class<*>> {
+    val classes = mutableListOf<Class<*>>()
+    transforms.fold<java.util.function.Function<ClassVisitor, ClassVisitor>, ClassVisitor>(EmptyClassVisitor) { acc, visitor ->
+      visitor.apply(acc).also { if (it != acc) classes.add(it.javaClass) }
+    }
+    return classes
+  }
+
   operator fun invoke(visitor: ClassVisitor): ClassVisitor =
     java.util.function.Function<ClassVisitor, ClassVisitor> { transforms.fold(it) { acc, visitor -> visitor.apply(acc) } }.apply(visitor)
   operator fun plus(f2: ClassTransform) = ClassTransform(transforms + f2.transforms)
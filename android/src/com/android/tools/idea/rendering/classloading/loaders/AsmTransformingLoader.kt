@@ -18,6 +18,7 @@ package com.android.tools.idea.rendering.classloading.loaders
 import com.android.tools.idea.rendering.classloading.ClassConverter
 import com.android.tools.idea.rendering.classloading.ClassTransform
 import com.android.tools.idea.rendering.classloading.PseudoClassLocator
+import com.android.tools.idea.rendering.classloading.TransformedClassPackCache
 import org.jetbrains.org.objectweb.asm.ClassWriter
 
 /**
@@ -28,21 +29,33 @@ import org.jetbrains.org.objectweb.asm.ClassWriter
  * [asmFlags] includes the flags needed to apply the transformation. See [ClassWriter].
  *
  * [onRewrite] will be called after a class has been successfully transformed.
+ *
+ * If [transformedClassCache] is not null, the transformed classes are stored there and classes found there are not transformed again,
+ * provided that the [ClassTransform.persistentId] of [transform] is not null.
  */
 class AsmTransformingLoader @JvmOverloads constructor(
   private val transform: ClassTransform,
   private val delegate: DelegatingClassLoader.Loader,
   private val pseudoClassLocator: PseudoClassLocator,
   private val asmFlags: Int = ClassWriter.COMPUTE_FRAMES,
-  private val onRewrite: (fqcn: String, durationMs: Long, size: Int) -> Unit = { _, _, _ -> }) : DelegatingClassLoader.Loader {
+  private val onRewrite: (fqcn: String, durationMs: Long, size: Int) -> Unit = { _, _, _ -> },
+  private val transformedClassCache: TransformedClassPackCache? = null) : DelegatingClassLoader.Loader {
 
   val transformId: String get() = transform.id
 
   override fun loadClass(fqcn: String): ByteArray? {
     val bytes = delegate.loadClass(fqcn) ?: return null
+    // Transforms whose id is not stable across restarts are not cached.
+    val persistentId = transform.persistentId
+    if (persistentId != null) {
+      transformedClassCache?.get(persistentId, bytes)?.let { return it }
+    }
     val startTime = System.currentTimeMillis()
     val rewrittenBytes = ClassConverter.rewriteClass(bytes, transform, asmFlags, pseudoClassLocator)
     onRewrite(fqcn, System.currentTimeMillis() - startTime, rewrittenBytes.size)
+    if (persistentId != null) {
+      transformedClassCache?.put(persistentId, bytes, rewrittenBytes)
+    }
     return rewrittenBytes
   }
 }
\ No newline at end of file
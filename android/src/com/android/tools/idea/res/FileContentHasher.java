@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res;
+
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes a 64-bit hash of the contents of a file.
+ */
+public class FileContentHasher {
+  private static final byte[] NULL_HASH = new byte[8];
+  private static final Key<ContentHash> CONTENT_HASH = Key.create(FileContentHasher.class.getName());
+
+  /**
+   * Computes a 64-bit hash of the contents of a {@link VirtualFile}.
+   * Returns an array of 8 zero bytes if the virtual file is null, is not valid or cannot be read.
+   * <p>
+   * The hash is kept on the virtual file and the contents are only read again if the time stamp or the length of the file changed
+   * since the hash was computed.
+   */
+  @NotNull
+  public static byte[] hash(@Nullable VirtualFile virtualFile) {
+    if (virtualFile == null || !virtualFile.isValid()) {
+      return NULL_HASH;
+    }
+    long timeStamp = virtualFile.getTimeStamp();
+    long length = virtualFile.getLength();
+    ContentHash cached = virtualFile.getUserData(CONTENT_HASH);
+    if (cached != null && cached.timeStamp == timeStamp && cached.length == length) {
+      return cached.hash;
+    }
+    try {
+      byte[] hash = Hashing.sipHash24().hashBytes(virtualFile.contentsToByteArray()).asBytes();
+      virtualFile.putUserData(CONTENT_HASH, new ContentHash(timeStamp, length, hash));
+      return hash;
+    }
+    catch (IOException e) {
+      return NULL_HASH;
+    }
+  }
+
+  private static class ContentHash {
+    final long timeStamp;
+    final long length;
+    final byte @NotNull [] hash;
+
+    ContentHash(long timeStamp, long length, byte @NotNull [] hash) {
+      this.timeStamp = timeStamp;
+      this.length = length;
+      this.hash = hash;
+    }
+  }
+}
@@ -132,8 +132,8 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
 
   private final String myDisplayName;
 
-  @GuardedBy("ITEM_MAP_LOCK")
-  @Nullable private List<MultiResourceRepository> myParents;
+  /** Copied on write under ITEM_MAP_LOCK, so that changes can be propagated to the parents without the lock. */
+  @Nullable private volatile List<MultiResourceRepository> myParents;
 
   private volatile long myGeneration;
 
@@ -158,17 +158,21 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
 
   public void addParent(@NotNull MultiResourceRepository parent) {
     synchronized (ITEM_MAP_LOCK) {
-      if (myParents == null) {
-        myParents = new ArrayList<>(2); // Don't expect many parents
+      List<MultiResourceRepository> parents = new ArrayList<>(myParents == null ? 1 : myParents.size() + 1); // Don't expect many parents
+      if (myParents != null) {
+        parents.addAll(myParents);
       }
-      myParents.add(parent);
+      parents.add(parent);
+      myParents = parents;
     }
   }
 
   public void removeParent(@NotNull MultiResourceRepository parent) {
     synchronized (ITEM_MAP_LOCK) {
       if (myParents != null) {
-        myParents.remove(parent);
+        List<MultiResourceRepository> parents = new ArrayList<>(myParents);
+        parents.remove(parent);
+        myParents = parents;
       }
     }
   }
@@ -215,6 +219,19 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
 
   protected void setModificationCount(long count) {
     myGeneration = count;
+    notifyParentsOfModification();
+  }
+
+  /**
+   * Tells the parents, and their own parents, that resources of this repository may have changed. Doesn't take ITEM_MAP_LOCK.
+   */
+  protected void notifyParentsOfModification() {
+    List<MultiResourceRepository> parents = myParents;
+    if (parents != null) {
+      for (MultiResourceRepository parent : parents) {
+        parent.onChildModified();
+      }
+    }
   }
 
   /**
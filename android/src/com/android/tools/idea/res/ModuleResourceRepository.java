@@ -23,6 +23,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.ContainerUtil;
@@ -32,6 +33,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import org.jetbrains.android.facet.AndroidFacet;
@@ -45,6 +47,8 @@ import org.jetbrains.annotations.Nullable;
  * @see ResourceRepositoryManager#getModuleResources()
  */
 final class ModuleResourceRepository extends MultiResourceRepository implements SingleNamespaceResourceRepository {
+  private static final Logger LOG = Logger.getInstance(ModuleResourceRepository.class);
+
   @NotNull private final AndroidFacet myFacet;
   @NotNull private final ResourceNamespace myNamespace;
   @NotNull private final SourceSet mySourceSet;
@@ -141,10 +145,18 @@ final class ModuleResourceRepository extends MultiResourceRepository implements
                                                            @NotNull List<LocalResourceRepository> childRepositories,
                                                            @NotNull AndroidFacet facet,
                                                            @NotNull ResourceFolderRegistry resourceFolderRegistry) {
+    int xmlFilesLoaded = 0;
+    int xmlFilesParsed = 0;
     for (int i = resourceDirectories.size(); --i >= 0;) {
       VirtualFile resourceDirectory = resourceDirectories.get(i);
       ResourceFolderRepository repository = resourceFolderRegistry.get(facet, resourceDirectory);
       childRepositories.add(repository);
+      xmlFilesLoaded += repository.getNumXmlFilesLoadedInitially();
+      xmlFilesParsed += repository.getNumXmlFilesLoadedInitiallyFromSources();
+    }
+    if (!resourceDirectories.isEmpty()) {
+      LOG.info(String.format(Locale.US, "Loaded %d resource folders of module %s: %d XML files from the cache, %d parsed",
+                             resourceDirectories.size(), facet.getModule().getName(), xmlFilesLoaded - xmlFilesParsed, xmlFilesParsed));
     }
   }
 
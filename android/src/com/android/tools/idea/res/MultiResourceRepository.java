@@ -34,6 +34,7 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 import com.google.common.collect.Tables;
 import com.intellij.openapi.Disposable;
@@ -47,6 +48,7 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -55,8 +57,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -110,6 +114,20 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
   private final Table<ResourceNamespace, ResourceType, Set<SingleNamespaceResourceRepository>> myUnreconciledResources =
       Tables.newCustomTable(new HashMap<>(), () -> Maps.newEnumMap(ResourceType.class));
 
+  /**
+   * Immutable copies of the maps returned by {@link #getMap}, so that resources can be read without holding {@code ITEM_MAP_LOCK}.
+   * A snapshot is built under the lock the first time its namespace and type are read, and is only replaced once resources of that
+   * namespace and type change. Snapshots are published and removed under the lock, but read without it.
+   */
+  private final Map<ResourceNamespace, Map<ResourceType, Snapshot>> mySnapshots = new ConcurrentHashMap<>();
+
+  /**
+   * Incremented whenever a child repository, or one of its descendants, takes a new modification count. A snapshot taken at an older
+   * generation is checked again under the lock before it is read, since a leaf may change without reporting it through
+   * {@link #invalidateCache}. Reading a snapshot that is up to date only costs a single volatile read.
+   */
+  private final AtomicLong mySnapshotGeneration = new AtomicLong();
+
   MultiResourceRepository(@NotNull String displayName) {
     super(displayName);
   }
@@ -151,6 +169,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
         myModificationCounts[i++] = child.getModificationCount();
       }
       myCachedMaps.clear();
+      mySnapshots.clear();
 
       invalidateParentCaches();
     }
@@ -257,16 +276,13 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
   @Override
   @NotNull
   public ResourceVisitor.VisitResult accept(@NotNull ResourceVisitor visitor) {
-    synchronized (ITEM_MAP_LOCK) {
-      for (ResourceNamespace namespace : getNamespaces()) {
-        if (visitor.shouldVisitNamespace(namespace)) {
-          for (ResourceType type : ResourceType.values()) {
-            if (visitor.shouldVisitResourceType(type)) {
-              ListMultimap<String, ResourceItem> map = getMap(namespace, type);
-              for (ResourceItem item : map.values()) {
-                if (visitor.visit(item) == ResourceVisitor.VisitResult.ABORT) {
-                  return ResourceVisitor.VisitResult.ABORT;
-                }
+    for (ResourceNamespace namespace : getNamespaces()) {
+      if (visitor.shouldVisitNamespace(namespace)) {
+        for (ResourceType type : ResourceType.values()) {
+          if (visitor.shouldVisitResourceType(type)) {
+            for (ResourceItem item : getSnapshot(namespace, type).values()) {
+              if (visitor.visit(item) == ResourceVisitor.VisitResult.ABORT) {
+                return ResourceVisitor.VisitResult.ABORT;
               }
             }
           }
@@ -277,6 +293,116 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
     return ResourceVisitor.VisitResult.CONTINUE;
   }
 
+  @Override
+  @NotNull
+  public List<ResourceItem> getResources(@NotNull ResourceNamespace namespace,
+                                         @NotNull ResourceType resourceType,
+                                         @NotNull String resourceName) {
+    return getSnapshot(namespace, resourceType).get(resourceName);
+  }
+
+  @Override
+  @NotNull
+  public List<ResourceItem> getResources(@NotNull ResourceNamespace namespace,
+                                         @NotNull ResourceType resourceType,
+                                         @NotNull Predicate<ResourceItem> filter) {
+    List<ResourceItem> result = new ArrayList<>();
+    for (ResourceItem item : getSnapshot(namespace, resourceType).values()) {
+      if (filter.test(item)) {
+        result.add(item);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  @NotNull
+  public ListMultimap<String, ResourceItem> getResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType) {
+    return getSnapshot(namespace, resourceType);
+  }
+
+  @Override
+  @NotNull
+  public Set<String> getResourceNames(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType) {
+    return getSnapshot(namespace, resourceType).keySet();
+  }
+
+  @Override
+  public boolean hasResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType, @NotNull String resourceName) {
+    return getSnapshot(namespace, resourceType).containsKey(resourceName);
+  }
+
+  @Override
+  public boolean hasResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType) {
+    return !getSnapshot(namespace, resourceType).isEmpty();
+  }
+
+  @Override
+  @NotNull
+  public Set<ResourceType> getResourceTypes(@NotNull ResourceNamespace namespace) {
+    EnumSet<ResourceType> types = EnumSet.noneOf(ResourceType.class);
+    for (ResourceType type : ResourceType.values()) {
+      if (!getSnapshot(namespace, type).isEmpty()) {
+        types.add(type);
+      }
+    }
+    return Sets.immutableEnumSet(types);
+  }
+
+  /**
+   * Returns the merged resources of the given namespace and type. Doesn't block unless the resources changed since they were last read.
+   */
+  @NotNull
+  private ImmutableListMultimap<String, ResourceItem> getSnapshot(@NotNull ResourceNamespace namespace, @NotNull ResourceType type) {
+    Snapshot snapshot = getPublishedSnapshot(namespace, type);
+    if (snapshot != null && snapshot.myGeneration == mySnapshotGeneration.get()) {
+      return snapshot.myItems;
+    }
+
+    synchronized (ITEM_MAP_LOCK) {
+      // Read before checking or merging, so that a leaf modified meanwhile makes the snapshot stale rather than silently out of date.
+      long generation = mySnapshotGeneration.get();
+      snapshot = getPublishedSnapshot(namespace, type);
+      if (snapshot != null) {
+        if (snapshot.myGeneration == generation) {
+          // Another thread has checked or built the snapshot while this one was waiting for the lock.
+          return snapshot.myItems;
+        }
+        if (snapshot.isUpToDate()) {
+          // The change was to other resources, the items can be kept as they are.
+          publishSnapshot(namespace, type, new Snapshot(snapshot.myItems, snapshot.myLeaf, snapshot.myLeafModificationCount, generation));
+          return snapshot.myItems;
+        }
+      }
+
+      // The map of a namespace with a single leaf is the leaf's own map, which may change without the change being reported. Merged maps
+      // of several leafs only change through invalidateCache, which drops the snapshots.
+      ImmutableList<SingleNamespaceResourceRepository> leafs = myLeafsByNamespace.get(namespace);
+      LocalResourceRepository leaf =
+          leafs.size() == 1 && leafs.get(0) instanceof LocalResourceRepository ? (LocalResourceRepository)leafs.get(0) : null;
+      long leafModificationCount = leaf == null ? 0 : leaf.getModificationCount();
+      ListMultimap<String, ResourceItem> map = getMap(namespace, type);
+      ImmutableListMultimap.Builder<String, ResourceItem> builder = ImmutableListMultimap.builder();
+      for (String name : map.keySet()) {
+        builder.putAll(name, map.get(name));
+      }
+      snapshot = new Snapshot(builder.build(), leaf, leafModificationCount, generation);
+      publishSnapshot(namespace, type, snapshot);
+      return snapshot.myItems;
+    }
+  }
+
+  @GuardedBy("ITEM_MAP_LOCK")
+  private void publishSnapshot(@NotNull ResourceNamespace namespace, @NotNull ResourceType type, @NotNull Snapshot snapshot) {
+    mySnapshots.computeIfAbsent(namespace, key -> new ConcurrentHashMap<>()).put(type, snapshot);
+  }
+
+  @Nullable
+  private Snapshot getPublishedSnapshot(@NotNull ResourceNamespace namespace, @NotNull ResourceType type) {
+    Map<ResourceType, Snapshot> snapshots = mySnapshots.get(namespace);
+    return snapshots == null ? null : snapshots.get(type);
+  }
+
   @GuardedBy("ITEM_MAP_LOCK")
   @Override
   @NotNull
@@ -389,6 +515,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
   @GuardedBy("ITEM_MAP_LOCK")
   public void invalidateCache() {
     myCachedMaps.clear();
+    mySnapshots.clear();
     myResourceNames.clear();
     myUnreconciledResources.clear();
     setModificationCount(ourModificationCounter.incrementAndGet());
@@ -409,6 +536,14 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
     // In such a case we don't need to do anything.
     ImmutableList<SingleNamespaceResourceRepository> leafs = myLeafsByNamespace.get(namespace);
     if (leafs != null && leafs.contains(repository)) {
+      // Only the snapshots of the given types are affected, the others stay valid.
+      Map<ResourceType, Snapshot> snapshots = mySnapshots.get(namespace);
+      if (snapshots != null) {
+        for (ResourceType type : types) {
+          snapshots.remove(type);
+        }
+      }
+
       // Update myUnreconciledResources only if myCachedMaps is used for this namespace.
       if (leafs.size() != 1) {
         for (ResourceType type : types) {
@@ -474,6 +609,39 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
     }
   }
 
+  /**
+   * Called when a child repository, or one of its descendants, takes a new modification count. Doesn't take ITEM_MAP_LOCK.
+   */
+  void onChildModified() {
+    mySnapshotGeneration.incrementAndGet();
+    notifyParentsOfModification();
+  }
+
+  /**
+   * Merged resources of one namespace and type, as of the given value of {@link #mySnapshotGeneration}. When the namespace has a single
+   * local leaf, the items are a copy of the leaf's own map and are out of date once the leaf has a new modification count.
+   */
+  private static class Snapshot {
+    @NotNull final ImmutableListMultimap<String, ResourceItem> myItems;
+    @Nullable final LocalResourceRepository myLeaf;
+    final long myLeafModificationCount;
+    final long myGeneration;
+
+    Snapshot(@NotNull ImmutableListMultimap<String, ResourceItem> items,
+             @Nullable LocalResourceRepository leaf,
+             long leafModificationCount,
+             long generation) {
+      myItems = items;
+      myLeaf = leaf;
+      myLeafModificationCount = leafModificationCount;
+      myGeneration = generation;
+    }
+
+    boolean isUpToDate() {
+      return myLeaf == null || myLeaf.getModificationCount() == myLeafModificationCount;
+    }
+  }
+
   private static class ResourcePriorityComparator implements Comparator<ResourceItem> {
     private final Object2IntOpenHashMap<SingleNamespaceResourceRepository> repositoryOrdering;
 
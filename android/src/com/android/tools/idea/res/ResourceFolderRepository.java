@@ -72,6 +72,7 @@ import com.android.utils.Base128InputStream;
 import com.android.utils.SdkUtils;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.intellij.ide.highlighter.XmlFileType;
 import com.intellij.openapi.application.ApplicationManager;
@@ -136,10 +137,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import org.jetbrains.android.facet.AndroidFacet;
@@ -147,7 +152,6 @@ import org.jetbrains.android.sdk.AndroidTargetData;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.annotations.VisibleForTesting;
 
 /**
@@ -175,7 +179,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
    * Increment when making changes that may affect content of repository cache files.
    * Used together with CachingData.codeVersion. Important for developer builds.
    */
-  static final String CACHE_FILE_FORMAT_VERSION = "2";
+  static final String CACHE_FILE_FORMAT_VERSION = "3";
   private static final byte[] CACHE_FILE_HEADER = "Resource cache".getBytes(UTF_8);
   /**
    * Maximum fraction of resources out of date in the cache for the cache to be considered fresh.
@@ -243,6 +247,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
    * defined in the XML files that changed recently are skipped. Whether an XML has changed or not is determined by
    * comparing the combined hash of the file modification time and the length obtained by calling
    * {@link VirtualFile#getTimeStamp()} and {@link VirtualFile#getLength()} with the hash value stored in the cache.
+   * Files for which that hash doesn't match are still considered unchanged if the hash of their contents matches the one
+   * stored in the cache, which is the case for files touched by a VCS checkout for example.
    * The checks are located in {@link #deserializeResourceSourceFile} and {@link #deserializeFileResourceItem}.
    * <p>
    * The remaining resources are then loaded by parsing XML files that were not present in the cache or were newer
@@ -391,12 +397,10 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     return myNumXmlFilesLoadedInitiallyFromSources <= myNumXmlFilesLoadedInitially * CACHE_STALENESS_THRESHOLD;
   }
 
-  @TestOnly
   int getNumXmlFilesLoadedInitially() {
     return myNumXmlFilesLoadedInitially;
   }
 
-  @TestOnly
   int getNumXmlFilesLoadedInitiallyFromSources() {
     return myNumXmlFilesLoadedInitiallyFromSources;
   }
@@ -2107,10 +2111,10 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
    * {@inheritDoc}
    * <p>
    * This override is needed because this repository uses {@link VfsResourceFile} that is a subclass of
-   * {@link ResourceSourceFile} used by {@link RepositoryLoader}. If the combined hash of file timestamp
-   * and length doesn't match the stream, the method returns an invalid {@link VfsResourceFile} containing
-   * a null {@link VirtualFile} reference. Validity of the {@link VfsResourceFile} is checked later inside
-   * the {@link Loader#addResourceItem(BasicResourceItem, ResourceFolderRepository)} method. This process
+   * {@link ResourceSourceFile} used by {@link RepositoryLoader}. If neither the combined hash of file
+   * timestamp and length nor the hash of the file contents match the stream, the method returns an invalid
+   * {@link VfsResourceFile} containing a null {@link VirtualFile} reference. Validity of the {@link VfsResourceFile} is checked
+   * later inside the {@link Loader#addResourceItem(BasicResourceItem, ResourceFolderRepository)} method. This process
    * creates few objects that are discarded later, but an alternative of returning null instead of an invalid
    * {@link VfsResourceFile} would lead to pretty unnatural nullability conditions in {@link RepositoryLoader}.
    * @see VfsResourceFile#serialize
@@ -2127,21 +2131,35 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     RepositoryConfiguration configuration = configurations.get(configIndex);
     VirtualFile virtualFile =
         ((ResourceFolderRepository)configuration.getRepository()).getResourceDir().findFileByRelativePath(relativePath);
-    if (!stream.validateContents(FileTimeStampLengthHasher.hash(virtualFile))) {
+    if (!validateFileHashes(stream, virtualFile)) {
       virtualFile = null;
     }
 
     return new VfsResourceFile(virtualFile, configuration);
   }
 
+  /**
+   * Reads the hashes written for a file by {@link VfsResourceFile#serialize} or {@link VfsFileResourceItem#serialize} and checks
+   * them against the current state of the file. The contents of the file are only read if its time stamp or length changed.
+   *
+   * @return true if the file didn't change since the hashes were written
+   */
+  private static boolean validateFileHashes(@NotNull Base128InputStream stream, @Nullable VirtualFile virtualFile) throws IOException {
+    boolean timeStampAndLengthMatch = stream.validateContents(FileTimeStampLengthHasher.hash(virtualFile));
+    // The content hash has to be read either way, but only needs to be computed when the time stamp or length changed.
+    byte[] contentHash = timeStampAndLengthMatch ? new byte[8] : FileContentHasher.hash(virtualFile);
+    boolean contentMatches = stream.validateContents(contentHash);
+    return timeStampAndLengthMatch || contentMatches;
+  }
+
   /**
    * {@inheritDoc}
    * <p>
    * This override is needed because this repository uses {@link VfsFileResourceItem} that is a subclass of
-   * {@link BasicFileResourceItem} used by {@link RepositoryLoader}. If the combined hash of file timestamp
-   * and length doesn't match the stream, the method returns an invalid {@link VfsFileResourceItem} containing
-   * a null {@link VirtualFile} reference. Validity of the {@link VfsFileResourceItem} is checked later inside
-   * the {@link Loader#addResourceItem(BasicResourceItem, ResourceFolderRepository)} method. This process
+   * {@link BasicFileResourceItem} used by {@link RepositoryLoader}. If neither the combined hash of file
+   * timestamp and length nor the hash of the file contents match the stream, the method returns an invalid
+   * {@link VfsFileResourceItem} containing a null {@link VirtualFile} reference. Validity of the {@link VfsFileResourceItem} is checked
+   * later inside the {@link Loader#addResourceItem(BasicResourceItem, ResourceFolderRepository)} method. This process
    * creates few objects that are discarded later, but an alternative of returning null instead of an invalid
    * {@link VfsFileResourceItem} would lead to pretty unnatural nullability conditions in {@link RepositoryLoader}.
    * @see VfsFileResourceItem#serialize
@@ -2171,7 +2189,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       idGenerating = folderType != null && FolderTypeRelationship.isIdGeneratingFolderType(folderType);
     }
     if (idGenerating) {
-      if (!stream.validateContents(FileTimeStampLengthHasher.hash(virtualFile))) {
+      if (!validateFileHashes(stream, virtualFile)) {
         virtualFile = null;
       }
 
@@ -2214,6 +2232,20 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
    * The file cache omits non-XML single-file items, since those are easily derived from the file path.
    */
   private static class Loader extends RepositoryLoader<ResourceFolderRepository> {
+    /**
+     * Pool parsing resource files when {@link StudioFlags#RESOURCE_REPOSITORY_PARALLEL_LOADING} is enabled. It is shared by all
+     * repositories, so that loading the resource folders of many modules at once doesn't start more threads than there are cores.
+     */
+    private static final ForkJoinPool PARSING_POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    /** Number of files parsed by a single task of {@link #PARSING_POOL}. */
+    private static final int FILES_PER_TASK = 16;
+    /**
+     * Sources that have the same folder configuration are ordered by path, so that the order of the loaded resources doesn't depend
+     * on the order in which files were parsed.
+     */
+    private static final Comparator<ResourceItemSource<? extends ResourceItem>> LOADED_SOURCE_COMPARATOR =
+        SOURCE_COMPARATOR.thenComparing(source -> source.getVirtualFile() == null ? "" : source.getVirtualFile().getPath());
+
     @NotNull private final ResourceFolderRepository myRepository;
     @NotNull private final VirtualFile myResourceDir;
     @NotNull private final PsiManager myPsiManager;
@@ -2227,6 +2259,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
     @NotNull Set<VirtualFile> myFilesToReparseAsPsi = new HashSet<>();
     private final FileDocumentManager myFileDocumentManager;
+    private int myCacheHits;
+    private int myCacheMisses;
 
     Loader(@NotNull ResourceFolderRepository repository, @Nullable ResourceFolderRepositoryCachingData cachingData) {
       super(VfsUtilCore.virtualToIoFile(repository.myResourceDir).toPath(), null, repository.getNamespace());
@@ -2250,6 +2284,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
       scanResFolder();
 
+      myRepository.myNumXmlFilesLoadedInitially = myCacheHits + myCacheMisses;
+      myRepository.myNumXmlFilesLoadedInitiallyFromSources = myCacheMisses;
+
       populateRepository();
 
       ApplicationManager.getApplication().runReadAction(this::scanQueuedPsiResources);
@@ -2311,6 +2348,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     }
 
     private void scanResFolder() {
+      boolean parallel = StudioFlags.RESOURCE_REPOSITORY_PARALLEL_LOADING.get();
+      // Files that need to be parsed in parallel, in scan order.
+      List<FileToLoad> filesToLoad = new ArrayList<>();
       try {
         for (VirtualFile subDir : myResourceDir.getChildren()) {
           if (subDir.isValid() && subDir.isDirectory()) {
@@ -2336,24 +2376,20 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
                   continue;
                 }
 
-                PathString pathString = FileExtensions.toPathString(file);
-                myLastVirtualFile = file;
-                myLastPathString = pathString;
-                try {
-                  loadResourceFile(pathString, folderInfo, configuration);
-                  if (isParsableFile(file, folderInfo)) {
-                    countCacheMiss();
-                  }
+                if (parallel) {
+                  filesToLoad.add(new FileToLoad(file, folderInfo, configuration));
                 }
-                catch (ParsingException e) {
-                  // Reparse the file as PSI. The PSI parser is more forgiving than KXmlParser because
-                  // it is designed to work with potentially malformed files in the middle of editing.
-                  myFilesToReparseAsPsi.add(file);
+                else {
+                  loadFile(file, folderInfo, configuration);
                 }
               }
             }
           }
         }
+
+        if (!filesToLoad.isEmpty()) {
+          loadFilesInParallel(filesToLoad);
+        }
       }
       catch (ProcessCanceledException e) {
         throw e;
@@ -2376,7 +2412,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       // Populate the myResources map.
       List<ResourceItemSource<BasicResourceItem>> sortedSources = new ArrayList<>(mySources.values());
       // Sort sources according to folder configurations to have deterministic ordering of resource items in myResources.
-      sortedSources.sort(SOURCE_COMPARATOR);
+      sortedSources.sort(LOADED_SOURCE_COMPARATOR);
       for (ResourceItemSource<BasicResourceItem> source : sortedSources) {
         for (ResourceItem item : source) {
           getOrCreateMap(item.getType()).put(item.getName(), item);
@@ -2384,6 +2420,65 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       }
     }
 
+    private void loadFile(@NotNull VirtualFile file, @NotNull FolderInfo folderInfo, @NotNull RepositoryConfiguration configuration) {
+      PathString pathString = FileExtensions.toPathString(file);
+      myLastVirtualFile = file;
+      myLastPathString = pathString;
+      try {
+        loadResourceFile(pathString, folderInfo, configuration);
+        if (isParsableFile(file, folderInfo)) {
+          countCacheMiss();
+        }
+      }
+      catch (ParsingException e) {
+        // Reparse the file as PSI. The PSI parser is more forgiving than KXmlParser because
+        // it is designed to work with potentially malformed files in the middle of editing.
+        myFilesToReparseAsPsi.add(file);
+      }
+    }
+
+    /**
+     * Parses files on {@link #PARSING_POOL}, one task per chunk of {@link #FILES_PER_TASK} files. Each task has its own loader, since
+     * loaders are not thread safe, and the resources it loaded are merged into this loader in the order of {@code filesToLoad}.
+     * The order of the resulting items doesn't depend on how the files were split, because sources are sorted with
+     * {@link #LOADED_SOURCE_COMPARATOR} before populating the repository. The tasks check the progress indicator of the calling thread
+     * before each file, since it isn't inherited by the threads of the pool.
+     */
+    private void loadFilesInParallel(@NotNull List<FileToLoad> filesToLoad) throws InterruptedException, ExecutionException {
+      ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+      List<Callable<Loader>> tasks = new ArrayList<>((filesToLoad.size() + FILES_PER_TASK - 1) / FILES_PER_TASK);
+      for (List<FileToLoad> chunk : Lists.partition(filesToLoad, FILES_PER_TASK)) {
+        tasks.add(() -> {
+          Loader loader = new Loader(myRepository, null);
+          for (FileToLoad fileToLoad : chunk) {
+            if (indicator != null) {
+              indicator.checkCanceled();
+            }
+            loader.loadFile(fileToLoad.file, fileToLoad.folderInfo, fileToLoad.configuration);
+          }
+          loader.finishLoading(myRepository);
+          return loader;
+        });
+      }
+
+      for (Future<Loader> future : PARSING_POOL.invokeAll(tasks)) {
+        Loader loader;
+        try {
+          loader = future.get();
+        }
+        catch (ExecutionException e) {
+          if (e.getCause() instanceof ProcessCanceledException) {
+            throw (ProcessCanceledException)e.getCause();
+          }
+          throw e;
+        }
+        mySources.putAll(loader.mySources);
+        myFileResources.putAll(loader.myFileResources);
+        myFilesToReparseAsPsi.addAll(loader.myFilesToReparseAsPsi);
+        myCacheMisses += loader.myCacheMisses;
+      }
+    }
+
     private void loadResourceFile(
         @NotNull PathString file, @NotNull FolderInfo folderInfo, @NotNull RepositoryConfiguration configuration) {
       if (folderInfo.resourceType == null) {
@@ -2529,12 +2624,23 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     }
 
     private void countCacheHit() {
-      ++myRepository.myNumXmlFilesLoadedInitially;
+      ++myCacheHits;
     }
 
     private void countCacheMiss() {
-      ++myRepository.myNumXmlFilesLoadedInitially;
-      ++myRepository.myNumXmlFilesLoadedInitiallyFromSources;
+      ++myCacheMisses;
+    }
+
+    private static class FileToLoad {
+      @NotNull final VirtualFile file;
+      @NotNull final FolderInfo folderInfo;
+      @NotNull final RepositoryConfiguration configuration;
+
+      FileToLoad(@NotNull VirtualFile file, @NotNull FolderInfo folderInfo, @NotNull RepositoryConfiguration configuration) {
+        this.file = file;
+        this.folderInfo = folderInfo;
+        this.configuration = configuration;
+      }
     }
   }
 
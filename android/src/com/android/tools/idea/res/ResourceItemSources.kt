@@ -123,5 +123,6 @@ internal class VfsResourceFile(
     stream.writeString(relativePath)
     stream.writeInt(configIndexes.getInt(configuration.folderConfiguration.qualifierString))
     stream.write(FileTimeStampLengthHasher.hash(virtualFile))
+    stream.write(FileContentHasher.hash(virtualFile))
   }
 }
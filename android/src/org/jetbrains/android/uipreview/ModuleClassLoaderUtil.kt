@@ -22,6 +22,7 @@ import com.android.tools.idea.model.AndroidModel
 import com.android.tools.idea.rendering.classloading.ClassTransform
 import com.android.tools.idea.rendering.classloading.PseudoClass
 import com.android.tools.idea.rendering.classloading.PseudoClassLocator
+import com.android.tools.idea.rendering.classloading.TransformedClassPackCache
 import com.android.tools.idea.rendering.classloading.loaders.AsmTransformingLoader
 import com.android.tools.idea.rendering.classloading.loaders.ClassBinaryCacheLoader
 import com.android.tools.idea.rendering.classloading.loaders.ClassLoaderLoader
@@ -246,7 +247,8 @@ internal class ModuleClassLoaderImpl(module: Module,
               jarLoader
             ),
             ClassWriter.COMPUTE_MAXS,
-            onClassRewrite),
+            onClassRewrite,
+            if (StudioFlags.COMPOSE_PREVIEW_PERSISTENT_CLASS_CACHE.get()) TransformedClassPackCache.getInstance() else null),
           onAfterLoad = { fqcn, bytes ->
             onClassLoaded(fqcn)
             // Map the fqcn to the library path and insert the class into the class binary cache
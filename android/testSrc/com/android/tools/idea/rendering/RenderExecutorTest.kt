@@ -17,6 +17,7 @@ package com.android.tools.idea.rendering
 
 import com.android.testutils.VirtualTimeScheduler
 import com.android.testutils.concurrency.OnDemandExecutorService
+import com.android.tools.idea.rendering.RenderAsyncActionExecutor.RenderingPriority
 import com.google.common.util.concurrent.MoreExecutors
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.delay
@@ -47,6 +48,11 @@ private fun RenderExecutor.runAsyncActionWithTestDefault(queueingTimeout: Long =
     null
   })
 
+private fun <T> RenderExecutor.runAsyncActionWithPriority(priority: RenderingPriority,
+                                                          coalescingKey: Any? = null,
+                                                          callable: () -> T): CompletableFuture<T> =
+  runAsyncActionWithTimeout(1, TimeUnit.SECONDS, 1, TimeUnit.SECONDS, priority, coalescingKey, Callable<T> { callable() })
+
 class RenderExecutorTest {
   @Test
   fun testTimeout() {
@@ -121,6 +127,97 @@ class RenderExecutorTest {
     assertEquals(99, lastToExecute.get())
   }
 
+  @Test
+  fun testPriorities() {
+    val actionExecutor = OnDemandExecutorService()
+    val executor = RenderExecutor.createForTests(executorProvider = { actionExecutor },
+                                                 timeoutExecutorProvider = { VirtualTimeScheduler() })
+    val executed = mutableListOf<String>()
+
+    executor.runAsyncActionWithPriority(RenderingPriority.BACKGROUND) { executed.add("background") }
+    executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE) { executed.add("visible1") }
+    executor.runAsyncActionWithPriority(RenderingPriority.INTERACTIVE) { executed.add("interactive") }
+    executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE) { executed.add("visible2") }
+    actionExecutor.runAll()
+    assertEquals(listOf("interactive", "visible1", "visible2", "background"), executed)
+
+    assertEquals(2, executor.getIntervalTimings(RenderingPriority.VISIBLE).executionTimeMs.totalCount)
+    assertEquals(1, executor.getIntervalTimings(RenderingPriority.BACKGROUND).queueWaitMs.totalCount)
+    // The timings are reset on every call
+    assertEquals(0, executor.getIntervalTimings(RenderingPriority.VISIBLE).executionTimeMs.totalCount)
+  }
+
+  @Test
+  fun testQueueLimitEvictsLowestPriorityFirst() {
+    val actionExecutor = OnDemandExecutorService()
+    val executor = RenderExecutor.createForTests(executorProvider = { actionExecutor },
+                                                 timeoutExecutorProvider = { VirtualTimeScheduler() })
+    val visibleCounter = AtomicInteger(0)
+
+    val background = executor.runAsyncActionWithPriority<Unit>(RenderingPriority.BACKGROUND) { fail("This should have been evicted.") }
+    repeat(50) {
+      executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE) { visibleCounter.incrementAndGet() }
+    }
+    assertTrue(background.isCompletedExceptionally)
+    actionExecutor.runAll()
+    assertEquals(50, visibleCounter.get())
+  }
+
+  @Test
+  fun testCoalescing() {
+    val actionExecutor = OnDemandExecutorService()
+    val executor = RenderExecutor.createForTests(executorProvider = { actionExecutor },
+                                                 timeoutExecutorProvider = { VirtualTimeScheduler() })
+    val key = Any()
+    val counter = AtomicInteger(0)
+
+    val superseded = executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE, key) { counter.incrementAndGet(); "first" }
+    val other = executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE) { counter.incrementAndGet(); "other" }
+    val latest = executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE, key) { counter.incrementAndGet(); "latest" }
+    actionExecutor.runAll()
+
+    // The superseded action does not run, and its caller gets the result of the action that superseded it
+    assertEquals(2, counter.get())
+    assertEquals("latest", superseded.get())
+    assertEquals("other", other.get())
+    assertEquals("latest", latest.get())
+  }
+
+  @Test
+  fun testSupersededActionDoesNotTimeOut() {
+    val actionExecutor = OnDemandExecutorService()
+    val timeoutExecutorProvider = VirtualTimeScheduler()
+    val executor = RenderExecutor.createForTests(executorProvider = { actionExecutor },
+                                                 timeoutExecutorProvider = { timeoutExecutorProvider })
+    val key = Any()
+
+    val superseded = executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE, key) { "first" }
+    timeoutExecutorProvider.advanceBy(500, TimeUnit.MILLISECONDS)
+    val latest = executor.runAsyncActionWithPriority(RenderingPriority.VISIBLE, key) { "latest" }
+    // Past the queue timeout of the superseded action, but not of the latest one
+    timeoutExecutorProvider.advanceBy(700, TimeUnit.MILLISECONDS)
+    assertFalse(superseded.isDone)
+    assertEquals(0, executor.accumulatedTimeouts)
+
+    actionExecutor.runAll()
+    assertEquals("latest", superseded.get())
+    assertEquals("latest", latest.get())
+  }
+
+  @Test
+  fun testBackgroundQueueTimeoutDoesNotCountAsStuck() {
+    val actionExecutor = OnDemandExecutorService()
+    val timeoutExecutorProvider = VirtualTimeScheduler()
+    val executor = RenderExecutor.createForTests(executorProvider = { actionExecutor },
+                                                 timeoutExecutorProvider = { timeoutExecutorProvider })
+
+    val background = executor.runAsyncActionWithPriority<Unit>(RenderingPriority.BACKGROUND) { fail("This should have been dropped.") }
+    timeoutExecutorProvider.advanceBy(2, TimeUnit.SECONDS)
+    assertTrue(background.isCompletedExceptionally)
+    assertEquals(0, executor.accumulatedTimeouts)
+    actionExecutor.runAll()
+  }
+
   @Test
   fun testSyncRenderActionTimeout() {
     val actionExecutor = OnDemandExecutorService()
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering.classloading
+
+import com.google.common.util.concurrent.MoreExecutors.directExecutor
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+class TransformedClassPackCacheTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun `check classes are persisted`() {
+    val directory = tempFolder.newFolder().toPath()
+    val cache = TransformedClassPackCache(directory, "1", ioExecutor = directExecutor())
+    cache.put("transform", "input".toByteArray(), "output".toByteArray())
+    assertEquals("output", cache.get("transform", "input".toByteArray())?.toString(Charsets.UTF_8))
+    assertNull(cache.get("transform", "another input".toByteArray()))
+    assertNull(cache.get("another transform", "input".toByteArray()))
+    cache.close()
+
+    // A new cache, like after a restart, finds the class without transforming it again
+    val reopenedCache = TransformedClassPackCache(directory, "1", ioExecutor = directExecutor())
+    assertEquals("output", reopenedCache.get("transform", "input".toByteArray())?.toString(Charsets.UTF_8))
+    reopenedCache.close()
+
+    // Classes transformed by another version are dropped
+    val newVersionCache = TransformedClassPackCache(directory, "2", ioExecutor = directExecutor())
+    assertNull(newVersionCache.get("transform", "input".toByteArray()))
+    newVersionCache.close()
+  }
+
+  @Test
+  fun `check partially written records are ignored`() {
+    val directory = tempFolder.newFolder().toPath()
+    val cache = TransformedClassPackCache(directory, "1", ioExecutor = directExecutor())
+    cache.put("transform", "input1".toByteArray(), "output1".toByteArray())
+    cache.put("transform", "input2".toByteArray(), "output2".toByteArray())
+    cache.close()
+
+    // Cut the last record in half, like if the IDE was killed while writing it
+    val packFile = Files.list(directory).use { it.iterator().next() }
+    Files.newByteChannel(packFile, StandardOpenOption.WRITE).use { it.truncate(Files.size(packFile) - 4) }
+
+    val reopenedCache = TransformedClassPackCache(directory, "1", ioExecutor = directExecutor())
+    assertEquals("output1", reopenedCache.get("transform", "input1".toByteArray())?.toString(Charsets.UTF_8))
+    assertNull(reopenedCache.get("transform", "input2".toByteArray()))
+    reopenedCache.put("transform", "input2".toByteArray(), "output2".toByteArray())
+    reopenedCache.put("transform", "input3".toByteArray(), "output3".toByteArray())
+    reopenedCache.close()
+
+    val cacheAfterRewrite = TransformedClassPackCache(directory, "1", ioExecutor = directExecutor())
+    assertEquals("output2", cacheAfterRewrite.get("transform", "input2".toByteArray())?.toString(Charsets.UTF_8))
+    assertEquals("output3", cacheAfterRewrite.get("transform", "input3".toByteArray())?.toString(Charsets.UTF_8))
+    cacheAfterRewrite.close()
+  }
+
+  @Test
+  fun `check least recently used classes are evicted`() {
+    val directory = tempFolder.newFolder().toPath()
+    // Room for a few 1000 bytes classes only
+    val cache = TransformedClassPackCache(directory, "1", maxSizeBytes = 4_500, ioExecutor = directExecutor())
+    val output = ByteArray(1000) { it.toByte() }
+    cache.put("transform", "input1".toByteArray(), output)
+    cache.put("transform", "input2".toByteArray(), output)
+    cache.put("transform", "input3".toByteArray(), output)
+    cache.put("transform", "input4".toByteArray(), output)
+    // Use the first class, so that the second one becomes the least recently used
+    assertArrayEquals(output, cache.get("transform", "input1".toByteArray()))
+    cache.put("transform", "input5".toByteArray(), output)
+
+    assertArrayEquals(output, cache.get("transform", "input1".toByteArray()))
+    assertNull(cache.get("transform", "input2".toByteArray()))
+    assertArrayEquals(output, cache.get("transform", "input5".toByteArray()))
+    cache.close()
+
+    // Only the most recent pack file is kept
+    assertEquals(1, Files.list(directory).use { it.count() })
+    val reopenedCache = TransformedClassPackCache(directory, "1", maxSizeBytes = 4_500, ioExecutor = directExecutor())
+    assertArrayEquals(output, reopenedCache.get("transform", "input1".toByteArray()))
+    assertNull(reopenedCache.get("transform", "input2".toByteArray()))
+    assertArrayEquals(output, reopenedCache.get("transform", "input5".toByteArray()))
+    reopenedCache.close()
+  }
+
+  @Test
+  fun `check classes are written on the io executor`() {
+    val directory = tempFolder.newFolder().toPath()
+    val ioTasks = mutableListOf<Runnable>()
+    val cache = TransformedClassPackCache(directory, "1", ioExecutor = Executor { ioTasks.add(it) })
+    cache.put("transform", "input".toByteArray(), "output".toByteArray())
+    // The class is found before it is written
+    assertEquals("output", cache.get("transform", "input".toByteArray())?.toString(Charsets.UTF_8))
+    assertFalse(Files.list(directory).use { it.findAny().isPresent })
+
+    while (ioTasks.isNotEmpty()) {
+      ioTasks.removeAt(0).run()
+    }
+    assertEquals("output", cache.get("transform", "input".toByteArray())?.toString(Charsets.UTF_8))
+    cache.close()
+    ioTasks.removeAt(0).run()
+
+    val reopenedCache = TransformedClassPackCache(directory, "1", ioExecutor = directExecutor())
+    assertEquals("output", reopenedCache.get("transform", "input".toByteArray())?.toString(Charsets.UTF_8))
+    reopenedCache.close()
+  }
+
+  @Test
+  fun `check first lookup waits for the pack file to be indexed`() {
+    val directory = tempFolder.newFolder().toPath()
+    val cache = TransformedClassPackCache(directory, "1", ioExecutor = directExecutor())
+    cache.put("transform", "input".toByteArray(), "output".toByteArray())
+    cache.close()
+
+    val ioExecutor = Executors.newSingleThreadExecutor()
+    try {
+      // Keep the io thread busy for a bit, so that the pack file is not indexed yet when the class is looked up
+      ioExecutor.execute { Thread.sleep(100) }
+      val reopenedCache = TransformedClassPackCache(directory, "1", ioExecutor = ioExecutor)
+      assertEquals("output", reopenedCache.get("transform", "input".toByteArray())?.toString(Charsets.UTF_8))
+      reopenedCache.close()
+    }
+    finally {
+      ioExecutor.shutdown()
+    }
+  }
+}
@@ -16,14 +16,20 @@
 package com.android.tools.idea.rendering.classloading.loaders
 
 import com.android.tools.idea.rendering.classloading.ClassTransform
+import com.android.tools.idea.rendering.classloading.ClassVisitorUniqueIdProvider
 import com.android.tools.idea.rendering.classloading.NopClassLocator
+import com.android.tools.idea.rendering.classloading.TransformedClassPackCache
 import com.android.tools.idea.rendering.classloading.loadClassBytes
 import com.android.tools.idea.rendering.classloading.textifyClass
+import com.google.common.util.concurrent.MoreExecutors.directExecutor
 import org.jetbrains.org.objectweb.asm.ClassVisitor
 import org.jetbrains.org.objectweb.asm.commons.ClassRemapper
 import org.jetbrains.org.objectweb.asm.commons.SimpleRemapper
+import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertNull
+import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import java.util.function.Function
 import kotlin.test.assertEquals
 
@@ -34,6 +40,9 @@ class TransformableClass {
 }
 
 class AsmTransformingLoaderTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
   @Test
   fun `check transformation is applied`() {
     val methodRenamer = SimpleRemapper(
@@ -78,4 +87,69 @@ class AsmTransformingLoaderTest {
       NopClassLocator)
     assertNull(transformLoader.loadClass(TransformableClass::class.java.name))
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `check cached classes are not transformed again`() {
+    val transform = ClassTransform(
+      listOf(
+        Function<ClassVisitor, ClassVisitor> { visitor -> MethodRenamer(visitor) }
+      )
+    )
+    val (rewriteCount, transformedClasses) = loadTwiceWithNewCaches(transform)
+    // The class comes from the disk cache, like after a restart, so it is not rewritten
+    assertEquals(1, rewriteCount)
+    assertArrayEquals(transformedClasses.first, transformedClasses.second)
+  }
+
+  @Test
+  fun `check transforms without a stable id are not cached`() {
+    val methodRenamer = SimpleRemapper(
+      "com/android/tools/idea/rendering/classloading/loaders/TransformableClass.methodA()V",
+      "renamedMethodA")
+    val transform = ClassTransform(
+      listOf(
+        Function<ClassVisitor, ClassVisitor> { visitor -> ClassRemapper(visitor, methodRenamer) }
+      )
+    )
+    assertNull(transform.persistentId)
+    val (rewriteCount, _) = loadTwiceWithNewCaches(transform)
+    assertEquals(2, rewriteCount)
+  }
+
+  /**
+   * Loads [TransformableClass] with [transform] twice, each time with a new cache in the same directory, and returns the number of times
+   * it was rewritten and the loaded classes.
+   */
+  private fun loadTwiceWithNewCaches(transform: ClassTransform): Pair<Int, Pair<ByteArray, ByteArray>> {
+    val cacheDirectory = tempFolder.newFolder().toPath()
+    val staticLoader = StaticLoader(
+      TransformableClass::class.java.name to loadClassBytes(TransformableClass::class.java)
+    )
+    var rewriteCount = 0
+
+    fun loadWithNewCache(): ByteArray {
+      val cache = TransformedClassPackCache(cacheDirectory, "version", ioExecutor = directExecutor())
+      try {
+        return AsmTransformingLoader(
+          transform,
+          staticLoader,
+          NopClassLocator,
+          onRewrite = { _, _, _ -> rewriteCount++ },
+          transformedClassCache = cache).loadClass(TransformableClass::class.java.name)!!
+      }
+      finally {
+        cache.close()
+      }
+    }
+
+    val first = loadWithNewCache()
+    val second = loadWithNewCache()
+    return rewriteCount to (first to second)
+  }
+
+  private class MethodRenamer(delegate: ClassVisitor) : ClassRemapper(delegate, SimpleRemapper(
+    "com/android/tools/idea/rendering/classloading/loaders/TransformableClass.methodA()V",
+    "renamedMethodA")), ClassVisitorUniqueIdProvider {
+    override val uniqueId: String = MethodRenamer::class.java.name
+  }
+}
@@ -25,9 +25,11 @@ import static com.google.common.truth.Truth.assertThat;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.resources.ResourceItem;
 import com.android.ide.common.resources.ResourceRepository;
+import com.android.ide.common.resources.SingleNamespaceResourceRepository;
 import com.android.resources.ResourceType;
 import com.android.tools.idea.testing.TestModuleUtil;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.WriteCommandAction;
@@ -49,6 +51,10 @@ import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.android.facet.AndroidFacet;
@@ -195,6 +201,62 @@ public class ProjectResourceRepositoryTest extends AndroidTestCase {
     assertEquals(originalDirs.size() - 1, resources.getResourceDirs().size());
   }
 
+  /**
+   * Stress test reading merged resources from several threads while their cache is repeatedly invalidated. Readers must always see
+   * fully merged resources, and invalidating one resource type must not affect reading the others.
+   */
+  public void testConcurrentReadsWhileInvalidating() throws Exception {
+    VirtualFile res1 = myFixture.copyFileToProject(VALUES, "res/values/values.xml").getParent().getParent();
+    VirtualFile res2 = myFixture.copyFileToProject(VALUES_OVERLAY1, "res2/values/values.xml").getParent().getParent();
+    myFixture.copyFileToProject(LAYOUT, "res/layout/layout1.xml");
+
+    LocalResourceRepository other = new TestLocalResourceRepository(RES_AUTO);
+    ModuleResourceRepository module = ModuleResourceRepository.createForTest(myFacet, ImmutableList.of(res1, res2), RES_AUTO, null);
+    ProjectResourceRepository resources = ProjectResourceRepository.createForTest(myFacet, ImmutableList.of(module, other));
+    SingleNamespaceResourceRepository leaf = (SingleNamespaceResourceRepository)module.getLocalResources().get(0);
+
+    Set<String> strings = ImmutableSet.copyOf(resources.getResourceNames(RES_AUTO, ResourceType.STRING));
+    assertThat(strings).containsAllOf("app_name", "unique_string");
+    Set<String> layouts = ImmutableSet.copyOf(resources.getResourceNames(RES_AUTO, ResourceType.LAYOUT));
+    assertThat(layouts).contains("layout1");
+
+    int readerCount = 4;
+    AtomicBoolean done = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(readerCount);
+    try {
+      List<Future<Integer>> readers = Lists.newArrayList();
+      for (int i = 0; i < readerCount; i++) {
+        readers.add(executor.submit(() -> {
+          int reads = 0;
+          while (!done.get()) {
+            assertEquals(strings, resources.getResourceNames(RES_AUTO, ResourceType.STRING));
+            assertEquals(1, resources.getResources(RES_AUTO, ResourceType.STRING, "app_name").size());
+            assertEquals(layouts, resources.getResourceNames(RES_AUTO, ResourceType.LAYOUT));
+            reads++;
+          }
+          return reads;
+        }));
+      }
+
+      for (int i = 0; i < 10_000; i++) {
+        synchronized (AbstractResourceRepositoryWithLocking.ITEM_MAP_LOCK) {
+          resources.invalidateCache(leaf, ResourceType.STRING);
+        }
+      }
+      done.set(true);
+
+      int reads = 0;
+      for (Future<Integer> reader : readers) {
+        reads += reader.get();
+      }
+      assertThat(reads).isGreaterThan(0);
+    }
+    finally {
+      done.set(true);
+      executor.shutdownNow();
+    }
+  }
+
   public void testHasResourcesOfType() throws Exception {
     // Test hasResourcesOfType merging (which may be optimized to be lighter-weight than map merging).
     VirtualFile res1 = myFixture.copyFileToProject(LAYOUT, "res/layout/layout.xml").getParent().getParent();
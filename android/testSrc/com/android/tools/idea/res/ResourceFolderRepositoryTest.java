@@ -53,6 +53,7 @@ import com.android.resources.ResourceType;
 import com.android.testutils.TestUtils;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.configurations.ConfigurationManager;
+import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.rendering.DrawableRenderer;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterables;
@@ -3804,6 +3805,30 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertContainSameData(myFacet, repository, fromCacheFile);
   }
 
+  public void testParallelLoading() {
+    myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
+    myFixture.copyFileToProject(LAYOUT1, "res/layout-xlarge-land/layout.xml");
+    myFixture.copyFileToProject(LAYOUT_WITH_DATA_BINDING, "res/layout/layout_with_data_binding.xml");
+    myFixture.copyFileToProject(DRAWABLE, "res/drawable/logo.png");
+    myFixture.copyFileToProject(DRAWABLE, "res/drawable-hdpi/logo.png");
+    myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
+    myFixture.copyFileToProject(STRINGS, "res/values-fr/not_really_french_strings.xml");
+    myFixture.copyFileToProject(XLIFF, "res/values/xliff.xml");
+    ResourceFolderRepository sequential = createRepository(false);
+
+    StudioFlags.RESOURCE_REPOSITORY_PARALLEL_LOADING.override(true);
+    try {
+      ResourceFolderRepository parallel = createRepository(false);
+      assertEquals(7, parallel.getNumXmlFilesLoadedInitially());
+      assertEquals(7, parallel.getNumXmlFilesLoadedInitiallyFromSources());
+      assertContainSameData(myFacet, sequential, parallel);
+    }
+    finally {
+      StudioFlags.RESOURCE_REPOSITORY_PARALLEL_LOADING.clearOverride();
+    }
+  }
+
   public void testInvalidateCache() {
     myFixture.copyFileToProject(LAYOUT1, "res/layout/layout.xml");
     myFixture.copyFileToProject(LAYOUT1, "res/layout-xlarge-land/layout.xml");
@@ -3919,6 +3944,28 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertTrue(fromCacheFile.hasResources(RES_AUTO, ResourceType.STRING, "hello_there"));
   }
 
+  public void testSerializationTouchXmlFileAndLoad() {
+    VirtualFile file1 = myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
+    File file1AsFile = virtualToIoFile(file1);
+    assertNotNull(file1AsFile);
+    ResourceFolderRepository repository = createRepository(true);
+    assertNotNull(repository);
+
+    // Change the time stamp of the file without changing its contents, like a VCS checkout would.
+    if (!file1AsFile.setLastModified(file1AsFile.lastModified() + 2000)) {
+      // Not supported on this platform?
+      return;
+    }
+    file1.refresh(false, false);
+
+    ResourceFolderRepository fromCacheFile = createRepository(true);
+    assertNotNull(fromCacheFile);
+    // The cached resources of the file are still used since its contents didn't change.
+    assertEquals(1, fromCacheFile.getNumXmlFilesLoadedInitially());
+    assertEquals(0, fromCacheFile.getNumXmlFilesLoadedInitiallyFromSources());
+    assertTrue(fromCacheFile.hasResources(RES_AUTO, ResourceType.STRING, "hello_world"));
+  }
+
   public void testSerializationAddXmlFileAndLoad() {
     myFixture.copyFileToProject(STRINGS, "res/values/strings.xml");
     ResourceFolderRepository repository = createRepository(true);
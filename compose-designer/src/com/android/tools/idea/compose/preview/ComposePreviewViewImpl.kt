@@ -37,6 +37,7 @@ import com.android.tools.idea.editors.notifications.NotificationPanel
 import com.android.tools.idea.editors.shortcuts.asString
 import com.android.tools.idea.editors.shortcuts.getBuildAndRefreshShortcut
 import com.android.tools.idea.flags.StudioFlags
+import com.android.tools.idea.rendering.RenderAsyncActionExecutor.RenderingPriority
 import com.android.tools.idea.uibuilder.graphics.NlConstants
 import com.android.tools.idea.uibuilder.scene.LayoutlibSceneManager
 import com.android.tools.idea.uibuilder.scene.RealTimeSessionClock
@@ -70,6 +71,9 @@ import java.awt.Dimension
 import java.awt.FlowLayout
 import java.awt.Point
 import java.awt.event.AdjustmentEvent
+import java.awt.event.ComponentAdapter
+import java.awt.event.ComponentEvent
+import java.util.concurrent.atomic.AtomicBoolean
 import javax.swing.JComponent
 import javax.swing.JLayeredPane
 import javax.swing.JPanel
@@ -249,6 +253,11 @@ internal class ComposePreviewViewImpl(private val project: Project,
   private val sceneComponentProvider = ComposeSceneComponentProvider()
   private val delegateInteractionHandler = DelegateInteractionHandler()
 
+  /**
+   * True while a call to [updateRenderingPriorities] is scheduled, so that creating many scene managers at once only schedules one.
+   */
+  private val isRenderingPrioritiesUpdatePending = AtomicBoolean(false)
+
   override val pinnedSurface by lazy {
     createPreviewDesignSurface(
       project, navigationHandler, delegateInteractionHandler, dataProvider, parentDisposable, DesignSurface.ZoomControlsPolicy.HIDDEN,
@@ -266,17 +275,51 @@ internal class ComposePreviewViewImpl(private val project: Project,
   }, parentDisposable,
     DesignSurface.ZoomControlsPolicy.HIDDEN) { surface, model ->
     LayoutlibSceneManager(model, surface, sceneComponentProvider, ComposeSceneUpdateListener(), { RealTimeSessionClock() })
+      .also { scheduleRenderingPrioritiesUpdate() }
   }.also {
     it.addPanZoomListener(object: PanZoomListener {
       override fun zoomChanged(previousScale: Double, newScale: Double) {
         pinnedSurface.setScale(newScale)
+        updateRenderingPriorities()
       }
 
       override fun panningChanged(adjustmentEvent: AdjustmentEvent?) {
+        updateRenderingPriorities()
+      }
+    })
+    it.addComponentListener(object : ComponentAdapter() {
+      override fun componentResized(e: ComponentEvent) {
+        updateRenderingPriorities()
       }
     })
   }
 
+  /**
+   * Renders previews scrolled out of view of the [mainSurface] as [RenderingPriority.BACKGROUND], so that they don't delay the ones
+   * the user is looking at.
+   */
+  private fun updateRenderingPriorities() {
+    mainSurface.sceneManagers
+      .filterIsInstance<LayoutlibSceneManager>()
+      .forEach { manager ->
+        val visible = manager.sceneViews.any { mainSurface.isSceneViewVisible(it) }
+        manager.setRenderingPriority(if (visible) RenderingPriority.VISIBLE else RenderingPriority.BACKGROUND)
+      }
+  }
+
+  /**
+   * Calls [updateRenderingPriorities] once the surface has laid out its scene views, which doesn't happen until scene managers have been
+   * added or updated.
+   */
+  private fun scheduleRenderingPrioritiesUpdate() {
+    if (isRenderingPrioritiesUpdatePending.compareAndSet(false, true)) {
+      ApplicationManager.getApplication().invokeLater {
+        isRenderingPrioritiesUpdatePending.set(false)
+        updateRenderingPriorities()
+      }
+    }
+  }
+
   override val isPannable: Boolean
     get() = mainSurface.isPannable
   override var isPanning: Boolean
@@ -476,6 +519,8 @@ internal class ComposePreviewViewImpl(private val project: Project,
       if (hasRendered) {
         log.debug("Show content")
         hideLoading()
+        // The scene managers have been updated, and their scene views may have moved.
+        scheduleRenderingPrioritiesUpdate()
         if (hasContent) {
           if (showContent()) {
             // We zoom to fit to have better initial zoom level when first build is completed.
@@ -1130,6 +1130,14 @@ public abstract class DesignSurface extends EditorDesignSurface implements Dispo
     }
   }
 
+  /**
+   * Returns whether any part of the given {@link SceneView} is in the visible area of the surface.
+   */
+  public final boolean isSceneViewVisible(@NotNull SceneView sceneView) {
+    Rectangle rectangle = mySceneViewPanel.findSceneViewRectangle(sceneView);
+    return rectangle != null && getViewport().getViewRect().intersects(rectangle);
+  }
+
   /**
    * Ensures that the given model is visible in the surface by scrolling to it if needed.
    * If the {@link NlModel} is partially visible and {@code forceScroll} is set to {@code false}, no scroll will happen.
@@ -51,6 +51,7 @@ import com.android.tools.idea.common.type.DesignerEditorFileType;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.configurations.ConfigurationListener;
 import com.android.tools.idea.rendering.ExecuteCallbacksResult;
+import com.android.tools.idea.rendering.RenderAsyncActionExecutor.RenderingPriority;
 import com.android.tools.idea.rendering.RenderLogger;
 import com.android.tools.idea.rendering.RenderResult;
 import com.android.tools.idea.rendering.RenderService;
@@ -266,6 +267,7 @@ public class LayoutlibSceneManager extends SceneManager {
   // Protects all accesses to the myRenderTask reference. RenderTask calls to render and layout do not need to be protected
   // since RenderTask is able to handle those safely.
   private final Object myRenderingTaskLock = new Object();
+  @NotNull private volatile RenderingPriority myRenderingPriority = RenderingPriority.VISIBLE;
   private ResourceNotificationManager.ResourceVersion myRenderedVersion;
   // Protects all read/write accesses to the myRenderResult reference
   private final ReentrantReadWriteLock myRenderResultLock = new ReentrantReadWriteLock();
@@ -613,6 +615,9 @@ public class LayoutlibSceneManager extends SceneManager {
       // TODO(b/168445543): move session clock to RenderTask
       mySessionClock = mySessionClockFactory.get();
       myRenderTask = newTask;
+      if (newTask != null) {
+        newTask.setPriority(myRenderingPriority);
+      }
     }
   }
 
@@ -991,6 +996,19 @@ public class LayoutlibSceneManager extends SceneManager {
     myLogRenderErrors = enabled;
   }
 
+  /**
+   * Sets the {@link RenderingPriority} of the renders of this scene, e.g. {@link RenderingPriority#BACKGROUND} while it is scrolled out
+   * of view. The priority is kept when the render task is recreated.
+   */
+  public void setRenderingPriority(@NotNull RenderingPriority priority) {
+    myRenderingPriority = priority;
+    synchronized (myRenderingTaskLock) {
+      if (myRenderTask != null) {
+        myRenderTask.setPriority(priority);
+      }
+    }
+  }
+
   public void doNotReportOutOfDateUserClasses() {
     this.reportOutOfDateUserClasses = false;
   }
@@ -23,16 +23,21 @@ import com.android.tools.idea.concurrency.catching
 import com.android.tools.idea.concurrency.ignoreResult
 import com.android.tools.idea.concurrency.transform
 import com.android.tools.idea.concurrency.transformAsync
+import com.android.tools.idea.explorer.FileTransferWorkEstimator.Companion.directoryWorkUnits
+import com.android.tools.idea.explorer.FileTransferWorkEstimator.Companion.fileWorkUnits
+import com.android.tools.idea.explorer.FileTransferWorkEstimator.Companion.getFileContentsWorkUnits
 import com.android.tools.idea.explorer.adbimpl.AdbPathUtil
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
 import com.android.tools.idea.explorer.fs.DeviceFileSystem
 import com.android.tools.idea.explorer.fs.DeviceFileSystemService
 import com.android.tools.idea.explorer.fs.DeviceFileSystemServiceListener
 import com.android.tools.idea.explorer.fs.DeviceState
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.DownloadProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.android.tools.idea.explorer.ui.TreeUtil
 import com.android.tools.idea.explorer.ui.TreeUtil.UpdateChildrenOps
+import com.android.tools.idea.flags.StudioFlags
 import com.android.utils.FileUtils
 import com.google.common.primitives.Ints
 import com.google.common.util.concurrent.FutureCallback
@@ -665,6 +670,10 @@ class DeviceExplorerController(
       tracker: FileTransferOperationTracker,
       entryNode: DeviceFileEntryNode
     ): ListenableFuture<Unit> {
+      if (StudioFlags.DEVICE_EXPLORER_DIRECTORY_DOWNLOAD.get() && (entryNode.entry.isDirectory || entryNode.isSymbolicLinkToDirectory)) {
+        // The work is estimated as the directory is downloaded, which avoids listing it twice
+        return Futures.immediateFuture(Unit)
+      }
       val progress = createFileTransferEstimatorProgress(tracker)
       return myWorkEstimator.estimateDownloadWork(entryNode.entry, entryNode.isSymbolicLinkToDirectory, progress)
         .transform(myEdtExecutor) { tracker.addWorkEstimate(it) }
@@ -730,6 +739,32 @@ class DeviceExplorerController(
       tracker: FileTransferOperationTracker
     ): ListenableFuture<Unit> {
       assert(treeNode.entry.isDirectory || treeNode.isSymbolicLinkToDirectory)
+      if (!StudioFlags.DEVICE_EXPLORER_DIRECTORY_DOWNLOAD.get() || !treeNode.entry.isDirectory) {
+        return downloadDirectoryEntries(treeNode, localDirectoryPath, tracker)
+      }
+
+      // Download the whole directory at once, or its entries one by one if that's not supported
+      val futureResult = SettableFuture.create<Unit>()
+      myEdtExecutor.addConsumer(downloadDirectoryEntry(treeNode, localDirectoryPath, tracker)) { _: Unit?, throwable: Throwable? ->
+        when (throwable) {
+          null -> futureResult.set(Unit)
+          is UnsupportedOperationException -> futureResult.setFuture(downloadDirectoryEntries(treeNode, localDirectoryPath, tracker))
+          else -> {
+            tracker.addProblem(
+              Exception(String.format("Error saving contents of device directory %s", getUserFacingNodeName(treeNode)), throwable)
+            )
+            futureResult.set(Unit)
+          }
+        }
+      }
+      return futureResult
+    }
+
+    private fun downloadDirectoryEntries(
+      treeNode: DeviceFileEntryNode,
+      localDirectoryPath: Path,
+      tracker: FileTransferOperationTracker
+    ): ListenableFuture<Unit> {
       if (tracker.isCancelled) {
         return Futures.immediateCancelledFuture()
       }
@@ -746,6 +781,18 @@ class DeviceExplorerController(
       val futureLoadChildren = loadNodeChildren(treeNode)
       myEdtExecutor.addCallback(futureLoadChildren, object : FutureCallback<Unit> {
         override fun onSuccess(result: Unit?) {
+          if (StudioFlags.DEVICE_EXPLORER_DIRECTORY_DOWNLOAD.get()) {
+            // Directories are not estimated beforehand (see addDownloadOperationWork), so estimate this one and its files,
+            // leaving child directories to estimate their own work as they are downloaded.
+            val estimate = FileTransferWorkEstimate()
+            estimate.addDirectoryCount(1)
+            estimate.addWorkUnits(directoryWorkUnits)
+            treeNode.childEntryNodes.filter { !it.entry.isDirectory && !it.isSymbolicLinkToDirectory }.forEach {
+              estimate.addFileCount(1)
+              estimate.addWorkUnits(fileWorkUnits + getFileContentsWorkUnits(it.entry.size))
+            }
+            tracker.addWorkEstimate(estimate)
+          }
           val futureDownloadChildren = executeFuturesInSequence(treeNode.childEntryNodes.iterator()) { node: DeviceFileEntryNode ->
             val nodePath = localDirectoryPath.resolve(node.entry.name)
             downloadSingleNode(node, nodePath, tracker)
@@ -1372,6 +1419,56 @@ class DeviceExplorerController(
       return result.get()
     }
 
+    private fun downloadDirectoryEntry(
+      treeNode: DeviceFileEntryNode,
+      localDirectoryPath: Path,
+      tracker: FileTransferOperationTracker
+    ): ListenableFuture<Unit> {
+      if (tracker.isCancelled) {
+        return Futures.immediateCancelledFuture()
+      }
+      val entry = treeNode.entry
+      var totalBytes = 0L
+      var previousFileCount = 0
+      var previousBytes = 0L
+      startNodeDownload(treeNode)
+      val futureDownload = entry.downloadDirectory(localDirectoryPath, object : DirectoryTransferProgress {
+        override fun onListed(fileCount: Int, directoryCount: Int, byteCount: Long, skippedFileCount: Int) {
+          // Files that are up to date are not transferred, so they are not part of the work
+          val estimate = FileTransferWorkEstimate()
+          estimate.addFileCount(fileCount)
+          estimate.addDirectoryCount(directoryCount + 1)
+          estimate.addWorkUnits(fileCount * fileWorkUnits + getFileContentsWorkUnits(byteCount))
+          tracker.addWorkEstimate(estimate)
+          tracker.summary.addDirectoryCount(directoryCount + 1)
+          totalBytes = byteCount
+        }
+
+        override fun onProgress(currentFullPath: String, fileCount: Int, byteCount: Long) {
+          repeat(fileCount - previousFileCount) { tracker.processFile() }
+          tracker.processFileBytes(byteCount - previousBytes)
+          previousFileCount = fileCount
+          previousBytes = byteCount
+          tracker.setDownloadFileText(currentFullPath, 0, 0)
+          if (tracker.isInForeground) {
+            treeNode.setTransferProgress(byteCount, totalBytes)
+          }
+        }
+
+        override fun isCancelled(): Boolean {
+          return tracker.isCancelled
+        }
+      })
+      logFuture(futureDownload) { millis -> String.format(Locale.US, "Downloaded directory in %,d msec: %s", millis, entry.fullPath) }
+      myEdtExecutor.addListener(futureDownload) {
+        // Files downloaded before an error are counted too
+        tracker.summary.addFileCount(previousFileCount)
+        tracker.summary.addByteCount(previousBytes)
+        stopNodeDownload(treeNode)
+      }
+      return futureDownload
+    }
+
     private fun downloadFileEntry(
       treeNode: DeviceFileEntryNode,
       localPath: Path,
@@ -61,6 +61,7 @@ public class AdbDeviceCapabilities {
   @Nullable private Boolean mySupportsCpCommand;
   @Nullable private Boolean myEscapingLs;
   @Nullable private Boolean mySupportsMkTempCommand;
+  @Nullable private Boolean mySupportsTarCommand;
 
   public AdbDeviceCapabilities(@NotNull IDevice device) {
     myDevice = device;
@@ -148,6 +149,16 @@ public class AdbDeviceCapabilities {
     return mySupportsMkTempCommand;
   }
 
+  public synchronized boolean supportsTarCommand()
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, SyncException {
+    assertNotDispatchThread();
+
+    if (mySupportsTarCommand == null) {
+      mySupportsTarCommand = supportsTarCommandWorker();
+    }
+    return mySupportsTarCommand;
+  }
+
   private static void assertNotDispatchThread() {
     Application application = ApplicationManager.getApplication();
     assert application == null || !application.isDispatchThread();
@@ -383,6 +394,30 @@ public class AdbDeviceCapabilities {
     }
   }
 
+  private boolean supportsTarCommandWorker()
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, SyncException {
+
+    try (ScopedRemoteFile tempFile = new ScopedRemoteFile(AdbPathUtil.resolve(PROBE_FILES_TEMP_PATH, ".__temp_tar_test_file__.tmp"))) {
+      // Create the remote file used for testing capability
+      tempFile.create();
+
+      // Archive it with "tar" (it should succeed if the command is supported)
+      String command = new AdbShellCommandBuilder().withText("tar -cf /dev/null ").withEscapedPath(tempFile.getRemotePath()).build();
+      AdbShellCommandResult commandResult = myShellCommandsUtil.executeCommand(myDevice, command);
+      try {
+        commandResult.throwIfError();
+        return true;
+      }
+      catch (AdbShellCommandException e) {
+        LOGGER.info(String.format("Device \"%s\" does not seem to support the \"tar\" command: %s",
+                                  DeviceUtil.toDebugString(myDevice),
+                                  getCommandOutputExtract(commandResult)),
+                    e);
+        return false;
+      }
+    }
+  }
+
   /**
    * An {@link AutoCloseable} wrapper around a temporary file on a remote device.
    * The {@link #close()} method attempts to delete the file from the remote device
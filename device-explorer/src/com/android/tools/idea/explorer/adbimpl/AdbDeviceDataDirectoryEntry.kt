@@ -17,7 +17,9 @@ package com.android.tools.idea.explorer.adbimpl
 
 import com.android.tools.idea.concurrency.transform
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
+import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
 import java.nio.file.Path
 
@@ -37,6 +39,9 @@ class AdbDeviceDataDirectoryEntry(entry: AdbDeviceFileEntry)
              AdbDeviceDataLocalDirectoryEntry(this, createDirectoryEntry(myEntry, "local")))
     }
 
+  override fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress): ListenableFuture<Unit> =
+    downloadListedEntriesOnly()
+
   /**
    * A custom [AdbDeviceFileEntry] implementation for the the "/data/data" directory of a device.
    *
@@ -57,6 +62,9 @@ class AdbDeviceDataDirectoryEntry(entry: AdbDeviceFileEntry)
             AdbDevicePackageDirectoryEntry(this, createDirectoryEntry(myEntry, packageName), packageName)
           }
         }
+
+    override fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress): ListenableFuture<Unit> =
+      downloadListedEntriesOnly()
   }
 
   /**
@@ -91,6 +99,8 @@ class AdbDeviceDataDirectoryEntry(entry: AdbDeviceFileEntry)
           }
         }
 
+    override fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress): ListenableFuture<Unit> =
+      downloadListedEntriesOnly()
   }
 
   private class AdbDeviceDataLocalDirectoryEntry(
@@ -104,6 +114,9 @@ class AdbDeviceDataDirectoryEntry(entry: AdbDeviceFileEntry)
           listOf(AdbDeviceDirectFileEntry(fileSystem, createDirectoryEntry(myEntry, "tmp"), this, null))
         }
       }
+
+    override fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress): ListenableFuture<Unit> =
+      downloadListedEntriesOnly()
   }
 
   /**
@@ -150,6 +163,13 @@ class AdbDeviceDataDirectoryEntry(entry: AdbDeviceFileEntry)
   }
 
   companion object {
+    /**
+     * The entries of the directories above "/data/data/package-name" are not all the entries present on the device, and
+     * most of them can only be read with "run-as", so their entries have to be downloaded one by one.
+     */
+    private fun downloadListedEntriesOnly(): ListenableFuture<Unit> =
+      Futures.immediateFailedFuture(UnsupportedOperationException("Directory entries must be downloaded one by one"))
+
     private fun createDirectoryEntry(parent: AdbFileListingEntry, name: String): AdbFileListingEntry {
       return AdbFileListingEntryBuilder(parent)
         .setPath(AdbPathUtil.resolve(parent.fullPath, name))
@@ -17,6 +17,7 @@ package com.android.tools.idea.explorer.adbimpl
 
 import com.android.tools.idea.concurrency.transformAsync
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.google.common.util.concurrent.ListenableFuture
 import java.nio.file.Path
@@ -52,6 +53,11 @@ class AdbDeviceDefaultFileEntry(
       mountPoint.downloadFile(localPath, progress)
     }
 
+  override fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress): ListenableFuture<Unit> =
+    fileSystem.resolveMountPoint(this).transformAsync(fileSystem.taskExecutor) { mountPoint ->
+      mountPoint.downloadDirectory(localPath, progress)
+    }
+
   override fun uploadFile(localPath: Path, fileName: String, progress: FileTransferProgress): ListenableFuture<Unit> =
     fileSystem.resolveMountPoint(this).transformAsync(fileSystem.taskExecutor) { mountPoint ->
       mountPoint.uploadFile(localPath, fileName, progress)
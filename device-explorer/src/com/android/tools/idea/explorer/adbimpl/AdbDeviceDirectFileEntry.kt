@@ -24,6 +24,7 @@ import com.android.tools.idea.concurrency.catchingAsync
 import com.android.tools.idea.concurrency.transform
 import com.android.tools.idea.concurrency.transformAsync
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
@@ -81,6 +82,12 @@ class AdbDeviceDirectFileEntry(
         }
       }
 
+  override fun downloadDirectory(
+    localPath: Path,
+    progress: DirectoryTransferProgress
+  ): ListenableFuture<Unit> =
+    fileSystem.adbFileTreeTransfer.downloadDirectory(fullPath, localPath, myRunAs, progress)
+
   override fun uploadFile(
     localPath: Path,
     fileName: String,
@@ -34,6 +34,7 @@ class AdbDeviceFileSystem(val device: IDevice, edtExecutor: Executor, taskExecut
   val adbFileListing = AdbFileListing(this.device, capabilities, this.taskExecutor)
   val adbFileOperations = AdbFileOperations(this.device, capabilities, this.taskExecutor)
   val adbFileTransfer = AdbFileTransfer(this.device, adbFileOperations, myEdtExecutor, this.taskExecutor)
+  val adbFileTreeTransfer = AdbFileTreeTransfer(this.device, capabilities, myEdtExecutor, this.taskExecutor)
 
   fun isDevice(device: IDevice?): Boolean {
     return this.device == device
@@ -16,6 +16,7 @@
 package com.android.tools.idea.explorer.adbimpl
 
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.google.common.util.concurrent.ListenableFuture
 import java.nio.file.Path
@@ -54,6 +55,10 @@ abstract class AdbDeviceForwardingFileEntry(
     return forwardedFileEntry.downloadFile(localPath, progress)
   }
 
+  override fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress): ListenableFuture<Unit> {
+    return forwardedFileEntry.downloadDirectory(localPath, progress)
+  }
+
   override fun uploadFile(localPath: Path, fileName: String, progress: FileTransferProgress): ListenableFuture<Unit> {
     return forwardedFileEntry.uploadFile(localPath, fileName, progress)
   }
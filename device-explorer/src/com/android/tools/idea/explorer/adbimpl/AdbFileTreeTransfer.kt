@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl
+
+import com.android.ddmlib.FileListingService
+import com.android.ddmlib.IDevice
+import com.android.ddmlib.IShellOutputReceiver
+import com.android.ddmlib.SyncException
+import com.android.ddmlib.SyncService
+import com.android.ddmlib.SyncService.ISyncProgressMonitor
+import com.android.tools.idea.adb.AdbShellCommandsUtil
+import com.android.tools.idea.adblib.ddmlibcompatibility.pullFile
+import com.android.tools.idea.concurrency.FutureCallbackExecutor
+import com.android.tools.idea.concurrency.transform
+import com.android.tools.idea.concurrency.transformAsync
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
+import com.android.tools.idea.explorer.fs.ThrottledProgress
+import com.android.tools.idea.flags.StudioFlags
+import com.google.common.base.Stopwatch
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.intellij.openapi.diagnostic.logger
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.FileTime
+import java.util.Queue
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+private val LOGGER = logger<AdbFileTreeTransfer>()
+
+/**
+ * Files up to this size are streamed in batches through "tar" instead of being pulled one by one.
+ */
+private const val SMALL_FILE_MAX_BYTES = 64 * 1024L
+private const val BATCH_MAX_BYTES = 4 * 1024 * 1024L
+
+/**
+ * Maximum length of the file names of a batch on the "tar" command line. "tar" is only available on devices running Android 10
+ * and later, whose adb daemon accepts much longer commands.
+ */
+private const val BATCH_MAX_COMMAND_LENGTH = 32 * 1024
+
+private const val DEFAULT_CONNECTION_COUNT = 4
+private const val PROGRESS_REPORT_INTERVAL_MILLIS = 50L
+
+private const val S_IFMT = 0xf000
+private const val S_IFDIR = 0x4000
+private const val S_IFREG = 0x8000
+
+/**
+ * Output of "stat -c '%f %s %Y %n'": raw mode in hexadecimal, size, modification time in seconds and path.
+ */
+private val STAT_OUTPUT_LINE = Regex("([0-9a-fA-F]+) (\\d+) (\\d+) (.+)")
+
+/**
+ * Downloads whole directory trees from a device, which is much faster than downloading their files one by one with [AdbFileTransfer]
+ * when there are many small files, e.g. in the data directory of an application.
+ *
+ * The tree is listed with a single "find" command, then files that are already present locally with the same size and modification
+ * time are skipped, which also allows resuming an interrupted download. Small files are streamed in batches through "tar", so that
+ * there is one round-trip to the device per batch instead of one per file, and other files are pulled through the sync service.
+ * Batches and files are shared between up to [myConnectionCount] workers, each with its own connection to the device, and the progress
+ * of all workers is reported together to a single [DirectoryTransferProgress].
+ *
+ * Without root access, e.g. for the files of an application that are only readable through "run-as", all files are streamed by
+ * "tar" running as the application. When the device does not support the commands this relies on, the download completes with
+ * an [UnsupportedOperationException].
+ */
+class AdbFileTreeTransfer(
+  private val myDevice: IDevice,
+  private val myDeviceCapabilities: AdbDeviceCapabilities,
+  progressExecutor: Executor,
+  taskExecutor: Executor,
+  private val myConnectionCount: Int = DEFAULT_CONNECTION_COUNT
+) {
+  private val myProgressExecutor = FutureCallbackExecutor.wrap(progressExecutor)
+  private val myTaskExecutor = FutureCallbackExecutor.wrap(taskExecutor)
+  private val myShellCommandsUtil = AdbShellCommandsUtil(StudioFlags.ADBLIB_MIGRATION_DEVICE_EXPLORER.get())
+
+  fun downloadDirectory(
+    remotePath: String,
+    localPath: Path,
+    runAs: String?,
+    progress: DirectoryTransferProgress
+  ): ListenableFuture<Unit> {
+    val stopwatch = Stopwatch.createStarted()
+    return myTaskExecutor.executeAsync { createDownloadPlan(remotePath, localPath, runAs) }
+      .transformAsync(myTaskExecutor) { plan ->
+        executeDownloadPlan(plan, progress).transform(myTaskExecutor) {
+          LOGGER.info("Download of ${plan.fileCount} files (${plan.skippedFileCount} up to date) took $stopwatch: \"$remotePath\"")
+        }
+      }
+  }
+
+  private fun createDownloadPlan(remotePath: String, localPath: Path, runAs: String?): DownloadPlan {
+    // Files the sync service cannot read are streamed by "tar" running as the application, or as root if possible
+    val useSu = runAs == null && myDeviceCapabilities.supportsSuRootCommand() && !myDeviceCapabilities.isRoot
+    val streamAll = runAs != null || useSu
+    val supportsTar = myDeviceCapabilities.supportsTarCommand()
+    if (streamAll && !supportsTar) {
+      throw UnsupportedOperationException("Device does not support the \"tar\" command")
+    }
+
+    val command = getCommand(runAs, useSu, "find ")
+      .withDirectoryEscapedPath(remotePath)
+      .withText(" -exec stat -L -c '%f %s %Y %n' {} + 2>/dev/null")
+      .build()
+    val listing = FileTreeListing.parse(remotePath, myShellCommandsUtil.executeCommandNoErrorCheck(myDevice, command).output)
+      ?: throw UnsupportedOperationException("Unable to list \"$remotePath\" with the \"find\" and \"stat\" commands")
+
+    Files.createDirectories(localPath)
+    listing.directories.forEach { Files.createDirectories(resolveLocalPath(localPath, it)) }
+    val (skippedFiles, files) = listing.files.partition { isUpToDate(it, resolveLocalPath(localPath, it.path)) }
+
+    // Largest files first, so that they are not left for a single worker at the end
+    val tasks = mutableListOf<TransferTask>()
+    var batch = mutableListOf<RemoteFile>()
+    var batchBytes = 0L
+    var batchCommandLength = 0
+    for (file in files.sortedByDescending { it.size }) {
+      if (!streamAll && (!supportsTar || file.size > SMALL_FILE_MAX_BYTES)) {
+        tasks.add(TransferTask.Pull(file))
+        continue
+      }
+      val argumentLength = getEscapedRelativePath(file.path).length + 1
+      val isBatchFull = batchBytes + file.size > BATCH_MAX_BYTES || batchCommandLength + argumentLength > BATCH_MAX_COMMAND_LENGTH
+      if (batch.isNotEmpty() && isBatchFull) {
+        tasks.add(TransferTask.Stream(batch))
+        batch = mutableListOf()
+        batchBytes = 0
+        batchCommandLength = 0
+      }
+      batch.add(file)
+      batchBytes += file.size
+      batchCommandLength += argumentLength
+    }
+    if (batch.isNotEmpty()) {
+      tasks.add(TransferTask.Stream(batch))
+    }
+    return DownloadPlan(remotePath, localPath, runAs, useSu, streamAll, listing.directories.size, skippedFiles.size, files.size,
+                        files.map { it.size }.sum(), tasks)
+  }
+
+  private fun executeDownloadPlan(plan: DownloadPlan, progress: DirectoryTransferProgress): ListenableFuture<Unit> {
+    myProgressExecutor.execute { progress.onListed(plan.fileCount, plan.directoryCount, plan.byteCount, plan.skippedFileCount) }
+    val state = TransferState(plan, progress)
+    val queue = ConcurrentLinkedQueue(plan.tasks)
+    val workers = List(minOf(myConnectionCount, plan.tasks.size)) {
+      myTaskExecutor.executeAsync { runWorker(queue, state) }
+    }
+    // Wait for all workers to stop, even if one of them fails, before reporting the result
+    return Futures.successfulAsList(workers).transformAsync(myTaskExecutor) {
+      state.reportProgress(true)
+      if (progress.isCancelled()) {
+        Futures.immediateCancelledFuture()
+      } else {
+        Futures.allAsList(workers).transform(myTaskExecutor) { state.throwIfFailed() }
+      }
+    }
+  }
+
+  private fun runWorker(queue: Queue<TransferTask>, state: TransferState) {
+    // Each worker pulls all its files through the same sync connection
+    var syncService: SyncService? = null
+    try {
+      while (!state.isCancelled) {
+        when (val task = queue.poll() ?: break) {
+          is TransferTask.Pull -> {
+            if (syncService == null && !StudioFlags.ADBLIB_MIGRATION_DEVICE_EXPLORER.get()) {
+              syncService = myDevice.syncService ?: throw IOException("Unable to open synchronization service to device")
+            }
+            pullSingleFile(syncService, task.file, state)
+          }
+          is TransferTask.Stream -> streamFiles(task.files, state, queue)
+        }
+      }
+    } catch (t: Throwable) {
+      // Stop the other workers
+      state.isAborted = true
+      throw t
+    } finally {
+      syncService?.close()
+    }
+  }
+
+  private fun pullSingleFile(syncService: SyncService?, file: RemoteFile, state: TransferState) {
+    val remotePath = AdbPathUtil.resolve(state.plan.remotePath, file.path)
+    val localPath = resolveLocalPath(state.plan.localPath, file.path)
+    val partialPath = getPartialPath(localPath)
+    val monitor = object : ISyncProgressMonitor {
+      override fun start(totalWork: Int) {}
+      override fun stop() {}
+      override fun isCanceled() = state.isCancelled
+      override fun startSubTask(name: String) {}
+      override fun advance(work: Int) = state.addBytes(file.path, work.toLong())
+    }
+    try {
+      if (syncService == null) {
+        pullFile(myDevice, remotePath, partialPath.toString(), monitor)
+      } else {
+        syncService.pullFile(remotePath, partialPath.toString(), monitor)
+      }
+      Files.move(partialPath, localPath, StandardCopyOption.REPLACE_EXISTING)
+      Files.setLastModifiedTime(localPath, FileTime.from(file.modifiedTime, TimeUnit.SECONDS))
+      state.addFile(file.path)
+    } catch (e: SyncException) {
+      if (e.wasCanceled()) {
+        throw CancellationException()
+      }
+      LOGGER.info("Error pulling file from \"$remotePath\" to \"$localPath\"", e)
+      state.addFailure(file.path, e)
+    } finally {
+      Files.deleteIfExists(partialPath)
+    }
+  }
+
+  private fun streamFiles(files: List<RemoteFile>, state: TransferState, queue: Queue<TransferTask>) {
+    val plan = state.plan
+    val command = getCommand(plan.runAs, plan.useSu, "tar -cf - -C ").withEscapedPath(plan.remotePath)
+    files.forEach { command.withText(" ").withText(getEscapedRelativePath(it.path)) }
+    // Errors, e.g. for files deleted since the listing, must not end up in the archive; missing files are handled below
+    command.withText(" 2>/dev/null")
+
+    val extractedPaths = HashSet<String>()
+    val extractor = TarStreamExtractor(plan.localPath, object : TarStreamExtractor.Listener {
+      override fun onBytesExtracted(path: String, byteCount: Int) = state.addBytes(path, byteCount.toLong())
+
+      override fun onFileExtracted(path: String, size: Long) {
+        extractedPaths.add(path)
+        state.addFile(path)
+      }
+    })
+    try {
+      // Note: Commands with arguments do not run in a terminal on devices that support "tar", so the archive is received unmodified
+      myShellCommandsUtil.executeRawCommand(myDevice, command.build(), object : IShellOutputReceiver {
+        override fun addOutput(data: ByteArray, offset: Int, length: Int) = extractor.write(data, offset, length)
+        override fun flush() {}
+        override fun isCancelled() = state.isCancelled
+      })
+    } finally {
+      extractor.close()
+    }
+    if (state.isCancelled) {
+      return
+    }
+
+    for (file in files.filter { it.path !in extractedPaths }) {
+      if (plan.streamAll) {
+        state.addFailure(file.path, IOException("File \"${file.path}\" could not be read"))
+      } else {
+        // Let the sync service report why the file could not be read, if it still can't
+        queue.add(TransferTask.Pull(file))
+      }
+    }
+  }
+
+  private fun getCommand(runAs: String?, useSu: Boolean, text: String): AdbShellCommandBuilder {
+    val command = AdbShellCommandBuilder()
+    if (runAs != null) {
+      command.withRunAs(runAs)
+    } else if (useSu) {
+      command.withSuRootPrefix()
+    }
+    return command.withText(text)
+  }
+
+  private sealed class TransferTask {
+    class Pull(val file: RemoteFile) : TransferTask()
+    class Stream(val files: List<RemoteFile>) : TransferTask()
+  }
+
+  private class DownloadPlan(
+    val remotePath: String,
+    val localPath: Path,
+    val runAs: String?,
+    val useSu: Boolean,
+    val streamAll: Boolean,
+    val directoryCount: Int,
+    val skippedFileCount: Int,
+    val fileCount: Int,
+    val byteCount: Long,
+    val tasks: List<TransferTask>
+  )
+
+  /**
+   * Progress and errors of all the workers of a download.
+   */
+  private inner class TransferState(val plan: DownloadPlan, private val progress: DirectoryTransferProgress) {
+    private val myThrottledProgress = ThrottledProgress(PROGRESS_REPORT_INTERVAL_MILLIS)
+    private val myFileCount = AtomicInteger()
+    private val myByteCount = AtomicLong()
+    private val myFailures = ConcurrentLinkedQueue<Pair<String, Throwable>>()
+
+    @Volatile
+    private var myCurrentPath = ""
+
+    @Volatile
+    var isAborted = false
+
+    val isCancelled: Boolean
+      get() = isAborted || progress.isCancelled()
+
+    fun addBytes(path: String, byteCount: Long) {
+      myByteCount.addAndGet(byteCount)
+      myCurrentPath = path
+      reportProgress(false)
+    }
+
+    fun addFile(path: String) {
+      myFileCount.incrementAndGet()
+      myCurrentPath = path
+      reportProgress(false)
+    }
+
+    fun addFailure(path: String, error: Throwable) {
+      myFailures.add(Pair(path, error))
+    }
+
+    @Synchronized
+    fun reportProgress(force: Boolean) {
+      if (force || myThrottledProgress.check()) {
+        // Capture values for lambda (since lambda may be executed after some delay)
+        val fullPath = AdbPathUtil.resolve(plan.remotePath, myCurrentPath)
+        val fileCount = myFileCount.get()
+        val byteCount = myByteCount.get()
+        myProgressExecutor.execute { progress.onProgress(fullPath, fileCount, byteCount) }
+      }
+    }
+
+    fun throwIfFailed() {
+      val (path, error) = myFailures.peek() ?: return
+      throw IOException("Error downloading ${myFailures.size} file(s) from \"${plan.remotePath}\", including \"$path\"", error)
+    }
+  }
+
+  companion object {
+    private fun isUpToDate(file: RemoteFile, localPath: Path): Boolean {
+      return try {
+        val attributes = Files.readAttributes(localPath, BasicFileAttributes::class.java)
+        attributes.isRegularFile &&
+        attributes.size() == file.size &&
+        attributes.lastModifiedTime().to(TimeUnit.SECONDS) == file.modifiedTime
+      } catch (e: IOException) {
+        false
+      }
+    }
+
+    /**
+     * Resolves [path], which comes from the device, against [localPath], failing if it is not inside of [localPath].
+     */
+    private fun resolveLocalPath(localPath: Path, path: String): Path {
+      val directory = localPath.normalize()
+      val resolvedPath = directory.resolve(path).normalize()
+      if (path.isEmpty() || resolvedPath == directory || !resolvedPath.startsWith(directory)) {
+        throw IOException("Invalid path in listing: \"$path\"")
+      }
+      return resolvedPath
+    }
+
+    private fun getEscapedRelativePath(path: String): String {
+      return AdbPathUtil.getSegments(path).joinToString(AdbPathUtil.FILE_SEPARATOR) { FileListingService.FileEntry.escape(it) }
+    }
+  }
+}
+
+/**
+ * A file of a [FileTreeListing], with its path relative to the root of the tree and its modification time in seconds.
+ */
+internal class RemoteFile(val path: String, val size: Long, val modifiedTime: Long)
+
+/**
+ * The directories and files of a tree on a device, with paths relative to the root of the tree.
+ */
+internal class FileTreeListing(val directories: List<String>, val files: List<RemoteFile>) {
+  companion object {
+    /**
+     * Parses the output of "find" and "stat" run on [remotePath], or returns `null` if [remotePath] itself is not listed.
+     * Entries other than files and directories, such as sockets, are ignored.
+     *
+     * File names can contain new lines, so a line may be forged by a name on the device. Paths with "." or ".." segments, which "find"
+     * never outputs, are ignored, so that a forged line can only refer to paths inside of [remotePath].
+     */
+    fun parse(remotePath: String, output: List<String>): FileTreeListing? {
+      val rootPath = remotePath.trimEnd('/')
+      var isRootListed = false
+      val directories = mutableListOf<String>()
+      val files = mutableListOf<RemoteFile>()
+      for (line in output) {
+        val (mode, size, modifiedTime, path) = STAT_OUTPUT_LINE.matchEntire(line)?.destructured ?: continue
+        if (!path.startsWith(rootPath) || (path.length > rootPath.length && path[rootPath.length] != '/')) {
+          continue
+        }
+        val segments = AdbPathUtil.getSegments(path.substring(rootPath.length))
+        if (segments.any { it == "." || it == ".." }) {
+          LOGGER.warn("Ignoring invalid path in listing: \"$path\"")
+          continue
+        }
+        val relativePath = segments.joinToString(AdbPathUtil.FILE_SEPARATOR)
+        when (mode.toInt(16) and S_IFMT) {
+          S_IFDIR -> when {
+            relativePath.isEmpty() -> isRootListed = true
+            else -> directories.add(relativePath)
+          }
+          S_IFREG -> if (relativePath.isNotEmpty()) {
+            files.add(RemoteFile(relativePath, size.toLong(), modifiedTime.toLong()))
+          }
+        }
+      }
+      return if (isRootListed) FileTreeListing(directories, files) else null
+    }
+  }
+}
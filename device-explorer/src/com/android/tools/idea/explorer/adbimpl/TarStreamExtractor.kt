@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl
+
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.TimeUnit
+
+private const val BLOCK_SIZE = 512
+
+/**
+ * Extracts a tar archive to a local directory as it is received from a device, e.g. from the output of a "tar -c" shell command,
+ * so that files are written while the rest of the archive is still being transferred.
+ *
+ * Only the subset of the format written by toybox and GNU tar is supported: regular files, directories, GNU long names and pax paths.
+ * Other entries, such as symbolic links, are skipped. Each file is written to a partial file first (see [getPartialPath]) and moved in
+ * place with the modification time recorded in the archive once complete, so that an interrupted transfer never leaves a truncated
+ * file that looks up to date.
+ */
+internal class TarStreamExtractor(private val localDirectory: Path, private val listener: Listener) {
+  private val header = ByteArray(BLOCK_SIZE)
+  private var headerLength = 0
+
+  /** Bytes of the data of the current entry, then of its padding, left to read */
+  private var dataRemaining = 0L
+  private var paddingRemaining = 0
+
+  /** Where the data of the current entry goes, if anywhere */
+  private var fileOutput: OutputStream? = null
+  private var metadataOutput: ByteArrayOutputStream? = null
+  private var metadataType = '\u0000'
+
+  private var currentPath = ""
+  private var currentSize = 0L
+  private var currentModifiedTime = 0L
+  private var currentPartialPath: Path? = null
+
+  /** Path of the next entry, set by a GNU long name or a pax header preceding it */
+  private var nextPath: String? = null
+
+  /**
+   * `true` once the end of the archive has been read. Anything following it is ignored.
+   */
+  var isComplete = false
+    private set
+
+  interface Listener {
+    /** Called as the data of the file at [path], relative to the root of the archive, is written */
+    fun onBytesExtracted(path: String, byteCount: Int)
+
+    /** Called once the file at [path], relative to the root of the archive, has been written in full */
+    fun onFileExtracted(path: String, size: Long)
+  }
+
+  @Throws(IOException::class)
+  fun write(bytes: ByteArray, offset: Int, length: Int) {
+    var position = offset
+    val end = offset + length
+    while (position < end && !isComplete) {
+      when {
+        dataRemaining > 0 -> {
+          val count = minOf(dataRemaining, (end - position).toLong()).toInt()
+          writeData(bytes, position, count)
+          position += count
+          dataRemaining -= count
+          if (dataRemaining == 0L) {
+            endEntry()
+          }
+        }
+        paddingRemaining > 0 -> {
+          val count = minOf(paddingRemaining, end - position)
+          position += count
+          paddingRemaining -= count
+        }
+        else -> {
+          val count = minOf(BLOCK_SIZE - headerLength, end - position)
+          System.arraycopy(bytes, position, header, headerLength, count)
+          position += count
+          headerLength += count
+          if (headerLength == BLOCK_SIZE) {
+            headerLength = 0
+            startEntry()
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Releases the file being written, if any, and deletes it since it is incomplete.
+   */
+  fun close() {
+    fileOutput?.let {
+      it.close()
+      fileOutput = null
+      currentPartialPath?.let(Files::deleteIfExists)
+    }
+  }
+
+  private fun startEntry() {
+    if (header.all { it == 0.toByte() }) {
+      isComplete = true
+      return
+    }
+    val size = parseNumber(124, 12)
+    dataRemaining = size
+    paddingRemaining = ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE).toInt()
+
+    val type = header[156].toChar()
+    when (type) {
+      // Global pax headers apply to all entries, which is not needed for the files we extract
+      'g' -> return
+      'L', 'x' -> {
+        metadataType = type
+        metadataOutput = ByteArrayOutputStream(minOf(size, BLOCK_SIZE.toLong()).toInt())
+        if (size == 0L) {
+          endEntry()
+        }
+        return
+      }
+    }
+
+    val path = normalizePath(nextPath ?: parseName())
+    nextPath = null
+    when (type) {
+      '0', '\u0000', '7' -> {
+        currentPath = path
+        currentSize = size
+        currentModifiedTime = parseNumber(136, 12)
+        val localPath = resolveLocalPath(path)
+        Files.createDirectories(localPath.parent)
+        currentPartialPath = getPartialPath(localPath)
+        fileOutput = Files.newOutputStream(currentPartialPath!!).buffered()
+        if (size == 0L) {
+          endEntry()
+        }
+      }
+      '5' -> Files.createDirectories(resolveLocalPath(path))
+    }
+  }
+
+  private fun writeData(bytes: ByteArray, offset: Int, length: Int) {
+    fileOutput?.let {
+      it.write(bytes, offset, length)
+      listener.onBytesExtracted(currentPath, length)
+    }
+    metadataOutput?.write(bytes, offset, length)
+  }
+
+  private fun endEntry() {
+    fileOutput?.let {
+      it.close()
+      fileOutput = null
+      val partialPath = currentPartialPath!!
+      val localPath = resolveLocalPath(currentPath)
+      Files.move(partialPath, localPath, StandardCopyOption.REPLACE_EXISTING)
+      Files.setLastModifiedTime(localPath, FileTime.from(currentModifiedTime, TimeUnit.SECONDS))
+      listener.onFileExtracted(currentPath, currentSize)
+    }
+    metadataOutput?.let {
+      metadataOutput = null
+      val metadata = it.toByteArray()
+      nextPath = when (metadataType) {
+        'L' -> String(metadata, Charsets.UTF_8).trimEnd('\u0000')
+        else -> parsePaxPath(metadata) ?: nextPath
+      }
+    }
+  }
+
+  private fun parseName(): String {
+    val name = parseString(0, 100)
+    // The POSIX "ustar" format splits long names between a prefix and a name, unlike the GNU format ("ustar" followed by spaces)
+    val prefix = if (parseString(257, 6) == "ustar") parseString(345, 155) else ""
+    return if (prefix.isEmpty()) name else "$prefix/$name"
+  }
+
+  private fun parseString(offset: Int, length: Int): String {
+    var end = offset
+    while (end < offset + length && header[end] != 0.toByte()) {
+      end++
+    }
+    return String(header, offset, end - offset, Charsets.UTF_8)
+  }
+
+  private fun parseNumber(offset: Int, length: Int): Long {
+    // Numbers too large for octal digits are stored in binary, flagged by the highest bit of the first byte
+    if ((header[offset].toInt() and 0x80) != 0) {
+      var value = (header[offset].toLong() and 0x7f)
+      for (i in offset + 1 until offset + length) {
+        value = (value shl 8) or (header[i].toLong() and 0xff)
+      }
+      return value
+    }
+    val text = parseString(offset, length).trim()
+    return if (text.isEmpty()) 0 else text.toLong(8)
+  }
+
+  private fun resolveLocalPath(path: String): Path {
+    val localPath = localDirectory.resolve(path).normalize()
+    if (path.isEmpty() || !localPath.startsWith(localDirectory)) {
+      throw IOException("Invalid path in archive: \"$path\"")
+    }
+    return localPath
+  }
+
+  companion object {
+    /**
+     * Returns the value of the "path" record of pax extended header [data], made of "length key=value\n" records.
+     */
+    private fun parsePaxPath(data: ByteArray): String? {
+      var position = 0
+      while (position < data.size) {
+        val space = (position until data.size).firstOrNull { data[it] == ' '.toByte() } ?: return null
+        val length = String(data, position, space - position, Charsets.UTF_8).toIntOrNull() ?: return null
+        if (length <= 0 || position + length > data.size) {
+          return null
+        }
+        val record = String(data, space + 1, position + length - space - 2, Charsets.UTF_8)
+        if (record.startsWith("path=")) {
+          return record.substring("path=".length)
+        }
+        position += length
+      }
+      return null
+    }
+
+    private fun normalizePath(path: String): String {
+      return path.split('/').filter { it.isNotEmpty() && it != "." }.joinToString("/")
+    }
+  }
+}
+
+/**
+ * Returns the path of the file [localPath] is written to until it is complete.
+ */
+internal fun getPartialPath(localPath: Path): Path {
+  return localPath.resolveSibling(".${localPath.fileName}.partial")
+}
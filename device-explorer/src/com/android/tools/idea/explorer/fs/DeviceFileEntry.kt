@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.explorer.fs
 
+import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
 import java.nio.file.Path
 
@@ -81,6 +82,21 @@ interface DeviceFileEntry {
     progress: FileTransferProgress
   ): ListenableFuture<Unit>
 
+  /**
+   * Downloads this directory and all its contents to a local directory at once, which is faster than downloading
+   * its entries one by one. Files already present locally with the same size and modification time are not
+   * downloaded again, so that an interrupted download can be resumed.
+   *
+   * The future completes with an [UnsupportedOperationException] if the file system or the device does not
+   * support it, in which case entries should be downloaded one by one with [downloadFile].
+   */
+  fun downloadDirectory(
+    localPath: Path,
+    progress: DirectoryTransferProgress
+  ): ListenableFuture<Unit> {
+    return Futures.immediateFailedFuture(UnsupportedOperationException("Downloading a whole directory is not supported"))
+  }
+
   /**
    * Uploads the contents of a local file to a remote [DeviceFileEntry] directory.
    */
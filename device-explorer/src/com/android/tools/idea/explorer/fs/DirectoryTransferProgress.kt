@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.fs
+
+import com.android.annotations.concurrency.UiThread
+import com.android.annotations.concurrency.WorkerThread
+
+/**
+ * Progress indicator for transferring a whole directory tree, aggregated across all the files transferred concurrently.
+ */
+interface DirectoryTransferProgress {
+  /**
+   * Called once the tree has been listed, with the number of files and bytes that need to be transferred.
+   * Files that are already up to date are not transferred and are only counted in [skippedFileCount].
+   */
+  @UiThread
+  fun onListed(fileCount: Int, directoryCount: Int, byteCount: Long, skippedFileCount: Int)
+
+  /**
+   * Reports the number of files and bytes transferred so far, as well as a file currently being transferred.
+   * Unlike [FileTransferProgress.progress], the values are not reset from one file to the next.
+   */
+  @UiThread
+  fun onProgress(currentFullPath: String, fileCount: Int, byteCount: Long)
+
+  /**
+   * Queries if the transfer should be cancelled, see [FileTransferProgress.isCancelled].
+   */
+  @WorkerThread
+  fun isCancelled(): Boolean
+}
@@ -40,6 +40,7 @@ import com.android.tools.idea.explorer.mocks.MockDeviceFileEntry;
 import com.android.tools.idea.explorer.mocks.MockDeviceFileSystem;
 import com.android.tools.idea.explorer.mocks.MockDeviceFileSystemRenderer;
 import com.android.tools.idea.explorer.mocks.MockDeviceFileSystemService;
+import com.android.tools.idea.flags.StudioFlags;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.ide.ClipboardSynchronizer;
@@ -876,6 +877,68 @@ public class DeviceExplorerControllerTest extends AndroidTestCase {
     assertTrue(createdFiles.stream().anyMatch(x -> Objects.equals(x.getName(), myFooDir.getName())));
   }
 
+  public void testFileSystemTree_ContextMenu_SaveDirectoryAs_FallsBackToEntries() throws Exception {
+    // Prepare
+    StudioFlags.DEVICE_EXPLORER_DIRECTORY_DOWNLOAD.override(true);
+    try {
+      DeviceExplorerController controller = createController();
+      controller.setup();
+      pumpEventsAndWaitForFuture(myMockView.getStartRefreshTracker().consume());
+      checkMockViewInitialState(controller, myDevice1);
+
+      TreePath fooPath = getFileEntryPath(myFoo);
+      myMockView.getTree().setSelectionPath(fooPath);
+
+      ActionGroup actionGroup = myMockView.getFileTreeActionGroup();
+      AnAction action = getActionByText(actionGroup, "Save As...");
+      assertNotNull(action);
+      AnActionEvent e = createContentMenuItemEvent();
+      action.update(e);
+
+      // The mock file system does not support downloading a whole directory, so its entries are downloaded one by one
+      File tempDirectory = FileUtil.createTempDirectory("saveAsDir", "");
+      FileChooserFactoryImpl factory = new FileChooserFactoryImpl() {
+        @NotNull
+        @Override
+        public PathChooserDialog createPathChooser(@NotNull FileChooserDescriptor descriptor,
+                                                   @Nullable Project project,
+                                                   @Nullable Component parent) {
+          return (toSelect, callback) -> {
+            List<VirtualFile> list = Collections.singletonList(new VirtualFileWrapper(tempDirectory).getVirtualFile());
+            callback.consume(list);
+          };
+        }
+      };
+      ServiceContainerUtil.replaceService(ApplicationManager.getApplication(), FileChooserFactory.class, factory, getTestRootDisposable());
+
+      // Act
+      myMockView.getStartTreeBusyIndicatorTacker().clear();
+      myMockView.getStopTreeBusyIndicatorTacker().clear();
+      myMockView.getReportMessageRelatedToNodeTracker().clear();
+      action.actionPerformed(e);
+
+      // Assert
+      pumpEventsAndWaitForFuture(myMockView.getStartTreeBusyIndicatorTacker().consume());
+      pumpEventsAndWaitForFuture(myMockView.getStopTreeBusyIndicatorTacker().consume());
+      String summaryMessage = pumpEventsAndWaitForFuture(myMockView.getReportMessageRelatedToNodeTracker().consume());
+
+      assertNotNull(summaryMessage);
+      assertTrue(summaryMessage.contains("Successfully downloaded"));
+      assertEquals(1, myFoo.getDownloadDirectoryCount());
+
+      File[] files = tempDirectory.listFiles();
+      assertNotNull(files);
+      List<File> createdFiles = Arrays.asList(files);
+      assertEquals(4, createdFiles.size());
+      assertTrue(createdFiles.stream().anyMatch(x -> Objects.equals(x.getName(), myFooFile1.getName())));
+      assertTrue(createdFiles.stream().anyMatch(x -> Objects.equals(x.getName(), myFooFile2.getName())));
+      assertTrue(createdFiles.stream().anyMatch(x -> Objects.equals(x.getName(), myFooDir.getName())));
+    }
+    finally {
+      StudioFlags.DEVICE_EXPLORER_DIRECTORY_DOWNLOAD.clearOverride();
+    }
+  }
+
   public void testFileSystemTree_ContextMenu_SaveMultipleFilesAs_Works() throws Exception {
     // Prepare
     DeviceExplorerController controller = createController();
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl
+
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
+import com.google.common.truth.Truth.assertThat
+import com.google.common.util.concurrent.MoreExecutors
+import org.jetbrains.ide.PooledThreadExecutor
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mockito.mock
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+class AdbFileTreeTransferTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun testParseIgnoresPathsOutsideOfRoot() {
+    val listing = FileTreeListing.parse("/sdcard/Download", listOf(
+      "41f9 4096 1600000000 /sdcard/Download",
+      "81b0 5 1600000001 /sdcard/Download/../file.txt",
+      "81b0 5 1600000002 /sdcard/Download/dir/../../file.txt",
+      "41f9 4096 1600000003 /sdcard/Download/..",
+      "81b0 5 1600000004 /sdcard/Download/./file.txt",
+      "81b0 5 1600000005 /sdcard/Download/file..txt"))
+
+    assertThat(listing).isNotNull()
+    assertThat(listing!!.directories).isEmpty()
+    assertThat(listing.files.map { it.path }).containsExactly("file..txt")
+  }
+
+  @Test
+  fun testParseIgnoresForgedLineOutsideOfRoot() {
+    // A file named "name\n81b0 5 1600000000 /sdcard/Download/../../../file.txt" outputs two lines
+    val output = "41f9 4096 1600000000 /sdcard/Download\n" +
+                 "81b0 5 1600000001 /sdcard/Download/name\n" +
+                 "81b0 5 1600000000 /sdcard/Download/../../../file.txt"
+
+    val listing = FileTreeListing.parse("/sdcard/Download", output.split("\n"))
+
+    assertThat(listing!!.files.map { it.path }).containsExactly("name")
+  }
+
+  @Test
+  fun testDownloadDirectorySkipsUpToDateFiles() {
+    val device = MockDdmlibDevice()
+    device.shellCommands.add(LISTING_COMMAND,
+                             "41f9 4096 1600000000 /sdcard/Download/\n" +
+                             "41f9 4096 1600000000 /sdcard/Download/dir\n" +
+                             "81b0 5 1600000001 /sdcard/Download/dir/unchanged.txt\n" +
+                             "81b0 3 1600000002 /sdcard/Download/dir/changed.txt\n")
+    // Only the changed file can be pulled, so pulling the unchanged one fails the download
+    device.addRemoteFile("/sdcard/Download/dir/changed.txt", 3)
+    val localPath = tempFolder.newFolder().toPath()
+    createLocalFile(localPath.resolve("dir/unchanged.txt"), 5, 1600000001)
+    createLocalFile(localPath.resolve("dir/changed.txt"), 3, 1600000000)
+    val progress = TestDirectoryTransferProgress()
+
+    createTransfer(device).downloadDirectory("/sdcard/Download/", localPath, null, progress).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+
+    assertThat(progress.fileCount).isEqualTo(1)
+    assertThat(progress.skippedFileCount).isEqualTo(1)
+    assertThat(Files.getLastModifiedTime(localPath.resolve("dir/changed.txt")).to(TimeUnit.SECONDS)).isEqualTo(1600000002L)
+    assertThat(Files.getLastModifiedTime(localPath.resolve("dir/unchanged.txt")).to(TimeUnit.SECONDS)).isEqualTo(1600000001L)
+  }
+
+  @Test
+  fun testDownloadDirectoryDoesNotWriteOutsideOfLocalPath() {
+    val device = MockDdmlibDevice()
+    device.shellCommands.add(LISTING_COMMAND,
+                             "41f9 4096 1600000000 /sdcard/Download/\n" +
+                             "41f9 4096 1600000000 /sdcard/Download/../outside\n" +
+                             "81b0 3 1600000001 /sdcard/Download/../outside.txt\n")
+    device.addRemoteFile("/sdcard/Download/../outside.txt", 3)
+    val parentPath = tempFolder.newFolder().toPath()
+    val localPath = parentPath.resolve("Download")
+    val progress = TestDirectoryTransferProgress()
+
+    createTransfer(device).downloadDirectory("/sdcard/Download/", localPath, null, progress).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+
+    assertThat(progress.fileCount).isEqualTo(0)
+    assertThat(Files.exists(parentPath.resolve("outside"))).isFalse()
+    assertThat(Files.exists(parentPath.resolve("outside.txt"))).isFalse()
+  }
+
+  @Test
+  fun testDownloadDirectoryFailsWithUnsupportedOperationWhenNotListed() {
+    val device = MockDdmlibDevice()
+    device.shellCommands.add(LISTING_COMMAND, "find: /sdcard/Download/: Permission denied\n")
+
+    val future = createTransfer(device).downloadDirectory("/sdcard/Download/", tempFolder.newFolder().toPath(), null,
+                                                          TestDirectoryTransferProgress())
+
+    val error = try {
+      future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+      null
+    }
+    catch (e: ExecutionException) {
+      e.cause
+    }
+    assertThat(error).isInstanceOf(UnsupportedOperationException::class.java)
+  }
+
+  private fun createTransfer(device: MockDdmlibDevice): AdbFileTreeTransfer {
+    // Without stubbing, the device has neither root access nor the "tar" command, so all files are pulled through the sync service
+    return AdbFileTreeTransfer(device.iDevice, mock(AdbDeviceCapabilities::class.java), MoreExecutors.directExecutor(),
+                               PooledThreadExecutor.INSTANCE)
+  }
+
+  private fun createLocalFile(path: Path, size: Int, modifiedTime: Long) {
+    Files.createDirectories(path.parent)
+    Files.write(path, ByteArray(size))
+    Files.setLastModifiedTime(path, FileTime.from(modifiedTime, TimeUnit.SECONDS))
+  }
+
+  private class TestDirectoryTransferProgress : DirectoryTransferProgress {
+    var fileCount = -1
+    var skippedFileCount = -1
+
+    override fun onListed(fileCount: Int, directoryCount: Int, byteCount: Long, skippedFileCount: Int) {
+      this.fileCount = fileCount
+      this.skippedFileCount = skippedFileCount
+    }
+
+    override fun onProgress(currentFullPath: String, fileCount: Int, byteCount: Long) {}
+
+    override fun isCancelled() = false
+  }
+
+  companion object {
+    private const val TIMEOUT_MILLIS = 30_000L
+    private const val LISTING_COMMAND = "find /sdcard/Download/ -exec stat -L -c '%f %s %Y %n' {} + 2>/dev/null"
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+class TarStreamExtractorTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun testExtractFilesAndDirectories() {
+    val longName = "dir/" + "a".repeat(150) + ".txt"
+    val archive = ByteArrayOutputStream().apply {
+      addEntry("dir/", '5', ByteArray(0))
+      addEntry("dir/file.txt", '0', "Hello".toByteArray())
+      addEntry("././@LongLink", 'L', longName.toByteArray())
+      addEntry(longName.substring(0, 100), '0', ByteArray(1000) { it.toByte() })
+      addEntry("empty.txt", '0', ByteArray(0))
+      write(ByteArray(1024))
+    }.toByteArray()
+
+    val directory = tempFolder.newFolder().toPath()
+    val extractedFiles = mutableListOf<String>()
+    var extractedBytes = 0L
+    val extractor = TarStreamExtractor(directory, object : TarStreamExtractor.Listener {
+      override fun onBytesExtracted(path: String, byteCount: Int) {
+        extractedBytes += byteCount
+      }
+
+      override fun onFileExtracted(path: String, size: Long) {
+        extractedFiles.add(path)
+      }
+    })
+    // Feed the archive in chunks that do not line up with tar blocks
+    archive.toList().chunked(100).forEach { extractor.write(it.toByteArray(), 0, it.size) }
+
+    assertThat(extractor.isComplete).isTrue()
+    assertThat(extractedFiles).containsExactly("dir/file.txt", longName, "empty.txt").inOrder()
+    assertThat(extractedBytes).isEqualTo(1005L)
+    assertThat(String(Files.readAllBytes(directory.resolve("dir/file.txt")))).isEqualTo("Hello")
+    assertThat(Files.readAllBytes(directory.resolve(longName))).isEqualTo(ByteArray(1000) { it.toByte() })
+    assertThat(Files.size(directory.resolve("empty.txt"))).isEqualTo(0L)
+    assertThat(Files.getLastModifiedTime(directory.resolve("dir/file.txt")).to(TimeUnit.SECONDS)).isEqualTo(MODIFIED_TIME)
+    assertThat(Files.exists(getPartialPath(directory.resolve("dir/file.txt")))).isFalse()
+  }
+
+  @Test
+  fun testCloseDeletesIncompleteFile() {
+    val archive = ByteArrayOutputStream().apply {
+      addEntry("file.txt", '0', ByteArray(2000))
+    }.toByteArray()
+
+    val directory = tempFolder.newFolder().toPath()
+    val extractor = TarStreamExtractor(directory, object : TarStreamExtractor.Listener {
+      override fun onBytesExtracted(path: String, byteCount: Int) {}
+      override fun onFileExtracted(path: String, size: Long) {}
+    })
+    extractor.write(archive, 0, 1024)
+    assertThat(Files.exists(getPartialPath(directory.resolve("file.txt")))).isTrue()
+    extractor.close()
+
+    assertThat(extractor.isComplete).isFalse()
+    assertThat(Files.exists(getPartialPath(directory.resolve("file.txt")))).isFalse()
+    assertThat(Files.exists(directory.resolve("file.txt"))).isFalse()
+  }
+
+  @Test(expected = IOException::class)
+  fun testRejectPathOutsideOfDirectory() {
+    val archive = ByteArrayOutputStream().apply {
+      addEntry("../file.txt", '0', "Hello".toByteArray())
+    }.toByteArray()
+
+    val extractor = TarStreamExtractor(tempFolder.newFolder().toPath(), object : TarStreamExtractor.Listener {
+      override fun onBytesExtracted(path: String, byteCount: Int) {}
+      override fun onFileExtracted(path: String, size: Long) {}
+    })
+    extractor.write(archive, 0, archive.size)
+  }
+
+  @Test
+  fun testParseFileTreeListing() {
+    val listing = FileTreeListing.parse("/sdcard/Download/", listOf(
+      "41f9 4096 1600000000 /sdcard/Download/",
+      "41f9 4096 1600000001 /sdcard/Download/dir",
+      "81b0 5 1600000002 /sdcard/Download/dir/file with spaces.txt",
+      "c1b0 0 1600000003 /sdcard/Download/socket",
+      "81b0 5 1600000004 /sdcard/Downloads/file.txt",
+      "stat: permission denied"))
+
+    assertThat(listing).isNotNull()
+    assertThat(listing!!.directories).containsExactly("dir")
+    assertThat(listing.files.map { it.path }).containsExactly("dir/file with spaces.txt")
+    assertThat(listing.files[0].size).isEqualTo(5L)
+    assertThat(listing.files[0].modifiedTime).isEqualTo(1600000002L)
+
+    assertThat(FileTreeListing.parse("/sdcard/Download", listOf("81b0 5 1600000000 /sdcard/Download/file.txt"))).isNull()
+  }
+
+  private fun ByteArrayOutputStream.addEntry(name: String, type: Char, data: ByteArray) {
+    val header = ByteArray(512)
+    name.toByteArray().copyInto(header, 0)
+    String.format("%011o", data.size).toByteArray().copyInto(header, 124)
+    String.format("%011o", MODIFIED_TIME).toByteArray().copyInto(header, 136)
+    header[156] = type.toByte()
+    "ustar\u000000".toByteArray().copyInto(header, 257)
+    write(header)
+    write(data)
+    write(ByteArray((512 - data.size % 512) % 512))
+  }
+
+  companion object {
+    private const val MODIFIED_TIME = 1600000000L
+  }
+}
@@ -21,6 +21,7 @@ import com.android.tools.idea.concurrency.delayedOperation
 import com.android.tools.idea.concurrency.delayedValue
 import com.android.tools.idea.explorer.adbimpl.AdbPathUtil
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.google.common.util.concurrent.ListenableFuture
 import java.nio.file.Path
@@ -43,6 +44,7 @@ class MockDeviceFileEntry(
   override var size: Long = 0
   var getEntriesError: Throwable? = null
   var deleteError: Throwable? = null
+  var downloadDirectoryCount = 0
   override fun toString() = name
 
   @Throws(AdbShellCommandException::class)
@@ -126,6 +128,11 @@ class MockDeviceFileEntry(
     return fileSystem.downloadFile(this, localPath, progress)
   }
 
+  override fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress): ListenableFuture<Unit> {
+    downloadDirectoryCount++
+    return delayedError(UnsupportedOperationException("Downloading a whole directory is not supported"), OPERATION_TIMEOUT_MILLIS)
+  }
+
   override fun uploadFile(localPath: Path, fileName: String, progress: FileTransferProgress): ListenableFuture<Unit> {
     return fileSystem.uploadFile(localPath, this, fileName, progress)
   }
@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.logcat
 
+import com.android.annotations.concurrency.GuardedBy
 import com.android.annotations.concurrency.UiThread
 import com.android.ddmlib.IDevice
 import com.android.ddmlib.logcat.LogCatMessage
@@ -24,8 +25,10 @@ import com.android.tools.idea.concurrency.AndroidDispatchers.ioThread
 import com.android.tools.idea.concurrency.AndroidDispatchers.uiThread
 import com.android.tools.idea.concurrency.AndroidDispatchers.workerThread
 import com.android.tools.idea.ddms.DeviceContext
+import com.android.tools.idea.flags.StudioFlags
 import com.android.tools.idea.logcat.actions.ClearLogcatAction
 import com.android.tools.idea.logcat.actions.HeaderFormatOptionsAction
+import com.android.tools.idea.logcat.actions.OpenLogcatSessionAction
 import com.android.tools.idea.logcat.filters.LogcatFilter
 import com.android.tools.idea.logcat.filters.LogcatFilterParser
 import com.android.tools.idea.logcat.folding.EditorFoldingDetector
@@ -35,10 +38,13 @@ import com.android.tools.idea.logcat.hyperlinks.HyperlinkDetector
 import com.android.tools.idea.logcat.messages.DocumentAppender
 import com.android.tools.idea.logcat.messages.FormattingOptions
 import com.android.tools.idea.logcat.messages.LogcatColors
+import com.android.tools.idea.logcat.messages.LogcatSessionLog
 import com.android.tools.idea.logcat.messages.MessageBacklog
 import com.android.tools.idea.logcat.messages.MessageFormatter
+import com.android.tools.idea.logcat.messages.MAX_MESSAGES_PER_BATCH
 import com.android.tools.idea.logcat.messages.MessageProcessor
 import com.android.tools.idea.logcat.messages.TextAccumulator
+import com.android.tools.idea.logcat.messages.createLogcatSessionLog
 import com.android.tools.idea.logcat.util.createLogcatEditor
 import com.android.tools.idea.logcat.util.isCaretAtBottom
 import com.android.tools.idea.logcat.util.isScrollAtBottom
@@ -48,6 +54,7 @@ import com.intellij.openapi.actionSystem.ActionGroup
 import com.intellij.openapi.actionSystem.ActionManager
 import com.intellij.openapi.actionSystem.AnActionEvent
 import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.diagnostic.thisLogger
 import com.intellij.openapi.editor.EditorFactory
 import com.intellij.openapi.editor.RangeMarker
 import com.intellij.openapi.editor.actions.ScrollToTheEndToolbarAction
@@ -62,6 +69,7 @@ import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.text.StringUtil
 import com.intellij.tools.SimpleActionGroup
 import com.intellij.util.ui.components.BorderLayoutPanel
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -69,6 +77,8 @@ import org.jetbrains.annotations.VisibleForTesting
 import java.awt.event.MouseAdapter
 import java.awt.event.MouseEvent
 import java.awt.event.MouseWheelEvent
+import java.io.IOException
+import java.nio.file.Path
 import java.time.ZoneId
 import kotlin.math.max
 
@@ -126,6 +136,17 @@ internal class LogcatMainPanel(
   private val toolbar = ActionManager.getInstance().createActionToolbar("LogcatMainPanel", createToolbarActions(project), false)
   private val hyperlinkDetector = hyperlinkDetector ?: EditorHyperlinkDetector(project, editor)
   private val foldingDetector = foldingDetector ?: EditorFoldingDetector(project, editor)
+  private var reloadJob: Job? = null
+  // Replays the messages of a session opened with openSession(), cancelled when the view switches to another source of messages
+  private var replayJob: Job? = null
+
+  // The session of the connected device is saved here when session capture is enabled
+  @Volatile
+  private var sessionLog: LogcatSessionLog? = null
+  private val sessionLogLock = Any()
+  // Incremented when the session log is closed, so that a session log created for a previous device is closed rather than used
+  @GuardedBy("sessionLogLock")
+  private var sessionLogGeneration = 0
   private var ignoreCaretAtBottom = false // Derived from similar code in ConsoleViewImpl. See initScrollToEndStateHandling()
 
   init {
@@ -150,6 +171,11 @@ internal class LogcatMainPanel(
         logcatReader?.let {
           Disposer.dispose(it)
         }
+        replayJob?.cancel()
+        closeSessionLog()
+        if (StudioFlags.LOGCAT_V2_SESSION_CAPTURE_ENABLE.get()) {
+          startSessionLog(device.serialNumber)
+        }
         document.setText("")
         logcatReader = LogcatReader(device, this@LogcatMainPanel).also(LogcatReader::start)
       }
@@ -159,6 +185,8 @@ internal class LogcatMainPanel(
           Disposer.dispose(it)
         }
         logcatReader = null
+        replayJob?.cancel()
+        closeSessionLog()
       }
     }, this)
 
@@ -199,6 +227,15 @@ internal class LogcatMainPanel(
   }
 
   override suspend fun processMessages(messages: List<LogCatMessage>) {
+    sessionLog?.let {
+      try {
+        it.append(messages)
+      }
+      catch (e: IOException) {
+        thisLogger().warn("Failed to save logcat messages to ${it.directory}, session capture stopped", e)
+        it.close()
+      }
+    }
     messageBacklog.addAll(messages)
     messageProcessor.appendMessages(messages)
   }
@@ -234,7 +271,77 @@ internal class LogcatMainPanel(
   }
 
   override fun dispose() {
+    replayJob?.cancel()
     EditorFactory.getInstance().releaseEditor(editor)
+    closeSessionLog()
+  }
+
+  /**
+   * Stops reading from the device and shows the messages saved in [directory] instead. They are read in batches, like from a device but
+   * without waiting for them.
+   */
+  @UiThread
+  override fun openSession(directory: Path) {
+    logcatReader?.let {
+      Disposer.dispose(it)
+    }
+    logcatReader = null
+    closeSessionLog()
+    reloadJob?.cancel()
+    replayJob?.cancel()
+    messageBacklog.clear()
+    document.setText("")
+    replayJob = AndroidCoroutineScope(this, workerThread).launch {
+      val log = try {
+        LogcatSessionLog(directory, readOnly = true)
+      }
+      catch (e: IOException) {
+        thisLogger().warn("Failed to open logcat session $directory", e)
+        return@launch
+      }
+      log.use { session ->
+        val messages = mutableListOf<LogCatMessage>()
+        var position = session.start
+        while (isActive) {
+          position = session.read(position, MAX_MESSAGES_PER_BATCH, messages) ?: break
+          if (messages.isEmpty()) {
+            break
+          }
+          processMessages(messages.toList())
+          messages.clear()
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the session log of the device with [serialNumber] in the background. Messages received before it's created aren't saved.
+   */
+  private fun startSessionLog(serialNumber: String) {
+    val generation = synchronized(sessionLogLock) { sessionLogGeneration }
+    AndroidCoroutineScope(this, ioThread).launch {
+      val log = try {
+        createLogcatSessionLog(serialNumber)
+      }
+      catch (e: IOException) {
+        thisLogger().warn("Failed to create logcat session for $serialNumber", e)
+        return@launch
+      }
+      val isCurrent = synchronized(sessionLogLock) {
+        (generation == sessionLogGeneration).also { if (it) sessionLog = log }
+      }
+      if (!isCurrent) {
+        log.close()
+      }
+    }
+  }
+
+  private fun closeSessionLog() {
+    val log = synchronized(sessionLogLock) {
+      sessionLogGeneration++
+      sessionLog.also { sessionLog = null }
+    }
+    log?.close()
   }
 
   @UiThread
@@ -252,14 +359,19 @@ internal class LogcatMainPanel(
   @UiThread
   override fun reloadMessages() {
     document.setText("")
-    AndroidCoroutineScope(this, workerThread).launch {
-      messageProcessor.appendMessages(messageBacklog.messages)
+    // Filtering a large backlog takes a while, so a reload that is still running is cancelled rather than appending stale results.
+    reloadJob?.cancel()
+    reloadJob = AndroidCoroutineScope(this, workerThread).launch {
+      messageProcessor.appendMessages(messageBacklog)
     }
   }
 
   private fun createToolbarActions(project: Project): ActionGroup {
     return SimpleActionGroup().apply {
       add(ClearLogcatAction(this@LogcatMainPanel))
+      if (StudioFlags.LOGCAT_V2_SESSION_CAPTURE_ENABLE.get()) {
+        add(OpenLogcatSessionAction(this@LogcatMainPanel))
+      }
       add(ScrollToTheEndToolbarAction(editor).apply {
         val text = LogcatBundle.message("logcat.scroll.to.end.text")
         templatePresentation.text = StringUtil.toTitleCase(text)
@@ -274,6 +386,8 @@ internal class LogcatMainPanel(
 
   @UiThread
   override fun clearMessageView() {
+    reloadJob?.cancel()
+    replayJob?.cancel()
     AndroidCoroutineScope(this, ioThread).launch {
       logcatReader?.let {
         it.stop()
@@ -284,7 +398,7 @@ internal class LogcatMainPanel(
       withContext(uiThread) {
         document.setText("")
         withContext(workerThread) {
-          messageProcessor.appendMessages(messageBacklog.messages)
+          messageProcessor.appendMessages(messageBacklog)
         }
       }
     }
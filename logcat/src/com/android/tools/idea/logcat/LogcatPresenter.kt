@@ -20,6 +20,7 @@ import com.android.ddmlib.logcat.LogCatMessage
 import com.android.tools.idea.logcat.filters.LogcatFilter
 import com.android.tools.idea.logcat.messages.TextAccumulator
 import com.intellij.openapi.Disposable
+import java.nio.file.Path
 
 /**
  * Encapsulates the presentation of Logcat messages.
@@ -49,6 +50,12 @@ internal interface LogcatPresenter : Disposable {
   @UiThread
   fun clearMessageView()
 
+  /**
+   * Replaces the device messages with the messages of a saved session
+   */
+  @UiThread
+  fun openSession(directory: Path)
+
   /**
    * Returns true if the message view is empty
    */
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.actions
+
+import com.android.tools.idea.logcat.LogcatBundle
+import com.android.tools.idea.logcat.LogcatPresenter
+import com.intellij.icons.AllIcons
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.fileChooser.FileChooser
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory
+import com.intellij.openapi.project.DumbAwareAction
+
+/**
+ * Opens a Logcat session saved to disk, see [com.android.tools.idea.logcat.messages.LogcatSessionLog].
+ */
+internal class OpenLogcatSessionAction(private val logcatPresenter: LogcatPresenter) :
+  DumbAwareAction(
+    LogcatBundle.message("logcat.open.session.title"),
+    LogcatBundle.message("logcat.open.session.description"),
+    AllIcons.Actions.MenuOpen) {
+
+  override fun actionPerformed(e: AnActionEvent) {
+    val descriptor = FileChooserDescriptorFactory.createSingleFolderDescriptor()
+      .withTitle(LogcatBundle.message("logcat.open.session.title"))
+    FileChooser.chooseFile(descriptor, e.project, null) {
+      logcatPresenter.openSession(it.toNioPath())
+    }
+  }
+}
@@ -29,13 +29,14 @@ import kotlin.text.RegexOption.IGNORE_CASE
  * The top level filter that prepares and executes a [LogcatFilter]
  */
 internal class LogcatMasterFilter(val logcatFilter: LogcatFilter?) {
+  private val compiledFilter = logcatFilter?.let(LogcatFilterCompiler::compile)
 
   fun filter(messages: List<LogCatMessage>, zoneId: ZoneId = ZoneId.systemDefault()): List<LogCatMessage> {
-    if (logcatFilter == null) {
+    if (compiledFilter == null) {
       return messages
     }
-    logcatFilter.prepare()
-    return messages.filter { logcatFilter.matches(LogcatMessageWrapper(it, zoneId)) }
+    compiledFilter.prepare()
+    return messages.filter { compiledFilter.matches(LogcatMessageWrapper(it, zoneId)) }
   }
 }
 
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.filters
+
+import com.android.tools.idea.logcat.filters.LogcatFilterField.APP
+import com.android.tools.idea.logcat.filters.LogcatFilterField.LINE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.MESSAGE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.TAG
+
+/**
+ * Compiles a [LogcatFilter] produced by [LogcatFilterParser] into an equivalent filter that is cheaper to evaluate.
+ *
+ * * Nested [AndLogcatFilter]s and [OrLogcatFilter]s are flattened and their terms are sorted by estimated cost, so that a cheap level or
+ *   tag term rejects (or accepts) a message before a regex runs on it.
+ * * The [StringFilter]s of an [OrLogcatFilter] on the same field are merged into one [AnyStringFilter], and so are the
+ *   [NegatedStringFilter]s of an [AndLogcatFilter] into a [NoStringFilter], so that the field is scanned once for all the strings.
+ *
+ * Filters are side effect free, so evaluating the terms in a different order doesn't change the result. The compiled filter holds the
+ * original leaf filters, so it can be prepared either way.
+ */
+internal object LogcatFilterCompiler {
+  fun compile(filter: LogcatFilter): LogcatFilter = when (filter) {
+    is AndLogcatFilter -> {
+      // Compiled children are flat already, so only one level needs to be flattened
+      val filters = filter.filters.map(::compile).flatMap { if (it is AndLogcatFilter) it.filters else listOf(it) }
+      combine(mergeStrings<NegatedStringFilter>(filters, { it.field }, { it.string }, ::NoStringFilter)) { AndLogcatFilter(it) }
+    }
+    is OrLogcatFilter -> {
+      val filters = filter.filters.map(::compile).flatMap { if (it is OrLogcatFilter) it.filters else listOf(it) }
+      combine(mergeStrings<StringFilter>(filters, { it.field }, { it.string }, ::AnyStringFilter)) { OrLogcatFilter(it) }
+    }
+    else -> filter
+  }
+
+  /**
+   * The estimated relative cost of evaluating [filter] on a message.
+   */
+  fun getCost(filter: LogcatFilter): Int = when (filter) {
+    is LevelFilter, is FromLevelFilter, is ToLevelFilter -> 1
+    is AgeFilter, is ProjectAppFilter -> 2
+    is StringFilter -> getFieldCost(filter.field)
+    is NegatedStringFilter -> getFieldCost(filter.field)
+    is AnyStringFilter -> getFieldCost(filter.field) + 1
+    is NoStringFilter -> getFieldCost(filter.field) + 1
+    is RegexFilter -> getFieldCost(filter.field) * 4
+    is NegatedRegexFilter -> getFieldCost(filter.field) * 4
+    is AndLogcatFilter -> filter.filters.sumOf(::getCost)
+    is OrLogcatFilter -> filter.filters.sumOf(::getCost)
+    else -> 100
+  }
+
+  // The tag and app name are short, the message is longer and the line has to be formatted before it's scanned.
+  private fun getFieldCost(field: LogcatFilterField) = when (field) {
+    TAG, APP -> 3
+    MESSAGE -> 5
+    LINE -> 20
+  }
+
+  private inline fun <reified T : LogcatFilter> mergeStrings(
+    filters: List<LogcatFilter>,
+    field: (T) -> LogcatFilterField,
+    string: (T) -> String,
+    merge: (List<String>, LogcatFilterField) -> LogcatFilter,
+  ): List<LogcatFilter> {
+    val result = filters.filter { it !is T }.toMutableList()
+    filters.filterIsInstance<T>().groupBy(field).forEach { (groupField, group) ->
+      result.add(if (group.size == 1) group[0] else merge(group.map(string), groupField))
+    }
+    return result
+  }
+
+  private fun combine(filters: List<LogcatFilter>, create: (List<LogcatFilter>) -> LogcatFilter) =
+    if (filters.size == 1) filters[0] else create(filters.sortedBy(::getCost))
+}
+
+/**
+ * Matches messages whose [field] contains any of [strings], ignoring case. Equivalent to an [OrLogcatFilter] of [StringFilter]s.
+ */
+internal data class AnyStringFilter(val strings: List<String>, val field: LogcatFilterField) : LogcatFilter {
+  private val matcher = SubstringMatcher(strings)
+
+  override fun matches(message: LogcatMessageWrapper) = matcher.containsAny(field.getValue(message))
+}
+
+/**
+ * Matches messages whose [field] contains none of [strings], ignoring case. Equivalent to an [AndLogcatFilter] of
+ * [NegatedStringFilter]s.
+ */
+internal data class NoStringFilter(val strings: List<String>, val field: LogcatFilterField) : LogcatFilter {
+  private val matcher = SubstringMatcher(strings)
+
+  override fun matches(message: LogcatMessageWrapper) = !matcher.containsAny(field.getValue(message))
+}
+
+/**
+ * An Aho-Corasick automaton that finds whether a text contains any of a set of strings in a single pass, ignoring case the same way
+ * [String.contains] does.
+ */
+internal class SubstringMatcher(strings: Collection<String>) {
+  // The trie of the strings. Node 0 is the root.
+  private val transitions = mutableListOf(HashMap<Char, Int>())
+  private val failures: IntArray
+  private val isMatch: BooleanArray
+  private val matchesEmpty = strings.any(String::isEmpty)
+
+  init {
+    val isStringEnd = mutableListOf(false)
+    for (string in strings) {
+      var node = 0
+      for (c in string) {
+        node = transitions[node].getOrPut(fold(c)) {
+          transitions.add(HashMap())
+          isStringEnd.add(false)
+          transitions.size - 1
+        }
+      }
+      isStringEnd[node] = true
+    }
+    failures = IntArray(transitions.size)
+    isMatch = isStringEnd.toBooleanArray()
+
+    // Breadth first, so that the failure of a node is computed before its children's.
+    val queue = ArrayDeque<Int>()
+    transitions[0].values.forEach(queue::addLast)
+    while (queue.isNotEmpty()) {
+      val node = queue.removeFirst()
+      for ((c, child) in transitions[node]) {
+        var failure = failures[node]
+        while (failure != 0 && transitions[failure][c] == null) {
+          failure = failures[failure]
+        }
+        failures[child] = transitions[failure][c] ?: 0
+        isMatch[child] = isMatch[child] || isMatch[failures[child]]
+        queue.addLast(child)
+      }
+    }
+  }
+
+  fun containsAny(text: CharSequence): Boolean {
+    if (matchesEmpty) {
+      return true
+    }
+    var node = 0
+    for (c in text) {
+      val folded = fold(c)
+      while (node != 0 && transitions[node][folded] == null) {
+        node = failures[node]
+      }
+      node = transitions[node][folded] ?: 0
+      if (isMatch[node]) {
+        return true
+      }
+    }
+    return false
+  }
+
+  // Two chars are equal ignoring case for String.contains if their upper case, or the lower case of their upper case, are equal.
+  private fun fold(c: Char) = Character.toLowerCase(Character.toUpperCase(c))
+}
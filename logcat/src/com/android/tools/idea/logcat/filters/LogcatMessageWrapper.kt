@@ -39,7 +39,8 @@ private val DATE_TIME_FORMATTER = DateTimeFormatterBuilder()
  * Todo
  */
 internal class LogcatMessageWrapper(val logCatMessage: LogCatMessage, zoneId: ZoneId = ZoneId.systemDefault()) {
-  val logLine by lazy { toLine(zoneId) }
+  // Formatted at most once per message, however many filter terms look at it. A wrapper is only used by one thread at a time.
+  val logLine by lazy(LazyThreadSafetyMode.NONE) { toLine(zoneId) }
 
   /**
    * Canonical formatting of a [LogCatMessage] used when filtering without a specific field scope.
@@ -52,14 +52,14 @@ internal class DocumentAppender(project: Project, private val document: Document
 
     // Document has a cyclic buffer, so we need to get document.textLength again after inserting text.
     val offset = document.textLength - text.length
-    for (range in buffer.highlightRanges) {
-      range.applyRange(offset) { start, end, textAttributes ->
-        markupModel.addRangeHighlighter(start, end, HighlighterLayer.SYNTAX, textAttributes, HighlighterTargetArea.EXACT_RANGE)
+    buffer.highlights.forEach { start, end, textAttributes ->
+      applyRange(offset, start, end) { rangeStart, rangeEnd ->
+        markupModel.addRangeHighlighter(rangeStart, rangeEnd, HighlighterLayer.SYNTAX, textAttributes, HighlighterTargetArea.EXACT_RANGE)
       }
     }
-    for (range in buffer.hintRanges) {
-      range.applyRange(offset) { start, end, hint ->
-        hintRanges.add(document.createRangeMarker(start, end).apply {
+    buffer.hints.forEach { start, end, hint ->
+      applyRange(offset, start, end) { rangeStart, rangeEnd ->
+        hintRanges.add(document.createRangeMarker(rangeStart, rangeEnd).apply {
           putUserData(LOGCAT_HINT_KEY, hint)
         })
       }
@@ -84,11 +84,11 @@ internal class DocumentAppender(project: Project, private val document: Document
 // There seems to be a bug where a range that is exactly the same as a portion that's deleted remains valid but has a 0 size
 private fun RangeMarker.isReallyValid() = isValid && startOffset < endOffset
 
-private fun <T> TextAccumulator.Range<T>.applyRange(offset: Int, apply: (start: Int, end: Int, data: T) -> Unit) {
+private inline fun applyRange(offset: Int, start: Int, end: Int, apply: (start: Int, end: Int) -> Unit) {
   val rangeEnd = offset + end
   if (rangeEnd <= 0) {
     return
   }
   val rangeStart = max(offset + start, 0)
-  apply(rangeStart, rangeEnd, data)
+  apply(rangeStart, rangeEnd)
 }
\ No newline at end of file
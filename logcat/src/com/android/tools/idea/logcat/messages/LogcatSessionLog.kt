@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.messages
+
+import com.android.annotations.concurrency.WorkerThread
+import com.android.ddmlib.Log.LogLevel
+import com.android.ddmlib.logcat.LogCatHeader
+import com.android.ddmlib.logcat.LogCatMessage
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.util.io.FileUtil
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption.APPEND
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
+import java.time.Instant
+import java.time.LocalDateTime
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.ConcurrentHashMap
+import java.util.stream.Collectors
+import kotlin.text.Charsets.UTF_8
+
+private const val SEGMENT_MAGIC = 0x4C4F4753 // "LOGS"
+private const val FORMAT_VERSION = 1
+private const val SEGMENT_HEADER_SIZE = 2 * Int.SIZE_BYTES
+private const val INDEX_FILE_NAME = "index.bin"
+private const val INDEX_ENTRY_SIZE = Long.SIZE_BYTES + 2 * Int.SIZE_BYTES
+
+// A record is its length followed by the level, pid, tid, timestamp and the app name, tag and message as UTF-8, each after its length.
+private const val RECORD_FIXED_SIZE = Int.SIZE_BYTES + 1 + 2 * Int.SIZE_BYTES + Long.SIZE_BYTES + Int.SIZE_BYTES + 3 * Int.SIZE_BYTES
+
+private const val DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024
+
+// The index has an entry every INDEX_INTERVAL messages, so reading from a point in time scans at most that many messages to find it.
+private const val INDEX_INTERVAL = 512
+
+// Older sessions are deleted when a new one is created
+private const val MAX_SESSIONS = 10
+
+// Sealed segments stay mapped while they are among the last ones read
+private const val MAX_MAPPED_SEGMENTS = 4
+
+private val LOG_LEVELS = LogLevel.values()
+
+private val logger by lazy { Logger.getInstance(LogcatSessionLog::class.java) }
+
+/**
+ * An append-only log of the [LogCatMessage]s of a Logcat session on disk, so that a session can be read back long after the messages
+ * left the [MessageBacklog], or without the device.
+ *
+ * Messages are appended to segment files in [directory] of up to [maxSegmentSize] bytes. Every [INDEX_INTERVAL] messages, the position of
+ * the next message is added to a sparse index along with the latest timestamp written before it, so that reading from a point in time
+ * only scans a few messages. Segments are memory-mapped when read, rather than loaded in the heap.
+ *
+ * Opening the directory of an existing session continues it. A message that was only partially written, for example because the IDE was
+ * killed, is dropped.
+ *
+ * If [readOnly] is true, the session is only read, as it was when it was opened: nothing is created, recovered or written in [directory],
+ * which has to hold the segments of a session, and a partially written message ends the log.
+ */
+internal class LogcatSessionLog(
+  val directory: Path,
+  private val maxSegmentSize: Int = DEFAULT_MAX_SEGMENT_SIZE,
+  private val readOnly: Boolean = false,
+) : Closeable {
+  /**
+   * The position of a message in the log.
+   */
+  data class Position(val segment: Int, val offset: Int)
+
+  private var segmentCount = 0
+  private var segmentChannel: FileChannel? = null
+  private var segmentSize = 0
+  // Null if the log is read only
+  private val indexChannel: FileChannel?
+  private var buffer = ByteBuffer.allocate(64 * 1024)
+
+  // The sparse index, see the class doc
+  private var indexTimestamps = LongArray(1024)
+  private var indexSegments = IntArray(1024)
+  private var indexOffsets = IntArray(1024)
+  private var indexSize = 0
+
+  private var messagesSinceIndexEntry = 0
+  private var isClosed = false
+  private var latestTimestampMillis = Long.MIN_VALUE
+
+  private val mappedSegments = object : LinkedHashMap<Int, MappedByteBuffer>(MAX_MAPPED_SEGMENTS, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, MappedByteBuffer>) = size > MAX_MAPPED_SEGMENTS
+  }
+
+  init {
+    if (readOnly) {
+      segmentCount = if (Files.isDirectory(directory)) countSegments() else 0
+      if (segmentCount == 0 || !FileChannel.open(getSegmentPath(0), READ).use(::hasValidHeader)) {
+        throw IOException("$directory is not a logcat session")
+      }
+      indexChannel = null
+      val indexPath = directory.resolve(INDEX_FILE_NAME)
+      if (Files.exists(indexPath)) {
+        FileChannel.open(indexPath, READ).use(::readIndex)
+      }
+    }
+    else {
+      Files.createDirectories(directory)
+      segmentCount = countSegments()
+      indexChannel = FileChannel.open(directory.resolve(INDEX_FILE_NAME), CREATE, READ, WRITE)
+      readIndex(indexChannel)
+      if (segmentCount > 0) {
+        recoverLastSegment(indexChannel)
+      }
+    }
+    openSessions.add(directory.toAbsolutePath().normalize())
+  }
+
+  /**
+   * The position of the first message of the log.
+   */
+  val start = Position(0, SEGMENT_HEADER_SIZE)
+
+  /**
+   * Appends [messages] to the log. Messages appended after [close] are ignored.
+   */
+  @Synchronized
+  fun append(messages: List<LogCatMessage>) {
+    check(!readOnly) { "Logcat session $directory is read only" }
+    if (isClosed) {
+      return
+    }
+    for (message in messages) {
+      val header = message.header
+      val appName = header.appName.toByteArray(UTF_8)
+      val tag = header.tag.toByteArray(UTF_8)
+      val text = message.message.toByteArray(UTF_8)
+      val recordSize = RECORD_FIXED_SIZE + appName.size + tag.size + text.size
+      // A segment holds at least one message, however large
+      val pendingSize = segmentSize + buffer.position()
+      if (segmentChannel == null || (pendingSize + recordSize > maxSegmentSize && pendingSize > SEGMENT_HEADER_SIZE)) {
+        startSegment()
+      }
+      // Each segment starts with an index entry, so that a segment is never read from a previous one
+      val offset = segmentSize + buffer.position()
+      if (messagesSinceIndexEntry == 0 || offset == SEGMENT_HEADER_SIZE) {
+        addIndexEntry(segmentCount - 1, offset)
+        messagesSinceIndexEntry = 0
+      }
+      ensureBufferCapacity(recordSize)
+      buffer.putInt(recordSize - Int.SIZE_BYTES)
+        .put(header.logLevel.ordinal.toByte())
+        .putInt(header.pid)
+        .putInt(header.tid)
+        .putLong(header.timestamp.epochSecond)
+        .putInt(header.timestamp.nano)
+      putBytes(appName)
+      putBytes(tag)
+      putBytes(text)
+      latestTimestampMillis = maxOf(latestTimestampMillis, header.timestamp.toEpochMilli())
+      messagesSinceIndexEntry = (messagesSinceIndexEntry + 1) % INDEX_INTERVAL
+    }
+    writeBuffer()
+  }
+
+  /**
+   * Returns the position to read from to get the messages logged at [time] or later, which is at most [INDEX_INTERVAL] messages before
+   * the first such message. Messages are stored in the order they were received, so that older messages received late come after it.
+   */
+  @Synchronized
+  fun findPosition(time: Instant): Position {
+    val millis = time.toEpochMilli()
+    // The last entry that only has older messages before it
+    var low = 0
+    var high = indexSize - 1
+    while (low <= high) {
+      val middle = (low + high) ushr 1
+      if (indexTimestamps[middle] < millis) low = middle + 1 else high = middle - 1
+    }
+    return if (high < 0) start else Position(indexSegments[high], indexOffsets[high])
+  }
+
+  /**
+   * Reads up to [maxCount] messages from [position] into [messages], skipping the ones logged before [from].
+   *
+   * Fewer messages are read once the end of the log is reached. More messages can be read from the returned position once they are
+   * appended.
+   *
+   * @return the position of the next message, or null if the log is empty
+   */
+  @Synchronized
+  fun read(position: Position, maxCount: Int, messages: MutableList<LogCatMessage>, from: Instant? = null): Position? {
+    var segment = position.segment
+    var offset = position.offset
+    var count = 0
+    while (count < maxCount) {
+      val data = mapSegment(segment) ?: return null
+      if (offset >= data.limit()) {
+        if (segment + 1 >= segmentCount) {
+          return Position(segment, offset)
+        }
+        segment++
+        offset = SEGMENT_HEADER_SIZE
+        continue
+      }
+      if (readOnly && !hasCompleteRecord(data, offset)) {
+        // The session is still being written, or was interrupted, and this message was only partially written
+        return Position(segment, offset)
+      }
+      val message = readMessage(data, offset)
+      offset += Int.SIZE_BYTES + data.getInt(offset)
+      if (from == null || !message.header.timestamp.isBefore(from)) {
+        messages.add(message)
+        count++
+      }
+    }
+    return Position(segment, offset)
+  }
+
+  @Synchronized
+  override fun close() {
+    if (isClosed) {
+      return
+    }
+    isClosed = true
+    openSessions.remove(directory.toAbsolutePath().normalize())
+    try {
+      writeBuffer()
+      segmentChannel?.force(false)
+      segmentChannel?.close()
+      indexChannel?.force(false)
+      indexChannel?.close()
+    }
+    catch (e: IOException) {
+      logger.warn("Failed to close logcat session $directory", e)
+    }
+    segmentChannel = null
+    mappedSegments.clear()
+  }
+
+  private fun startSegment() {
+    writeBuffer()
+    segmentChannel?.close()
+    val channel = FileChannel.open(getSegmentPath(segmentCount), CREATE, WRITE)
+    channel.truncate(0)
+    channel.write(ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(SEGMENT_MAGIC).putInt(FORMAT_VERSION).flip())
+    segmentChannel = channel
+    segmentSize = SEGMENT_HEADER_SIZE
+    segmentCount++
+  }
+
+  private fun writeBuffer() {
+    val channel = segmentChannel ?: return
+    buffer.flip()
+    while (buffer.hasRemaining()) {
+      segmentSize += channel.write(buffer, segmentSize.toLong())
+    }
+    buffer.clear()
+  }
+
+  private fun ensureBufferCapacity(size: Int) {
+    if (buffer.remaining() < size) {
+      val newBuffer = ByteBuffer.allocate(maxOf(buffer.capacity() * 2, buffer.position() + size))
+      buffer.flip()
+      buffer = newBuffer.put(buffer)
+    }
+  }
+
+  private fun putBytes(bytes: ByteArray) {
+    buffer.putInt(bytes.size).put(bytes)
+  }
+
+  private fun addIndexEntry(segment: Int, offset: Int) {
+    if (indexSize == indexTimestamps.size) {
+      indexTimestamps = indexTimestamps.copyOf(indexSize * 2)
+      indexSegments = indexSegments.copyOf(indexSize * 2)
+      indexOffsets = indexOffsets.copyOf(indexSize * 2)
+    }
+    indexTimestamps[indexSize] = latestTimestampMillis
+    indexSegments[indexSize] = segment
+    indexOffsets[indexSize] = offset
+    indexChannel!!.write(
+      ByteBuffer.allocate(INDEX_ENTRY_SIZE).putLong(latestTimestampMillis).putInt(segment).putInt(offset).flip(),
+      indexSize.toLong() * INDEX_ENTRY_SIZE)
+    indexSize++
+  }
+
+  private fun countSegments() =
+    Files.list(directory).use { files -> files.filter { SEGMENT_FILE_NAME.matches(it.fileName.toString()) }.count().toInt() }
+
+  private fun readIndex(indexChannel: FileChannel) {
+    val entries = (indexChannel.size() / INDEX_ENTRY_SIZE).toInt()
+    val bytes = ByteBuffer.allocate(entries * INDEX_ENTRY_SIZE)
+    while (bytes.hasRemaining() && indexChannel.read(bytes, bytes.position().toLong()) >= 0) {
+      // Keep reading
+    }
+    bytes.flip()
+    indexTimestamps = LongArray(maxOf(entries, 1024))
+    indexSegments = IntArray(indexTimestamps.size)
+    indexOffsets = IntArray(indexTimestamps.size)
+    for (i in 0 until entries) {
+      val timestamp = bytes.long
+      val segment = bytes.int
+      val offset = bytes.int
+      // Entries of segments that are gone, e.g. if the session was written by an interrupted IDE, are dropped
+      if (segment >= segmentCount) {
+        break
+      }
+      indexTimestamps[i] = timestamp
+      indexSegments[i] = segment
+      indexOffsets[i] = offset
+      indexSize++
+    }
+  }
+
+  /**
+   * Finds the end of the last segment, from its last index entry, and drops what is after the last complete message.
+   */
+  private fun recoverLastSegment(indexChannel: FileChannel) {
+    val segment = segmentCount - 1
+    val path = getSegmentPath(segment)
+    val channel = FileChannel.open(path, READ, WRITE)
+    if (!hasValidHeader(channel)) {
+      // The IDE stopped before writing anything to the segment, so it's started over
+      channel.close()
+      segmentCount--
+      while (indexSize > 0 && indexSegments[indexSize - 1] >= segmentCount) {
+        indexSize--
+      }
+      indexChannel.truncate(indexSize.toLong() * INDEX_ENTRY_SIZE)
+      latestTimestampMillis = if (indexSize > 0) indexTimestamps[indexSize - 1] else Long.MIN_VALUE
+      return
+    }
+    var lastEntry = indexSize - 1
+    while (lastEntry >= 0 && indexSegments[lastEntry] == segment && indexOffsets[lastEntry] > channel.size()) {
+      lastEntry--
+    }
+    indexSize = lastEntry + 1
+    val hasEntry = lastEntry >= 0 && indexSegments[lastEntry] == segment
+    val start = if (hasEntry) indexOffsets[lastEntry] else SEGMENT_HEADER_SIZE
+    latestTimestampMillis = if (lastEntry >= 0) indexTimestamps[lastEntry] else Long.MIN_VALUE
+    // The tail is read rather than mapped, since a mapped file can't be truncated on Windows
+    val tail = ByteBuffer.allocate((channel.size() - start).toInt())
+    while (tail.hasRemaining() && channel.read(tail, start.toLong() + tail.position()) >= 0) {
+      // Keep reading
+    }
+    var tailOffset = 0
+    var messages = 0
+    while (hasCompleteRecord(tail, tailOffset)) {
+      val length = tail.getInt(tailOffset)
+      latestTimestampMillis = maxOf(latestTimestampMillis, readMessage(tail, tailOffset).header.timestamp.toEpochMilli())
+      messages++
+      tailOffset += Int.SIZE_BYTES + length
+    }
+    val offset = start + tailOffset
+    // If the message of the last entry was dropped, the entry already points to the next message
+    messagesSinceIndexEntry = if (hasEntry && messages == 0) 1 else messages % INDEX_INTERVAL
+    if (offset < channel.size()) {
+      logger.warn("Dropping ${channel.size() - offset} bytes of partially written messages from $path")
+      channel.truncate(offset.toLong())
+    }
+    // Rewrite the index without the entries that were dropped
+    indexChannel.truncate(indexSize.toLong() * INDEX_ENTRY_SIZE)
+    segmentChannel = channel
+    segmentSize = offset
+  }
+
+  private fun hasCompleteRecord(data: ByteBuffer, offset: Int): Boolean {
+    if (offset + Int.SIZE_BYTES > data.limit()) {
+      return false
+    }
+    val length = data.getInt(offset)
+    return length >= RECORD_FIXED_SIZE - Int.SIZE_BYTES && offset.toLong() + Int.SIZE_BYTES + length <= data.limit()
+  }
+
+  private fun hasValidHeader(channel: FileChannel): Boolean {
+    val header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE)
+    channel.read(header, 0)
+    header.flip()
+    return header.remaining() == SEGMENT_HEADER_SIZE && header.int == SEGMENT_MAGIC && header.int == FORMAT_VERSION
+  }
+
+  /**
+   * Maps the written part of [segment], or returns null if there is no such segment.
+   */
+  private fun mapSegment(segment: Int): MappedByteBuffer? {
+    if (segment >= segmentCount) {
+      return null
+    }
+    // A read only log doesn't write, so all its segments are read as they are
+    val isCurrentSegment = segment == segmentCount - 1 && !readOnly
+    if (!isCurrentSegment) {
+      mappedSegments[segment]?.let { return it }
+    }
+    else {
+      // The segment being written grows, so it's mapped again when it has grown
+      writeBuffer()
+      mappedSegments[segment]?.takeIf { it.limit() == segmentSize }?.let { return it }
+    }
+    val data = FileChannel.open(getSegmentPath(segment), READ).use { channel ->
+      val size = if (isCurrentSegment) segmentSize.toLong() else channel.size()
+      channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+    }
+    mappedSegments[segment] = data
+    return data
+  }
+
+  private fun readMessage(data: ByteBuffer, recordOffset: Int): LogCatMessage {
+    var offset = recordOffset + Int.SIZE_BYTES
+    val level = LOG_LEVELS[data.get(offset).toInt()]
+    offset += 1
+    val pid = data.getInt(offset)
+    val tid = data.getInt(offset + Int.SIZE_BYTES)
+    val seconds = data.getLong(offset + 2 * Int.SIZE_BYTES)
+    val nanos = data.getInt(offset + 2 * Int.SIZE_BYTES + Long.SIZE_BYTES)
+    offset += 3 * Int.SIZE_BYTES + Long.SIZE_BYTES
+    val appName = readString(data, offset)
+    offset += Int.SIZE_BYTES + data.getInt(offset)
+    val tag = readString(data, offset)
+    offset += Int.SIZE_BYTES + data.getInt(offset)
+    val message = readString(data, offset)
+    return LogCatMessage(LogCatHeader(level, pid, tid, appName, tag, Instant.ofEpochSecond(seconds, nanos.toLong())), message)
+  }
+
+  private fun readString(data: ByteBuffer, offset: Int): String {
+    val bytes = ByteArray(data.getInt(offset))
+    data.duplicate().apply { position(offset + Int.SIZE_BYTES) }.get(bytes)
+    return String(bytes, UTF_8)
+  }
+
+  private fun getSegmentPath(segment: Int) = directory.resolve("segment-%05d.log".format(segment))
+}
+
+private val SEGMENT_FILE_NAME = Regex("segment-(\\d+)\\.log")
+
+// The directories of the sessions opened in this process, which must not be deleted
+private val openSessions: MutableSet<Path> = ConcurrentHashMap.newKeySet()
+
+/**
+ * Creates the log of a new session of the device with [serialNumber], deleting the oldest sessions in [sessionsDirectory] past
+ * [MAX_SESSIONS], except the ones that are open. This does I/O, so it must not be called on the UI thread.
+ */
+@WorkerThread
+internal fun createLogcatSessionLog(
+  serialNumber: String,
+  sessionsDirectory: Path = Paths.get(PathManager.getSystemPath(), "logcat", "sessions"),
+): LogcatSessionLog {
+  Files.createDirectories(sessionsDirectory)
+  val sessions = Files.list(sessionsDirectory).use { files -> files.filter(Files::isDirectory).sorted().collect(Collectors.toList()) }
+  sessions.take(maxOf(0, sessions.size - MAX_SESSIONS + 1))
+    .filter { !openSessions.contains(it.toAbsolutePath().normalize()) }
+    .forEach { FileUtil.delete(it.toFile()) }
+  // The session name starts with the time, so that sorting sessions by name sorts them by age. Creating the directory fails if another
+  // session was created at the same time, in which case a counter is added to the name.
+  val time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS"))
+  val deviceName = FileUtil.sanitizeFileName(serialNumber)
+  var attempt = 0
+  while (true) {
+    val directory = sessionsDirectory.resolve(if (attempt == 0) "$time-$deviceName" else "$time-$attempt-$deviceName")
+    try {
+      Files.createDirectory(directory)
+      return LogcatSessionLog(directory)
+    }
+    catch (e: FileAlreadyExistsException) {
+      attempt++
+    }
+  }
+}
@@ -15,8 +15,45 @@
  */
 package com.android.tools.idea.logcat.messages
 
+import com.android.annotations.concurrency.GuardedBy
+import com.android.ddmlib.Log.LogLevel
+import com.android.ddmlib.logcat.LogCatHeader
 import com.android.ddmlib.logcat.LogCatMessage
+import com.android.tools.idea.logcat.filters.AndLogcatFilter
+import com.android.tools.idea.logcat.filters.FromLevelFilter
+import com.android.tools.idea.logcat.filters.LevelFilter
+import com.android.tools.idea.logcat.filters.LogcatFilter
+import com.android.tools.idea.logcat.filters.LogcatFilterCompiler
+import com.android.tools.idea.logcat.filters.LogcatFilterField
+import com.android.tools.idea.logcat.filters.LogcatFilterField.APP
+import com.android.tools.idea.logcat.filters.LogcatFilterField.TAG
+import com.android.tools.idea.logcat.filters.LogcatMessageWrapper
+import com.android.tools.idea.logcat.filters.NegatedRegexFilter
+import com.android.tools.idea.logcat.filters.NegatedStringFilter
+import com.android.tools.idea.logcat.filters.OrLogcatFilter
+import com.android.tools.idea.logcat.filters.ProjectAppFilter
+import com.android.tools.idea.logcat.filters.RegexFilter
+import com.android.tools.idea.logcat.filters.StringFilter
+import com.android.tools.idea.logcat.filters.ToLevelFilter
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import java.time.Instant
+import java.time.ZoneId
+import java.util.BitSet
 import java.util.Collections
+import kotlin.text.Charsets.UTF_8
+
+private const val INITIAL_CAPACITY = 1024
+
+// Messages are decoded in chunks of this size, releasing the lock in between. Messages that still need to be matched after using the
+// index are matched in parallel, one chunk per coroutine.
+private const val READ_CHUNK_SIZE = 10_000
+
+private val FILTER_PARALLELISM = Runtime.getRuntime().availableProcessors()
+
+private val LOG_LEVELS = LogLevel.values()
 
 /**
  * Manages a cyclic collection of [LogCatMessage]s that is limited by the size in bytes of the payload.
@@ -29,49 +66,484 @@ import java.util.Collections
  * than the minimal size required to render a message. Therefore, the backlog will contain more messages than the actual displayed window,
  * even if no filters are applied and the formatting options are at their minimum.
  *
+ * Messages are not kept as [LogCatMessage] objects but in columns: tags and app names are interned, the level, pid, tid and timestamp are
+ * kept in primitive arrays and the text of all messages is kept as UTF-8 in a single array. The rows of each tag, app name and level are
+ * indexed, so that [filter] can skip the messages that can't match without looking at them. Reading messages decodes them in chunks, so
+ * that new messages can be added in between.
+ *
  * TODO(aalbert): Maybe pass in the current formatting options setting and calculate the size more accurately.
  */
 internal class MessageBacklog(private val maxSize: Int) {
+  private val lock = Any()
 
-  // The internal messages collection is exposed as a read-only list
-  private val _messages = ArrayDeque<LogCatMessage>()
-  val messages: List<LogCatMessage>
-    get() = Collections.unmodifiableList(_messages)
+  // Rows in [first, end) hold the messages of the backlog. Rows before first were evicted and are only reclaimed by compact().
+  @GuardedBy("lock")
+  private var first = 0
+
+  @GuardedBy("lock")
+  private var end = 0
+
+  // Number of rows dropped by compact() and clear(), so that rowBase + row identifies a row across them.
+  @GuardedBy("lock")
+  private var rowBase = 0L
+
+  @GuardedBy("lock")
+  private var levels = ByteArray(INITIAL_CAPACITY)
+
+  @GuardedBy("lock")
+  private var pids = IntArray(INITIAL_CAPACITY)
+
+  @GuardedBy("lock")
+  private var tids = IntArray(INITIAL_CAPACITY)
+
+  @GuardedBy("lock")
+  private var appIds = IntArray(INITIAL_CAPACITY)
+
+  @GuardedBy("lock")
+  private var tagIds = IntArray(INITIAL_CAPACITY)
 
+  @GuardedBy("lock")
+  private var epochSeconds = LongArray(INITIAL_CAPACITY)
+
+  @GuardedBy("lock")
+  private var nanos = IntArray(INITIAL_CAPACITY)
+
+  // Offset of the text of each row in textBytes
+  @GuardedBy("lock")
+  private var textOffsets = IntArray(INITIAL_CAPACITY)
+
+  // Length of the text of each row in chars, which is what the size of the backlog is made of
+  @GuardedBy("lock")
+  private var textLengths = IntArray(INITIAL_CAPACITY)
+
+  @GuardedBy("lock")
+  private var textBytes = ByteArray(INITIAL_CAPACITY * 64)
+
+  @GuardedBy("lock")
+  private var textEnd = 0
+
+  @GuardedBy("lock")
+  private val apps = ValueIndex()
+
+  @GuardedBy("lock")
+  private val tags = ValueIndex()
+
+  @GuardedBy("lock")
+  private val levelRows = Array(LOG_LEVELS.size) { RowList() }
+
+  @GuardedBy("lock")
   private var size = 0
 
   init {
     assert(maxSize > 0)
   }
 
+  val messages: List<LogCatMessage>
+    get() {
+      val (rows, absoluteFirst) = synchronized(lock) { allRows() }
+      val list = ArrayList<LogCatMessage>(rows.cardinality())
+      var next = rows.nextSetBit(0)
+      while (next >= 0) {
+        next = readChunk(rows, absoluteFirst, next, list)
+      }
+      return Collections.unmodifiableList(list)
+    }
+
   fun addAll(collection: List<LogCatMessage>) {
     val addedSize = collection.sumOf { it.message.length }
 
-    // We split into 2 flows.
-    //  If the new messages are larger than maxSize already, we clear the backlog and only add the messages that will fit using a sublist.
-    //  Otherwise, we first remove the messages that would overflow and then add the new ones.
-    // It would be simpler to just add the messages and then remove the overflowing ones but this way is slightly more efficient in terms of
-    // memory thrashing.
-    if (addedSize >= maxSize) {
-      _messages.clear()
-      size = addedSize
-      val i = collection.indexOfFirst {
-        size -= it.message.length
-        size <= maxSize
+    synchronized(lock) {
+      // If the new messages are larger than maxSize already, we clear the backlog and only add the messages that will fit. Otherwise, we
+      // add the new messages and then evict the oldest ones that overflow.
+      if (addedSize >= maxSize) {
+        clearRows()
+        var remaining = addedSize
+        val i = collection.indexOfFirst {
+          remaining -= it.message.length
+          remaining <= maxSize
+        }
+        collection.subList(i + 1, collection.size).forEach(::addRow)
       }
-      _messages.addAll(collection.subList(i + 1, collection.size))
-    }
-    else {
-      size += addedSize
-      while (size > maxSize) {
-        size -= _messages.removeFirst().message.length
+      else {
+        collection.forEach(::addRow)
+        while (size > maxSize) {
+          size -= textLengths[first++]
+        }
       }
-      _messages.addAll(collection)
     }
   }
 
   fun clear() {
-    _messages.clear()
+    synchronized(lock) {
+      clearRows()
+    }
+  }
+
+  /**
+   * Returns the messages that match [logcatFilter], like [com.android.tools.idea.logcat.filters.LogcatMasterFilter.filter] would.
+   *
+   * The tag, app name and level filters are evaluated once per distinct value and resolved with the index. Only the messages that pass
+   * them are then matched by the whole filter, if it has other terms, in parallel. Cancelling the calling coroutine cancels the filtering.
+   */
+  suspend fun filter(logcatFilter: LogcatFilter?, zoneId: ZoneId = ZoneId.systemDefault()): List<LogCatMessage> {
+    val list = mutableListOf<LogCatMessage>()
+    filter(logcatFilter, zoneId) { list.addAll(it) }
+    return list
+  }
+
+  /**
+   * Same as [filter], but passes the matching messages to [consumer] in chunks, in order, as they are decoded and matched. Messages
+   * evicted while filtering are skipped, and messages added while filtering are not included.
+   */
+  suspend fun filter(
+    logcatFilter: LogcatFilter?,
+    zoneId: ZoneId = ZoneId.systemDefault(),
+    consumer: suspend (List<LogCatMessage>) -> Unit
+  ) {
+    logcatFilter?.prepare()
+    val (candidates, absoluteFirst, isExact) = synchronized(lock) {
+      val match = logcatFilter?.let { findRows(it) }
+      val isExact = match?.isExact ?: true
+      val rows = match?.rows
+      if (rows == null) allRows().let { (allRows, absoluteFirst) -> Triple(allRows, absoluteFirst, isExact) }
+      else Triple(rows, rowBase + first, isExact)
+    }
+    val compiledFilter = if (isExact || logcatFilter == null) null else LogcatFilterCompiler.compile(logcatFilter)
+    suspend fun emit(messages: List<LogCatMessage>) {
+      if (messages.isNotEmpty()) {
+        consumer(messages)
+      }
+    }
+    coroutineScope {
+      // Chunks being matched, in order. Matching runs ahead of the consumer by at most FILTER_PARALLELISM chunks.
+      val pending = ArrayDeque<Deferred<List<LogCatMessage>>>()
+      var next = candidates.nextSetBit(0)
+      while (next >= 0) {
+        ensureActive()
+        val chunk = ArrayList<LogCatMessage>(READ_CHUNK_SIZE)
+        next = readChunk(candidates, absoluteFirst, next, chunk)
+        if (compiledFilter == null) {
+          emit(chunk)
+          continue
+        }
+        pending.add(async { chunk.filter { compiledFilter.matches(LogcatMessageWrapper(it, zoneId)) } })
+        if (pending.size >= FILTER_PARALLELISM) {
+          emit(pending.removeFirst().await())
+        }
+      }
+      while (pending.isNotEmpty()) {
+        emit(pending.removeFirst().await())
+      }
+    }
+  }
+
+  /**
+   * Returns all the rows, relative to [first], and the absolute row of [first].
+   */
+  @GuardedBy("lock")
+  private fun allRows(): Pair<BitSet, Long> = Pair(BitSet(end - first).apply { set(0, end - first) }, rowBase + first)
+
+  /**
+   * Decodes up to [READ_CHUNK_SIZE] of the [rows] into [into], starting at [start]. [rows] are relative to the absolute row
+   * [absoluteFirst], and the ones evicted since are skipped.
+   *
+   * @return the next row to read, or -1 if all the rows were read
+   */
+  private fun readChunk(rows: BitSet, absoluteFirst: Long, start: Int, into: MutableList<LogCatMessage>): Int {
+    synchronized(lock) {
+      val offset = absoluteFirst - rowBase
+      var next = start
+      var count = 0
+      while (next >= 0 && count < READ_CHUNK_SIZE) {
+        val row = offset + next
+        if (row < first) {
+          // Skip the rows evicted since the rows were found.
+          next = if (first - offset > Int.MAX_VALUE) -1 else rows.nextSetBit((first - offset).toInt())
+          continue
+        }
+        into.add(getMessage(row.toInt()))
+        count++
+        next = rows.nextSetBit(next + 1)
+      }
+      return next
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun clearRows() {
+    rowBase += end
+    first = 0
+    end = 0
+    textEnd = 0
     size = 0
+    apps.clear()
+    tags.clear()
+    levelRows.forEach(RowList::clear)
+  }
+
+  @GuardedBy("lock")
+  private fun addRow(message: LogCatMessage) {
+    val header = message.header
+    val bytes = message.message.toByteArray(UTF_8)
+    if (end == levels.size) {
+      growRows()
+    }
+    if (textEnd + bytes.size > textBytes.size) {
+      growText(bytes.size)
+    }
+    levels[end] = header.logLevel.ordinal.toByte()
+    pids[end] = header.pid
+    tids[end] = header.tid
+    appIds[end] = apps.add(header.appName, end)
+    tagIds[end] = tags.add(header.tag, end)
+    epochSeconds[end] = header.timestamp.epochSecond
+    nanos[end] = header.timestamp.nano
+    levelRows[header.logLevel.ordinal].add(end)
+    System.arraycopy(bytes, 0, textBytes, textEnd, bytes.size)
+    textOffsets[end] = textEnd
+    textLengths[end] = message.message.length
+    textEnd += bytes.size
+    size += message.message.length
+    end++
+  }
+
+  @GuardedBy("lock")
+  private fun getMessage(row: Int): LogCatMessage {
+    val textEnd = if (row + 1 < end) textOffsets[row + 1] else textEnd
+    return LogCatMessage(
+      LogCatHeader(
+        LOG_LEVELS[levels[row].toInt()],
+        pids[row],
+        tids[row],
+        apps.values[appIds[row]],
+        tags.values[tagIds[row]],
+        Instant.ofEpochSecond(epochSeconds[row], nanos[row].toLong())),
+      String(textBytes, textOffsets[row], textEnd - textOffsets[row], UTF_8))
+  }
+
+  /**
+   * Makes room for more rows, reclaiming the evicted ones if they are at least half of the rows, or growing the columns otherwise.
+   */
+  @GuardedBy("lock")
+  private fun growRows() {
+    if (first >= end / 2) {
+      compact()
+      return
+    }
+    val capacity = levels.size * 2
+    levels = levels.copyOf(capacity)
+    pids = pids.copyOf(capacity)
+    tids = tids.copyOf(capacity)
+    appIds = appIds.copyOf(capacity)
+    tagIds = tagIds.copyOf(capacity)
+    epochSeconds = epochSeconds.copyOf(capacity)
+    nanos = nanos.copyOf(capacity)
+    textOffsets = textOffsets.copyOf(capacity)
+    textLengths = textLengths.copyOf(capacity)
+  }
+
+  @GuardedBy("lock")
+  private fun growText(needed: Int) {
+    val evictedBytes = if (first < end) textOffsets[first] else textEnd
+    if (evictedBytes >= textEnd / 2) {
+      compact()
+    }
+    if (textEnd + needed > textBytes.size) {
+      textBytes = textBytes.copyOf(maxOf(textBytes.size * 2, textEnd + needed))
+    }
+  }
+
+  /**
+   * Moves the rows in [first, end) and their text to the start of the columns, dropping the evicted rows from the index.
+   */
+  @GuardedBy("lock")
+  private fun compact() {
+    if (first == 0) {
+      return
+    }
+    val count = end - first
+    val textStart = if (first < end) textOffsets[first] else textEnd
+    System.arraycopy(levels, first, levels, 0, count)
+    System.arraycopy(pids, first, pids, 0, count)
+    System.arraycopy(tids, first, tids, 0, count)
+    System.arraycopy(appIds, first, appIds, 0, count)
+    System.arraycopy(tagIds, first, tagIds, 0, count)
+    System.arraycopy(epochSeconds, first, epochSeconds, 0, count)
+    System.arraycopy(nanos, first, nanos, 0, count)
+    System.arraycopy(textOffsets, first, textOffsets, 0, count)
+    System.arraycopy(textLengths, first, textLengths, 0, count)
+    for (i in 0 until count) {
+      textOffsets[i] -= textStart
+    }
+    System.arraycopy(textBytes, textStart, textBytes, 0, textEnd - textStart)
+    textEnd -= textStart
+    apps.rows.forEach { it.removeBefore(first) }
+    tags.rows.forEach { it.removeBefore(first) }
+    levelRows.forEach { it.removeBefore(first) }
+    // Drop the tags and app names that were only used by evicted rows.
+    apps.prune()?.let { newIds -> for (i in 0 until count) appIds[i] = newIds[appIds[i]] }
+    tags.prune()?.let { newIds -> for (i in 0 until count) tagIds[i] = newIds[tagIds[i]] }
+    rowBase += first
+    end = count
+    first = 0
+  }
+
+  /**
+   * Finds the rows that can match [filter] using the index.
+   *
+   * Rows are relative to [first] and null means all the rows. The result is exact if every term of the filter was resolved by the index,
+   * in which case the rows don't need to be matched by the filter again.
+   */
+  @GuardedBy("lock")
+  private fun findRows(filter: LogcatFilter): IndexMatch {
+    return when (filter) {
+      is AndLogcatFilter -> filter.filters.map(::findRows).fold(IndexMatch(null, true)) { match, other ->
+        val rows = when {
+          match.rows == null -> other.rows
+          other.rows == null -> match.rows
+          else -> match.rows.apply { and(other.rows) }
+        }
+        IndexMatch(rows, match.isExact && other.isExact)
+      }
+      is OrLogcatFilter -> filter.filters.map(::findRows).fold(IndexMatch(BitSet(), true)) { match, other ->
+        val rows = if (match.rows == null || other.rows == null) null else match.rows.apply { or(other.rows) }
+        IndexMatch(rows, match.isExact && other.isExact)
+      }
+      is LevelFilter, is FromLevelFilter, is ToLevelFilter -> {
+        val rows = BitSet(end - first)
+        for (level in LOG_LEVELS) {
+          if (filter.matches(LogcatMessageWrapper(LogCatMessage(LogCatHeader(level, 0, 0, "", "", Instant.EPOCH), "")))) {
+            levelRows[level.ordinal].addTo(rows, first)
+          }
+        }
+        IndexMatch(rows, true)
+      }
+      is ProjectAppFilter -> findRows(filter, APP)
+      is StringFilter -> findRows(filter, filter.field)
+      is NegatedStringFilter -> findRows(filter, filter.field)
+      is RegexFilter -> findRows(filter, filter.field)
+      is NegatedRegexFilter -> findRows(filter, filter.field)
+      else -> IndexMatch(null, false)
+    }
+  }
+
+  /**
+   * Finds the rows matching a [filter] that only looks at [field], by matching each distinct tag or app name once.
+   */
+  @GuardedBy("lock")
+  private fun findRows(filter: LogcatFilter, field: LogcatFilterField): IndexMatch {
+    val index = when (field) {
+      TAG -> tags
+      APP -> apps
+      else -> return IndexMatch(null, false)
+    }
+    val rows = BitSet(end - first)
+    index.values.forEachIndexed { id, value ->
+      val header = if (field == TAG) LogCatHeader(LogLevel.VERBOSE, 0, 0, "", value, Instant.EPOCH)
+      else LogCatHeader(LogLevel.VERBOSE, 0, 0, value, "", Instant.EPOCH)
+      if (filter.matches(LogcatMessageWrapper(LogCatMessage(header, "")))) {
+        index.rows[id].addTo(rows, first)
+      }
+    }
+    return IndexMatch(rows, true)
+  }
+
+  private class IndexMatch(val rows: BitSet?, val isExact: Boolean)
+
+  /**
+   * Interns the values of a column, and indexes the rows holding each value.
+   */
+  private class ValueIndex {
+    val values = mutableListOf<String>()
+    val rows = mutableListOf<RowList>()
+    private val ids = HashMap<String, Int>()
+
+    fun add(value: String, row: Int): Int {
+      val id = ids.getOrPut(value) {
+        values.add(value)
+        rows.add(RowList())
+        values.size - 1
+      }
+      rows[id].add(row)
+      return id
+    }
+
+    /**
+     * Drops the values that no row holds anymore.
+     *
+     * @return the new id of each previous id, or null if no value was dropped and ids are unchanged
+     */
+    fun prune(): IntArray? {
+      if (rows.none { it.isEmpty() }) {
+        return null
+      }
+      val newIds = IntArray(values.size) { -1 }
+      var next = 0
+      for (id in values.indices) {
+        if (rows[id].isEmpty()) {
+          ids.remove(values[id])
+          continue
+        }
+        values[next] = values[id]
+        rows[next] = rows[id]
+        ids[values[next]] = next
+        newIds[id] = next++
+      }
+      values.subList(next, values.size).clear()
+      rows.subList(next, rows.size).clear()
+      return newIds
+    }
+
+    fun clear() {
+      values.clear()
+      rows.clear()
+      ids.clear()
+    }
+  }
+
+  /**
+   * A growable list of rows, in increasing order.
+   */
+  private class RowList {
+    private var rows = IntArray(16)
+    private var size = 0
+
+    fun add(row: Int) {
+      if (size == rows.size) {
+        rows = rows.copyOf(size * 2)
+      }
+      rows[size++] = row
+    }
+
+    /**
+     * Sets the bits of the rows from [first] on in [bits], relative to [first].
+     */
+    fun addTo(bits: BitSet, first: Int) {
+      for (i in indexOf(first) until size) {
+        bits.set(rows[i] - first)
+      }
+    }
+
+    /**
+     * Drops the rows before [first] and shifts the others so that [first] becomes row 0.
+     */
+    fun removeBefore(first: Int) {
+      val start = indexOf(first)
+      for (i in start until size) {
+        rows[i - start] = rows[i] - first
+      }
+      size -= start
+    }
+
+    fun isEmpty() = size == 0
+
+    fun clear() {
+      size = 0
+    }
+
+    private fun indexOf(row: Int): Int {
+      val i = rows.binarySearch(row, 0, size)
+      return if (i >= 0) i else -i - 1
+    }
   }
-}
\ No newline at end of file
+}
@@ -15,12 +15,25 @@
  */
 package com.android.tools.idea.logcat.messages
 
+import com.android.ddmlib.Log.LogLevel
 import com.android.ddmlib.logcat.LogCatMessage
+import com.intellij.openapi.editor.markup.TextAttributes
+import java.time.Instant
 import java.time.ZoneId
 
+// The tags and app names of a device are a small set, but the caches are dropped if they ever get this large.
+private const val MAX_CACHED_PREFIXES = 1000
+
+// Both timestamp styles end with the milliseconds and a space
+private const val MILLIS_SUFFIX_LENGTH = ".000 ".length
+
+private val LEVEL_PREFIXES = LogLevel.values().map { " ${it.priorityLetter} " }
 
 /**
  * Formats [LogCatMessage]'s into a [TextAccumulator]
+ *
+ * This runs for every message logged by a device, so the formatted header fields are cached rather than built for every message: the
+ * timestamp up to the second, and the formatted tag and app name along with the tag color.
  */
 internal class MessageFormatter(private val formattingOptions: FormattingOptions,
                                 private val logcatColors: LogcatColors,
@@ -30,6 +43,18 @@ internal class MessageFormatter(private val formattingOptions: FormattingOptions
   private var previousTag: String? = null
   private var previousPid: Int? = null
 
+  private var timestampFormat: TimestampFormat? = null
+  private var timestampSecond = 0L
+  private var timestampPrefix = ""
+
+  private var tagFormat: TagFormat? = null
+  private val tagPrefixes = HashMap<String, FormattedTag>()
+  private val duplicateTagPrefixes = HashMap<String, FormattedTag>()
+
+  private var appNameFormat: AppNameFormat? = null
+  private val appNamePrefixes = HashMap<String, String>()
+  private var duplicateAppNamePrefix = ""
+
   fun formatMessages(textAccumulator: TextAccumulator, messages: List<LogCatMessage>) {
     // Replace each newline with a newline followed by the indentation of the message portion
     val newline = "\n".padEnd(formattingOptions.getHeaderWidth() + 5)
@@ -38,15 +63,87 @@ internal class MessageFormatter(private val formattingOptions: FormattingOptions
       val tag = header.tag
       val appName = header.appName
 
-      textAccumulator.accumulate(formattingOptions.timestampFormat.format(header.timestamp, zoneId))
-      textAccumulator.accumulate(formattingOptions.processThreadFormat.format(header.pid, header.tid))
-      textAccumulator.accumulate(formattingOptions.tagFormat.format(tag, previousTag), logcatColors.getTagColor(tag), tag)
-      textAccumulator.accumulate(formattingOptions.appNameFormat.format(appName, header.pid, previousPid), hint = appName)
-      textAccumulator.accumulate(" ${header.logLevel.priorityLetter} ", logcatColors.getLogLevelColor(header.logLevel))
-      textAccumulator.accumulate(" ${message.message.replace("\n", newline)}\n", logcatColors.getMessageColor(header.logLevel))
+      appendTimestamp(textAccumulator, header.timestamp)
+      formattingOptions.processThreadFormat.formatTo(textAccumulator, header.pid, header.tid)
+      val formattedTag = getFormattedTag(tag)
+      textAccumulator.accumulate(formattedTag.text, formattedTag.textAttributes, tag)
+      textAccumulator.accumulate(getFormattedAppName(appName, header.pid), hint = appName)
+      textAccumulator.accumulate(LEVEL_PREFIXES[header.logLevel.ordinal], logcatColors.getLogLevelColor(header.logLevel))
+
+      val start = textAccumulator.length
+      textAccumulator.append(' ')
+      appendReplacingNewlines(textAccumulator, message.message, newline)
+      textAccumulator.append('\n')
+      textAccumulator.addRanges(start, logcatColors.getMessageColor(header.logLevel))
 
       previousTag = tag
       previousPid = header.pid
     }
   }
+
+  private fun appendTimestamp(textAccumulator: TextAccumulator, timestamp: Instant) {
+    val format = formattingOptions.timestampFormat
+    if (!format.enabled) {
+      return
+    }
+    if (format != timestampFormat || timestamp.epochSecond != timestampSecond) {
+      val formatted = format.format(Instant.ofEpochSecond(timestamp.epochSecond), zoneId)
+      timestampPrefix = formatted.substring(0, formatted.length - MILLIS_SUFFIX_LENGTH)
+      timestampFormat = format
+      timestampSecond = timestamp.epochSecond
+    }
+    val millis = timestamp.nano / 1_000_000
+    textAccumulator.append(timestampPrefix)
+      .append('.')
+      .append('0' + millis / 100)
+      .append('0' + millis / 10 % 10)
+      .append('0' + millis % 10)
+      .append(' ')
+  }
+
+  private fun getFormattedTag(tag: String): FormattedTag {
+    val format = formattingOptions.tagFormat
+    if (format != tagFormat || tagPrefixes.size + duplicateTagPrefixes.size >= MAX_CACHED_PREFIXES) {
+      tagPrefixes.clear()
+      duplicateTagPrefixes.clear()
+      tagFormat = format
+    }
+    // A hidden duplicate is blank but still has the color of its tag
+    if (format.hideDuplicates && tag == previousTag) {
+      return duplicateTagPrefixes.getOrPut(tag) { FormattedTag(format.format(tag, previousTag = tag), logcatColors.getTagColor(tag)) }
+    }
+    return tagPrefixes.getOrPut(tag) { FormattedTag(format.format(tag, previousTag = null), logcatColors.getTagColor(tag)) }
+  }
+
+  private fun getFormattedAppName(appName: String, pid: Int): String {
+    val format = formattingOptions.appNameFormat
+    if (format != appNameFormat || appNamePrefixes.size >= MAX_CACHED_PREFIXES) {
+      appNamePrefixes.clear()
+      duplicateAppNamePrefix = format.format(appName, pid, previousPid = pid)
+      appNameFormat = format
+    }
+    if (format.hideDuplicates && pid == previousPid) {
+      return duplicateAppNamePrefix
+    }
+    // Messages without an app name are formatted from their pid, so they are not cached
+    if (appName == "?" || appName == "") {
+      return format.format(appName, pid, previousPid)
+    }
+    return appNamePrefixes.getOrPut(appName) { format.format(appName, pid, previousPid = null) }
+  }
+
+  private class FormattedTag(val text: String, val textAttributes: TextAttributes)
+}
+
+private fun appendReplacingNewlines(textAccumulator: TextAccumulator, text: String, newline: String) {
+  var start = 0
+  while (true) {
+    val end = text.indexOf('\n', start)
+    if (end < 0) {
+      textAccumulator.append(text, start, text.length)
+      return
+    }
+    textAccumulator.append(text, start, end).append(newline)
+    start = end + 1
+  }
 }
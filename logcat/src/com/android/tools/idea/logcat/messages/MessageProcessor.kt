@@ -32,7 +32,9 @@ import kotlinx.coroutines.CoroutineExceptionHandler
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.launch
 import org.jetbrains.annotations.TestOnly
+import java.lang.management.ManagementFactory
 import java.time.Clock
+import kotlin.math.max
 
 const val CHANNEL_CAPACITY = 10
 const val MAX_TIME_PER_BATCH_MS = 100
@@ -61,12 +63,21 @@ internal class MessageProcessor(
   }
 
   internal suspend fun appendMessages(messages: List<LogCatMessage>) {
-    val filter = when {
-      showOnlyProjectApps && logcatFilter != null -> AndLogcatFilter(logcatFilter!!, projectAppFilter)
-      showOnlyProjectApps -> projectAppFilter
-      else -> logcatFilter
-    }
-    messageChannel.send(LogcatMasterFilter(filter).filter(messages))
+    messageChannel.send(LogcatMasterFilter(getFilter()).filter(messages))
+  }
+
+  /**
+   * Appends the messages of [messageBacklog] that match the current filter, using its index to skip the messages that can't match. The
+   * messages are appended in chunks, as they are read from the backlog.
+   */
+  internal suspend fun appendMessages(messageBacklog: MessageBacklog) {
+    messageBacklog.filter(getFilter()) { messageChannel.send(it) }
+  }
+
+  private fun getFilter() = when {
+    showOnlyProjectApps && logcatFilter != null -> AndLogcatFilter(logcatFilter!!, projectAppFilter)
+    showOnlyProjectApps -> projectAppFilter
+    else -> logcatFilter
   }
 
   // TODO(b/200212377): @ExperimentalCoroutinesApi ReceiveChannel#isEmpty is required. See bug for details.
@@ -79,8 +90,9 @@ internal class MessageProcessor(
       thisLogger().error("Error processing logcat message", e)
     }
     AndroidCoroutineScope(logcatPresenter, workerThread).launch(exceptionHandler) {
-      // TODO(b/200322275): Manage the life cycle of textAccumulator in a more GC friendly way.
-      var textAccumulator = TextAccumulator()
+      // The presenter is done with the text once appendMessages() returns, so a single accumulator is reset and reused for every batch.
+      val textAccumulator = TextAccumulator()
+      val formattingStats = FormattingStats()
       var totalMessages = 0 // Number of messages in current batch
       var numMessages = 0 // Number of messages in current batch
       var lastFlushTime = 0L // The last time we flushed a batch
@@ -94,7 +106,7 @@ internal class MessageProcessor(
         }
         numMessages += messages.size
         totalMessages += messages.size
-        formatMessagesInto(textAccumulator, messages)
+        formattingStats.measure(messages.size, textAccumulator) { formatMessagesInto(textAccumulator, messages) }
 
         // TODO(b/200212377): @ExperimentalCoroutinesApi ReceiveChannel#isEmpty is required. See bug for details.
         @Suppress("EXPERIMENTAL_API_USAGE")
@@ -104,9 +116,11 @@ internal class MessageProcessor(
           logger.debug {
             val timeSinceStart = now - startTime
             val timeSinceLastFlush = now - lastFlushTime
-            "timeSinceStart: $timeSinceStart timeSinceLastFlush (ms): $timeSinceLastFlush  numMessages: $numMessages totalMessages=$totalMessages"
+            val stats = formattingStats.report(timeSinceLastFlush)
+            "timeSinceStart: $timeSinceStart timeSinceLastFlush (ms): $timeSinceLastFlush  numMessages: $numMessages " +
+            "totalMessages=$totalMessages $stats"
           }
-          textAccumulator = TextAccumulator()
+          textAccumulator.reset()
           lastFlushTime = now
           numMessages = 0
         }
@@ -114,3 +128,41 @@ internal class MessageProcessor(
     }
   }
 }
+
+/**
+ * Measures the throughput and allocations of formatting messages, when debug logging is enabled.
+ *
+ * Allocations are measured with the allocation counter of the formatting thread, which isn't available on every JVM.
+ */
+private class FormattingStats {
+  private val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+  private var messages = 0L
+  private var chars = 0L
+  private var allocatedBytes = 0L
+
+  fun measure(numMessages: Int, textAccumulator: TextAccumulator, format: () -> Unit) {
+    if (!logger.isDebugEnabled) {
+      format()
+      return
+    }
+    val startChars = textAccumulator.length
+    val startAllocatedBytes = threadMXBean?.currentThreadAllocatedBytes ?: 0
+    format()
+    allocatedBytes += (threadMXBean?.currentThreadAllocatedBytes ?: 0) - startAllocatedBytes
+    chars += textAccumulator.length - startChars
+    messages += numMessages
+  }
+
+  /**
+   * Returns the stats since the last report, over [elapsedMs], and resets them.
+   */
+  fun report(elapsedMs: Long): String {
+    val seconds = max(elapsedMs, 1L) / 1000.0
+    val report = "formatted: %.0f messages/s %.0f chars/s allocated: %.0f KB/s (%d bytes/message)".format(
+      messages / seconds, chars / seconds, allocatedBytes / 1024 / seconds, if (messages > 0) allocatedBytes / messages else 0)
+    messages = 0
+    chars = 0
+    allocatedBytes = 0
+    return report
+  }
+}
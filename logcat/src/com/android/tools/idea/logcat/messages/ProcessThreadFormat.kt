@@ -16,6 +16,7 @@
 package com.android.tools.idea.logcat.messages
 
 import com.android.tools.idea.logcat.messages.ProcessThreadFormat.Style.BOTH
+import com.android.tools.idea.logcat.messages.ProcessThreadFormat.Style.PID
 
 /**
  * Provides formatting for the process & thread ids
@@ -35,5 +36,18 @@ internal data class ProcessThreadFormat(val style: Style = BOTH, val enabled: Bo
 
   fun format(pid: Int, tid: Int) = if (enabled) style.format(pid, tid) else ""
 
+  /**
+   * Appends the same text as [format] to [textAccumulator], without formatting a string for every message.
+   */
+  fun formatTo(textAccumulator: TextAccumulator, pid: Int, tid: Int) {
+    if (!enabled) {
+      return
+    }
+    when (style) {
+      PID -> textAccumulator.append(pid, width = 5, alignLeft = true).append(' ')
+      BOTH -> textAccumulator.append(pid, width = 5).append('-').append(tid, width = 5, alignLeft = true).append(' ')
+    }
+  }
+
   fun width() = if (enabled) style.width else 0
 }
@@ -15,32 +15,131 @@
  */
 package com.android.tools.idea.logcat.messages
 
-import com.android.tools.idea.logcat.messages.TextAccumulator.Range
 import com.intellij.openapi.editor.markup.TextAttributes
 
+// Past this capacity, the text buffer is released on reset() rather than kept for the next batch.
+private const val MAX_RETAINED_CAPACITY = 4 * 1024 * 1024
+
 /**
  * Accumulates fragments of text into a text buffer and a list of colored ranges.
+ *
+ * An accumulator is meant to be reused for many batches, see [reset]. The text buffer and the range arrays keep their capacity, so that
+ * a steady stream of batches doesn't allocate once they are large enough.
  */
 internal class TextAccumulator {
-  private val stringBuilder = StringBuilder()
+  private var stringBuilder = StringBuilder()
 
   val text: String get() = stringBuilder.toString()
 
-  val highlightRanges = mutableListOf<Range<TextAttributes>>()
-  val hintRanges = mutableListOf<Range<String>>()
+  val length: Int get() = stringBuilder.length
+
+  // Iterated with forEach rather than through highlightRanges and hintRanges, which create a Range per range
+  val highlights = RangeList<TextAttributes>()
+  val hints = RangeList<String>()
+
+  val highlightRanges: List<Range<TextAttributes>> get() = highlights.toList()
+  val hintRanges: List<Range<String>> get() = hints.toList()
 
   fun accumulate(text: String, textAttributes: TextAttributes? = null, hint: String? = null): TextAccumulator {
     val start = stringBuilder.length
-    val end = start + text.length
     stringBuilder.append(text)
-    highlightRanges.addRange(start, end, textAttributes)
-    hintRanges.addRange(start, end, hint)
+    addRanges(start, textAttributes, hint)
+    return this
+  }
+
+  /**
+   * Appends [text] without adding a range. Use [addRanges] to color text appended in more than one call.
+   */
+  fun append(text: CharSequence): TextAccumulator {
+    stringBuilder.append(text)
+    return this
+  }
+
+  fun append(text: CharSequence, start: Int, end: Int): TextAccumulator {
+    stringBuilder.append(text, start, end)
+    return this
+  }
+
+  fun append(c: Char): TextAccumulator {
+    stringBuilder.append(c)
+    return this
+  }
+
+  /**
+   * Appends [value] padded with spaces to [width], on the left unless [alignLeft], like `String.format("%5d")` would.
+   */
+  fun append(value: Int, width: Int, alignLeft: Boolean = false): TextAccumulator {
+    val start = stringBuilder.length
+    stringBuilder.append(value)
+    val padding = width - (stringBuilder.length - start)
+    for (i in 0 until padding) {
+      if (alignLeft) stringBuilder.append(' ') else stringBuilder.insert(start, ' ')
+    }
     return this
   }
 
+  /**
+   * Adds ranges from [start] to the current end of the text.
+   */
+  fun addRanges(start: Int, textAttributes: TextAttributes? = null, hint: String? = null) {
+    val end = stringBuilder.length
+    textAttributes?.let { highlights.add(start, end, it) }
+    hint?.let { hints.add(start, end, it) }
+  }
+
+  /**
+   * Clears the accumulator so that it can be used for another batch.
+   */
+  fun reset() {
+    if (stringBuilder.capacity() > MAX_RETAINED_CAPACITY) {
+      stringBuilder = StringBuilder()
+    }
+    else {
+      stringBuilder.setLength(0)
+    }
+    highlights.clear()
+    hints.clear()
+  }
+
   internal data class Range<T>(val start: Int, val end: Int, val data: T)
-}
 
-private fun <T> MutableList<Range<T>>.addRange(start: Int, end: Int, data: T?) = data?.let {
-  add(Range(start, end, data))
+  /**
+   * Ranges stored in primitive arrays rather than as [Range] objects.
+   */
+  internal class RangeList<T> {
+    private var starts = IntArray(256)
+    private var ends = IntArray(256)
+    private val data = ArrayList<T>(256)
+
+    val size: Int get() = data.size
+
+    fun add(start: Int, end: Int, value: T) {
+      if (data.size == starts.size) {
+        starts = starts.copyOf(starts.size * 2)
+        ends = ends.copyOf(ends.size * 2)
+      }
+      starts[data.size] = start
+      ends[data.size] = end
+      data.add(value)
+    }
+
+    fun getStart(index: Int) = starts[index]
+
+    fun getEnd(index: Int) = ends[index]
+
+    fun getData(index: Int) = data[index]
+
+    inline fun forEach(action: (start: Int, end: Int, data: T) -> Unit) {
+      for (i in 0 until size) {
+        action(getStart(i), getEnd(i), getData(i))
+      }
+    }
+
+    fun toList() = List(size) { Range(starts[it], ends[it], data[it]) }
+
+    fun clear() {
+      // Don't keep the attributes and hints of the previous batch alive
+      data.clear()
+    }
+  }
 }
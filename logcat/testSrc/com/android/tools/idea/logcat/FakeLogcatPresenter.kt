@@ -18,6 +18,7 @@ package com.android.tools.idea.logcat
 import com.android.ddmlib.logcat.LogCatMessage
 import com.android.tools.idea.logcat.filters.LogcatFilter
 import com.android.tools.idea.logcat.messages.TextAccumulator
+import java.nio.file.Path
 
 /*
  * Copyright (C) 2021 The Android Open Source Project
@@ -54,6 +55,10 @@ internal class FakeLogcatPresenter : LogcatPresenter {
     messageBatches.clear()
   }
 
+  override fun openSession(directory: Path) {
+    TODO("Not yet implemented")
+  }
+
   override fun isMessageViewEmpty(): Boolean = messageBatches.isEmpty()
 
   override suspend fun processMessages(messages: List<LogCatMessage>) {}
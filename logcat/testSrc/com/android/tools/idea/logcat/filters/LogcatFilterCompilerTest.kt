@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.filters
+
+import com.android.ddmlib.Log.LogLevel
+import com.android.ddmlib.Log.LogLevel.ERROR
+import com.android.ddmlib.Log.LogLevel.INFO
+import com.android.tools.idea.logcat.filters.LogcatFilterField.APP
+import com.android.tools.idea.logcat.filters.LogcatFilterField.LINE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.MESSAGE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.TAG
+import com.android.tools.idea.logcat.logCatMessage
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.time.Instant
+import java.time.ZoneId
+
+/**
+ * Tests for [LogcatFilterCompiler]
+ */
+class LogcatFilterCompilerTest {
+
+  @Test
+  fun compile_sortsByCost() {
+    val filter = AndLogcatFilter(RegexFilter("foo", LINE), StringFilter("bar", MESSAGE), LevelFilter(INFO))
+
+    assertThat(LogcatFilterCompiler.compile(filter))
+      .isEqualTo(AndLogcatFilter(LevelFilter(INFO), StringFilter("bar", MESSAGE), RegexFilter("foo", LINE)))
+  }
+
+  @Test
+  fun compile_flattens() {
+    val filter = OrLogcatFilter(LevelFilter(INFO), OrLogcatFilter(LevelFilter(ERROR), StringFilter("foo", TAG)))
+
+    assertThat(LogcatFilterCompiler.compile(filter))
+      .isEqualTo(OrLogcatFilter(LevelFilter(INFO), LevelFilter(ERROR), StringFilter("foo", TAG)))
+  }
+
+  @Test
+  fun compile_mergesStringFilters() {
+    val filter = AndLogcatFilter(
+      OrLogcatFilter(StringFilter("foo", TAG), StringFilter("bar", TAG), StringFilter("foo", APP)),
+      NegatedStringFilter("foo", MESSAGE),
+      NegatedStringFilter("bar", MESSAGE))
+
+    assertThat(LogcatFilterCompiler.compile(filter)).isEqualTo(
+      AndLogcatFilter(
+        NoStringFilter(listOf("foo", "bar"), MESSAGE),
+        OrLogcatFilter(StringFilter("foo", APP), AnyStringFilter(listOf("foo", "bar"), TAG))))
+  }
+
+  @Test
+  fun substringMatcher() {
+    val matcher = SubstringMatcher(listOf("he", "she", "hers", "his"))
+
+    assertThat(matcher.containsAny("ushers")).isTrue()
+    assertThat(matcher.containsAny("SHIP")).isFalse()
+    assertThat(matcher.containsAny("tHIs")).isTrue()
+    assertThat(matcher.containsAny("")).isFalse()
+    assertThat(SubstringMatcher(listOf("foo", "")).containsAny("bar")).isTrue()
+    assertThat(SubstringMatcher(listOf("aab")).containsAny("aaab")).isTrue()
+  }
+
+  @Test
+  fun compile_matchesLikeOriginal() {
+    val filters = listOf(
+      AndLogcatFilter(
+        OrLogcatFilter(StringFilter("tag1", TAG), StringFilter("TAG2", TAG), StringFilter("app", APP)),
+        NegatedStringFilter("message 1", MESSAGE),
+        NegatedStringFilter("E/", LINE),
+        FromLevelFilter(INFO)),
+      OrLogcatFilter(
+        AndLogcatFilter(RegexFilter("mess.*3", MESSAGE), ToLevelFilter(ERROR)),
+        OrLogcatFilter(StringFilter("age 2", LINE), StringFilter("2", MESSAGE), StringFilter("7", MESSAGE))),
+      AndLogcatFilter(NegatedRegexFilter("tag[12]", TAG), AndLogcatFilter(NegatedStringFilter("app3", APP))),
+    )
+    val messages = (1..200).map {
+      logCatMessage(
+        LogLevel.values()[it % LogLevel.values().size],
+        pid = it,
+        tid = it,
+        appName = "app${it % 4}",
+        tag = "Tag${it % 3}",
+        timestamp = Instant.ofEpochSecond(it.toLong()),
+        message = "Message $it")
+    }
+
+    for (filter in filters) {
+      val expected = messages.filter { filter.matches(LogcatMessageWrapper(it, ZoneId.of("UTC"))) }
+      val compiled = LogcatFilterCompiler.compile(filter)
+
+      assertThat(messages.filter { compiled.matches(LogcatMessageWrapper(it, ZoneId.of("UTC"))) }).isEqualTo(expected)
+    }
+  }
+}
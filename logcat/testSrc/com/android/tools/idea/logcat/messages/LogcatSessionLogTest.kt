@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.messages
+
+import com.android.ddmlib.Log.LogLevel
+import com.android.ddmlib.logcat.LogCatMessage
+import com.android.tools.idea.logcat.logCatMessage
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import java.time.Instant
+
+/**
+ * Tests for [LogcatSessionLog]
+ */
+class LogcatSessionLogTest {
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val messages = (0 until 2000).map {
+    logCatMessage(
+      logLevel = LogLevel.values()[it % LogLevel.values().size],
+      pid = it,
+      tid = it + 1,
+      appName = "app${it % 3}",
+      tag = "tag${it % 5}",
+      timestamp = Instant.ofEpochSecond(it.toLong(), it * 1000L),
+      message = "Message é $it")
+  }
+
+  @Test
+  fun read_allMessages() {
+    val sessionLog = LogcatSessionLog(temporaryFolder.newFolder().toPath(), maxSegmentSize = 10_000)
+
+    messages.chunked(300).forEach(sessionLog::append)
+
+    assertThat(readAll(sessionLog)).containsExactlyElementsIn(messages).inOrder()
+    sessionLog.close()
+  }
+
+  @Test
+  fun read_fromTime() {
+    val sessionLog = LogcatSessionLog(temporaryFolder.newFolder().toPath(), maxSegmentSize = 10_000)
+    sessionLog.append(messages)
+    val from = Instant.ofEpochSecond(1500)
+
+    val result = mutableListOf<LogCatMessage>()
+    sessionLog.read(sessionLog.findPosition(from), 10, result, from)
+
+    assertThat(result).containsExactlyElementsIn(messages.subList(1500, 1510)).inOrder()
+    sessionLog.close()
+  }
+
+  @Test
+  fun read_appendedWhileReading() {
+    val sessionLog = LogcatSessionLog(temporaryFolder.newFolder().toPath())
+    val result = mutableListOf<LogCatMessage>()
+    sessionLog.append(messages.subList(0, 10))
+    val position = sessionLog.read(sessionLog.start, 100, result)!!
+
+    sessionLog.append(messages.subList(10, 20))
+    sessionLog.read(position, 100, result)
+
+    assertThat(result).containsExactlyElementsIn(messages.subList(0, 20)).inOrder()
+    sessionLog.close()
+  }
+
+  @Test
+  fun open_continuesSession() {
+    val directory = temporaryFolder.newFolder().toPath()
+    LogcatSessionLog(directory, maxSegmentSize = 10_000).use { it.append(messages.subList(0, 1000)) }
+
+    LogcatSessionLog(directory, maxSegmentSize = 10_000).use { it.append(messages.subList(1000, 2000)) }
+
+    LogcatSessionLog(directory, maxSegmentSize = 10_000).use { sessionLog ->
+      assertThat(readAll(sessionLog)).containsExactlyElementsIn(messages).inOrder()
+      val result = mutableListOf<LogCatMessage>()
+      val from = Instant.ofEpochSecond(1999)
+      sessionLog.read(sessionLog.findPosition(from), 10, result, from)
+      assertThat(result).containsExactly(messages.last())
+    }
+  }
+
+  @Test
+  fun open_dropsPartiallyWrittenMessage() {
+    val directory = temporaryFolder.newFolder().toPath()
+    LogcatSessionLog(directory).use { it.append(messages.subList(0, 10)) }
+    // Cut the last message in half, like if the IDE was killed while writing it
+    val segment = directory.resolve("segment-00000.log")
+    Files.newByteChannel(segment, StandardOpenOption.WRITE).use { it.truncate(Files.size(segment) - 5) }
+
+    LogcatSessionLog(directory).use { sessionLog ->
+      assertThat(readAll(sessionLog)).containsExactlyElementsIn(messages.subList(0, 9)).inOrder()
+      sessionLog.append(messages.subList(9, 20))
+    }
+
+    LogcatSessionLog(directory).use { sessionLog ->
+      assertThat(readAll(sessionLog)).containsExactlyElementsIn(messages.subList(0, 20)).inOrder()
+    }
+  }
+
+  @Test
+  fun open_readOnly_doesNotModifySession() {
+    val directory = temporaryFolder.newFolder().toPath()
+    LogcatSessionLog(directory).use { it.append(messages.subList(0, 10)) }
+    // Cut the last message in half, like if the session was still being written
+    val segment = directory.resolve("segment-00000.log")
+    Files.newByteChannel(segment, StandardOpenOption.WRITE).use { it.truncate(Files.size(segment) - 5) }
+    val segmentSize = Files.size(segment)
+    val indexSize = Files.size(directory.resolve("index.bin"))
+
+    LogcatSessionLog(directory, readOnly = true).use { sessionLog ->
+      assertThat(readAll(sessionLog)).containsExactlyElementsIn(messages.subList(0, 9)).inOrder()
+    }
+
+    assertThat(Files.size(segment)).isEqualTo(segmentSize)
+    assertThat(Files.size(directory.resolve("index.bin"))).isEqualTo(indexSize)
+  }
+
+  @Test(expected = IOException::class)
+  fun open_readOnly_rejectsDirectoryWithoutSegments() {
+    LogcatSessionLog(temporaryFolder.newFolder().toPath(), readOnly = true)
+  }
+
+  @Test(expected = IOException::class)
+  fun open_readOnly_rejectsMissingDirectory() {
+    LogcatSessionLog(temporaryFolder.root.toPath().resolve("missing"), readOnly = true)
+  }
+
+  @Test
+  fun createLogcatSessionLog_deletesOldSessions() {
+    val sessionsDirectory = temporaryFolder.newFolder().toPath()
+    (1..12).forEach { Files.createDirectories(sessionsDirectory.resolve("20210101-0000%02d-device".format(it))) }
+
+    createLogcatSessionLog("emulator-5554", sessionsDirectory).close()
+
+    val sessions = Files.list(sessionsDirectory).use { files -> files.map { it.fileName.toString() }.sorted().toArray() }
+    assertThat(sessions).hasLength(10)
+    assertThat(sessions.first()).isEqualTo("20210101-000004-device")
+    assertThat(sessions.last() as String).endsWith("-emulator-5554")
+  }
+
+  @Test
+  fun createLogcatSessionLog_keepsOpenSessions() {
+    val sessionsDirectory = temporaryFolder.newFolder().toPath()
+    (1..12).forEach { Files.createDirectories(sessionsDirectory.resolve("20210101-0000%02d-device".format(it))) }
+
+    LogcatSessionLog(sessionsDirectory.resolve("20210101-000001-device")).use {
+      createLogcatSessionLog("emulator-5554", sessionsDirectory).close()
+    }
+
+    assertThat(Files.exists(sessionsDirectory.resolve("20210101-000001-device"))).isTrue()
+    assertThat(Files.exists(sessionsDirectory.resolve("20210101-000002-device"))).isFalse()
+  }
+
+  @Test
+  fun createLogcatSessionLog_uniqueNames() {
+    val sessionsDirectory = temporaryFolder.newFolder().toPath()
+
+    val sessionLogs = (1..3).map { createLogcatSessionLog("emulator-5554", sessionsDirectory) }
+    sessionLogs.forEach(LogcatSessionLog::close)
+
+    assertThat(sessionLogs.map { it.directory }.toSet()).hasSize(3)
+  }
+}
+
+private fun readAll(sessionLog: LogcatSessionLog): List<LogCatMessage> {
+  val result = mutableListOf<LogCatMessage>()
+  var position = sessionLog.start
+  while (true) {
+    val count = result.size
+    position = sessionLog.read(position, 100, result) ?: break
+    if (result.size == count) {
+      break
+    }
+  }
+  return result
+}
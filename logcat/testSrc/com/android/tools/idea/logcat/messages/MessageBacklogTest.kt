@@ -15,11 +15,24 @@
  */
 package com.android.tools.idea.logcat.messages
 
+import com.android.ddmlib.Log.LogLevel.ERROR
+import com.android.ddmlib.Log.LogLevel.INFO
+import com.android.ddmlib.Log.LogLevel.WARN
 import com.android.ddmlib.logcat.LogCatMessage
+import com.android.tools.idea.logcat.filters.AndLogcatFilter
+import com.android.tools.idea.logcat.filters.FromLevelFilter
+import com.android.tools.idea.logcat.filters.LogcatFilterField.MESSAGE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.TAG
+import com.android.tools.idea.logcat.filters.NegatedStringFilter
+import com.android.tools.idea.logcat.filters.OrLogcatFilter
+import com.android.tools.idea.logcat.filters.RegexFilter
+import com.android.tools.idea.logcat.filters.StringFilter
 import com.android.tools.idea.logcat.logCatMessage
 import com.google.common.truth.Truth.assertThat
 import com.intellij.testFramework.UsefulTestCase.assertThrows
+import kotlinx.coroutines.runBlocking
 import org.junit.Test
+import java.time.Instant
 
 /**
  * Tests for [MessageBacklog]
@@ -101,4 +114,83 @@ class MessageBacklogTest {
 
     assertThrows(UnsupportedOperationException::class.java, mutableList::clear)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun addAll_manyBatches_keepsMessages() {
+    val messages = (1..10_000).map {
+      logCatMessage(
+        logLevel = if (it % 2 == 0) INFO else WARN,
+        pid = it,
+        tid = it + 1,
+        appName = "app${it % 3}",
+        tag = "tag${it % 5}",
+        timestamp = Instant.ofEpochSecond(it.toLong(), it.toLong()),
+        message = "Message \u00e9 $it")
+    }
+    val messageBacklog = MessageBacklog(messages.takeLast(100).sumOf { it.message.length })
+
+    // Evicted messages are reclaimed as more messages are added
+    messages.chunked(7).forEach(messageBacklog::addAll)
+
+    assertThat(messageBacklog.messages).containsExactlyElementsIn(messages.takeLast(100)).inOrder()
+  }
+
+  @Test
+  fun filter_indexedFields() = runBlocking {
+    val messageBacklog = MessageBacklog(1000)
+    val info1 = logCatMessage(INFO, tag = "tag1", message = "Message 1")
+    val warn1 = logCatMessage(WARN, tag = "tag1", message = "Message 2")
+    val error2 = logCatMessage(ERROR, tag = "tag2", message = "Message 3")
+    val warn3 = logCatMessage(WARN, tag = "tag3", message = "Message 4")
+    messageBacklog.addAll(listOf(info1, warn1, error2, warn3))
+
+    assertThat(messageBacklog.filter(null)).containsExactly(info1, warn1, error2, warn3).inOrder()
+    assertThat(messageBacklog.filter(StringFilter("tag1", TAG))).containsExactly(info1, warn1).inOrder()
+    assertThat(messageBacklog.filter(AndLogcatFilter(NegatedStringFilter("tag1", TAG), FromLevelFilter(WARN))))
+      .containsExactly(error2, warn3).inOrder()
+    assertThat(messageBacklog.filter(OrLogcatFilter(StringFilter("tag3", TAG), FromLevelFilter(ERROR))))
+      .containsExactly(error2, warn3).inOrder()
+  }
+
+  @Test
+  fun filter_otherFields() = runBlocking {
+    val messageBacklog = MessageBacklog(1000)
+    val info1 = logCatMessage(INFO, tag = "tag1", message = "Message 1")
+    val warn1 = logCatMessage(WARN, tag = "tag1", message = "Message 2")
+    val warn2 = logCatMessage(WARN, tag = "tag2", message = "Message 2")
+    messageBacklog.addAll(listOf(info1, warn1, warn2))
+
+    assertThat(messageBacklog.filter(RegexFilter("Mess.*2", MESSAGE))).containsExactly(warn1, warn2).inOrder()
+    assertThat(messageBacklog.filter(AndLogcatFilter(StringFilter("tag1", TAG), RegexFilter("Mess.*2", MESSAGE))))
+      .containsExactly(warn1)
+    assertThat(messageBacklog.filter(OrLogcatFilter(StringFilter("tag2", TAG), StringFilter("1", MESSAGE))))
+      .containsExactly(info1, warn2).inOrder()
+  }
+
+  @Test
+  fun filter_tagsOfEvictedMessagesArePruned() = runBlocking {
+    // A new tag every 100 messages, so that the tags of the oldest messages are only held by evicted rows
+    val messages = (1..10_000).map { logCatMessage(tag = "tag${it / 100}", message = "Message $it") }
+    val messageBacklog = MessageBacklog(messages.takeLast(150).sumOf { it.message.length })
+    messages.chunked(7).forEach(messageBacklog::addAll)
+
+    val backlogMessages = messageBacklog.messages
+    assertThat(backlogMessages).containsExactlyElementsIn(messages.takeLast(150)).inOrder()
+    assertThat(messageBacklog.filter(StringFilter("tag99", TAG)))
+      .containsExactlyElementsIn(backlogMessages.filter { it.header.tag == "tag99" }).inOrder()
+    assertThat(messageBacklog.filter(StringFilter("tag5", TAG))).isEmpty()
+  }
+
+  @Test
+  fun filter_streamsChunks() = runBlocking {
+    val messages = (1..25_000).map { logCatMessage(tag = "tag${it % 2}", message = "Message $it") }
+    val messageBacklog = MessageBacklog(messages.sumOf { it.message.length })
+    messageBacklog.addAll(messages)
+
+    val chunks = mutableListOf<List<LogCatMessage>>()
+    messageBacklog.filter(RegexFilter("Message", MESSAGE)) { chunks.add(it) }
+
+    assertThat(chunks.size).isGreaterThan(1)
+    assertThat(chunks.flatten()).containsExactlyElementsIn(messages).inOrder()
+  }
+}
@@ -71,6 +71,28 @@ class MessageFormatterTest {
     """.trimIndent())
   }
 
+  @Test
+  fun formatMessages_formattingChangesBetweenBatches() {
+    val textAccumulator = TextAccumulator()
+    val messages = listOf(
+      LogCatMessage(LogCatHeader(WARN, 1, 2, "com.example.app1", "Tag1", TIMESTAMP), "message"),
+      LogCatMessage(LogCatHeader(WARN, 1, 2, "com.example.app1", "Tag1", TIMESTAMP.plusMillis(1001)), "message"),
+    )
+    messageFormatter.formatMessages(textAccumulator, messages)
+    textAccumulator.reset()
+    formattingOptions.timestampFormat = TimestampFormat(TIME, enabled = true)
+    formattingOptions.tagFormat = TagFormat(maxLength = 10)
+    formattingOptions.appNameFormat = AppNameFormat(maxLength = 20)
+
+    messageFormatter.formatMessages(textAccumulator, messages)
+
+    assertThat(textAccumulator.text).isEqualTo("""
+      04:00:01.000     1-2     Tag1       com.example.app1      W  message
+      04:00:02.001     1-2     Tag1       com.example.app1      W  message
+
+    """.trimIndent())
+  }
+
   @Test
   fun formatMessages_timeOnly() {
     val textAccumulator = TextAccumulator()
@@ -63,4 +63,39 @@ class TextAccumulatorTest {
     assertThat(buffer.text).isEqualTo("foo-bar")
     assertThat(buffer.hintRanges).containsExactly(Range(0, 3, "foo"), Range(4, 7, "bar"))
   }
+
+  @Test
+  fun append_paddedNumber() {
+    val buffer = TextAccumulator()
+
+    buffer.append(12, width = 5).append('|').append(34, width = 5, alignLeft = true).append('|').append(123456, width = 5)
+
+    assertThat(buffer.text).isEqualTo("   12|34   |123456")
+  }
+
+  @Test
+  fun addRanges_coversAppendedText() {
+    val buffer = TextAccumulator()
+
+    buffer.append("foo-")
+    buffer.append("bl").append('u').append("xex", 1, 2)
+    buffer.addRanges(4, blue, "hint")
+
+    assertThat(buffer.text).isEqualTo("foo-blue")
+    assertThat(buffer.highlightRanges).containsExactly(Range(4, 8, blue))
+    assertThat(buffer.hintRanges).containsExactly(Range(4, 8, "hint"))
+  }
+
+  @Test
+  fun reset() {
+    val buffer = TextAccumulator()
+    buffer.accumulate("foo", blue, "foo")
+
+    buffer.reset()
+    buffer.accumulate("bar", red)
+
+    assertThat(buffer.text).isEqualTo("bar")
+    assertThat(buffer.highlightRanges).containsExactly(Range(0, 3, red))
+    assertThat(buffer.hintRanges).isEmpty()
+  }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.profilers.perfetto.traceprocessor
+
+import com.android.tools.profiler.perfetto.proto.TraceProcessor.QueryParameters
+import com.android.tools.profiler.perfetto.proto.TraceProcessor.QueryResult
+import com.google.common.hash.Hashing
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.Executor
+
+/**
+ * Cache of the results of TPD queries, so that querying a trace again, e.g. when reopening a recorded session, doesn't go to the daemon.
+ *
+ * Results are kept in memory by query, which includes the trace id, the kind of query and its parameters such as process or time range,
+ * and the least recently used ones are evicted past [maxMemoryBytes]. When [cacheDirectory] is set, the results of traces registered with
+ * [registerTrace] are also persisted there, keyed by the path, size and modification time of the trace file and by the symbol directories
+ * it was loaded with instead of its trace id, and the least recently written files are deleted past [maxDiskBytes].
+ *
+ * Results are written to disk on [diskExecutor], so that caching a large result doesn't hold up the query that produced it. A result that
+ * is still being written is only found if it's also kept in memory.
+ */
+class TraceProcessorQueryCache(private val maxMemoryBytes: Long = DEFAULT_MAX_MEMORY_BYTES,
+                               private val cacheDirectory: File? = defaultCacheDirectory(),
+                               private val maxDiskBytes: Long = DEFAULT_MAX_DISK_BYTES,
+                               private val diskExecutor: Executor = defaultDiskExecutor()) {
+
+  private val memoryResults = LinkedHashMap<QueryParameters, QueryResult>(16, 0.75f, true)
+  private var memoryBytes = 0L
+
+  /**
+   * Fingerprint of the file of every registered trace, identifying its persisted results.
+   */
+  private val traceFingerprints = mutableMapOf<Long, String>()
+
+  /**
+   * Total size of the result files, or -1 until the cache directory has been listed. Only accessed on [diskExecutor].
+   */
+  private var diskBytes = -1L
+
+  companion object {
+    private val LOGGER = Logger.getInstance(TraceProcessorQueryCache::class.java)
+
+    private const val DEFAULT_MAX_MEMORY_BYTES = 256L * 1024 * 1024
+    private const val DEFAULT_MAX_DISK_BYTES = 2L * 1024 * 1024 * 1024
+    private const val RESULT_FILE_SUFFIX = ".tpdresult"
+
+    // Trace files are written to the temp directory too, e.g. cpu_trace_[traceid].trace, so the cached results live next to them.
+    private fun defaultCacheDirectory() = File(FileUtil.getTempDirectory(), "tpd-cache")
+
+    private fun defaultDiskExecutor() = AppExecutorUtil.createBoundedApplicationPoolExecutor("TraceProcessorQueryCache", 1)
+  }
+
+  /**
+   * Associates [traceId] with [traceFile] loaded with the native symbols of [symbolPaths], dropping the results cached in memory for
+   * [traceId] if it was associated with another file or other symbols.
+   *
+   * @return true if there are results persisted for [traceFile] and [symbolPaths], in which case the trace may not need to be loaded by the
+   * daemon at all.
+   */
+  @Synchronized
+  fun registerTrace(traceId: Long, traceFile: File, symbolPaths: List<String> = emptyList()): Boolean {
+    val key = "${traceFile.absolutePath}:${traceFile.length()}:${traceFile.lastModified()}:${symbolPaths.joinToString(File.pathSeparator)}"
+    val fingerprint = Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString()
+    if (traceFingerprints.put(traceId, fingerprint).let { it != null && it != fingerprint }) {
+      with(memoryResults.entries.iterator()) {
+        while (hasNext()) {
+          val entry = next()
+          if (entry.key.traceId == traceId) {
+            memoryBytes -= entry.value.serializedSize
+            remove()
+          }
+        }
+      }
+    }
+    return cacheDirectory?.listFiles { _, name -> name.startsWith(fingerprint) }?.isNotEmpty() == true
+  }
+
+  /**
+   * @return the result of [query] if it's cached in memory or on disk, or null.
+   */
+  @Synchronized
+  fun get(query: QueryParameters): QueryResult? {
+    memoryResults[query]?.let { return it }
+    val file = getResultFile(query) ?: return null
+    if (!file.exists()) {
+      return null
+    }
+    try {
+      BufferedInputStream(FileInputStream(file)).use { input ->
+        // The query is stored along with the result, in case another query's key collides with this one.
+        if (QueryParameters.parseDelimitedFrom(input) != withoutTraceId(query)) {
+          return null
+        }
+        return QueryResult.parseDelimitedFrom(input).also { putInMemory(query, it) }
+      }
+    }
+    catch (e: IOException) {
+      LOGGER.warn("Unable to read cached TPD result from ${file.absolutePath}", e)
+      return null
+    }
+  }
+
+  /**
+   * Caches the [result] of [query], unless the query failed. The result is written to disk asynchronously.
+   */
+  @Synchronized
+  fun put(query: QueryParameters, result: QueryResult) {
+    if (!result.ok) {
+      return
+    }
+    putInMemory(query, result)
+    val file = getResultFile(query) ?: return
+    diskExecutor.execute { writeResult(file, withoutTraceId(query), result) }
+  }
+
+  private fun writeResult(file: File, query: QueryParameters, result: QueryResult) {
+    try {
+      FileUtil.createParentDirs(file)
+      val previousLength = file.length()
+      // Write to a temporary file first, so that a result file is never read partially written.
+      val tempFile = File(file.parentFile, "${file.name}.tmp")
+      BufferedOutputStream(FileOutputStream(tempFile)).use { output ->
+        query.writeDelimitedTo(output)
+        result.writeDelimitedTo(output)
+      }
+      FileUtil.rename(tempFile, file)
+      if (diskBytes >= 0) {
+        diskBytes += file.length() - previousLength
+      }
+      trimDiskCache()
+    }
+    catch (e: IOException) {
+      LOGGER.warn("Unable to persist TPD result to ${file.absolutePath}", e)
+    }
+  }
+
+  private fun putInMemory(query: QueryParameters, result: QueryResult) {
+    val size = result.serializedSize.toLong()
+    if (size > maxMemoryBytes) {
+      return
+    }
+    memoryResults.put(query, result)?.let { memoryBytes -= it.serializedSize }
+    memoryBytes += size
+    with(memoryResults.entries.iterator()) {
+      while (memoryBytes > maxMemoryBytes && hasNext()) {
+        memoryBytes -= next().value.serializedSize
+        remove()
+      }
+    }
+  }
+
+  /**
+   * Deletes the least recently written result files past [maxDiskBytes]. The cache directory is only listed the first time, to learn its
+   * size, and whenever that size goes over the limit.
+   */
+  private fun trimDiskCache() {
+    if (diskBytes in 0..maxDiskBytes) {
+      return
+    }
+    val files = cacheDirectory?.listFiles { _, name -> name.endsWith(RESULT_FILE_SUFFIX) } ?: return
+    diskBytes = files.map { it.length() }.sum()
+    for (file in files.sortedBy { it.lastModified() }) {
+      if (diskBytes <= maxDiskBytes) {
+        break
+      }
+      diskBytes -= file.length()
+      FileUtil.delete(file)
+    }
+  }
+
+  /**
+   * @return the file persisting the result of [query], or null if results aren't persisted or its trace isn't registered.
+   */
+  private fun getResultFile(query: QueryParameters): File? {
+    val directory = cacheDirectory ?: return null
+    val fingerprint = traceFingerprints[query.traceId] ?: return null
+    val queryHash = Hashing.sha256().hashBytes(withoutTraceId(query).toByteArray()).toString()
+    return File(directory, "$fingerprint-$queryHash$RESULT_FILE_SUFFIX")
+  }
+
+  private fun withoutTraceId(query: QueryParameters) = query.toBuilder().clearTraceId().build()
+}
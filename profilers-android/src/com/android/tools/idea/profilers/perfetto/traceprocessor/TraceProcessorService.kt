@@ -45,13 +45,22 @@ import java.util.concurrent.TimeUnit
 
 /**
  * See {@link TraceProcessorService} for API details.
+ *
+ * Query results are cached by {@link TraceProcessorQueryCache}, so only the queries of a batch that aren't cached go to TPD. When all the
+ * results needed for a trace were persisted by a previous session, loading the trace in TPD is deferred until a query misses the cache.
  */
 @Service
 class TraceProcessorServiceImpl(
   private val ticker: Ticker = Ticker.systemTicker(),
-  private val client: TraceProcessorDaemonClient = TraceProcessorDaemonClient(ticker)) : TraceProcessorService, Disposable {
+  private val client: TraceProcessorDaemonClient = TraceProcessorDaemonClient(ticker),
+  private val queryCache: TraceProcessorQueryCache = TraceProcessorQueryCache()) : TraceProcessorService, Disposable {
   private val loadedTraces = mutableMapOf<Long, File>()
 
+  /**
+   * Traces known to this service but not loaded in TPD yet, because their results were persisted.
+   */
+  private val deferredTraces = mutableSetOf<Long>()
+
   init {
     Disposer.register(this, client)
   }
@@ -127,6 +136,17 @@ class TraceProcessorServiceImpl(
   }
 
   override fun loadTrace(traceId: Long, traceFile: File, ideProfilerServices: IdeProfilerServices): Boolean {
+    if (queryCache.registerTrace(traceId, traceFile, ideProfilerServices.nativeSymbolsDirectories)) {
+      LOGGER.info("TPD Service: Found cached results for trace $traceId, deferring its loading.")
+      loadedTraces[traceId] = traceFile
+      deferredTraces.add(traceId)
+      return true
+    }
+    return loadTraceInDaemon(traceId, traceFile, ideProfilerServices)
+  }
+
+  private fun loadTraceInDaemon(traceId: Long, traceFile: File, ideProfilerServices: IdeProfilerServices): Boolean {
+    deferredTraces.remove(traceId)
     // load trace had no business logic in Java side, so we use a single stopwatch to track both query and method timings.
     val stopwatch = Stopwatch.createStarted(ticker)
     val symbolPaths = ideProfilerServices.nativeSymbolsDirectories
@@ -177,11 +197,26 @@ class TraceProcessorServiceImpl(
   override fun getProcessMetadata(traceId: Long, ideProfilerServices: IdeProfilerServices): List<ProcessModel> =
     TraceProcessorModel.Builder().let { modelBuilder ->
       handleRequest(traceId, ideProfilerServices, FeatureTracker::trackTraceProcessorProcessMetadata,
-                    RequestBuilder({ processMetadataRequest = QueryParameters.ProcessMetadataParameters.getDefaultInstance() },
-                             { modelBuilder.addProcessMetadata(it.processMetadataResult) }))
+                    processMetadataRequest(modelBuilder))
       modelBuilder.build().getProcesses()
     }
 
+  override fun getProcessAndTraceMetadata(traceId: Long,
+                                          metadataName: String,
+                                          ideProfilerServices: IdeProfilerServices): Pair<List<ProcessModel>, List<String>> {
+    val modelBuilder = TraceProcessorModel.Builder()
+    val metadata = mutableListOf<String>()
+    handleRequest(traceId, ideProfilerServices, FeatureTracker::trackTraceProcessorProcessMetadata,
+                  processMetadataRequest(modelBuilder),
+                  RequestBuilder({ traceMetadataRequest = traceMetadataParameters(metadataName) },
+                                 { collectTraceMetadata(it, metadata) }))
+    return Pair(modelBuilder.build().getProcesses(), metadata)
+  }
+
+  private fun processMetadataRequest(modelBuilder: TraceProcessorModel.Builder) =
+    RequestBuilder({ processMetadataRequest = QueryParameters.ProcessMetadataParameters.getDefaultInstance() },
+                   { modelBuilder.addProcessMetadata(it.processMetadataResult) })
+
   override fun loadCpuData(traceId: Long,
                            processes: List<ProcessModel>,
                            selectedProcess: ProcessModel,
@@ -216,7 +251,7 @@ class TraceProcessorServiceImpl(
 
     LOGGER.info("TPD Service: Querying cpu data for trace $traceId.")
     val queryStopwatch = Stopwatch.createStarted(ticker)
-    val queryResult = executeBatchQuery(traceId, queryProto, ideProfilerServices)
+    val queryResult = executeCachedBatchQuery(traceId, queryProto, ideProfilerServices)
     queryStopwatch.stop()
     val queryTimeMs = queryStopwatch.elapsed(TimeUnit.MILLISECONDS)
 
@@ -255,15 +290,11 @@ class TraceProcessorServiceImpl(
       // Query metadata by name.
       .addQuery(QueryParameters.newBuilder()
                   .setTraceId(traceId)
-                  .setTraceMetadataRequest(QueryParameters.TraceMetadataParameters.newBuilder()
-                                             .setName(metadataName)
-                                             // Currently we only care about "metadata" type elements. All rows observed with a trace
-                                             // captured by studio had this field set to metadata.
-                                             .setType("metadata").build()))
+                  .setTraceMetadataRequest(traceMetadataParameters(metadataName)))
       .build()
 
     LOGGER.info("TPD Service: Querying trace metadata for trace $traceId.")
-    val queryResult = executeBatchQuery(traceId, query, ideProfilerServices)
+    val queryResult = executeCachedBatchQuery(traceId, query, ideProfilerServices)
 
     if (!queryResult.completed) {
       val failureReason = queryResult.failure!!
@@ -277,15 +308,57 @@ class TraceProcessorServiceImpl(
       if (!result.ok) {
         LOGGER.warn("TPD Service: Trace metadata query error - ${result.failureReason} - ${result.error}")
       }
-      if (result.hasTraceMetadataResult()) {
-        result.traceMetadataResult.metadataRowList.forEach {
-          results.add(it.stringValue ?: it.int64Value.toString())
-        }
-      }
+      collectTraceMetadata(result, results)
     }
     return results
   }
 
+  private fun traceMetadataParameters(metadataName: String) =
+    QueryParameters.TraceMetadataParameters.newBuilder()
+      .setName(metadataName)
+      // Currently we only care about "metadata" type elements. All rows observed with a trace
+      // captured by studio had this field set to metadata.
+      .setType("metadata")
+      .build()
+
+  private fun collectTraceMetadata(result: QueryResult, metadata: MutableList<String>) {
+    if (result.hasTraceMetadataResult()) {
+      result.traceMetadataResult.metadataRowList.forEach {
+        metadata.add(it.stringValue ?: it.int64Value.toString())
+      }
+    }
+  }
+
+  /**
+   * Execute {@code query} like {@link executeBatchQuery}, taking the results that are cached from {@link queryCache} and only sending the
+   * other queries to TPD. The results of the response are in the same order as the queries.
+   */
+  private fun executeCachedBatchQuery(traceId: Long,
+                                      query: QueryBatchRequest,
+                                      ideProfilerServices: IdeProfilerServices): TraceProcessorDaemonQueryResult<QueryBatchResponse> {
+    val cachedResults = query.queryList.map { queryCache.get(it) }
+    val missingQueries = query.queryList.filterIndexed { i, _ -> cachedResults[i] == null }
+    if (missingQueries.isEmpty()) {
+      return TraceProcessorDaemonQueryResult(QueryBatchResponse.newBuilder().addAllResult(cachedResults.filterNotNull()).build())
+    }
+    if (traceId in deferredTraces) {
+      LOGGER.info("TPD Service: Trace $traceId results are not all cached, loading it.")
+      if (!loadTraceInDaemon(traceId, loadedTraces[traceId]!!, ideProfilerServices)) {
+        return TraceProcessorDaemonQueryResult(IllegalStateException("Trace $traceId could not be loaded to run the queries not cached."))
+      }
+    }
+
+    val queryResult = executeBatchQuery(traceId, QueryBatchRequest.newBuilder().addAllQuery(missingQueries).build(), ideProfilerServices)
+    val response = queryResult.response ?: return queryResult
+    (missingQueries zip response.resultList).forEach { (missingQuery, result) -> queryCache.put(missingQuery, result) }
+
+    // Merge the results back in the order of the queries.
+    val freshResults = response.resultList.iterator()
+    val results = cachedResults.map { it ?: if (freshResults.hasNext()) freshResults.next() else null }
+    return TraceProcessorDaemonQueryResult(
+      response.toBuilder().clearResult().addAllResult(results.takeWhile { it != null }.filterNotNull()).build())
+  }
+
   /**
    * Execute {@code query} on TPD, reloading the trace if has been unloaded (e.g. TPD crashed between loading and the query request).
    */
@@ -300,7 +373,7 @@ class TraceProcessorServiceImpl(
       val loadedTrace = loadedTraces[traceId]
       if (loadedTrace != null) {
         // We loaded this trace before, but something happened and the trace is not there anymore. Let's try to reload it:
-        loadTrace(traceId, loadedTrace, ideProfilerServices)
+        loadTraceInDaemon(traceId, loadedTrace, ideProfilerServices)
         queryResult = client.queryBatchRequest(query, ideProfilerServices.featureTracker)
       }
       else {
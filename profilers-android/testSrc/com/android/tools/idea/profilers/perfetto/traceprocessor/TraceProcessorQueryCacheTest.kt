@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.profilers.perfetto.traceprocessor
+
+import com.android.tools.profiler.perfetto.proto.TraceProcessor.QueryParameters
+import com.android.tools.profiler.perfetto.proto.TraceProcessor.QueryResult
+import com.google.common.truth.Truth.assertThat
+import com.google.common.util.concurrent.MoreExecutors
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class TraceProcessorQueryCacheTest {
+
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun leastRecentlyUsedResultsAreEvicted() {
+    val result = QueryResult.newBuilder().setOk(true).setError("x".repeat(100)).build()
+    // Room for two results only.
+    val cache = TraceProcessorQueryCache(maxMemoryBytes = result.serializedSize * 2L + 1, cacheDirectory = null)
+    cache.put(traceEventsQuery(1, 10), result)
+    cache.put(traceEventsQuery(1, 20), result)
+    assertThat(cache.get(traceEventsQuery(1, 10))).isEqualTo(result)
+
+    cache.put(traceEventsQuery(1, 30), result)
+    assertThat(cache.get(traceEventsQuery(1, 10))).isEqualTo(result)
+    assertThat(cache.get(traceEventsQuery(1, 20))).isNull()
+    assertThat(cache.get(traceEventsQuery(1, 30))).isEqualTo(result)
+  }
+
+  @Test
+  fun failedResultsAreNotCached() {
+    val cache = TraceProcessorQueryCache(cacheDirectory = null)
+    cache.put(traceEventsQuery(1, 10), QueryResult.newBuilder().setOk(false).build())
+    assertThat(cache.get(traceEventsQuery(1, 10))).isNull()
+  }
+
+  @Test
+  fun resultsArePersistedByTraceFile() {
+    val cacheDirectory = tempFolder.newFolder()
+    val traceFile = tempFolder.newFile("perfetto.trace").apply { writeText("trace") }
+    val result = QueryResult.newBuilder().setOk(true).build()
+
+    val cache = TraceProcessorQueryCache(cacheDirectory = cacheDirectory, diskExecutor = MoreExecutors.directExecutor())
+    assertThat(cache.registerTrace(1, traceFile)).isFalse()
+    cache.put(traceEventsQuery(1, 10), result)
+
+    // The same file under another trace id finds the persisted result.
+    val reopenedCache = TraceProcessorQueryCache(cacheDirectory = cacheDirectory, diskExecutor = MoreExecutors.directExecutor())
+    assertThat(reopenedCache.registerTrace(2, traceFile)).isTrue()
+    assertThat(reopenedCache.get(traceEventsQuery(2, 10))).isEqualTo(result)
+    assertThat(reopenedCache.get(traceEventsQuery(2, 20))).isNull()
+
+    // Once the file changes, results persisted for its previous content are not used.
+    traceFile.writeText("another trace")
+    val modifiedCache = TraceProcessorQueryCache(cacheDirectory = cacheDirectory, diskExecutor = MoreExecutors.directExecutor())
+    assertThat(modifiedCache.registerTrace(2, traceFile)).isFalse()
+    assertThat(modifiedCache.get(traceEventsQuery(2, 10))).isNull()
+  }
+
+  @Test
+  fun persistedResultsDependOnSymbolPaths() {
+    val cacheDirectory = tempFolder.newFolder()
+    val traceFile = tempFolder.newFile("perfetto.trace").apply { writeText("trace") }
+    val result = QueryResult.newBuilder().setOk(true).build()
+
+    val cache = TraceProcessorQueryCache(cacheDirectory = cacheDirectory, diskExecutor = MoreExecutors.directExecutor())
+    cache.registerTrace(1, traceFile, listOf("/symbols/a"))
+    cache.put(traceEventsQuery(1, 10), result)
+
+    val reopenedCache = TraceProcessorQueryCache(cacheDirectory = cacheDirectory, diskExecutor = MoreExecutors.directExecutor())
+    assertThat(reopenedCache.registerTrace(2, traceFile, listOf("/symbols/a", "/symbols/b"))).isFalse()
+    assertThat(reopenedCache.get(traceEventsQuery(2, 10))).isNull()
+    assertThat(reopenedCache.registerTrace(3, traceFile, listOf("/symbols/a"))).isTrue()
+    assertThat(reopenedCache.get(traceEventsQuery(3, 10))).isEqualTo(result)
+  }
+
+  @Test
+  fun resultsAreWrittenOnDiskExecutor() {
+    val cacheDirectory = tempFolder.newFolder()
+    val traceFile = tempFolder.newFile("perfetto.trace").apply { writeText("trace") }
+    val pendingWrites = mutableListOf<Runnable>()
+    val cache = TraceProcessorQueryCache(cacheDirectory = cacheDirectory, diskExecutor = { pendingWrites.add(it) })
+    cache.registerTrace(1, traceFile)
+    cache.put(traceEventsQuery(1, 10), QueryResult.newBuilder().setOk(true).build())
+    assertThat(cacheDirectory.list()).isEmpty()
+    assertThat(pendingWrites).hasSize(1)
+
+    pendingWrites.forEach(Runnable::run)
+    assertThat(cacheDirectory.list()).hasLength(1)
+  }
+
+  private fun traceEventsQuery(traceId: Long, processId: Long) = QueryParameters.newBuilder()
+    .setTraceId(traceId)
+    .setTraceEventsRequest(QueryParameters.TraceEventsParameters.newBuilder().setProcessId(processId))
+    .build()
+}
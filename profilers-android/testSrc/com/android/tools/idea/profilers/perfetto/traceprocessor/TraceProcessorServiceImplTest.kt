@@ -24,6 +24,7 @@ import com.android.tools.profilers.FakeIdeProfilerServices
 import com.android.tools.profilers.cpu.systemtrace.ProcessModel
 import com.android.utils.Pair
 import com.google.common.truth.Truth.assertThat
+import com.google.common.util.concurrent.MoreExecutors
 import com.google.wireless.android.sdk.stats.AndroidProfilerEvent
 import com.google.wireless.android.sdk.stats.TraceProcessorDaemonQueryStats
 import com.intellij.openapi.util.io.FileUtil
@@ -247,6 +248,98 @@ class TraceProcessorServiceImplTest {
       Pair.of(AndroidProfilerEvent.Type.TPD_QUERY_LOAD_CPU_DATA, getFailMetricStatsFor(30, 10)))
   }
 
+  @Test
+  fun `loadCpuData - cached results are not queried again`() {
+    val client = TraceProcessorDaemonClient(fakeTicker, TraceProcessorServiceGrpc.newBlockingStub(fakeGrpcChannel.channel))
+    val ideService = TraceProcessorServiceImpl(fakeTicker, client, TraceProcessorQueryCache(cacheDirectory = null))
+
+    fakeGrpcService.queryBatchResponse = TraceProcessor.QueryBatchResponse.newBuilder()
+      .addAllResult(List(9) { TraceProcessor.QueryResult.newBuilder().setOk(true).build() })
+      .build()
+    ideService.loadCpuData(10, listOf(fakeProcess(33), fakeProcess(42)), fakeProcess(123), fakeIdeProfilerServices)
+    assertThat(fakeGrpcService.lastQueryBatchRequest!!.queryCount).isEqualTo(9)
+
+    // Querying another process only sends the queries for that process.
+    fakeGrpcService.queryBatchResponse = TraceProcessor.QueryBatchResponse.newBuilder()
+      .addAllResult(List(2) { TraceProcessor.QueryResult.newBuilder().setOk(true).build() })
+      .build()
+    ideService.loadCpuData(10, listOf(fakeProcess(33), fakeProcess(51)), fakeProcess(123), fakeIdeProfilerServices)
+    assertThat(fakeGrpcService.lastQueryBatchRequest!!.queryList.map { it.traceEventsRequest.processId }).containsExactly(51L, 0L)
+    assertThat(fakeGrpcService.lastQueryBatchRequest!!.queryList.map { it.processCountersRequest.processId }).containsExactly(0L, 51L)
+
+    fakeGrpcService.lastQueryBatchRequest = null
+    ideService.loadCpuData(10, listOf(fakeProcess(33), fakeProcess(42)), fakeProcess(123), fakeIdeProfilerServices)
+    assertThat(fakeGrpcService.lastQueryBatchRequest).isNull()
+  }
+
+  @Test
+  fun `loadTrace - deferred when results are persisted`() {
+    val cacheDirectory = tempFolder.newFolder()
+    val client = TraceProcessorDaemonClient(fakeTicker, TraceProcessorServiceGrpc.newBlockingStub(fakeGrpcChannel.channel))
+    fakeGrpcService.loadTraceResponse = TraceProcessor.LoadTraceResponse.newBuilder().setOk(true).build()
+    fakeGrpcService.queryBatchResponse = TraceProcessor.QueryBatchResponse.newBuilder()
+      .addResult(TraceProcessor.QueryResult.newBuilder().setOk(true))
+      .addResult(TraceProcessor.QueryResult.newBuilder().setOk(true))
+      .build()
+
+    val traceFile = tempFolder.newFile("perfetto.trace")
+    traceFile.writeBytes(Random.Default.nextBytes(256))
+    val firstService = TraceProcessorServiceImpl(fakeTicker, client, createPersistentCache(cacheDirectory))
+    firstService.loadTrace(10, traceFile, fakeIdeProfilerServices)
+    firstService.getProcessAndTraceMetadata(10, "ui_state", fakeIdeProfilerServices)
+    assertThat(fakeGrpcService.lastQueryBatchRequest!!.queryCount).isEqualTo(2)
+
+    // Reopening the same trace, e.g. in a new session, is served from the persisted results without loading it.
+    fakeGrpcService.lastLoadTraceRequest = null
+    fakeGrpcService.lastQueryBatchRequest = null
+    val secondService = TraceProcessorServiceImpl(fakeTicker, client, createPersistentCache(cacheDirectory))
+    assertThat(secondService.loadTrace(10, traceFile, fakeIdeProfilerServices)).isTrue()
+    secondService.getProcessAndTraceMetadata(10, "ui_state", fakeIdeProfilerServices)
+    assertThat(fakeGrpcService.lastLoadTraceRequest).isNull()
+    assertThat(fakeGrpcService.lastQueryBatchRequest).isNull()
+
+    // A query that isn't cached loads the trace first.
+    fakeGrpcService.queryBatchResponse = TraceProcessor.QueryBatchResponse.newBuilder()
+      .addResult(TraceProcessor.QueryResult.newBuilder().setOk(true))
+      .build()
+    secondService.getTraceMetadata(10, "trace_uuid", fakeIdeProfilerServices)
+    fakeGrpcService.lastLoadTraceRequest ?: fail("Expected lastLoadTraceRequest to not be null")
+    assertThat(fakeGrpcService.lastQueryBatchRequest!!.queryCount).isEqualTo(1)
+  }
+
+  @Test
+  fun `loadTrace - deferred trace failing to load fails the queries not cached`() {
+    val cacheDirectory = tempFolder.newFolder()
+    val client = TraceProcessorDaemonClient(fakeTicker, TraceProcessorServiceGrpc.newBlockingStub(fakeGrpcChannel.channel))
+    fakeGrpcService.loadTraceResponse = TraceProcessor.LoadTraceResponse.newBuilder().setOk(true).build()
+    fakeGrpcService.queryBatchResponse = TraceProcessor.QueryBatchResponse.newBuilder()
+      .addResult(TraceProcessor.QueryResult.newBuilder().setOk(true))
+      .addResult(TraceProcessor.QueryResult.newBuilder().setOk(true))
+      .build()
+
+    val traceFile = tempFolder.newFile("perfetto.trace")
+    traceFile.writeBytes(Random.Default.nextBytes(256))
+    val firstService = TraceProcessorServiceImpl(fakeTicker, client, createPersistentCache(cacheDirectory))
+    firstService.loadTrace(10, traceFile, fakeIdeProfilerServices)
+    firstService.getProcessAndTraceMetadata(10, "ui_state", fakeIdeProfilerServices)
+
+    val secondService = TraceProcessorServiceImpl(fakeTicker, client, createPersistentCache(cacheDirectory))
+    assertThat(secondService.loadTrace(10, traceFile, fakeIdeProfilerServices)).isTrue()
+    fakeGrpcService.loadTraceResponse = TraceProcessor.LoadTraceResponse.newBuilder().setOk(false).setError("Broken trace").build()
+    fakeGrpcService.lastQueryBatchRequest = null
+    try {
+      secondService.getTraceMetadata(10, "trace_uuid", fakeIdeProfilerServices)
+      fail("Expected the query to fail")
+    }
+    catch (expected: Exception) {
+    }
+    // The queries were not sent to a daemon that doesn't have the trace.
+    assertThat(fakeGrpcService.lastQueryBatchRequest).isNull()
+  }
+
+  private fun createPersistentCache(cacheDirectory: File) =
+    TraceProcessorQueryCache(cacheDirectory = cacheDirectory, diskExecutor = MoreExecutors.directExecutor())
+
   private class TPServiceInMemoryForTesting: TraceProcessorServiceGrpc.TraceProcessorServiceImplBase() {
 
     var loadTraceResponse = TraceProcessor.LoadTraceResponse.getDefaultInstance()
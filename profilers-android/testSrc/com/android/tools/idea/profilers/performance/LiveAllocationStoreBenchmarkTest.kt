@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.profilers.performance
+
+import com.android.tools.perflogger.Benchmark
+import com.android.tools.profilers.memory.adapters.LiveAllocationStore
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.system.measureTimeMillis
+
+class LiveAllocationStoreBenchmarkTest {
+  private val memoryBenchmark = Benchmark.Builder("Live Allocation Store Memory (mb)")
+    .setProject("Android Studio Profilers")
+    .build()
+  private val timingBenchmark = Benchmark.Builder("Live Allocation Store Time (millis)")
+    .setProject("Android Studio Profilers")
+    .build()
+
+  @Test
+  fun `measure selection changes over 10M allocations`() {
+    val beforeMem = getMemoryUsed()
+    val store = LiveAllocationStore()
+    val fillMillis = measureTimeMillis {
+      for (i in 0 until ALLOCATION_COUNT) {
+        store.addAllocation(i * 10L, i, i % 1000, i % 5000, i % 20, 16L + i % 64, 3)
+        // Every other object dies young.
+        if (i % 2 == 1) {
+          store.addFree(i * 10L + 5, i - 1)
+        }
+      }
+    }
+    val afterMem = getMemoryUsed()
+    timingBenchmark.log("Fill-10M", fillMillis)
+    memoryBenchmark.log("Fill-10M-Used", (afterMem - beforeMem) / (1024 * 1024))
+
+    // Snapshots at the start, middle and end of the session, as when a new selection does not overlap the previous one.
+    for ((name, fraction) in listOf("Start" to 0.0, "Middle" to 0.5, "End" to 1.0)) {
+      val timeNs = (ALLOCATION_COUNT * 10L * fraction).toLong()
+      var liveCount = 0
+      val elapsedMillis = measureTimeMillis { store.forEachLiveRow(timeNs) { liveCount++ } }
+      assertThat(liveCount).isAtMost(ALLOCATION_COUNT / 2 + 1)
+      timingBenchmark.log("Snapshot-10M-$name", elapsedMillis)
+    }
+    store.close()
+  }
+
+  @Test
+  fun `measure ingest and selection changes with late allocations`() {
+    val beforeMem = getMemoryUsed()
+    val store = LiveAllocationStore()
+    // One allocation in a hundred arrives after allocations up to 1ms newer.
+    val fillMillis = measureTimeMillis {
+      for (i in 0 until ALLOCATION_COUNT) {
+        val timestampNs = if (i % 100 == 0) maxOf(0L, i * 10L - 1_000_000) else i * 10L
+        store.addAllocation(timestampNs, i, i % 1000, i % 5000, i % 20, 16L + i % 64, 3)
+        if (i % 2 == 1) {
+          store.addFree(i * 10L + 5, i - 1)
+        }
+      }
+    }
+    val afterMem = getMemoryUsed()
+    timingBenchmark.log("Fill-10M-Late", fillMillis)
+    memoryBenchmark.log("Fill-10M-Late-Used", (afterMem - beforeMem) / (1024 * 1024))
+
+    for ((name, fraction) in listOf("Start" to 0.0, "Middle" to 0.5, "End" to 1.0)) {
+      val timeNs = (ALLOCATION_COUNT * 10L * fraction).toLong()
+      var liveCount = 0
+      val elapsedMillis = measureTimeMillis { store.forEachLiveRow(timeNs) { liveCount++ } }
+      assertThat(liveCount).isAtMost(ALLOCATION_COUNT / 2 + 1)
+      timingBenchmark.log("Snapshot-10M-Late-$name", elapsedMillis)
+    }
+    store.close()
+  }
+
+  private companion object {
+    const val ALLOCATION_COUNT = 10_000_000
+  }
+}
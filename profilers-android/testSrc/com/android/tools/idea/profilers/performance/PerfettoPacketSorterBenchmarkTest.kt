@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.profilers.performance
+
+import com.android.tools.perflogger.Benchmark
+import com.android.tools.profilers.cpu.systemtrace.PerfettoPacketDBSorter
+import com.android.tools.profilers.cpu.systemtrace.PerfettoPacketSorter
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.Random
+import kotlin.system.measureTimeMillis
+
+class PerfettoPacketSorterBenchmarkTest {
+  private val timingBenchmark = Benchmark.Builder("Perfetto Packet Sorter Time (millis)")
+    .setProject("Android Studio Profilers")
+    .build()
+
+  @Test
+  fun `compare sorters on 3M lines`() {
+    val dbSorter = PerfettoPacketDBSorter()
+    timingBenchmark.log("DB-Sorter-3M", measureSort(dbSorter::addLine, dbSorter::resetForIterator, dbSorter))
+    dbSorter.close()
+
+    val sorter = PerfettoPacketSorter()
+    timingBenchmark.log("Merge-Sorter-3M", measureSort(sorter::addLine, sorter::resetForIterator, sorter))
+    sorter.close()
+  }
+
+  /**
+   * Adds lines the way ftrace bundles arrive, in per-CPU batches that overlap in time, then reads them all back in order.
+   */
+  private fun measureSort(addLine: (Long, String) -> Unit, reset: () -> Unit, lines: Iterator<String?>): Long {
+    val random = Random(1)
+    var count = 0
+    val elapsedMillis = measureTimeMillis {
+      for (batch in 0 until LINE_COUNT / BATCH_SIZE) {
+        for (i in 0 until BATCH_SIZE) {
+          val timestamp = batch * 1000L + random.nextInt(5000)
+          addLine(timestamp, "<...>-${i % 300} (-----) [00${i % 8}] d..3 $timestamp: sched_switch: prev_comm=thread-$i prev_pid=$i")
+        }
+      }
+      reset()
+      while (lines.hasNext()) {
+        lines.next()
+        count++
+      }
+    }
+    assertThat(count).isEqualTo(LINE_COUNT)
+    return elapsedMillis
+  }
+
+  private companion object {
+    const val LINE_COUNT = 3_000_000
+    const val BATCH_SIZE = 1000
+  }
+}
@@ -50,6 +50,12 @@ public class StatusPanel extends JComponent {
   @NotNull
   private final String myStatus;
 
+  /**
+   * Shows {@link #myStatus}, followed by the progress of the operation if known.
+   */
+  @NotNull
+  private final JLabel myStatusLabel;
+
   @NotNull
   private final StatusPanelModel myModel;
 
@@ -63,6 +69,7 @@ public class StatusPanel extends JComponent {
   public StatusPanel(@NotNull StatusPanelModel captureHandler, @NotNull String status, @Nullable String abortText) {
     myModel = captureHandler;
     myStatus = status;
+    myStatusLabel = createLabel(status, false);
     myModel.getRange().addDependency(myObserver).onChange(Range.Aspect.RANGE, this::updateDuration);
     myAbortButton = abortText != null ? createAbortButton(abortText) : null;
     populateContent();
@@ -82,13 +89,12 @@ public class StatusPanel extends JComponent {
     statusPanel.setBorder(new LineBorder(ProfilerColors.CPU_CAPTURE_STATUS, 1));
 
     JLabel status = createLabel("Status", true);
-    JLabel actualStatus = createLabel(myStatus, false);
     JLabel duration = createLabel("Duration", true);
     JLabel technology = createLabel("Type", true);
     JLabel actualTechnology = createLabel(myModel.getConfigurationText(), false);
 
     statusPanel.add(status, new TabularLayout.Constraint(1, 1));
-    statusPanel.add(actualStatus, new TabularLayout.Constraint(1, 3));
+    statusPanel.add(myStatusLabel, new TabularLayout.Constraint(1, 3));
     statusPanel.add(duration, new TabularLayout.Constraint(2, 1));
     statusPanel.add(myDurationLabel, new TabularLayout.Constraint(2, 3));
     statusPanel.add(technology, new TabularLayout.Constraint(3, 1));
@@ -104,6 +110,7 @@ public class StatusPanel extends JComponent {
 
   private void updateDuration() {
     myDurationLabel.setText(getDurationText());
+    myStatusLabel.setText(getStatusText());
   }
 
   private static JLabel createLabel(String text, boolean isRightAligned) {
@@ -127,6 +134,17 @@ public class StatusPanel extends JComponent {
     return myDurationLabel;
   }
 
+  @VisibleForTesting
+  JLabel getStatusLabel() {
+    return myStatusLabel;
+  }
+
+  @NotNull
+  private String getStatusText() {
+    double progress = myModel.getProgress();
+    return progress < 0 ? myStatus : String.format("%s (%d%%)", myStatus, (int)(Math.min(progress, 1) * 100));
+  }
+
   @NotNull
   private String getDurationText() {
     return TimeFormatter
@@ -37,12 +37,27 @@ public class UnifiedEventDataSeries<T> implements DataSeries<T> {
 
   public static final int DEFAULT_GROUP_ID = Common.Event.EventGroupIds.INVALID_VALUE;
 
+  /**
+   * Events of a stream are polled in batches, so an event may be inserted after newer events have already been queried.
+   */
+  private static final long LATE_EVENT_WINDOW_US = TimeUnit.SECONDS.toMicros(5);
+
   @NotNull private final TransportServiceGrpc.TransportServiceBlockingStub myClient;
   private final long myStreamId;
   private final int myPid;
   @NotNull private final Common.Event.Kind myKind;
   private final int myGroupId;
   @NotNull private final Function<List<Common.Event>, List<SeriesData<T>>> myDataExtractor;
+  private final boolean myIsAppendOnly;
+
+  public UnifiedEventDataSeries(@NotNull TransportServiceGrpc.TransportServiceBlockingStub client,
+                                long streamId,
+                                int pid,
+                                @NotNull Common.Event.Kind kind,
+                                int groupId,
+                                @NotNull Function<List<Common.Event>, List<SeriesData<T>>> dataExtractor) {
+    this(client, streamId, pid, kind, groupId, dataExtractor, false);
+  }
 
   /**
    * @param client        the grpc client to request data from.
@@ -51,19 +66,23 @@ public class UnifiedEventDataSeries<T> implements DataSeries<T> {
    * @param kind          the data kind ot query.
    * @param groupId       the group id within the data kind to query. If the data don't have group distinction, use DEFAULT_GROUP_ID.
    * @param dataExtractor the function to extract data from a list of events to build the list of series data.
+   * @param isAppendOnly  true if each sample only depends on its own event, e.g. with {@link #fromFieldToDataExtractor}, so that
+   *                      streaming queries only need to fetch the newest events. See {@link DataSeries#isAppendOnly()}.
    */
   public UnifiedEventDataSeries(@NotNull TransportServiceGrpc.TransportServiceBlockingStub client,
                                 long streamId,
                                 int pid,
                                 @NotNull Common.Event.Kind kind,
                                 int groupId,
-                                @NotNull Function<List<Common.Event>, List<SeriesData<T>>> dataExtractor) {
+                                @NotNull Function<List<Common.Event>, List<SeriesData<T>>> dataExtractor,
+                                boolean isAppendOnly) {
     myClient = client;
     myStreamId = streamId;
     myPid = pid;
     myKind = kind;
     myGroupId = groupId;
     myDataExtractor = dataExtractor;
+    myIsAppendOnly = isAppendOnly;
   }
 
   @Override
@@ -86,6 +105,16 @@ public class UnifiedEventDataSeries<T> implements DataSeries<T> {
     return myDataExtractor.apply(response.getGroups(0).getEventsList());
   }
 
+  @Override
+  public boolean isAppendOnly() {
+    return myIsAppendOnly;
+  }
+
+  @Override
+  public long getLateSampleWindow() {
+    return LATE_EVENT_WINDOW_US;
+  }
+
   /**
    * Helper function that constructs list data extractor from a field extractor for the simple case of extracting one field out of every
    * {@link Common.Event}.
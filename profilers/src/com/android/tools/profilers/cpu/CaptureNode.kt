@@ -26,6 +26,7 @@ import java.util.PriorityQueue
 import java.util.function.Predicate
 import java.util.stream.Stream
 import kotlin.reflect.KMutableProperty1
+import kotlin.streams.asStream
 
 open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : HNode<CaptureNode> {
 
@@ -51,8 +52,11 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
    * End time with THREAD clock.
    */
   var endThread = 0L
-  @JvmField
-  protected val childrenList = mutableListOf<CaptureNode>()
+
+  /**
+   * Only allocated when the first child is added, as most nodes of a call tree are leaves.
+   */
+  private var childrenList: MutableList<CaptureNode>? = null
 
   /**
    * The parent of its child is set to it when it is added [.addChild]
@@ -76,7 +80,7 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
   private var aspectModelPlaceHolder: AspectModel<Aspect>? = null
 
   val children: List<CaptureNode>
-    get() = childrenList
+    get() = childrenList ?: emptyList()
 
   val isUnmatched: Boolean
     get() = filterType == FilterType.UNMATCH
@@ -85,18 +89,50 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
    * @return all descendants in pre-order (i.e. node, left, right) as a stream.
    */
   val descendantsStream: Stream<CaptureNode>
-    get() = Stream.concat(Stream.of(this), children.stream().flatMap { it.descendantsStream })
+    get() = descendants.asStream()
+
+  /**
+   * All descendants in pre-order, visited with an explicit stack so that deep call trees neither overflow the stack nor build a chain of
+   * nested streams.
+   */
+  val descendants: Sequence<CaptureNode>
+    get() = sequence {
+      yield(this@CaptureNode)
+      val stack = ArrayDeque<Iterator<CaptureNode>>()
+      stack.addLast(children.iterator())
+      while (stack.isNotEmpty()) {
+        val siblings = stack.last()
+        if (!siblings.hasNext()) {
+          stack.removeLast()
+          continue
+        }
+        val node = siblings.next()
+        yield(node)
+        if (node.childCount > 0) {
+          stack.addLast(node.children.iterator())
+        }
+      }
+    }
 
   open fun addChild(node: CaptureNode) {
-    childrenList.add(node)
+    appendChild(node)
     node.parent = this
   }
 
+  /**
+   * Adds [node] to the children of this node, without changing the parent of [node].
+   */
+  protected fun appendChild(node: CaptureNode) {
+    (childrenList ?: mutableListOf<CaptureNode>().also { childrenList = it }).add(node)
+  }
+
   fun addChildren(nodes: Collection<CaptureNode>) = nodes.forEach(::addChild)
-  fun clearChildren() = childrenList.clear()
+  fun clearChildren() {
+    childrenList = null
+  }
 
-  override fun getChildCount() = childrenList.size
-  override fun getChildAt(index: Int) = childrenList[index]
+  override fun getChildCount() = childrenList?.size ?: 0
+  override fun getChildAt(index: Int) = children[index]
   override fun getParent() = parent
 
   /**
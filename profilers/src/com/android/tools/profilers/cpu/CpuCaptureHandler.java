@@ -80,6 +80,15 @@ public class CpuCaptureHandler implements Updatable, StatusPanelModel {
     return myConfiguration.getName();
   }
 
+  /**
+   * {@link StatusPanelModel} interface override.
+   * Returns the fraction of the capture parsed so far, when the parser reports it.
+   */
+  @Override
+  public double getProgress() {
+    return myIsParsing ? myCaptureParser.getParsingProgress() : CpuCaptureParser.UNKNOWN_PROGRESS;
+  }
+
   /**
    * {@link StatusPanelModel} interface override.
    * Aborts the capture parser.
@@ -89,6 +98,15 @@ public class CpuCaptureHandler implements Updatable, StatusPanelModel {
     myCaptureParser.abortParsing();
   }
 
+  /**
+   * Aborts the capture parser if it's still parsing, as when the user leaves the stage before parsing completes.
+   */
+  public void abortIfParsing() {
+    if (myIsParsing) {
+      abort();
+    }
+  }
+
   /**
    * {@link Updatable} interface override.
    * When parsing increases the max time of the parse range so parse range length is the total time to parse.
@@ -41,8 +41,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -61,6 +65,11 @@ public class CpuCaptureParser {
   @VisibleForTesting
   static final int MAX_SUPPORTED_TRACE_SIZE = 1024 * 1024 * 100; // 100MB
 
+  /**
+   * Parsing progress of parsers that don't report it.
+   */
+  public static final double UNKNOWN_PROGRESS = -1;
+
   /**
    * Maps a trace id to a corresponding {@link CompletableFuture<CpuCapture>}.
    */
@@ -87,6 +96,18 @@ public class CpuCaptureParser {
    */
   private long myParsingStartTimeMs;
 
+  /**
+   * Fraction of the trace parsed so far, as reported by parsers supporting it, or {@link #UNKNOWN_PROGRESS}.
+   */
+  private volatile double myParsingProgress = UNKNOWN_PROGRESS;
+
+  /**
+   * One flag per parsing in progress, keyed by trace id, set by {@link #abortParsing()} and checked by parsers supporting cancellation.
+   * Cancelling the {@link CompletableFuture} only completes it, and doesn't stop the parser itself. Each parsing has its own flag, so that
+   * starting a new one doesn't clear an abort requested for another one still running.
+   */
+  private final Map<Long, AtomicBoolean> myAbortRequests = new ConcurrentHashMap<>();
+
   /**
    * Metadata associated with parsing a capture.
    */
@@ -136,6 +157,7 @@ public class CpuCaptureParser {
    * Abort every capture parsing that might still be in progress.
    */
   public void abortParsing() {
+    myAbortRequests.values().forEach(abortRequested -> abortRequested.set(true));
     myCaptures.forEach((id, capture) -> {
       boolean isCaptureCancelled = capture.cancel(true);
       if (!isCaptureCancelled) {
@@ -151,6 +173,13 @@ public class CpuCaptureParser {
     return myIsParsing;
   }
 
+  /**
+   * @return the fraction of the trace parsed so far, from 0 to 1, or {@link #UNKNOWN_PROGRESS} if the parser doesn't report it.
+   */
+  public double getParsingProgress() {
+    return myParsingProgress;
+  }
+
   public long getParsingElapsedTimeMs() {
     return System.currentTimeMillis() - myParsingStartTimeMs;
   }
@@ -190,14 +219,22 @@ public class CpuCaptureParser {
     // If we don't have a hint for the process id, we assume it was an imported trace as we have no extra information.
     boolean isImportedTrace = (processIdHint == 0);
 
+    AtomicBoolean abortRequested = new AtomicBoolean();
+    myAbortRequests.put(traceId, abortRequested);
+    myParsingProgress = UNKNOWN_PROGRESS;
+    DoubleConsumer progress = fraction -> myParsingProgress = fraction;
+    BooleanSupplier isCancelled = abortRequested::get;
+
     CompletableFuture<CpuCapture> cpuCapture =
       CompletableFuture.runAsync(new TraceFileValidationAction(traceFile), myServices.getPoolExecutor())
         .thenRunAsync(new ParsingStartAction(traceFile), myServices.getMainExecutor())
         .thenApplyAsync(
-          new ProcessTraceAction(traceFile, traceId, preferredProfilerType, processIdHint, processNameHint, myServices),
+          new ProcessTraceAction(traceFile, traceId, preferredProfilerType, processIdHint, processNameHint, myServices, progress,
+                                 isCancelled),
           myServices.getPoolExecutor())
         .whenCompleteAsync(new TraceResultHandler(traceFile, traceId, isImportedTrace), myServices.getMainExecutor());
     myCaptures.put(traceId, cpuCapture);
+    cpuCapture.whenComplete((capture, throwable) -> myAbortRequests.remove(traceId, abortRequested));
     return cpuCapture;
   }
 
@@ -363,6 +400,12 @@ public class CpuCaptureParser {
     @NotNull
     private final IdeProfilerServices services;
 
+    @NotNull
+    private final DoubleConsumer progress;
+
+    @NotNull
+    private final BooleanSupplier isCancelled;
+
     // Parsers used by parseToCapture
     private static final Supplier<TraceParser> ART_PARSER_SUPPLIER = () -> new ArtTraceParser();
     private static final Supplier<TraceParser> SIMPLEPERF_PARSER_SUPPLIER = () -> new SimpleperfTraceParser();
@@ -376,7 +419,8 @@ public class CpuCaptureParser {
 
     private ProcessTraceAction(
       @NotNull File traceFile, long traceId, @NotNull CpuTraceType preferredProfilerType,
-      int processIdHint, @Nullable String processNameHint, @NotNull IdeProfilerServices services) {
+      int processIdHint, @Nullable String processNameHint, @NotNull IdeProfilerServices services,
+      @NotNull DoubleConsumer progress, @NotNull BooleanSupplier isCancelled) {
 
       this.traceFile = traceFile;
       this.traceId = traceId;
@@ -384,6 +428,8 @@ public class CpuCaptureParser {
       this.processIdHint = processIdHint;
       this.processNameHint = processNameHint != null ? processNameHint : "";
       this.services = services;
+      this.progress = progress;
+      this.isCancelled = isCancelled;
     }
 
     @Override
@@ -446,12 +492,12 @@ public class CpuCaptureParser {
     }
 
     @Nullable
-    private static CpuCapture tryToParseWith(@NotNull CpuTraceType type,
-                                             @NotNull File traceFile,
-                                             long traceId,
-                                             boolean expectedToBeCorrectParser,
-                                             @Nullable Predicate<File> traceInputVerification,
-                                             @NotNull Supplier<TraceParser> parserSupplier) {
+    private CpuCapture tryToParseWith(@NotNull CpuTraceType type,
+                                      @NotNull File traceFile,
+                                      long traceId,
+                                      boolean expectedToBeCorrectParser,
+                                      @Nullable Predicate<File> traceInputVerification,
+                                      @NotNull Supplier<TraceParser> parserSupplier) {
 
       if (traceInputVerification != null) {
         boolean inputVerification;
@@ -473,11 +519,15 @@ public class CpuCaptureParser {
       TraceParser parser = parserSupplier.get();
 
       try {
-        return parser.parse(traceFile, traceId);
+        return parser.parse(traceFile, traceId, progress, isCancelled);
       }
       catch (ProcessSelectorDialogAbortedException e) {
         throw new CancellationException("User aborted process choice dialog.");
       }
+      catch (CancellationException e) {
+        // The parser stopped because parsing was aborted, which shouldn't be reported as a failure.
+        throw e;
+      }
       catch (Throwable t) {
         // If we expected this to be the correct parser or we already checked that this parser can take this trace, then we need to throw
         if (expectedToBeCorrectParser || traceInputVerification != null) {
@@ -173,6 +173,11 @@ public class CpuCaptureStage extends Stage<Timeline> {
   private CpuCaptureMinimapModel myMinimapModel;
   private State myState = State.PARSING;
 
+  /**
+   * Whether the user left this stage, in which case aborting a parsing still in progress shouldn't navigate anywhere.
+   */
+  private boolean myHasExited = false;
+
   // Accessible only when in state analyzing
   private CpuCapture myCapture;
 
@@ -298,10 +303,14 @@ public class CpuCaptureStage extends Stage<Timeline> {
 
   @Override
   public void enter() {
+    myHasExited = false;
     getStudioProfilers().getUpdater().register(myCpuCaptureHandler);
     getStudioProfilers().getIdeServices().getFeatureTracker().trackEnterStage(getStageType());
     myCpuCaptureHandler.parse(capture -> {
       try {
+        if (capture == null && myHasExited) {
+          return;
+        }
         if (capture == null) {
           // Generic catch all for capture failing to load, this happens for both import and live captures.
           if (getStudioProfilers().getSessionsManager().isSessionAlive()) {
@@ -332,7 +341,10 @@ public class CpuCaptureStage extends Stage<Timeline> {
 
   @Override
   public void exit() {
+    myHasExited = true;
     getStudioProfilers().getUpdater().unregister(myCpuCaptureHandler);
+    // Parsing would otherwise keep going in the background.
+    myCpuCaptureHandler.abortIfParsing();
   }
 
   @Override
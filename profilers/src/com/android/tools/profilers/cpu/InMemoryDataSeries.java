@@ -15,56 +15,43 @@
  */
 package com.android.tools.profilers.cpu;
 
+import com.android.tools.adtui.model.ColumnarDataSeries;
 import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.SeriesData;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Implementers of this class should implement {@link #inMemoryDataList}, which should return all the {@link DataSeries} that would be
  * returned if {@link #getDataForRange(Range)} receives a range with maximum length.
  */
 abstract class InMemoryDataSeries<T> implements DataSeries<T> {
+  /**
+   * The list last returned by {@link #inMemoryDataList()}, and its samples copied into columns for lookup.
+   */
+  @Nullable private List<SeriesData<T>> myIndexedList;
+  @NotNull private ColumnarDataSeries<T> myIndex = new ColumnarDataSeries<>();
+
   /**
    * @return list of {@link SeriesData} within the given range, plus the data points before/after unless they match exactly the boundaries
    * of the given range.
    */
   @Override
-  public List<SeriesData<T>> getDataForRange(Range range) {
-    List<SeriesData<T>> result = new ArrayList<>();
+  public synchronized List<SeriesData<T>> getDataForRange(Range range) {
     List<SeriesData<T>> seriesDataList = inMemoryDataList();
-    if (seriesDataList.isEmpty() || range.isEmpty()) {
-      return result;
-    }
-    // Create fake SeriesData for min and max as search keys.
-    SeriesData<Object> minSearchKey = new SeriesData<>((long)range.getMin(), null);
-    SeriesData<Object> maxSearchKey = new SeriesData<>((long)range.getMax(), null);
-    int minIndex = Collections.binarySearch(seriesDataList, minSearchKey, Comparator.comparingLong(o -> o.x));
-    int maxIndex = Collections.binarySearch(seriesDataList, maxSearchKey, Comparator.comparingLong(o -> o.x));
-    // When the search key is not found, binarySearch returns (-insertion_point - 1), where insertion_point is the index at which the key
-    // would be inserted into the list.
-    if (minIndex < 0) {
-      // Range.min not found. The insertion_point is (-minIndex - 1). We want to include the point before it, i.e. (insertion_point - 1),
-      // unless it is already the first point.
-      minIndex = Math.max(-minIndex - 2, 0);
-    }
-    if (maxIndex < 0) {
-      // Range.max not found. The insertion_point is (-maxIndex - 1). We want to include the point after it, i.e. insertion_point, unless it
-      // is already the last point.
-      maxIndex = Math.min(-maxIndex - 1, seriesDataList.size() - 1);
+    if (seriesDataList != myIndexedList || seriesDataList.size() != myIndex.size()) {
+      myIndex = ColumnarDataSeries.copyOf(seriesDataList);
+      myIndexedList = seriesDataList;
     }
-    // Return all data points from minIndex to maxIndex, both inclusive.
-    result.addAll(seriesDataList.subList(minIndex, maxIndex + 1));
-    return result;
+    return myIndex.getDataForRange(range);
   }
 
   /**
    * @return all the {@link SeriesData} stored in memory (sorted by {@link SeriesData#x}, to be filtered by range in
-   * {@link #getDataForRange(Range)}. Note that for best performance it is recommended to returning a {@link java.util.RandomAccess} list.
+   * {@link #getDataForRange(Range)}. The samples are indexed the first time a list is returned, and indexed again only when a different list
+   * is returned or the list changes size, so lists should not be modified in place otherwise.
    */
   @NotNull
   protected abstract List<SeriesData<T>> inMemoryDataList();
@@ -35,6 +35,13 @@ public interface StatusPanelModel {
   @NotNull
   Range getRange();
 
+  /**
+   * @return The fraction of the operation done so far, from 0 to 1, or a negative value if it isn't known.
+   */
+  default double getProgress() {
+    return -1;
+  }
+
   /**
    * A way for the user to cancel / stop the current running operation if they deem it takes to long.
    */
@@ -17,6 +17,9 @@ package com.android.tools.profilers.cpu;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -25,4 +28,14 @@ import org.jetbrains.annotations.NotNull;
 public interface TraceParser {
 
   CpuCapture parse(@NotNull File file, long traceId) throws IOException;
+
+  /**
+   * Parses a trace file into a {@link CpuCapture}, reporting the fraction of the work done so far, from 0 to 1, to {@code progress}.
+   * Parsers supporting it stop with a {@link CancellationException} once {@code isCancelled} returns true. By default, the trace is parsed
+   * with {@link #parse(File, long)} and neither is supported.
+   */
+  default CpuCapture parse(@NotNull File file, long traceId, @NotNull DoubleConsumer progress, @NotNull BooleanSupplier isCancelled)
+    throws IOException {
+    return parse(file, traceId);
+  }
 }
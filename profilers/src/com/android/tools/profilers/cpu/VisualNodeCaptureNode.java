@@ -34,6 +34,6 @@ public class VisualNodeCaptureNode extends CaptureNode {
    */
   @Override
   public void addChild(CaptureNode node) {
-    childrenList.add(node);
+    appendChild(node);
   }
 }
@@ -24,15 +24,57 @@ import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * Receives the events of an ART trace from a {@link com.android.tools.perflib.vmtrace.VmTraceParser} and builds the call tree of every
+ * thread.
+ * <p>
+ * The parser reads the trace sequentially, so method actions are only recorded per thread while it runs. The call trees are built once
+ * all actions are known, with the threads spread over the common fork/join pool since they don't share any node.
+ * <p>
+ * This buffers every action of the trace, 17 bytes each in {@link ThreadActions}, on top of the call trees themselves, where building the
+ * trees while reading only kept the open call stacks. The buffers are dropped as soon as the trees are built.
+ */
 public class ArtTraceHandler implements VmTraceHandler {
   private static final String MAIN_THREAD_NAME = "main";
   private static final String KEY_ELAPSED_TIME_US = "elapsed-time-usec";
+  private static final String KEY_CLOCK = "clock";
+  private static final String DUAL_CLOCK = "dual";
+
+  /**
+   * Size of a method action record in the data section of the trace: a 16-bit thread id, a 32-bit method id and action, followed by one
+   * 32-bit timestamp per clock. Used to estimate how much of the trace has been read.
+   */
+  private static final int SINGLE_CLOCK_RECORD_SIZE = 10;
+  private static final int DUAL_CLOCK_RECORD_SIZE = 14;
+
+  /**
+   * Share of the progress given to reading the trace, the rest being given to building the call trees.
+   */
+  private static final double READ_PROGRESS = 0.5;
+
+  /**
+   * Number of actions between two progress reports and cancellation checks.
+   */
+  private static final int PROGRESS_INTERVAL = 1 << 16;
+
+  private static final TraceAction[] ACTIONS = TraceAction.values();
+
+  private final long myTraceLengthBytes;
+  @NotNull private final DoubleConsumer myProgress;
+  @NotNull private final BooleanSupplier myIsCancelled;
+
   private long myStartTimeUs;
   private long myElapsedTimeUs;
 
@@ -47,13 +89,31 @@ public class ArtTraceHandler implements VmTraceHandler {
   private final Map<Long, CaptureNodeModel> myMethods = new HashMap<>();
 
   /**
-   * Map from thread id to per thread stack call constructor.
+   * Map from thread id to the method actions of the thread, in trace order.
    */
-  private final Map<Integer, CaptureNodeConstructor> myNodeConstructors = new HashMap<>();
+  private final Map<Integer, ThreadActions> myThreadActions = new HashMap<>();
+
+  private long myActionCount;
+  private int myRecordSize = SINGLE_CLOCK_RECORD_SIZE;
 
   @Nullable
   private Map<CpuThreadInfo, CaptureNode> myThreadsGraph;
 
+  public ArtTraceHandler() {
+    this(0, progress -> {}, () -> false);
+  }
+
+  /**
+   * @param traceLengthBytes size of the trace file, used to estimate the parsing progress.
+   * @param progress         receives the fraction of the trace parsed so far, from 0 to 1.
+   * @param isCancelled      checked while parsing, which throws a {@link CancellationException} once it returns true.
+   */
+  public ArtTraceHandler(long traceLengthBytes, @NotNull DoubleConsumer progress, @NotNull BooleanSupplier isCancelled) {
+    myTraceLengthBytes = traceLengthBytes;
+    myProgress = progress;
+    myIsCancelled = isCancelled;
+  }
+
   @Override
   public void addThread(int id, String name) {
     myThreads.put(id, name);
@@ -77,13 +137,13 @@ public class ArtTraceHandler implements VmTraceHandler {
       myMethods.put(methodId, new SingleNameModel("unknown"));
     }
 
-    CaptureNodeConstructor constructor = myNodeConstructors.get(threadId);
-    if (constructor == null) {
-      CaptureNodeModel topLevelModel = createUniqueMethodForThread(threadId);
-      constructor = new CaptureNodeConstructor(topLevelModel);
-      myNodeConstructors.put(threadId, constructor);
+    myThreadActions.computeIfAbsent(threadId, id -> new ThreadActions()).add(methodId, methodAction, threadTime, globalTime);
+    if (++myActionCount % PROGRESS_INTERVAL == 0) {
+      checkCancelled();
+      if (myTraceLengthBytes > 0) {
+        myProgress.accept(READ_PROGRESS * Math.min(1, (double)myActionCount * myRecordSize / myTraceLengthBytes));
+      }
     }
-    constructor.addTraceAction(myMethods.get(methodId), methodAction, threadTime, globalTime);
   }
 
   private CaptureNodeModel createUniqueMethodForThread(int threadId) {
@@ -104,15 +164,27 @@ public class ArtTraceHandler implements VmTraceHandler {
 
   @NotNull
   private Map<CpuThreadInfo, CaptureNode> createThreadsGraph() {
-    Map<CpuThreadInfo, CaptureNode> threadsGraph = new HashMap<>(myThreads.size());
+    // The models of the threads' top level nodes are added to myMethods, so they are created before it is shared between threads.
+    Map<Integer, CaptureNodeModel> topLevelModels = new HashMap<>();
+    for (int id : myThreadActions.keySet()) {
+      topLevelModels.put(id, createUniqueMethodForThread(id));
+    }
 
-    for (Map.Entry<Integer, String> entry : myThreads.entrySet()) {
-      final int id = entry.getKey();
-      final String name = entry.getValue();
+    Map<CpuThreadInfo, CaptureNode> threadsGraph = new ConcurrentHashMap<>(myThreads.size());
+    AtomicLong builtActionCount = new AtomicLong();
+    myThreadActions.entrySet().parallelStream().forEach(entry -> {
+      int id = entry.getKey();
+      String name = myThreads.get(id);
+      ThreadActions actions = entry.getValue();
 
-      CaptureNodeConstructor constructor = myNodeConstructors.get(id);
-      if (constructor == null) {
-        continue;
+      CaptureNodeConstructor constructor = new CaptureNodeConstructor(topLevelModels.get(id));
+      for (int i = 0; i < actions.mySize; ++i) {
+        constructor.addTraceAction(myMethods.get(actions.myMethodIds[i]), ACTIONS[actions.myActions[i]], actions.myThreadTimes[i],
+                                   actions.myGlobalTimes[i]);
+        if ((i + 1) % PROGRESS_INTERVAL == 0) {
+          checkCancelled();
+          reportBuildProgress(builtActionCount.addAndGet(PROGRESS_INTERVAL));
+        }
       }
 
       CaptureNode topLevelCall = constructor.getTopLevel();
@@ -123,11 +195,24 @@ public class ArtTraceHandler implements VmTraceHandler {
       adjustNodesTimeAndDepth(topLevelCall, topLevelGlobalStart);
 
       threadsGraph.put(info, topLevelCall);
-    }
+      reportBuildProgress(builtActionCount.addAndGet(actions.mySize % PROGRESS_INTERVAL));
+    });
+    // Actions are no longer needed once the trees are built.
+    myThreadActions.clear();
 
     return threadsGraph;
   }
 
+  private void reportBuildProgress(long builtActionCount) {
+    myProgress.accept(READ_PROGRESS + (1 - READ_PROGRESS) * builtActionCount / Math.max(1, myActionCount));
+  }
+
+  private void checkCancelled() {
+    if (myIsCancelled.getAsBoolean()) {
+      throw new CancellationException("Parsing of the ART trace was cancelled.");
+    }
+  }
+
   /**
    * Adjusts global and thread time from relative to absolute time and the depth of nodes.
    */
@@ -172,10 +257,39 @@ public class ArtTraceHandler implements VmTraceHandler {
     if (key.equals(KEY_ELAPSED_TIME_US)) {
       myElapsedTimeUs = Long.parseLong(value);
     }
+    else if (key.equals(KEY_CLOCK)) {
+      myRecordSize = value.equals(DUAL_CLOCK) ? DUAL_CLOCK_RECORD_SIZE : SINGLE_CLOCK_RECORD_SIZE;
+    }
   }
 
   @Override
   public void setVersion(int version) {
     // We don't need this information
   }
+
+  /**
+   * The method actions of a thread, in one primitive array per attribute.
+   */
+  private static final class ThreadActions {
+    private long[] myMethodIds = new long[16];
+    private byte[] myActions = new byte[16];
+    private int[] myThreadTimes = new int[16];
+    private int[] myGlobalTimes = new int[16];
+    private int mySize = 0;
+
+    void add(long methodId, @NotNull TraceAction action, int threadTime, int globalTime) {
+      if (mySize == myMethodIds.length) {
+        int capacity = mySize * 2;
+        myMethodIds = Arrays.copyOf(myMethodIds, capacity);
+        myActions = Arrays.copyOf(myActions, capacity);
+        myThreadTimes = Arrays.copyOf(myThreadTimes, capacity);
+        myGlobalTimes = Arrays.copyOf(myGlobalTimes, capacity);
+      }
+      myMethodIds[mySize] = methodId;
+      myActions[mySize] = (byte)action.ordinal();
+      myThreadTimes[mySize] = threadTime;
+      myGlobalTimes[mySize] = globalTime;
+      mySize++;
+    }
+  }
 }
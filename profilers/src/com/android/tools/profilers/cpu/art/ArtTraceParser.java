@@ -23,6 +23,8 @@ import com.android.tools.profilers.cpu.CpuCapture;
 import com.android.tools.profilers.cpu.TraceParser;
 import java.io.File;
 import java.io.IOException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -30,16 +32,25 @@ import org.jetbrains.annotations.NotNull;
  */
 public class ArtTraceParser implements TraceParser {
 
-  private final ArtTraceHandler myTraceHandler = new ArtTraceHandler();
-
   @Override
   public CpuCapture parse(@NotNull File trace, long traceId) throws IOException {
-    VmTraceParser parser = new VmTraceParser(trace, myTraceHandler);
+    return parse(trace, traceId, new ArtTraceHandler());
+  }
+
+  @Override
+  public CpuCapture parse(@NotNull File trace, long traceId, @NotNull DoubleConsumer progress, @NotNull BooleanSupplier isCancelled)
+    throws IOException {
+    return parse(trace, traceId, new ArtTraceHandler(trace.length(), progress, isCancelled));
+  }
+
+  @NotNull
+  private static CpuCapture parse(@NotNull File trace, long traceId, @NotNull ArtTraceHandler traceHandler) throws IOException {
+    VmTraceParser parser = new VmTraceParser(trace, traceHandler);
     parser.parse();
     Range range = new Range(
-      myTraceHandler.getStartTimeUs(),
-      myTraceHandler.getStartTimeUs() + myTraceHandler.getElapsedTimeUs());
+      traceHandler.getStartTimeUs(),
+      traceHandler.getStartTimeUs() + traceHandler.getElapsedTimeUs());
     // ART traces always support dual clock mode.
-    return new BaseCpuCapture(traceId, Cpu.CpuTraceType.ART, true, null, range, myTraceHandler.getThreadsGraph());
+    return new BaseCpuCapture(traceId, Cpu.CpuTraceType.ART, true, null, range, traceHandler.getThreadsGraph());
   }
 }
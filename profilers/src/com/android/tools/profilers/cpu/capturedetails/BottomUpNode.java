@@ -21,6 +21,7 @@ import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import org.jetbrains.annotations.NotNull;
 public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
 
   private final List<CaptureNode> myPathNodes = new ArrayList<>();
+  private final Map<ClockType, IntervalSums> myOuterSums = new EnumMap<>(ClockType.class);
   private final boolean myIsRoot;
   private boolean myChildrenBuilt;
 
@@ -133,49 +135,46 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
   @Override
   public void update(@NotNull ClockType clockType, @NotNull Range range) {
     // how much time was spent in this call stack path, and in the functions it called
-    myGlobalTotal = 0;
-    myThreadTotal = 0;
+    double total = myOuterSums.computeIfAbsent(clockType, this::buildOuterSums).getIntersectionLength(range);
     // how much time was spent doing work directly in this call stack path
-    double self = 0;
+    double self = getNodesIntersection(range, clockType) - getChildrenIntersection(range, clockType);
 
-    // The node that is at the top of the call stack, e.g if the call stack looks like B [0..30] -> B [1..20],
-    // then the second method can't be outerSoFarByParent.
-    // It's used to exclude nodes which aren't at the top of the
-    // call stack from the total time calculation.
+    myGlobalTotal = total;
+    myThreadTotal = total;
+    myGlobalChildrenTotal = myGlobalTotal - self;
+    myThreadChildrenTotal = myThreadTotal - self;
+  }
+
+  @Override
+  protected void addNode(@NotNull CaptureNode node) {
+    super.addNode(node);
+    myOuterSums.clear();
+  }
+
+  /**
+   * Indexes the nodes at the top of the call stack, which are the only ones counted in the total time. E.g if the call stack looks like
+   * B [0..30] -> B [1..20], then the second method is excluded. Which nodes are at the top does not depend on the range, so this is only
+   * done once per clock type.
+   */
+  @NotNull
+  private IntervalSums buildOuterSums(@NotNull ClockType clockType) {
     // When multiple threads with the same ID are selected, the nodes are merged. When this happens nodes may be interlaced between
-    // each of the threads. As such we keep a mapping of outer so far by parents to keep the book keeping done properly.
-    HashMap<CaptureNode, CaptureNode> outerSoFarByParent = new HashMap<>();
+    // each of the threads. As such we keep a mapping of outer so far by root, to compute the top of the call stack independently for each
+    // tree.
+    Map<CaptureNode, CaptureNode> outerSoFarByRoot = new HashMap<>();
+    List<CaptureNode> outerNodes = new ArrayList<>();
 
     // myNodes is sorted by CaptureNode#getStart() in increasing order,
     // if they are equal then ancestor comes first
     for (CaptureNode node : myNodes) {
-      // We use the root node to distinguish if two nodes share the same tree. In the event of multi-select we want to compute the bottom
-      // up calculation independently for each tree then sum them after the fact.
-      // TODO(153306735): Cache the root calculation, otherwise our update algorithm is going to be O(n*depth) instead of O(n)
       CaptureNode root = node.findRootNode();
-      CaptureNode outerSoFar = outerSoFarByParent.getOrDefault(root, null);
+      CaptureNode outerSoFar = outerSoFarByRoot.get(root);
       if (outerSoFar == null || node.getEnd() > outerSoFar.getEnd()) {
-        if (outerSoFar != null) {
-          // |outerSoFarByParent| is at the top of the call stack
-          myGlobalTotal += getIntersection(range, outerSoFar, clockType);
-          myThreadTotal += getIntersection(range, outerSoFar, clockType);
-        }
-        outerSoFarByParent.put(root, node);
-      }
-
-      self += getIntersection(range, node, clockType);
-      for (CaptureNode child : node.getChildren()) {
-        self -= getIntersection(range, child, clockType);
+        outerSoFarByRoot.put(root, node);
+        outerNodes.add(node);
       }
     }
-
-    for(CaptureNode outerSoFar : outerSoFarByParent.values()) {
-      // |outerSoFarByParent| is at the top of the call stack
-      myGlobalTotal += getIntersection(range, outerSoFar, clockType);
-      myThreadTotal += getIntersection(range, outerSoFar, clockType);
-    }
-    myGlobalChildrenTotal = myGlobalTotal - self;
-    myThreadChildrenTotal = myThreadTotal - self;
+    return new IntervalSums(outerNodes, clockType);
   }
 
   @NotNull
@@ -20,7 +20,9 @@ import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import org.jetbrains.annotations.NotNull;
 
 public abstract class CpuTreeNode<T extends CpuTreeNode> {
@@ -37,6 +39,13 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   protected double myThreadTotal = 0;
   protected double myThreadChildrenTotal = 0;
 
+  /**
+   * Indexes of the intervals of {@link #myNodes} and of their children by clock type, built on the first update of a node with many of
+   * them, and dropped whenever a node is added.
+   */
+  private final Map<ClockType, IntervalSums> myNodeSums = new EnumMap<>(ClockType.class);
+  private final Map<ClockType, IntervalSums> myChildrenSums = new EnumMap<>(ClockType.class);
+
   public CpuTreeNode(String id) {
     myId = id;
   }
@@ -47,6 +56,8 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
 
   protected void addNode(@NotNull CaptureNode node) {
     myNodes.add(node);
+    myNodeSums.clear();
+    myChildrenSums.clear();
   }
 
   protected void addNodes(@NotNull List<CaptureNode> nodes) {
@@ -95,19 +106,51 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   }
 
   public void update(@NotNull ClockType clockType, @NotNull Range range) {
-    myGlobalTotal = 0.0;
-    myGlobalChildrenTotal = 0;
-    myThreadTotal = 0.0;
-    myThreadChildrenTotal = 0;
+    myGlobalTotal = getNodesIntersection(range, ClockType.GLOBAL);
+    myThreadTotal = getNodesIntersection(range, ClockType.THREAD);
+    myGlobalChildrenTotal = getChildrenIntersection(range, ClockType.GLOBAL);
+    myThreadChildrenTotal = getChildrenIntersection(range, ClockType.THREAD);
+  }
 
-    for (CaptureNode node : myNodes) {
-      myGlobalTotal += getIntersection(range, node, ClockType.GLOBAL);
-      myThreadTotal += getIntersection(range, node, ClockType.THREAD);
-      for (CaptureNode child : node.getChildren()) {
-        myGlobalChildrenTotal += getIntersection(range, child, ClockType.GLOBAL);
-        myThreadChildrenTotal += getIntersection(range, child, ClockType.THREAD);
+  /**
+   * @return the sum of the intersection lengths of {@link #myNodes} with {@code range}.
+   */
+  protected double getNodesIntersection(@NotNull Range range, @NotNull ClockType type) {
+    if (myNodes.size() < IntervalSums.INDEX_THRESHOLD) {
+      double total = 0;
+      for (CaptureNode node : myNodes) {
+        total += getIntersection(range, node, type);
+      }
+      return total;
+    }
+    return myNodeSums.computeIfAbsent(type, t -> new IntervalSums(myNodes, t)).getIntersectionLength(range);
+  }
+
+  /**
+   * @return the sum of the intersection lengths of the children of {@link #myNodes} with {@code range}.
+   */
+  protected double getChildrenIntersection(@NotNull Range range, @NotNull ClockType type) {
+    IntervalSums sums = myChildrenSums.get(type);
+    if (sums == null) {
+      int childCount = 0;
+      for (CaptureNode node : myNodes) {
+        childCount += node.getChildCount();
+      }
+      if (childCount < IntervalSums.INDEX_THRESHOLD) {
+        double total = 0;
+        for (CaptureNode node : myNodes) {
+          for (CaptureNode child : node.getChildren()) {
+            total += getIntersection(range, child, type);
+          }
+        }
+        return total;
       }
+      List<CaptureNode> children = new ArrayList<>(childCount);
+      myNodes.forEach(node -> children.addAll(node.getChildren()));
+      sums = new IntervalSums(children, type);
+      myChildrenSums.put(type, sums);
     }
+    return sums.getIntersectionLength(range);
   }
 
   protected static double getIntersection(@NotNull Range range, @NotNull CaptureNode node, @NotNull ClockType type) {
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.cpu.CaptureNode;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Index over the intervals of a fixed list of {@link CaptureNode}s that sums their intersection lengths with any {@link Range} in
+ * O(log n), instead of visiting every node whenever the selection changes.
+ * <p>
+ * The length of [s, e] that falls before x is G(x) = min(x, e) - min(x, s), so the intersection with [a, b] is G(b) - G(a). Summed over
+ * all intervals, each term is a sum of min(x, v) over sorted values, which is a prefix sum plus x times the number of values not below x.
+ * Values are stored relative to the smallest start, so that the prefix sums stay within the range of the trace.
+ */
+final class IntervalSums {
+  /**
+   * Lists smaller than this are cheaper to scan than to index, both in time and in memory.
+   */
+  static final int INDEX_THRESHOLD = 256;
+
+  private final long myOrigin;
+  private final long[] myStarts;
+  private final long[] myEnds;
+  private final long[] myStartSums;
+  private final long[] myEndSums;
+
+  IntervalSums(@NotNull List<CaptureNode> nodes, @NotNull ClockType clockType) {
+    int size = nodes.size();
+    myStarts = new long[size];
+    myEnds = new long[size];
+    long origin = Long.MAX_VALUE;
+    for (int i = 0; i < size; ++i) {
+      CaptureNode node = nodes.get(i);
+      myStarts[i] = clockType == ClockType.GLOBAL ? node.getStartGlobal() : node.getStartThread();
+      // Intervals ending before they start don't intersect anything.
+      myEnds[i] = Math.max(myStarts[i], clockType == ClockType.GLOBAL ? node.getEndGlobal() : node.getEndThread());
+      origin = Math.min(origin, myStarts[i]);
+    }
+    myOrigin = size == 0 ? 0 : origin;
+    Arrays.sort(myStarts);
+    Arrays.sort(myEnds);
+    myStartSums = prefixSums(myStarts, myOrigin);
+    myEndSums = prefixSums(myEnds, myOrigin);
+  }
+
+  /**
+   * @return the sum of the intersection lengths of all intervals with {@code range}, like {@link Range#getIntersectionLength} would.
+   */
+  double getIntersectionLength(@NotNull Range range) {
+    if (range.isEmpty()) {
+      return 0;
+    }
+    return getLengthBefore(range.getMax()) - getLengthBefore(range.getMin());
+  }
+
+  /**
+   * @return the total length of the intervals before {@code x}.
+   */
+  private double getLengthBefore(double x) {
+    int endsBefore = countBefore(myEnds, x);
+    int startsBefore = countBefore(myStarts, x);
+    double length = myEndSums[endsBefore] - myStartSums[startsBefore];
+    // Intervals that started but did not end before x contribute up to x. Skipped when there are none, since x may be infinite.
+    return startsBefore == endsBefore ? length : length + (x - myOrigin) * (startsBefore - endsBefore);
+  }
+
+  private static int countBefore(long[] sortedValues, double x) {
+    int low = 0;
+    int high = sortedValues.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedValues[mid] < x) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static long[] prefixSums(long[] values, long origin) {
+    long[] sums = new long[values.length + 1];
+    for (int i = 0; i < values.length; ++i) {
+      sums[i + 1] = sums[i] + values[i] - origin;
+    }
+    return sums;
+  }
+}
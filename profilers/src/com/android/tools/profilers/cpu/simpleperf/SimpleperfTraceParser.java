@@ -46,11 +46,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * Parses a trace file obtained using simpleperf to a map threadId -> {@link CaptureNode}.
+ * <p>
+ * Records are read sequentially, as each one starts with its size. The samples are then split per thread and the call tree of every
+ * thread is built on the common fork/join pool, since threads don't share any node.
  */
 public class SimpleperfTraceParser implements TraceParser {
 
@@ -87,6 +95,16 @@ public class SimpleperfTraceParser implements TraceParser {
     "This imported trace supports Wall Clock Time only.<p>" +
     "To view Thread Time, take a new recording using the latest version of Android Studio.";
 
+  /**
+   * Share of the progress given to reading the trace file, the rest being given to building the call trees.
+   */
+  private static final double READ_PROGRESS = 0.5;
+
+  /**
+   * Number of records, or samples of a thread, between two progress reports and cancellation checks.
+   */
+  private static final int PROGRESS_INTERVAL = 1 << 14;
+
   /**
    * Version of the trace file to be parsed. Should be obtained from the file itself.
    */
@@ -150,10 +168,20 @@ public class SimpleperfTraceParser implements TraceParser {
 
   private Set<String> myTags = new TreeSet<>(TAG_COMPARATOR);
 
+  /**
+   * Method models by file id, symbol id and vAddress, which is the parent's vAddress for valid symbols and the entry's own otherwise.
+   * Models are immutable, so all the nodes of a method share a single instance instead of each parsing the symbol name again. Threads are
+   * parsed concurrently, so their tags are only added to {@link #myTags} once all of them are parsed.
+   */
+  private final Map<MethodModelKey, CaptureNodeModel> myMethodModels = new ConcurrentHashMap<>();
+
+  @NotNull private DoubleConsumer myProgress = progress -> {};
+  @NotNull private BooleanSupplier myIsCancelled = () -> false;
+
   public SimpleperfTraceParser() {
     myFiles = new HashMap<>();
     mySamples = new ArrayList<>();
-    myCaptureTrees = new HashMap<>();
+    myCaptureTrees = new ConcurrentHashMap<>();
     myThreads = new HashMap<>();
   }
 
@@ -195,11 +223,20 @@ public class SimpleperfTraceParser implements TraceParser {
   public CpuCapture parse(@NotNull File trace, long traceId) throws IOException {
     parseTraceFile(trace);
     parseSampleData();
+    myMethodModels.values().forEach(this::addTag);
     return new BaseCpuCapture(traceId, Cpu.CpuTraceType.SIMPLEPERF,
                               isThreadTimeSupported(), isThreadTimeSupported() ? null : DUAL_CLOCK_DISABLED_MESSAGE,
                               myCaptureRange, getCaptureTrees(), myTags);
   }
 
+  @Override
+  public CpuCapture parse(@NotNull File trace, long traceId, @NotNull DoubleConsumer progress, @NotNull BooleanSupplier isCancelled)
+    throws IOException {
+    myProgress = progress;
+    myIsCancelled = isCancelled;
+    return parse(trace, traceId);
+  }
+
   public Map<CpuThreadInfo, CaptureNode> getCaptureTrees() {
     return myCaptureTrees;
   }
@@ -251,6 +288,7 @@ public class SimpleperfTraceParser implements TraceParser {
 
     // Read the first record size
     int recordSize = buffer.getInt();
+    int recordCount = 0;
 
     // 0 is used to indicate the end of the trace
     while (recordSize != 0) {
@@ -288,6 +326,11 @@ public class SimpleperfTraceParser implements TraceParser {
           getLog().warn("Unexpected record data type " + record.getRecordDataCase());
       }
 
+      if (++recordCount % PROGRESS_INTERVAL == 0) {
+        checkCancelled();
+        myProgress.accept(READ_PROGRESS * buffer.position() / buffer.limit());
+      }
+
       // read the next record size
       recordSize = buffer.getInt();
     }
@@ -336,8 +379,20 @@ public class SimpleperfTraceParser implements TraceParser {
     Map<Integer, List<SimpleperfReport.Sample>> threadSamples = splitSamplesPerThread();
 
     // Process the samples for each thread
-    for (Map.Entry<Integer, List<SimpleperfReport.Sample>> threadSamplesEntry : threadSamples.entrySet()) {
-      parseThreadSamples(threadSamplesEntry.getKey(), threadSamplesEntry.getValue());
+    AtomicInteger parsedSampleCount = new AtomicInteger();
+    threadSamples.entrySet().parallelStream().forEach(threadSamplesEntry -> {
+      parseThreadSamples(threadSamplesEntry.getKey(), threadSamplesEntry.getValue(), parsedSampleCount);
+      reportParsedSamples(parsedSampleCount.addAndGet(threadSamplesEntry.getValue().size() % PROGRESS_INTERVAL));
+    });
+  }
+
+  private void reportParsedSamples(int parsedSampleCount) {
+    myProgress.accept(READ_PROGRESS + (1 - READ_PROGRESS) * parsedSampleCount / mySamples.size());
+  }
+
+  private void checkCancelled() {
+    if (myIsCancelled.getAsBoolean()) {
+      throw new CancellationException("Parsing of the simpleperf trace was cancelled.");
     }
   }
 
@@ -367,9 +422,10 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Parses the list of samples of a thread into a {@link CaptureNode} tree.
+   * Parses the list of samples of a thread into a {@link CaptureNode} tree. Every {@link #PROGRESS_INTERVAL} samples parsed are added to
+   * {@code parsedSampleCount}.
    */
-  private void parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples) {
+  private void parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples, AtomicInteger parsedSampleCount) {
     if (threadSamples.isEmpty()) {
       getLog().warn(String.format("Warning: No samples read for thread %s (%d)", myThreads.get(threadId), threadId));
       return;
@@ -410,6 +466,10 @@ public class SimpleperfTraceParser implements TraceParser {
       // TODO: when --trace-offcpu is supported, we will need to call updateAncestorsEndTime if sample has a "schedule" out event.
       lastVisitedNode = parseCallChain(callChain, previousCallChain, sample.getTime(), threadTimeNs, lastVisitedNode);
       previousCallChain = callChain;
+      if ((i + 1) % PROGRESS_INTERVAL == 0) {
+        checkCancelled();
+        reportParsedSamples(parsedSampleCount.addAndGet(PROGRESS_INTERVAL));
+      }
     }
 
     // Finally, update the end timestamp of the nodes in the last sample of the thread, which should be the last sample's timestamp.
@@ -502,6 +562,12 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   private CaptureNodeModel methodModelFromCallchainEntry(SimpleperfReport.Sample.CallChainEntry callChainEntry, long parentVAddress) {
+    long vAddress = callChainEntry.getSymbolId() == INVALID_SYMBOL_ID ? callChainEntry.getVaddrInFile() : parentVAddress;
+    MethodModelKey key = new MethodModelKey(callChainEntry.getFileId(), callChainEntry.getSymbolId(), vAddress);
+    return myMethodModels.computeIfAbsent(key, k -> createMethodModel(callChainEntry, parentVAddress));
+  }
+
+  private CaptureNodeModel createMethodModel(SimpleperfReport.Sample.CallChainEntry callChainEntry, long parentVAddress) {
     int symbolId = callChainEntry.getSymbolId();
     SimpleperfReport.File symbolFile = myFiles.get(callChainEntry.getFileId());
     if (symbolFile == null) {
@@ -511,20 +577,18 @@ public class SimpleperfTraceParser implements TraceParser {
       // if symbol_id is -1, we report the method as fileName+vAddress (e.g. program.so+0x3039)
       String hexAddress = "0x" + Long.toHexString(callChainEntry.getVaddrInFile());
       String methodName = fileNameFromPath(symbolFile.getPath()) + "+" + hexAddress;
-      return nodeWithTagAdded(new NoSymbolModel(symbolFile.getPath(), methodName));
+      return new NoSymbolModel(symbolFile.getPath(), methodName);
     }
     // Otherwise, read the method from the symbol table and parse it into a CaptureNodeModel. User's code symbols come from
     // files located inside the app's directory, therefore we check if the symbol path has the same prefix of such directory.
     boolean isUserWritten = symbolFile.getPath().startsWith(myAppDataFolderPrefix);
-    return nodeWithTagAdded(NodeNameParser.parseNodeName(symbolFile.getSymbol(symbolId),
-                                                         isUserWritten, symbolFile.getPath(), parentVAddress));
+    return NodeNameParser.parseNodeName(symbolFile.getSymbol(symbolId), isUserWritten, symbolFile.getPath(), parentVAddress);
   }
 
-  private CaptureNodeModel nodeWithTagAdded(CaptureNodeModel node) {
+  private void addTag(CaptureNodeModel node) {
     if (node.getTag() != null) {
       myTags.add(node.getTag());
     }
-    return node;
   }
 
   // Order the tags coarsely depending on whether they're full paths or wild cards
@@ -538,6 +602,35 @@ public class SimpleperfTraceParser implements TraceParser {
     EXACT_PATH, DESCRIPTION, PREFIXED_PATH
   }
 
+  private static final class MethodModelKey {
+    private final int myFileId;
+    private final int mySymbolId;
+    private final long myVAddress;
+
+    private MethodModelKey(int fileId, int symbolId, long vAddress) {
+      myFileId = fileId;
+      mySymbolId = symbolId;
+      myVAddress = vAddress;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof MethodModelKey)) {
+        return false;
+      }
+      MethodModelKey other = (MethodModelKey)o;
+      return myFileId == other.myFileId && mySymbolId == other.mySymbolId && myVAddress == other.myVAddress;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * myFileId + mySymbolId) + Long.hashCode(myVAddress);
+    }
+  }
+
   @VisibleForTesting
   static Comparator<String> TAG_COMPARATOR =
     Comparator.comparing(SimpleperfTraceParser::tagClass).thenComparing(String::compareTo);
@@ -36,6 +36,8 @@ import org.jetbrains.annotations.Nullable;
  * The class is then reset for iteration after all bundles have been added and the iterator returns individual lines.
  * For a 30 second capture 1gb memory for studio didn't OOM and took 235975ms to parse (including trebuchet time), 11596ms in trebuchet.
  * A 5 second capture took 7377ms for parse including trebuchet (2353ms).
+ * <p>
+ * Superseded by {@link PerfettoPacketSorter}, and kept as the baseline it is benchmarked against.
  */
 public class PerfettoPacketDBSorter implements Iterator<String> {
   private Connection myConnection;
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.systemtrace;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sorts the Atrace lines converted from {@link PerfettoTrace.FtraceEventBundle}s by timestamp, since bundles come in out of order, as well
+ * as the lines within a bundle.
+ * <p>
+ * Lines are appended as UTF-8 to an in-memory run, along with their timestamp and offset. Once a run reaches the memory budget it is sorted
+ * and spilled to a temporary file. After {@link #resetForIterator()}, the spilled runs are memory-mapped and merged with the last run
+ * held in memory, so that at most one run of lines is ever on the heap. Lines with the same timestamp keep the order they were added in.
+ * <p>
+ * Failing to write or map a run fails the sort with an {@link IOException} rather than losing its lines. Mapped runs are unmapped as soon
+ * as they have been read, or by {@link #close()}, so that their files can be deleted on every platform.
+ */
+public class PerfettoPacketSorter implements Iterator<String> {
+  /**
+   * Memory used by a run before it is spilled to disk, counting the UTF-8 bytes of its lines and their timestamps and offsets.
+   */
+  private static final long DEFAULT_MEMORY_BUDGET_BYTES = 64 * 1024 * 1024;
+  private static final int INDEX_ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+  private final long myMemoryBudgetBytes;
+  private final List<File> myRunFiles = new ArrayList<>();
+  private final List<MappedRunCursor> myMappedCursors = new ArrayList<>();
+
+  private byte[] myBytes = new byte[1024 * 1024];
+  private int myByteCount = 0;
+  private long[] myTimestamps = new long[16 * 1024];
+  private int[] myOffsets = new int[16 * 1024];
+  private int myLineCount = 0;
+
+  @Nullable private PriorityQueue<RunCursor> myCursors;
+
+  private static Logger getLogger() {
+    return Logger.getInstance(PerfettoPacketSorter.class);
+  }
+
+  public PerfettoPacketSorter() {
+    this(DEFAULT_MEMORY_BUDGET_BYTES);
+  }
+
+  @VisibleForTesting
+  PerfettoPacketSorter(long memoryBudgetBytes) {
+    myMemoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  /**
+   * As a trace file is loaded each line converted from its events should be added to the sorter.
+   */
+  public void addLine(long timestamp, @NotNull String line) throws IOException {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    if (myLineCount > 0 && myByteCount + bytes.length + (long)(myLineCount + 1) * INDEX_ENTRY_BYTES > myMemoryBudgetBytes) {
+      spillRun();
+    }
+    if (myByteCount + bytes.length > myBytes.length) {
+      // A run is spilled before its lines exceed the budget, so the buffer never needs to grow past it, except for a single larger line.
+      int maxLength = (int)Math.min(myMemoryBudgetBytes, Integer.MAX_VALUE);
+      myBytes = Arrays.copyOf(myBytes, (int)Math.max(Math.min(myBytes.length * 2L, maxLength), myByteCount + bytes.length));
+    }
+    if (myLineCount == myTimestamps.length) {
+      int maxLineCount = (int)Math.min(myMemoryBudgetBytes / INDEX_ENTRY_BYTES, Integer.MAX_VALUE);
+      int lineCapacity = (int)Math.max(Math.min(myLineCount * 2L, maxLineCount), myLineCount + 1);
+      myTimestamps = Arrays.copyOf(myTimestamps, lineCapacity);
+      myOffsets = Arrays.copyOf(myOffsets, lineCapacity);
+    }
+    System.arraycopy(bytes, 0, myBytes, myByteCount, bytes.length);
+    myTimestamps[myLineCount] = timestamp;
+    myOffsets[myLineCount] = myByteCount;
+    myByteCount += bytes.length;
+    myLineCount++;
+  }
+
+  /**
+   * This function should be called when we want to finalize this class for writing and enable it for reading.
+   * Every run is opened and positioned on its first line.
+   */
+  public void resetForIterator() throws IOException {
+    myCursors = new PriorityQueue<>((a, b) -> a.myTimestamp != b.myTimestamp ? Long.compare(a.myTimestamp, b.myTimestamp)
+                                                                             : Integer.compare(a.myRunIndex, b.myRunIndex));
+    for (int i = 0; i < myRunFiles.size(); ++i) {
+      MappedRunCursor cursor = new MappedRunCursor(myRunFiles.get(i), i);
+      myMappedCursors.add(cursor);
+      addCursor(cursor);
+    }
+    addCursor(new MemoryRunCursor(sortRun(), myRunFiles.size()));
+  }
+
+  /**
+   * Delete the spilled runs and free resources.
+   */
+  public void close() {
+    myCursors = null;
+    myMappedCursors.forEach(MappedRunCursor::unmap);
+    myMappedCursors.clear();
+    myRunFiles.forEach(FileUtil::delete);
+    myRunFiles.clear();
+    myBytes = new byte[0];
+    myByteCount = 0;
+    myTimestamps = new long[0];
+    myOffsets = new int[0];
+    myLineCount = 0;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return myCursors != null && !myCursors.isEmpty();
+  }
+
+  @Override
+  @NotNull
+  public String next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    RunCursor cursor = myCursors.poll();
+    String line = cursor.getLine();
+    addCursor(cursor);
+    return line;
+  }
+
+  private void addCursor(@NotNull RunCursor cursor) {
+    if (cursor.advance()) {
+      myCursors.add(cursor);
+    }
+  }
+
+  /**
+   * Sorts the current run and writes it to a temporary file as (timestamp, length, UTF-8 bytes) records.
+   */
+  private void spillRun() throws IOException {
+    int[] order = sortRun();
+    File file = FileUtil.createTempFile("perfetto", ".run", true);
+    myRunFiles.add(file);
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024))) {
+      for (int line : order) {
+        output.writeLong(myTimestamps[line]);
+        output.writeInt(getLineLength(line));
+        output.write(myBytes, myOffsets[line], getLineLength(line));
+      }
+    }
+    myByteCount = 0;
+    myLineCount = 0;
+  }
+
+  /**
+   * @return the lines of the current run in timestamp order. The sort is stable, so that lines added for the same timestamp stay in order.
+   */
+  @NotNull
+  private int[] sortRun() {
+    int[] order = new int[myLineCount];
+    for (int i = 0; i < myLineCount; ++i) {
+      order[i] = i;
+    }
+    int[] buffer = new int[myLineCount];
+    // Bottom-up merge sort of the line indexes by timestamp.
+    for (int width = 1; width < myLineCount; width *= 2) {
+      for (int start = 0; start < myLineCount; start += 2 * width) {
+        int middle = Math.min(start + width, myLineCount);
+        int end = Math.min(start + 2 * width, myLineCount);
+        int left = start;
+        int right = middle;
+        for (int i = start; i < end; ++i) {
+          boolean takeLeft = right >= end || (left < middle && myTimestamps[order[left]] <= myTimestamps[order[right]]);
+          buffer[i] = takeLeft ? order[left++] : order[right++];
+        }
+      }
+      int[] sorted = buffer;
+      buffer = order;
+      order = sorted;
+    }
+    return order;
+  }
+
+  private int getLineLength(int line) {
+    return (line + 1 < myLineCount ? myOffsets[line + 1] : myByteCount) - myOffsets[line];
+  }
+
+  /**
+   * A sorted run being merged, positioned on one of its lines.
+   */
+  private abstract static class RunCursor {
+    /**
+     * Ties between runs are broken by run index, since earlier runs hold the lines that were added first.
+     */
+    final int myRunIndex;
+    long myTimestamp;
+
+    RunCursor(int runIndex) {
+      myRunIndex = runIndex;
+    }
+
+    /**
+     * Moves to the next line, updating {@link #myTimestamp}.
+     *
+     * @return false if there are no more lines in the run.
+     */
+    abstract boolean advance();
+
+    @NotNull
+    abstract String getLine();
+  }
+
+  private class MemoryRunCursor extends RunCursor {
+    private final int[] myOrder;
+    private int myPosition = -1;
+
+    MemoryRunCursor(@NotNull int[] order, int runIndex) {
+      super(runIndex);
+      myOrder = order;
+    }
+
+    @Override
+    boolean advance() {
+      if (++myPosition >= myOrder.length) {
+        return false;
+      }
+      myTimestamp = myTimestamps[myOrder[myPosition]];
+      return true;
+    }
+
+    @NotNull
+    @Override
+    String getLine() {
+      int line = myOrder[myPosition];
+      return new String(myBytes, myOffsets[line], getLineLength(line), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static class MappedRunCursor extends RunCursor {
+    @Nullable private MappedByteBuffer myBuffer;
+    private int myLineLength;
+
+    MappedRunCursor(@NotNull File file, int runIndex) throws IOException {
+      super(runIndex);
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        myBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+    }
+
+    @Override
+    boolean advance() {
+      assert myBuffer != null;
+      // Skip the current line, if any.
+      myBuffer.position(myBuffer.position() + myLineLength);
+      if (!myBuffer.hasRemaining()) {
+        unmap();
+        return false;
+      }
+      myTimestamp = myBuffer.getLong();
+      myLineLength = myBuffer.getInt();
+      return true;
+    }
+
+    @NotNull
+    @Override
+    String getLine() {
+      assert myBuffer != null;
+      byte[] bytes = new byte[myLineLength];
+      myBuffer.duplicate().get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Releases the mapping right away instead of when the buffer is garbage collected, since a mapped file cannot be deleted on Windows.
+     */
+    void unmap() {
+      MappedByteBuffer buffer = myBuffer;
+      myBuffer = null;
+      if (buffer == null) {
+        return;
+      }
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+      }
+      catch (ReflectiveOperationException | RuntimeException ex) {
+        // Before Java 9, or if the cleaner is not accessible: the mapping is released once the buffer is garbage collected.
+        getLogger().debug(ex);
+      }
+    }
+  }
+}
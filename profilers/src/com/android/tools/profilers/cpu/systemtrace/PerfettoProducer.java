@@ -52,7 +52,7 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
 
   // Maps thread id to thread group id. A tgid is the thread id at the root of the tree. This is also known as the PID in user space.
   private final ArrayDeque<String> myGeneratedTrebuchetLines = new ArrayDeque<>();
-  private final PerfettoPacketDBSorter mySorter = new PerfettoPacketDBSorter();
+  private final PerfettoPacketSorter mySorter = new PerfettoPacketSorter();
   private final HashMap<Integer, String> myMappedState = new HashMap<>();
 
   private static double nanosToSeconds(double nanos) {
@@ -144,6 +144,7 @@ public class PerfettoProducer implements TrebuchetBufferProducer {
     }
     catch (IOException ex) {
       getLogger().error(ex);
+      mySorter.close();
       return false;
     }
   }
@@ -59,7 +59,9 @@ public class UserCounterModel extends LineChartModel {
                                                                        profilers.getSession().getPid(),
                                                                        Common.Event.Kind.USER_COUNTERS,
                                                                        groupId,
-                                                                       dataExtractor);
+                                                                       dataExtractor,
+                                                                       // Samples are extracted one per event.
+                                                                       true);
     return new RangedContinuousSeries(name, profilers.getTimeline().getViewRange(), range, series, profilers.getTimeline().getDataRange());
   }
 
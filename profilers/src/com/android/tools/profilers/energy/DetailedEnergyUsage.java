@@ -43,21 +43,24 @@ public class DetailedEnergyUsage extends EnergyUsage {
         pid,
         Common.Event.Kind.ENERGY_USAGE,
         UnifiedEventDataSeries.DEFAULT_GROUP_ID,
-        UnifiedEventDataSeries.fromFieldToDataExtractor(event -> (long)event.getEnergyUsage().getCpuUsage()));
+        UnifiedEventDataSeries.fromFieldToDataExtractor(event -> (long)event.getEnergyUsage().getCpuUsage()),
+        true);
       networkDataSeries = new UnifiedEventDataSeries<>(
         profilers.getClient().getTransportClient(),
         streamId,
         pid,
         Common.Event.Kind.ENERGY_USAGE,
         UnifiedEventDataSeries.DEFAULT_GROUP_ID,
-        UnifiedEventDataSeries.fromFieldToDataExtractor(event -> (long)event.getEnergyUsage().getNetworkUsage()));
+        UnifiedEventDataSeries.fromFieldToDataExtractor(event -> (long)event.getEnergyUsage().getNetworkUsage()),
+        true);
       locationDataSeries = new UnifiedEventDataSeries<>(
         profilers.getClient().getTransportClient(),
         streamId,
         pid,
         Common.Event.Kind.ENERGY_USAGE,
         UnifiedEventDataSeries.DEFAULT_GROUP_ID,
-        UnifiedEventDataSeries.fromFieldToDataExtractor(event -> (long)event.getEnergyUsage().getLocationUsage()));
+        UnifiedEventDataSeries.fromFieldToDataExtractor(event -> (long)event.getEnergyUsage().getLocationUsage()),
+        true);
     }
     else {
       cpuDataSeries =
@@ -49,7 +49,7 @@ object CaptureDataSeries {
   fun ofHeapDumpSamples(client: ProfilerClient, session: Common.Session, tracker: FeatureTracker, stage: BaseMemoryProfilerStage) =
     of({ getHeapDumpsForSession(client, session, it, stage.studioProfilers.ideServices) },
        { it.startTime }, { it.endTime },
-       { HeapDumpCaptureObject(client, session, it, null, tracker, stage.studioProfilers.ideServices) },
+       { HeapDumpCaptureObject(client, session, it, null, tracker, stage.studioProfilers.ideServices, stage) },
        { durUs, _, entry -> CaptureDurationData(durUs, false, false, entry, HeapDumpCaptureObject::class.java)})
 
   @JvmStatic
@@ -52,27 +52,33 @@ public class DetailedMemoryUsage extends MemoryUsage {
     myJavaSeries = createRangedSeries(profilers, JAVA_MEM, getMemoryRange(),
                                       UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                       UnifiedEventDataSeries
-                                        .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getJavaMem() * KB_TO_B));
+                                        .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getJavaMem() * KB_TO_B),
+                                      true);
     myNativeSeries = createRangedSeries(profilers, NATIVE_MEM, getMemoryRange(),
                                         UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                         UnifiedEventDataSeries
-                                          .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getNativeMem() * KB_TO_B));
+                                          .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getNativeMem() * KB_TO_B),
+                                        true);
     myGraphicsSeries = createRangedSeries(profilers, GRAPHICS_MEM, getMemoryRange(),
                                           UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                           UnifiedEventDataSeries
-                                            .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getGraphicsMem() * KB_TO_B));
+                                            .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getGraphicsMem() * KB_TO_B),
+                                          true);
     myStackSeries = createRangedSeries(profilers, STACK_MEM, getMemoryRange(),
                                        UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                        UnifiedEventDataSeries
-                                         .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getStackMem() * KB_TO_B));
+                                         .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getStackMem() * KB_TO_B),
+                                       true);
     myCodeSeries = createRangedSeries(profilers, CODE_MEM, getMemoryRange(),
                                       UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                       UnifiedEventDataSeries
-                                        .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getCodeMem() * KB_TO_B));
+                                        .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getCodeMem() * KB_TO_B),
+                                      true);
     myOtherSeries = createRangedSeries(profilers, OTHERS_MEM, getMemoryRange(),
                                        UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                        UnifiedEventDataSeries
-                                         .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getOthersMem() * KB_TO_B));
+                                         .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getOthersMem() * KB_TO_B),
+                                       true);
 
     AllocStatsDataSeries series = new AllocStatsDataSeries(myProfilers,
                                                            sample -> (long)(sample.getJavaAllocationCount() - sample.getJavaFreeCount()));
@@ -490,11 +490,18 @@ public class MainMemoryProfilerStage extends BaseStreamingMemoryProfilerStage {
   }
 
   public static boolean canSafelyLoadHprof(long fileSize) {
+    return canSafelyLoadHeap(MEMORY_HPROF_SAFE_FACTOR * fileSize);
+  }
+
+  /**
+   * @param estimatedHeapBytes the amount of IDE heap loading the capture is expected to take.
+   */
+  public static boolean canSafelyLoadHeap(long estimatedHeapBytes) {
     System.gc(); // To avoid overly conservative estimation of free memory
     long leeway = 300 * 1024 * 1024; // Studio needs ~300MB to run without major freezes
     long requestableMemory = Runtime.getRuntime().maxMemory() -
                              Runtime.getRuntime().totalMemory() +
                              Runtime.getRuntime().freeMemory();
-    return requestableMemory >= MEMORY_HPROF_SAFE_FACTOR * fileSize + leeway;
+    return requestableMemory >= estimatedHeapBytes + leeway;
   }
 }
\ No newline at end of file
@@ -40,7 +40,8 @@ public class MemoryUsage extends LineChartModel {
     myTotalMemorySeries = createRangedSeries(profilers, getTotalSeriesLabel(), myMemoryRange,
                                              UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                              UnifiedEventDataSeries
-                                               .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getTotalMem()*KB_TO_B));
+                                               .fromFieldToDataExtractor(e -> (long)e.getMemoryUsage().getTotalMem()*KB_TO_B),
+                                             true);
     add(myTotalMemorySeries);
   }
 
@@ -53,18 +54,23 @@ public class MemoryUsage extends LineChartModel {
     return new RangedContinuousSeries(name, profilers.getTimeline().getViewRange(), range, series, profilers.getTimeline().getDataRange());
   }
 
+  /**
+   * @param isAppendOnly true if the data extractor returns one sample per event, see {@link UnifiedEventDataSeries}.
+   */
   protected RangedContinuousSeries createRangedSeries(@NotNull StudioProfilers profilers,
                                                       @NotNull String name,
                                                       @NotNull Range range,
                                                       int groupId,
-                                                      Function<List<Common.Event>, List<SeriesData<Long>>> dataExtractor) {
+                                                      Function<List<Common.Event>, List<SeriesData<Long>>> dataExtractor,
+                                                      boolean isAppendOnly) {
     TransportServiceGrpc.TransportServiceBlockingStub client = profilers.getClient().getTransportClient();
     UnifiedEventDataSeries<Long> series = new UnifiedEventDataSeries<>(client,
                                                                        profilers.getSession().getStreamId(),
                                                                        profilers.getSession().getPid(),
                                                                        Common.Event.Kind.MEMORY_USAGE,
                                                                        groupId,
-                                                                       dataExtractor);
+                                                                       dataExtractor,
+                                                                       isAppendOnly);
     return new RangedContinuousSeries(name, profilers.getTimeline().getViewRange(), range, series, profilers.getTimeline().getDataRange());
   }
 
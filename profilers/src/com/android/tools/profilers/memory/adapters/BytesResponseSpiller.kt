@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.android.tools.profiler.proto.Transport
+import com.android.tools.profiler.proto.TransportServiceGrpc
+import com.android.tools.idea.protobuf.CodedInputStream
+import com.android.tools.idea.protobuf.CodedOutputStream
+import com.android.tools.idea.protobuf.WireFormat
+import com.google.common.annotations.VisibleForTesting
+import com.google.common.io.ByteStreams
+import io.grpc.MethodDescriptor
+import io.grpc.stub.ClientCalls
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.SequenceInputStream
+
+/**
+ * Fetches the contents of a [Transport.BytesResponse] straight into a file.
+ *
+ * The blocking stub parses the whole response into a single ByteString before returning it. This call parses the serialized response as
+ * it is read instead, and copies the contents to the file one chunk at a time, so the IDE heap never holds more than a chunk of it. The
+ * size of the contents is checked against the space left on the disk of the file as soon as it is known, before any of it is read.
+ */
+internal object BytesResponseSpiller {
+  private const val CHUNK_SIZE = 1 shl 16
+
+  /**
+   * @return the number of bytes written to [file].
+   */
+  @JvmStatic
+  fun spill(stub: TransportServiceGrpc.TransportServiceBlockingStub, request: Transport.BytesRequest, file: File): Long {
+    val getBytesMethod = TransportServiceGrpc.getGetBytesMethod()
+    val method = getBytesMethod.toBuilder(getBytesMethod.requestMarshaller, SpillingMarshaller(file)).build()
+    return ClientCalls.blockingUnaryCall(stub.channel, method, stub.callOptions, request)
+  }
+
+  /**
+   * Marshals a [Transport.BytesResponse] whose contents are held in [file], the value being the size of the contents.
+   */
+  @VisibleForTesting
+  internal class SpillingMarshaller(private val file: File) : MethodDescriptor.Marshaller<Long> {
+    /**
+     * Streams a response holding the first [value] bytes of the file, without reading them into memory.
+     */
+    override fun stream(value: Long): InputStream {
+      if (value > Int.MAX_VALUE) {
+        throw IllegalArgumentException("Contents of $value bytes do not fit in a single response")
+      }
+      val header = ByteArrayOutputStream()
+      CodedOutputStream.newInstance(header).apply {
+        writeTag(Transport.BytesResponse.CONTENTS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED)
+        writeUInt32NoTag(value.toInt())
+        flush()
+      }
+      return SequenceInputStream(header.toByteArray().inputStream(), ByteStreams.limit(file.inputStream(), value))
+    }
+
+    override fun parse(stream: InputStream): Long {
+      val input = CodedInputStream.newInstance(stream)
+      var written = 0L
+      file.outputStream().use { output ->
+        while (true) {
+          val tag = input.readTag()
+          if (tag == 0) {
+            return written
+          }
+          if (WireFormat.getTagFieldNumber(tag) != Transport.BytesResponse.CONTENTS_FIELD_NUMBER) {
+            input.skipField(tag)
+            continue
+          }
+          val length = input.readRawVarint32()
+          val usableSpace = file.absoluteFile.parentFile.usableSpace
+          if (length > usableSpace) {
+            throw IOException("Not enough disk space to fetch $length bytes, only $usableSpace bytes left")
+          }
+          var remaining = length
+          while (remaining > 0) {
+            val chunkSize = minOf(remaining, CHUNK_SIZE)
+            output.write(input.readRawBytes(chunkSize))
+            remaining -= chunkSize
+          }
+          written += length
+        }
+      }
+    }
+  }
+}
@@ -16,18 +16,19 @@
 package com.android.tools.profilers.memory.adapters
 
 import com.android.tools.adtui.model.Range
-import com.android.tools.idea.protobuf.ByteString
 import com.android.tools.perflib.heap.ClassObj
 import com.android.tools.perflib.heap.Instance
 import com.android.tools.perflib.heap.Snapshot
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor
-import com.android.tools.perflib.heap.io.InMemoryBuffer
+import com.android.tools.perflib.heap.io.HprofBuffer
+import com.android.tools.perflib.heap.io.MemoryMappedFileBuffer
 import com.android.tools.profiler.proto.Common
 import com.android.tools.profiler.proto.Memory.HeapDumpInfo
 import com.android.tools.profiler.proto.Transport
 import com.android.tools.profilers.IdeProfilerServices
 import com.android.tools.profilers.ProfilerClient
 import com.android.tools.profilers.analytics.FeatureTracker
+import com.android.tools.profilers.memory.BaseMemoryProfilerStage
 import com.android.tools.profilers.memory.MainMemoryProfilerStage
 import com.android.tools.profilers.memory.MemoryProfiler.Companion.saveHeapDumpToFile
 import com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.ALLOCATIONS
@@ -46,19 +47,28 @@ import com.google.common.annotations.VisibleForTesting
 import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.MoreExecutors
 import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.util.io.FileUtil
 import gnu.trove.TLongObjectHashMap
+import io.grpc.StatusRuntimeException
+import java.io.File
+import java.io.IOException
 import java.io.OutputStream
+import java.util.Locale
+import java.util.concurrent.CancellationException
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
 import java.util.stream.Collectors
 import java.util.stream.Stream
 
-open class HeapDumpCaptureObject(private val client: ProfilerClient,
-                                 private val _session: Common.Session,
-                                 private val heapDumpInfo: HeapDumpInfo,
-                                 private val proguardMap: ProguardMap?,
-                                 private val featureTracker: FeatureTracker,
-                                 private val ideProfilerServices: IdeProfilerServices) : CaptureObject {
+open class HeapDumpCaptureObject @JvmOverloads constructor(private val client: ProfilerClient,
+                                                           private val _session: Common.Session,
+                                                           private val heapDumpInfo: HeapDumpInfo,
+                                                           private val proguardMap: ProguardMap?,
+                                                           private val featureTracker: FeatureTracker,
+                                                           private val ideProfilerServices: IdeProfilerServices,
+                                                           private val stage: BaseMemoryProfilerStage? = null) : CaptureObject {
   private val _heapSets: MutableMap<Int, HeapSet> = HashMap()
   private val instanceIndex = TLongObjectHashMap<InstanceObject>()
 
@@ -83,9 +93,34 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
   private val allInstances: Set<InstanceObject>
     get() = HashSet<InstanceObject>(instanceIndex.size()).also { instanceIndex.forEachValue(it::add) }
 
+  private val filteredInstances: Set<InstanceObject>
+    get() = currentInstanceFilters.fold(allInstances) { instances, filter -> filter.filter(instances) }
+
+  /**
+   * Depths and retained sizes of the loaded snapshot. Retained sizes may still be in the works after loading, see [load].
+   */
+  @Volatile
+  private var graph: HeapDumpGraph? = null
+
+  /**
+   * Progress of the retained size computation, from 0 to 1.
+   */
+  @Volatile
+  var retainedSizeProgress = 0.0
+    private set
+
   @VisibleForTesting
   val instanceFilterExecutor get() = executorService
 
+  /**
+   * The heap dump is fetched once and spilled to this file, which is then parsed through a memory-mapped buffer so that field values and
+   * array contents stay out of the IDE heap.
+   */
+  private var dumpFile: File? = null
+  private var mappedBuffer: MemoryMappedFileBuffer? = null
+
+  private val logger get() = Logger.getInstance(HeapDumpCaptureObject::class.java)
+
   override fun getName() = "Heap Dump"
   override fun isExportable() = true
   override fun getExportableExtension() = "hprof"
@@ -98,17 +133,30 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
   override fun getEndTimeNs() = heapDumpInfo.endTime
   override fun getClassDatabase() = classDb
   override fun getSession() = _session
+  override fun getInfoMessage() = when (graph?.hasRetainedSizes) {
+    false -> String.format(Locale.US, RETAINED_SIZE_PROGRESS_MESSAGE, (retainedSizeProgress * 100).toInt())
+    else -> null
+  }
 
-  override fun load(queryRange: Range?, queryJoiner: Executor?) = doGetBytesRequest().let { response ->
-    if (response.contents === ByteString.EMPTY) false.also { isLoadingError = true }
-    else true.also { load(InMemoryBuffer(response.contents.asReadOnlyByteBuffer())) }
+  /**
+   * With a [queryJoiner], the heap sets are populated with shallow sizes first, and the retained sizes are computed in the background and
+   * filled in once they are all known. Otherwise the retained sizes are computed before this returns.
+   */
+  override fun load(queryRange: Range?, queryJoiner: Executor?) = when (val file = spillDump()) {
+    null -> false.also { isLoadingError = true }
+    else -> true.also { loadSnapshot(MemoryMappedFileBuffer(file).also { mappedBuffer = it }, queryJoiner) }
   }
 
   @VisibleForTesting
-  fun load(buffer: InMemoryBuffer) {
+  fun load(buffer: HprofBuffer) = loadSnapshot(buffer, null)
+
+  private fun loadSnapshot(buffer: HprofBuffer, joiner: Executor?) {
     val nativeRegistryPostProcessor = NativeRegistryPostProcessor()
-    val snapshot = Snapshot.createSnapshot(buffer!!, proguardMap ?: ProguardMap(), listOf(nativeRegistryPostProcessor))
-    snapshot.computeDominators()
+    val snapshot = Snapshot.createSnapshot(buffer, proguardMap ?: ProguardMap(), listOf(nativeRegistryPostProcessor))
+    val graph = HeapDumpGraph(snapshot).also { this.graph = it }
+    if (joiner == null) {
+      graph.computeRetainedSizes { retainedSizeProgress = it }
+    }
     hasNativeAllocations = nativeRegistryPostProcessor.hasNativeAllocations
     hasLoaded = true
     val javaLangClassObject = snapshot.heaps.stream()
@@ -133,6 +181,25 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
         _heapSets[heap.id] = heapSet
       }
     }
+    if (joiner != null) {
+      ideProfilerServices.poolExecutor.execute { computeRetainedSizes(graph, joiner) }
+    }
+  }
+
+  private fun computeRetainedSizes(graph: HeapDumpGraph, joiner: Executor) {
+    try {
+      graph.computeRetainedSizes { retainedSizeProgress = it }
+      // Re-add the instances so that the classifier sets pick up their retained sizes.
+      executorService.submit<Void?> {
+        refreshInstances(filteredInstances, joiner).also { joiner.execute { stage?.captureSelection?.refreshSelectedHeap() } }
+      }
+    }
+    catch (e: CancellationException) {
+      // The capture has been unloaded.
+    }
+    catch (e: RejectedExecutionException) {
+      logger.debug(e)
+    }
   }
 
   private fun addInstance(heapSet: HeapSet, id: Long, instObj: InstanceObject) {
@@ -144,7 +211,14 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
   override fun isDoneLoading() = hasLoaded || isLoadingError
   override fun isError() = isLoadingError
   override fun unload() {
+    graph?.cancel()
     executorService.shutdownNow()
+    synchronized(this) {
+      mappedBuffer?.dispose()
+      mappedBuffer = null
+      dumpFile?.let { FileUtil.delete(it) }
+      dumpFile = null
+    }
   }
 
   override fun getClassifierAttributes() =
@@ -158,6 +232,13 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
     else listOf(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.SHALLOW_SIZE, InstanceAttribute.RETAINED_SIZE)
   open fun findInstanceObject(instance: Instance) = if (hasLoaded) instanceIndex[instance.id] else null
 
+  fun depthOf(instance: Instance) = graph?.getDepth(instance) ?: instance.distanceToGcRoot
+
+  /**
+   * @return the retained size of the instance, or [ValueObject.INVALID_VALUE] while retained sizes are being computed.
+   */
+  fun retainedSizeOf(instance: Instance) = graph?.getRetainedSize(instance) ?: instance.totalRetainedSize
+
   fun createClassObjectInstance(javaLangClass: InstanceObject?, classObj: ClassObj): InstanceObject {
     val classEntry = classObj.makeEntry(if (javaLangClass == null) ClassDb.JAVA_LANG_CLASS else classObj.className)
     // Handle java.lang.Class which is a special case. All its instances are other classes, so wee need to create an InstanceObject for it
@@ -187,7 +268,7 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
       executorService.submit<Void?> {
         // Run the remaining analyzers on the full instance set, since we don't know that the instances that have been removed from the
         // HeapSets using the filter that we are removing.
-        refreshInstances(currentInstanceFilters.fold(allInstances) { instances, filter -> filter.filter(instances) }, analyzeJoiner)
+        refreshInstances(filteredInstances, analyzeJoiner)
       }
     }
   }
@@ -214,14 +295,50 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
     return null
   }
 
-  override fun canSafelyLoad() = MainMemoryProfilerStage.canSafelyLoadHprof(doGetBytesRequest().serializedSize.toLong())
+  /**
+   * Estimates the IDE heap needed from the number of objects in the dump rather than from its size, since the parsed snapshot keeps
+   * field values and array contents in the memory-mapped file.
+   */
+  override fun canSafelyLoad(): Boolean {
+    val file = spillDump() ?: return true // Nothing to load, let load() report the error.
+    return try {
+      MainMemoryProfilerStage.canSafelyLoadHeap(HprofIndex.build(file).estimatedHeapBytes)
+    }
+    catch (e: IOException) {
+      logger.warn("Failed to index heap dump, falling back to its size", e)
+      MainMemoryProfilerStage.canSafelyLoadHprof(file.length())
+    }
+  }
 
-  private fun doGetBytesRequest() = client.transportClient.getBytes(Transport.BytesRequest.newBuilder()
-                                                                      .setStreamId(_session.streamId)
-                                                                      .setId(heapDumpInfo.startTime.toString())
-                                                                      .build())
+  /**
+   * @return the file the heap dump has been written to, fetching it on the first call, or null if the heap dump is empty or could not be
+   * fetched. The dump is streamed to the file in chunks, see [BytesResponseSpiller].
+   */
+  @Synchronized
+  private fun spillDump(): File? {
+    dumpFile?.let { return it }
+    val file = FileUtil.createTempFile("heapdump_${heapDumpInfo.startTime}", ".hprof", true)
+    val request = Transport.BytesRequest.newBuilder().setStreamId(_session.streamId).setId(heapDumpInfo.startTime.toString()).build()
+    val size = try {
+      BytesResponseSpiller.spill(client.transportClient, request, file)
+    }
+    catch (e: StatusRuntimeException) {
+      logger.warn("Failed to fetch heap dump", e)
+      0L
+    }
+    if (size == 0L) {
+      FileUtil.delete(file)
+      return null
+    }
+    dumpFile = file
+    return file
+  }
 
   private fun ClassObj.makeEntry(name: String = this.className) =
     if (superClassObj != null) classDb.registerClass(id, superClassObj.id, name)
     else classDb.registerClass(id, name)
+
+  private companion object {
+    const val RETAINED_SIZE_PROGRESS_MESSAGE = "Computing retained sizes (%d%%)"
+  }
 }
\ No newline at end of file
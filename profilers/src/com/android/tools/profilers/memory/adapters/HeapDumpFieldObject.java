@@ -54,17 +54,23 @@ final class HeapDumpFieldObject implements FieldObject {
     .put(Type.DOUBLE, DOUBLE)
     .build();
 
+  @NotNull private final HeapDumpCaptureObject myCaptureObject;
   @NotNull private final FieldValue myField;
   @NotNull private final ValueObject.ValueType myValueType;
   @Nullable private final InstanceObject myInstanceObject;
   private final int myDepth;
   private final long myNativeSize;
   private final int myShallowSize;
+  /**
+   * Retained size of primitive and null fields. That of instances is looked up when asked for, as it may still be in the works.
+   */
   private final long myRetainedSize;
+  @Nullable private final Instance myValueInstance;
 
   private final int myHashCode;
 
   public HeapDumpFieldObject(@NotNull HeapDumpCaptureObject captureObject, @NotNull Instance parentInstance, @NotNull FieldValue field) {
+    myCaptureObject = captureObject;
     myField = field;
     Type type = myField.getField().getType();
     if (type == Type.OBJECT) {
@@ -75,6 +81,7 @@ final class HeapDumpFieldObject implements FieldObject {
         myNativeSize = 0;
         myShallowSize = 0;
         myRetainedSize = 0;
+        myValueInstance = null;
         myDepth = Integer.MAX_VALUE;
       }
       else {
@@ -94,8 +101,9 @@ final class HeapDumpFieldObject implements FieldObject {
 
         myNativeSize = instance.getNativeSize();
         myShallowSize = instance.getSize();
-        myRetainedSize = instance.getTotalRetainedSize();
-        myDepth = instance.getDistanceToGcRoot();
+        myRetainedSize = 0;
+        myValueInstance = instance;
+        myDepth = captureObject.depthOf(instance);
       }
     }
     else {
@@ -104,7 +112,8 @@ final class HeapDumpFieldObject implements FieldObject {
       myNativeSize = 0;
       myShallowSize = type.getSize();
       myRetainedSize = type.getSize();
-      myDepth = parentInstance.getDistanceToGcRoot();
+      myValueInstance = null;
+      myDepth = captureObject.depthOf(parentInstance);
     }
 
     myHashCode = Arrays.hashCode(new Object[]{myInstanceObject, getFieldName(), getValueType(), myField.getValue()});
@@ -146,7 +155,7 @@ final class HeapDumpFieldObject implements FieldObject {
 
   @Override
   public long getRetainedSize() {
-    return myRetainedSize;
+    return myValueInstance != null ? myCaptureObject.retainedSizeOf(myValueInstance) : myRetainedSize;
   }
 
   @Override
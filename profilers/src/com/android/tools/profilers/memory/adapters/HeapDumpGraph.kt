@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.android.tools.perflib.heap.Instance
+import com.android.tools.perflib.heap.Snapshot
+import gnu.trove.TLongIntHashMap
+import java.util.concurrent.CancellationException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.stream.IntStream
+
+/**
+ * The hard reference graph of a heap dump, flattened into primitive adjacency arrays, with the depth and retained size of every instance.
+ *
+ * Node 0 is a virtual root pointing at the instances referred to by GC roots, and every instance of the snapshot gets a node after it.
+ * Depths are computed when the graph is built. Retained sizes need the dominator tree, which is computed separately by
+ * [computeRetainedSizes] using the iterative algorithm of Cooper, Harvey and Kennedy: a sequential first pass in reverse post-order,
+ * followed by parallel passes until the tree stops changing.
+ */
+internal class HeapDumpGraph(snapshot: Snapshot) {
+  private val instances: Array<Instance?>
+  private val nodeIds = TLongIntHashMap()
+
+  /**
+   * Predecessors of node i are `predecessors[predecessorStarts[i] until predecessorStarts[i + 1]]`, and likewise for successors.
+   */
+  private val predecessorStarts: IntArray
+  private val predecessors: IntArray
+  private val successorStarts: IntArray
+  private val successors: IntArray
+
+  /**
+   * Reachable nodes in reverse post-order from the virtual root, and the position of every node in that order, or -1 if unreachable.
+   */
+  private val order: IntArray
+  private val orderOf: IntArray
+
+  private val depths: IntArray
+
+  @Volatile
+  private var retainedSizes: LongArray? = null
+  private val isCancelled = AtomicBoolean()
+
+  val hasRetainedSizes get() = retainedSizes != null
+
+  init {
+    val nodes = mutableListOf<Instance?>(null)
+    snapshot.heaps.forEach { heap ->
+      heap.classes.forEach { nodes.add(it) }
+      heap.forEachInstance { nodes.add(it); true }
+    }
+    instances = nodes.toTypedArray()
+    for (node in 1 until instances.size) {
+      nodeIds.put(instances[node]!!.id, node)
+    }
+
+    val isRootReferred = BooleanArray(instances.size)
+    snapshot.gcRoots.forEach { root -> root.referredInstance?.let { nodeOf(it).let { node -> if (node > 0) isRootReferred[node] = true } } }
+
+    // Count, then fill, the predecessors of every node in parallel since each node only writes its own slice.
+    predecessorStarts = IntArray(instances.size + 1)
+    IntStream.range(1, instances.size).parallel().forEach { node ->
+      predecessorStarts[node + 1] = instances[node]!!.hardReverseReferences.count { nodeOf(it) > 0 } + if (isRootReferred[node]) 1 else 0
+    }
+    for (node in 1..instances.size) {
+      predecessorStarts[node] += predecessorStarts[node - 1]
+    }
+    predecessors = IntArray(predecessorStarts[instances.size])
+    IntStream.range(1, instances.size).parallel().forEach { node ->
+      var next = predecessorStarts[node]
+      if (isRootReferred[node]) {
+        predecessors[next++] = 0
+      }
+      instances[node]!!.hardReverseReferences.forEach { reference ->
+        val predecessor = nodeOf(reference)
+        if (predecessor > 0) {
+          predecessors[next++] = predecessor
+        }
+      }
+    }
+
+    successorStarts = IntArray(instances.size + 1)
+    predecessors.forEach { successorStarts[it + 1]++ }
+    for (node in 1..instances.size) {
+      successorStarts[node] += successorStarts[node - 1]
+    }
+    successors = IntArray(predecessors.size)
+    val nextSuccessor = successorStarts.copyOf(instances.size)
+    for (node in instances.indices) {
+      for (i in predecessorStarts[node] until predecessorStarts[node + 1]) {
+        successors[nextSuccessor[predecessors[i]]++] = node
+      }
+    }
+
+    orderOf = IntArray(instances.size) { -1 }
+    order = computeReversePostOrder()
+    depths = computeDepths()
+  }
+
+  /**
+   * @return the number of hard references between [instance] and the closest GC root, or [Int.MAX_VALUE] if it is unreachable.
+   */
+  fun getDepth(instance: Instance) = nodeOf(instance).let { if (it > 0) depths[it] else Int.MAX_VALUE }
+
+  /**
+   * @return the total size of the instances only reachable through [instance], or [ValueObject.INVALID_VALUE] until
+   * [computeRetainedSizes] has completed.
+   */
+  fun getRetainedSize(instance: Instance) = when (val sizes = retainedSizes) {
+    null -> ValueObject.INVALID_VALUE.toLong()
+    else -> nodeOf(instance).let { if (it > 0) sizes[it] else 0L }
+  }
+
+  /**
+   * Computes the dominator tree and the retained sizes, reporting progress from 0 to 1 along the way.
+   *
+   * @throws CancellationException if [cancel] is called before the computation completes.
+   */
+  fun computeRetainedSizes(progress: (Double) -> Unit) {
+    if (retainedSizes != null) {
+      return
+    }
+    // Dominators are stored by position in reverse post-order, so that a dominator always comes before the nodes it dominates.
+    val dominators = IntArray(order.size) { -1 }
+    dominators[0] = 0
+    for (position in 1 until order.size) {
+      dominators[position] = computeDominator(order[position], dominators)
+      if (position % PROGRESS_INTERVAL == 0) {
+        checkCancelled()
+        progress(FIRST_PASS_PROGRESS * position / order.size)
+      }
+    }
+    // The first pass is exact for acyclic graphs. References pointing back in the order can still move dominators up the tree, which is
+    // propagated by further passes. They are run in parallel as every pass only moves dominators up, whatever order nodes are visited in.
+    do {
+      checkCancelled()
+      val changed = AtomicBoolean()
+      IntStream.range(1, order.size).parallel().forEach { position ->
+        val dominator = computeDominator(order[position], dominators)
+        if (dominator != dominators[position]) {
+          dominators[position] = dominator
+          changed.set(true)
+        }
+      }
+    }
+    while (changed.get())
+    progress(DOMINATORS_PROGRESS)
+
+    checkCancelled()
+    val sizes = LongArray(order.size)
+    IntStream.range(1, order.size).parallel().forEach { sizes[it] = instances[order[it]]!!.size.toLong() }
+    for (position in order.size - 1 downTo 1) {
+      sizes[dominators[position]] += sizes[position]
+    }
+    retainedSizes = LongArray(instances.size).also { IntStream.range(1, order.size).parallel().forEach { p -> it[order[p]] = sizes[p] } }
+    progress(1.0)
+  }
+
+  fun cancel() = isCancelled.set(true)
+
+  /**
+   * @return the position in reverse post-order of the closest common dominator of the already processed predecessors of [node].
+   */
+  private fun computeDominator(node: Int, dominators: IntArray): Int {
+    var dominator = -1
+    for (i in predecessorStarts[node] until predecessorStarts[node + 1]) {
+      val predecessor = orderOf[predecessors[i]]
+      if (predecessor < 0 || dominators[predecessor] < 0) {
+        continue
+      }
+      dominator = if (dominator < 0) predecessor else intersect(predecessor, dominator, dominators)
+    }
+    return dominator
+  }
+
+  private fun intersect(first: Int, second: Int, dominators: IntArray): Int {
+    var finger1 = first
+    var finger2 = second
+    while (finger1 != finger2) {
+      while (finger1 > finger2) {
+        finger1 = dominators[finger1]
+      }
+      while (finger2 > finger1) {
+        finger2 = dominators[finger2]
+      }
+    }
+    return finger1
+  }
+
+  private fun computeReversePostOrder(): IntArray {
+    val postOrder = IntArray(instances.size)
+    var count = 0
+    val stack = IntArray(instances.size)
+    val nextEdge = successorStarts.copyOf(instances.size)
+    val isVisited = BooleanArray(instances.size)
+    var top = 0
+    stack[0] = 0
+    isVisited[0] = true
+    while (top >= 0) {
+      val node = stack[top]
+      if (nextEdge[node] < successorStarts[node + 1]) {
+        val successor = successors[nextEdge[node]++]
+        if (!isVisited[successor]) {
+          isVisited[successor] = true
+          stack[++top] = successor
+        }
+      }
+      else {
+        postOrder[count++] = node
+        top--
+      }
+    }
+    return IntArray(count) { postOrder[count - 1 - it] }.also { order -> order.forEachIndexed { position, node -> orderOf[node] = position } }
+  }
+
+  private fun computeDepths(): IntArray {
+    val depths = IntArray(instances.size) { Int.MAX_VALUE }
+    val queue = IntArray(instances.size)
+    var head = 0
+    var tail = 0
+    depths[0] = -1
+    queue[tail++] = 0
+    while (head < tail) {
+      val node = queue[head++]
+      for (i in successorStarts[node] until successorStarts[node + 1]) {
+        val successor = successors[i]
+        if (depths[successor] == Int.MAX_VALUE) {
+          depths[successor] = depths[node] + 1
+          queue[tail++] = successor
+        }
+      }
+    }
+    return depths
+  }
+
+  private fun nodeOf(instance: Instance) = nodeIds[instance.id]
+
+  private fun checkCancelled() {
+    if (isCancelled.get()) {
+      throw CancellationException("Retained size computation was cancelled")
+    }
+  }
+
+  private companion object {
+    const val PROGRESS_INTERVAL = 1 shl 16
+    const val FIRST_PASS_PROGRESS = 0.8
+    const val DOMINATORS_PROGRESS = 0.9
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Object counts of an hprof file, gathered in a single pass over the memory-mapped file without materializing anything.
+ *
+ * When a heap dump is parsed from a memory-mapped file, field values and array contents stay in the file, so the IDE heap needed to load
+ * it is driven by the number of objects rather than by the size of the file. [estimatedHeapBytes] is used to decide whether a heap dump
+ * can be loaded safely before it is parsed. The scan itself only keeps counters, so that its own heap use does not grow with the dump.
+ */
+class HprofIndex private constructor(val idSize: Int,
+                                     val classCount: Int,
+                                     val instanceCount: Int,
+                                     val objectArrayCount: Int,
+                                     val primitiveArrayCount: Int,
+                                     val primitiveArrayBytes: Long) {
+  val objectCount get() = instanceCount.toLong() + objectArrayCount + primitiveArrayCount
+
+  val estimatedHeapBytes get() = objectCount * BYTES_PER_OBJECT + classCount.toLong() * BYTES_PER_CLASS
+
+  companion object {
+    /**
+     * Rough IDE heap cost of a parsed object: the perflib instance, its [HeapDumpInstanceObject], its entries in the instance index and
+     * classifier sets, and its share of the dominator computation.
+     */
+    const val BYTES_PER_OBJECT = 256L
+    const val BYTES_PER_CLASS = 2048L
+
+    private const val TAG_HEAP_DUMP = 0x0C
+    private const val TAG_HEAP_DUMP_SEGMENT = 0x1C
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun build(file: File): HprofIndex = MappedReader(file).use { it.scan() }
+
+    /**
+     * Reads the file through a sliding memory-mapped window, so that files larger than 2GB can be scanned.
+     */
+    private class MappedReader(file: File) : Closeable {
+      private val channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
+      private val size = channel.size()
+      private var window: MappedByteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, minOf(size, WINDOW_SIZE))
+      private var windowStart = 0L
+      private var position = 0L
+      private var idSize = 4
+
+      private var classCount = 0
+      private var instanceCount = 0
+      private var objectArrayCount = 0
+      private var primitiveArrayCount = 0
+      private var primitiveArrayBytes = 0L
+
+      fun scan(): HprofIndex {
+        // Header: null terminated format name, identifier size and timestamp.
+        while (u1() != 0) {
+        }
+        idSize = u4().toInt()
+        if (idSize != 4 && idSize != 8) {
+          throw IOException("Unsupported identifier size: $idSize")
+        }
+        skip(8L)
+
+        while (position < size) {
+          val tag = u1()
+          skip(4L)
+          val length = u4()
+          val end = position + length
+          if (tag == TAG_HEAP_DUMP || tag == TAG_HEAP_DUMP_SEGMENT) {
+            while (position < end) {
+              scanHeapDumpRecord()
+            }
+          }
+          position = end
+        }
+        if (position > size) {
+          throw IOException("Truncated hprof file")
+        }
+        return HprofIndex(idSize, classCount, instanceCount, objectArrayCount, primitiveArrayCount, primitiveArrayBytes)
+      }
+
+      private fun scanHeapDumpRecord() {
+        when (val subTag = u1()) {
+          0xFF, 0x05, 0x07, 0x89, 0x8A, 0x8B, 0x8C, 0x8D, 0x90 -> skip(idSize.toLong()) // Roots with an object id only.
+          0x01 -> skip(2L * idSize) // JNI global root
+          0x02, 0x03, 0x08, 0x8E -> skip(idSize + 8L) // JNI local, Java frame, thread object and JNI monitor roots
+          0x04, 0x06, 0xFE -> skip(idSize + 4L) // Native stack root, thread block root, and Android heap dump info
+          0x20 -> scanClassDump()
+          0x21 -> {
+            instanceCount++
+            skip(2L * idSize + 4)
+            skip(u4())
+          }
+          0x22 -> {
+            objectArrayCount++
+            skip(idSize + 4L)
+            val length = u4()
+            skip(idSize + length * idSize)
+          }
+          0x23, 0xC3 -> {
+            primitiveArrayCount++
+            skip(idSize + 4L)
+            val length = u4()
+            val bytes = length * typeSize(u1())
+            if (subTag == 0x23) {
+              primitiveArrayBytes += bytes
+              skip(bytes)
+            }
+          }
+          else -> throw IOException("Unknown heap dump record 0x${Integer.toHexString(subTag)} at offset ${position - 1}")
+        }
+      }
+
+      private fun scanClassDump() {
+        classCount++
+        // Class id, stack serial, super class, class loader, signers, protection domain, two reserved ids and instance size.
+        skip(7L * idSize + 8)
+        repeat(u2()) {
+          skip(2L)
+          skip(typeSize(u1()).toLong())
+        }
+        repeat(u2()) {
+          skip(idSize.toLong())
+          skip(typeSize(u1()).toLong())
+        }
+        skip(u2() * (idSize + 1L))
+      }
+
+      private fun typeSize(type: Int) = when (type) {
+        2 -> idSize
+        4, 8 -> 1
+        5, 9 -> 2
+        6, 10 -> 4
+        7, 11 -> 8
+        else -> throw IOException("Unknown value type $type at offset ${position - 1}")
+      }
+
+      private fun skip(bytes: Long) {
+        position += bytes
+      }
+
+      private fun u1(): Int {
+        ensure(1)
+        return window.get((position++ - windowStart).toInt()).toInt() and 0xFF
+      }
+
+      private fun u2(): Int {
+        ensure(2)
+        return (window.getShort((position - windowStart).toInt()).toInt() and 0xFFFF).also { position += 2 }
+      }
+
+      private fun u4(): Long {
+        ensure(4)
+        return (window.getInt((position - windowStart).toInt()).toLong() and 0xFFFFFFFFL).also { position += 4 }
+      }
+
+      private fun ensure(bytes: Int) {
+        if (position + bytes > size) {
+          throw IOException("Truncated hprof file")
+        }
+        if (position < windowStart || position + bytes > windowStart + window.limit()) {
+          windowStart = position
+          window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, minOf(size - windowStart, WINDOW_SIZE))
+        }
+      }
+
+      override fun close() = channel.close()
+
+      companion object {
+        private const val WINDOW_SIZE = 64L * 1024 * 1024
+      }
+    }
+  }
+}
@@ -68,6 +68,11 @@ class LiveAllocationCaptureObject(private val client: ProfilerClient,
                                           )
   private val classDb = ClassDb()
   private val instanceMap = TIntObjectHashMap<LiveAllocationInstanceObject>()
+
+  // Every Java allocation and deallocation seen so far, so that the live objects at a point in time are found without querying and
+  // replaying the events since the start of the session. Events up to allocationStoreEndTimeNs have been added.
+  private val allocationStore = LiveAllocationStore()
+  private var allocationStoreEndTimeNs = Long.MIN_VALUE
   private val callstackMap = TIntObjectHashMap<AllocationStack>()
 
   // Mapping from unsymbolized addresses to symbolized native frames
@@ -167,6 +172,7 @@ class LiveAllocationCaptureObject(private val client: ProfilerClient,
   override fun unload() {
     queryRange!!.removeDependencies(aspectObserver)
     executorService!!.shutdownNow()
+    allocationStore.close()
   }
 
   // Update myContextEndTimeNs and Callstack information
@@ -313,6 +319,9 @@ class LiveAllocationCaptureObject(private val client: ProfilerClient,
   }
 
   private fun AllocationEvent.Allocation.getOrCreateInstanceObject() =
+    getOrCreateInstanceObject(tag, classTag, stackId, threadId, size, heapId)
+
+  private fun getOrCreateInstanceObject(tag: Int, classTag: Int, stackId: Int, threadId: Int, size: Long, heapId: Int) =
     instanceMap[tag] ?:
     classDb.getEntry(classTag.toLong()).let { entry ->
       val callstack = if (stackId != 0) callstackMap[stackId]!! else null
@@ -329,28 +338,44 @@ class LiveAllocationCaptureObject(private val client: ProfilerClient,
   /**
    * Populates the input list with all instance objects that are alive at |snapshotTimeNs|.
    */
-  private fun queryJavaInstanceSnapshot(snapshotTimeNs: Long, snapshotList: MutableList<InstanceObject>) =
-    querySnapshot(snapshotTimeNs, snapshotList, allocationEventAdapter) { event, liveInstanceMap ->
+  private fun queryJavaInstanceSnapshot(snapshotTimeNs: Long, snapshotList: MutableList<InstanceObject>) {
+    updateAllocationStore(snapshotTimeNs)
+    allocationStore.forEachLiveRow(snapshotTimeNs) { row ->
+      val instance = with(allocationStore) {
+        getOrCreateInstanceObject(getTag(row), getClassId(row), getStackId(row), getThreadId(row), getSize(row), getHeapId(row))
+      }
+      instance.setAllocationTime(allocationStore.getAllocTime(row))
+      snapshotList.add(instance)
+    }
+  }
+
+  /**
+   * Adds the allocation events up to |endTimeNs| to the allocation store, if they have not been added yet.
+   */
+  private fun updateAllocationStore(endTimeNs: Long) {
+    val startTimeNs = max(session.startTimestamp, allocationStoreEndTimeNs)
+    if (startTimeNs >= endTimeNs) {
+      return
+    }
+    // Events are sorted so that only the ones older than events added by a previous batch are late rows in the store.
+    val events = mutableListOf<AllocationEvent>()
+    queryDelta(startTimeNs, endTimeNs, allocationEventAdapter) { events.add(it) }
+    events.sortBy(AllocationEvent::getTimestamp)
+    events.forEach { event ->
       when (event.eventCase) {
-        AllocationEvent.EventCase.ALLOC_DATA -> {
-          // Allocation - create an InstanceObject. This might be removed later if there is a corresponding FREE_DATA event.
-          val allocation = event.allocData
-          val instance = allocation.getOrCreateInstanceObject()
-          instance.setAllocationTime(event.timestamp)
-          liveInstanceMap[allocation.tag] = instance
-        }
-        AllocationEvent.EventCase.FREE_DATA -> {
-          // Deallocation - there should be a matching InstanceObject.
-          val deallocation = event.freeData
-          liveInstanceMap.remove(deallocation.tag)
-          // Don't keep deallocated objects around in the cache to avoid bloating memory.
-          instanceMap.remove(deallocation.tag)
+        AllocationEvent.EventCase.ALLOC_DATA -> event.allocData.let {
+          allocationStore.addAllocation(event.timestamp, it.tag, it.classTag, it.stackId, it.threadId, it.size, it.heapId)
         }
+        AllocationEvent.EventCase.FREE_DATA -> allocationStore.addFree(event.timestamp, event.freeData.tag)
         // ignore CLASS_DATA as they are handled via context updates.
         AllocationEvent.EventCase.CLASS_DATA -> { }
         else -> {}
       }
     }
+    // Events may still be arriving for the time after the last sample seen, so that part is queried again next time. The store ignores the
+    // events it already has.
+    allocationStoreEndTimeNs = min(endTimeNs, lastSeenTimestampNs)
+  }
 
   private fun queryJniReferencesSnapshot(snapshotTimeNs: Long, snapshotList: MutableList<InstanceObject>) {
     if (enableJniRefsTracking) {
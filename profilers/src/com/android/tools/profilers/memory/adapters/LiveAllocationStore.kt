@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.intellij.openapi.util.io.FileUtil
+import gnu.trove.TIntIntHashMap
+import java.io.Closeable
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Record of the Java allocations of a live allocation session, with one fixed-size row per allocation, so that millions of allocations
+ * take a few dozen bytes each and no object of their own.
+ *
+ * The rows are kept out of the IDE heap, in chunks of [chunkRows] rows memory-mapped from a temporary file, so the heap used by the store
+ * is bounded by its tag map and checkpoints whatever the length of the session. [close] deletes the file.
+ *
+ * Allocations are expected in timestamp order, but events arriving late are handled: an allocation older than one already added is kept
+ * in a separate list of late rows, which queries check on top of the rows in order. Adding an event that is not newer than what is already
+ * known for its tag is a no-op, so that overlapping time ranges can be added again.
+ *
+ * The store also keeps checkpoints of the rows that are still live at regular points of the session, so that finding what is live at any
+ * time starts from the closest checkpoint instead of from the first allocation. A new checkpoint is taken once the rows added since the
+ * previous one outnumber both [minCheckpointInterval] and the live rows of the previous checkpoint, which keeps all checkpoints together
+ * within twice the number of rows.
+ */
+class LiveAllocationStore(private val minCheckpointInterval: Int = DEFAULT_CHECKPOINT_INTERVAL,
+                          private val chunkRows: Int = DEFAULT_CHUNK_ROWS) : Closeable {
+  var size = 0
+    private set
+
+  val checkpointCount get() = checkpoints.size
+
+  private var file: File? = null
+  private var channel: FileChannel? = null
+  private val chunks = mutableListOf<ByteBuffer>()
+
+  @Volatile
+  private var isClosed = false
+
+  /**
+   * The row of the latest allocation of every tag, plus one so that the map's default value of 0 means absent.
+   */
+  private val rowsByTag = TIntIntHashMap()
+
+  private val checkpoints = mutableListOf<Checkpoint>()
+
+  /**
+   * Rows allocated before a row added earlier, in row order.
+   */
+  private var lateRows = IntArray(INITIAL_LATE_ROWS_CAPACITY)
+  private var lateRowCount = 0
+
+  fun addAllocation(timestampNs: Long, tag: Int, classId: Int, stackId: Int, threadId: Int, size: Long, heapId: Int) {
+    if (isClosed) {
+      return
+    }
+    val latestRow = rowsByTag[tag] - 1
+    if (latestRow >= 0 && getAllocTime(latestRow) >= timestampNs) {
+      return
+    }
+    if (this.size - lastCheckpointEnd >= maxOf(minCheckpointInterval, checkpoints.lastOrNull()?.rows?.size ?: 0)) {
+      addCheckpoint()
+    }
+    if (this.size == chunks.size * chunkRows) {
+      addChunk()
+    }
+    val row = this.size++
+    val previousWatermark = if (row > 0) getWatermark(row - 1) else Long.MIN_VALUE
+    if (timestampNs < previousWatermark) {
+      addLateRow(row)
+    }
+    val buffer = chunks[row / chunkRows]
+    val offset = (row % chunkRows) * ROW_BYTES
+    buffer.putLong(offset + ALLOC_TIME, timestampNs)
+    buffer.putLong(offset + FREE_TIME, Long.MAX_VALUE)
+    buffer.putLong(offset + SIZE, size)
+    buffer.putLong(offset + WATERMARK, maxOf(previousWatermark, timestampNs))
+    buffer.putInt(offset + TAG, tag)
+    buffer.putInt(offset + CLASS_ID, classId)
+    buffer.putInt(offset + STACK_ID, stackId)
+    buffer.putInt(offset + THREAD_ID, threadId)
+    buffer.put(offset + HEAP_ID, heapId.toByte())
+    rowsByTag.put(tag, row + 1)
+  }
+
+  fun addFree(timestampNs: Long, tag: Int) {
+    val row = rowsByTag[tag] - 1
+    if (row >= 0 && getAllocTime(row) <= timestampNs && getFreeTime(row) == Long.MAX_VALUE) {
+      chunks[row / chunkRows].putLong((row % chunkRows) * ROW_BYTES + FREE_TIME, timestampNs)
+    }
+  }
+
+  /**
+   * Calls [consumer] with every row allocated before [timeNs] and not freed before it, in row order, except that late rows added after
+   * the rows in order allocated before [timeNs] come last.
+   */
+  fun forEachLiveRow(timeNs: Long, consumer: (Int) -> Unit) {
+    val end = countInOrderBefore(timeNs)
+    // The last checkpoint that only covers rows allocated before timeNs. Rows freed later than the checkpoint are filtered out here.
+    val checkpoint = checkpoints.binarySearch { it.end.compareTo(end) }.let { if (it >= 0) it else -it - 2 }
+    var start = 0
+    if (checkpoint >= 0) {
+      checkpoints[checkpoint].rows.forEach { row -> if (getFreeTime(row) >= timeNs) consumer(row) }
+      start = checkpoints[checkpoint].end
+    }
+    for (row in start until end) {
+      if (getFreeTime(row) >= timeNs) {
+        consumer(row)
+      }
+    }
+    forEachLateRowAfter(end) { row -> if (getAllocTime(row) < timeNs && getFreeTime(row) >= timeNs) consumer(row) }
+  }
+
+  /**
+   * @return the number of rows allocated strictly before [timeNs].
+   */
+  fun countAllocatedBefore(timeNs: Long): Int {
+    val end = countInOrderBefore(timeNs)
+    var count = end
+    forEachLateRowAfter(end) { row -> if (getAllocTime(row) < timeNs) count++ }
+    return count
+  }
+
+  fun getTag(row: Int) = chunks[row / chunkRows].getInt((row % chunkRows) * ROW_BYTES + TAG)
+  fun getAllocTime(row: Int) = chunks[row / chunkRows].getLong((row % chunkRows) * ROW_BYTES + ALLOC_TIME)
+  fun getFreeTime(row: Int) = chunks[row / chunkRows].getLong((row % chunkRows) * ROW_BYTES + FREE_TIME)
+  fun getClassId(row: Int) = chunks[row / chunkRows].getInt((row % chunkRows) * ROW_BYTES + CLASS_ID)
+  fun getStackId(row: Int) = chunks[row / chunkRows].getInt((row % chunkRows) * ROW_BYTES + STACK_ID)
+  fun getThreadId(row: Int) = chunks[row / chunkRows].getInt((row % chunkRows) * ROW_BYTES + THREAD_ID)
+  fun getSize(row: Int) = chunks[row / chunkRows].getLong((row % chunkRows) * ROW_BYTES + SIZE)
+  fun getHeapId(row: Int) = chunks[row / chunkRows].get((row % chunkRows) * ROW_BYTES + HEAP_ID).toInt()
+
+  /**
+   * Deletes the file backing the rows, after which allocations are no longer added. The rows and their mappings are left as they are and
+   * released by the garbage collector along with the store, since a query may still be running on another thread: it keeps reading the
+   * rows it was given from the mappings.
+   */
+  override fun close() {
+    isClosed = true
+    channel?.close()
+    channel = null
+    file?.let { FileUtil.delete(it) }
+    file = null
+  }
+
+  /**
+   * The largest allocation time of the rows up to [row], which never decreases with the row so that it can be binary searched.
+   */
+  private fun getWatermark(row: Int) = chunks[row / chunkRows].getLong((row % chunkRows) * ROW_BYTES + WATERMARK)
+
+  /**
+   * @return the number of rows before the first one whose watermark is at least [timeNs]. All of them are allocated before [timeNs], and
+   * the rows after them that are as well are late rows.
+   */
+  private fun countInOrderBefore(timeNs: Long): Int {
+    var low = 0
+    var high = size
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (getWatermark(mid) < timeNs) low = mid + 1 else high = mid
+    }
+    return low
+  }
+
+  private inline fun forEachLateRowAfter(end: Int, consumer: (Int) -> Unit) {
+    var low = 0
+    var high = lateRowCount
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (lateRows[mid] < end) low = mid + 1 else high = mid
+    }
+    for (i in low until lateRowCount) {
+      consumer(lateRows[i])
+    }
+  }
+
+  private fun addLateRow(row: Int) {
+    if (lateRowCount == lateRows.size) {
+      lateRows = lateRows.copyOf(lateRowCount * 2)
+    }
+    lateRows[lateRowCount++] = row
+  }
+
+  private val lastCheckpointEnd get() = checkpoints.lastOrNull()?.end ?: 0
+
+  /**
+   * Adds a checkpoint covering all rows so far, built from the previous checkpoint and the rows added after it.
+   */
+  private fun addCheckpoint() {
+    val end = size
+    val timeNs = getWatermark(end - 1)
+    val previousRows = checkpoints.lastOrNull()?.rows ?: IntArray(0)
+    val rows = IntArray(previousRows.size + end - lastCheckpointEnd)
+    var count = 0
+    previousRows.forEach { row -> if (getFreeTime(row) >= timeNs) rows[count++] = row }
+    for (row in lastCheckpointEnd until end) {
+      if (getFreeTime(row) >= timeNs) {
+        rows[count++] = row
+      }
+    }
+    checkpoints.add(Checkpoint(end, rows.copyOf(count)))
+  }
+
+  private fun addChunk() {
+    if (channel == null) {
+      val newFile = FileUtil.createTempFile("live_allocations", ".bin", true)
+      file = newFile
+      channel = FileChannel.open(newFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+    }
+    val channel = channel!!
+    val chunkBytes = chunkRows.toLong() * ROW_BYTES
+    chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, chunks.size * chunkBytes, chunkBytes))
+  }
+
+  /**
+   * The first [end] rows, of which [rows] were not freed before the largest allocation time among them.
+   */
+  private class Checkpoint(val end: Int, val rows: IntArray)
+
+  private companion object {
+    const val DEFAULT_CHECKPOINT_INTERVAL = 1 shl 16
+    const val DEFAULT_CHUNK_ROWS = 1 shl 16
+    const val INITIAL_LATE_ROWS_CAPACITY = 64
+
+    // Layout of a row.
+    const val ALLOC_TIME = 0
+    const val FREE_TIME = 8
+    const val SIZE = 16
+    const val WATERMARK = 24
+    const val TAG = 32
+    const val CLASS_ID = 36
+    const val STACK_ID = 40
+    const val THREAD_ID = 44
+    const val HEAP_ID = 48
+    const val ROW_BYTES = 56
+  }
+}
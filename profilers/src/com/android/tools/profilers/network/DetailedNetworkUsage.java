@@ -52,7 +52,8 @@ public class DetailedNetworkUsage extends NetworkUsage {
                                           Common.Event.Kind.NETWORK_CONNECTION_COUNT,
                                           UnifiedEventDataSeries.DEFAULT_GROUP_ID,
                                           UnifiedEventDataSeries.fromFieldToDataExtractor(
-                                            event -> (long)event.getNetworkConnections().getNumConnections()));
+                                            event -> (long)event.getNetworkConnections().getNumConnections()),
+                                          true);
     }
     else {
       NetworkServiceGrpc.NetworkServiceBlockingStub client = profilers.getClient().getNetworkClient();
@@ -67,9 +67,8 @@ class PerfettoParser(private val mainProcessSelector: MainProcessSelector,
         error("Unable to load trace with TPD.")
       }
 
-      val processList = traceProcessor.getProcessMetadata(traceId, ideProfilerServices)
+      val (processList, traceUIMetadata) = traceProcessor.getProcessAndTraceMetadata(traceId, "ui_state", ideProfilerServices)
       check(processList.isNotEmpty()) { "Invalid trace without any process information." }
-      val traceUIMetadata = traceProcessor.getTraceMetadata(traceId, "ui_state", ideProfilerServices)
       var processHint = mainProcessSelector.nameHint
       val initialViewRange = Range()
 
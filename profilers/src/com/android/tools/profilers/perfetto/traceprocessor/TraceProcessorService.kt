@@ -63,4 +63,13 @@ interface TraceProcessorService {
    * If an error occurs, or the metadata is not found an empty list is returned.
    */
   fun getTraceMetadata(traceId: Long, metadataName: String, ideProfilerServices: IdeProfilerServices) : List<String>
+
+  /**
+   * Query both {@link getProcessMetadata} and {@link getTraceMetadata}, which don't depend on each other, so that implementations can send
+   * them to TPD in a single batch.
+   */
+  fun getProcessAndTraceMetadata(traceId: Long,
+                                 metadataName: String,
+                                 ideProfilerServices: IdeProfilerServices): Pair<List<ProcessModel>, List<String>> =
+    Pair(getProcessMetadata(traceId, ideProfilerServices), getTraceMetadata(traceId, metadataName, ideProfilerServices))
 }
\ No newline at end of file
@@ -32,6 +32,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import org.junit.Test;
 
 public class CaptureNodeTest {
@@ -131,6 +132,30 @@ public class CaptureNodeTest {
     root.getDescendantsStream().forEach(n -> assertThat(n.getFilterType()).isEqualTo(CaptureNode.FilterType.MATCH));
   }
 
+  @Test
+  public void descendantsAreInPreOrder() {
+    CaptureNode root = createFilterTestTree();
+    List<String> names = ContainerUtil.map(root.getDescendantsStream().collect(Collectors.toList()), n -> n.getData().getFullName());
+    assertThat(names).hasSize(14);
+    assertThat(names.subList(0, 6))
+      .containsExactly("mainPackage.main", "otherPackage.method1", "myPackage.method2", "otherPackage.method4", "myPackage.method3",
+                       "otherPackage.method3").inOrder();
+  }
+
+  @Test
+  public void descendantsOfDeepTree() {
+    CaptureNode root = new CaptureNode(new StubCaptureNodeModel());
+    CaptureNode node = root;
+    for (int i = 0; i < 100000; i++) {
+      CaptureNode child = new CaptureNode(new StubCaptureNodeModel());
+      node.addChild(child);
+      node = child;
+    }
+    assertThat(root.getDescendantsStream().count()).isEqualTo(100001);
+    assertThat(node.getChildCount()).isEqualTo(0);
+    assertThat(node.getChildren()).isEmpty();
+  }
+
   @Test
   public void testGetRootNode() {
     CaptureNode root = createFilterTestTree();
@@ -18,6 +18,7 @@ package com.android.tools.profilers.cpu.art;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.android.tools.perflib.vmtrace.TraceAction;
 import com.android.tools.perflib.vmtrace.VmTraceParser;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuProfilerTestUtils;
@@ -27,6 +28,8 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.DoubleAccumulator;
 import org.junit.Test;
 
 public class ArtTraceHandlerTest {
@@ -97,6 +100,49 @@ public class ArtTraceHandlerTest {
     }
   }
 
+  @Test
+  public void testThreadsBuiltInParallel() {
+    DoubleAccumulator progress = new DoubleAccumulator(Math::max, 0);
+    ArtTraceHandler handler = new ArtTraceHandler(1000, progress::accumulate, () -> false);
+    int threadCount = 8;
+    int callCount = 50000;
+    for (int thread = 1; thread <= threadCount; ++thread) {
+      handler.addThread(thread, "Thread " + thread);
+    }
+    // Interleave the threads' actions, as in a trace. Every thread calls method 1 callCount times, each call calling method 2 once.
+    for (int call = 0; call < callCount; ++call) {
+      for (int thread = 1; thread <= threadCount; ++thread) {
+        handler.addMethodAction(thread, 1, TraceAction.METHOD_ENTER, call * 4, call * 4);
+        handler.addMethodAction(thread, 2, TraceAction.METHOD_ENTER, call * 4 + 1, call * 4 + 1);
+        handler.addMethodAction(thread, 2, TraceAction.METHOD_EXIT, call * 4 + 2, call * 4 + 2);
+        handler.addMethodAction(thread, 1, TraceAction.METHOD_EXIT, call * 4 + 3, call * 4 + 3);
+      }
+    }
+
+    Map<CpuThreadInfo, CaptureNode> trees = handler.getThreadsGraph();
+    assertEquals(threadCount, trees.size());
+    for (Map.Entry<CpuThreadInfo, CaptureNode> entry : trees.entrySet()) {
+      CaptureNode root = entry.getValue();
+      assertEquals("Thread " + entry.getKey().getId(), root.getData().getId());
+      assertEquals(callCount, root.getChildCount());
+      CaptureNode lastCall = root.getChildren().get(callCount - 1);
+      assertEquals(1, lastCall.getChildCount());
+      assertEquals(1, lastCall.getDepth());
+      assertEquals(2, lastCall.getFirstChild().getDepth());
+      assertEquals((callCount - 1) * 4 + 3, lastCall.getEndGlobal());
+    }
+    assertEquals(1.0, progress.get(), 0);
+  }
+
+  @Test(expected = CancellationException.class)
+  public void testCancelledParsingThrows() {
+    ArtTraceHandler handler = new ArtTraceHandler(1000, progress -> {}, () -> true);
+    for (int call = 0; call < 1 << 17; ++call) {
+      handler.addMethodAction(1, 1, TraceAction.METHOD_ENTER, call * 2, call * 2);
+      handler.addMethodAction(1, 1, TraceAction.METHOD_EXIT, call * 2 + 1, call * 2 + 1);
+    }
+  }
+
   private static CaptureNode parseCaptureNode() throws IOException {
     ArtTraceHandler handler = new ArtTraceHandler();
     VmTraceParser parser = new VmTraceParser(CpuProfilerTestUtils.getTraceFile("basic.trace"), handler);
@@ -285,6 +285,29 @@ public class BottomUpNodeTest {
     assertEquals(1, nodeA.getGlobalChildrenTotal(), EPS);
   }
 
+  /**
+   * The structure of the tree, with enough calls for the node intervals to be indexed:
+   * main [0..3000]
+   *   -> A [10 * i..10 * i + 5] -> B [10 * i + 1..10 * i + 3], for i in [0..300)
+   */
+  @Test
+  public void testManyCallsInPartialRange() {
+    CaptureNode root = newNode("main", 0, 3000);
+    for (int i = 0; i < 300; ++i) {
+      addChainSubtree(root, newNode("A", 10 * i, 10 * i + 5), newNode("B", 10 * i + 1, 10 * i + 3));
+    }
+
+    BottomUpNode node = new BottomUpNode(root);
+    BottomUpNode nodeA = node.getChildren().stream().filter(n -> n.getId().equals("A")).findAny().orElseThrow(AssertionError::new);
+    nodeA.update(ClockType.GLOBAL, new Range(0, 3000));
+    assertEquals(1500, nodeA.getGlobalTotal(), EPS);
+    assertEquals(600, nodeA.getGlobalChildrenTotal(), EPS);
+
+    nodeA.update(ClockType.GLOBAL, new Range(0, 1502));
+    assertEquals(752, nodeA.getGlobalTotal(), EPS);
+    assertEquals(301, nodeA.getGlobalChildrenTotal(), EPS);
+  }
+
   /**
    * The structure of the tree:
    * main [0..100]
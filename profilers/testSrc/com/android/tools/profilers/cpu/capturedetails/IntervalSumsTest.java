@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.cpu.CaptureNode;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class IntervalSumsTest {
+  private final static double EPS = 1e-5;
+
+  @Test
+  public void matchesSumOfIntersections() {
+    Random random = new Random(1);
+    List<CaptureNode> nodes = new ArrayList<>();
+    for (int i = 0; i < 500; ++i) {
+      CaptureNode node = new CaptureNode(new SingleNameModel("node"));
+      long startGlobal = 1_000_000_000L + random.nextInt(10_000);
+      node.setStartGlobal(startGlobal);
+      node.setEndGlobal(startGlobal + random.nextInt(1_000));
+      node.setStartThread(random.nextInt(10_000));
+      node.setEndThread(node.getStartThread() + random.nextInt(1_000));
+      nodes.add(node);
+    }
+    IntervalSums globalSums = new IntervalSums(nodes, ClockType.GLOBAL);
+    IntervalSums threadSums = new IntervalSums(nodes, ClockType.THREAD);
+
+    for (int i = 0; i < 200; ++i) {
+      double min = random.nextInt(12_000) - 1_000 + random.nextDouble();
+      double max = min + random.nextInt(5_000);
+      Range threadRange = new Range(min, max);
+      Range globalRange = new Range(1_000_000_000L + min, 1_000_000_000L + max);
+      assertThat(globalSums.getIntersectionLength(globalRange)).isWithin(EPS).of(sumOfIntersections(nodes, globalRange, ClockType.GLOBAL));
+      assertThat(threadSums.getIntersectionLength(threadRange)).isWithin(EPS).of(sumOfIntersections(nodes, threadRange, ClockType.THREAD));
+    }
+  }
+
+  @Test
+  public void unboundedAndEmptyRanges() {
+    CaptureNode node = new CaptureNode(new SingleNameModel("node"));
+    node.setStartGlobal(10);
+    node.setEndGlobal(30);
+    IntervalSums sums = new IntervalSums(Collections.singletonList(node), ClockType.GLOBAL);
+    assertThat(sums.getIntersectionLength(new Range(-Double.MAX_VALUE, Double.MAX_VALUE))).isWithin(EPS).of(20);
+    assertThat(sums.getIntersectionLength(new Range(Double.NEGATIVE_INFINITY, 20))).isWithin(EPS).of(10);
+    assertThat(sums.getIntersectionLength(new Range())).isWithin(EPS).of(0);
+    assertThat(new IntervalSums(Collections.emptyList(), ClockType.GLOBAL).getIntersectionLength(new Range(0, 100))).isWithin(EPS).of(0);
+  }
+
+  private static double sumOfIntersections(List<CaptureNode> nodes, Range range, ClockType clockType) {
+    return nodes.stream().mapToDouble(node -> CpuTreeNode.getIntersection(range, node, clockType)).sum();
+  }
+}
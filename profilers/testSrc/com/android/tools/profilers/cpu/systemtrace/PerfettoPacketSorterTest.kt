@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.systemtrace
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.Random
+
+class PerfettoPacketSorterTest {
+
+  @Test
+  fun linesAreReturnedAfterReset() {
+    val sorter = PerfettoPacketSorter()
+    sorter.addLine(0, "Some line")
+    assertThat(sorter.hasNext()).isFalse()
+    sorter.resetForIterator()
+    assertThat(sorter.hasNext()).isTrue()
+    assertThat(sorter.hasNext()).isTrue()
+    assertThat(sorter.next()).isEqualTo("Some line")
+    assertThat(sorter.hasNext()).isFalse()
+    sorter.close()
+  }
+
+  @Test
+  fun emptySorterHasNoLines() {
+    val sorter = PerfettoPacketSorter()
+    sorter.resetForIterator()
+    assertThat(sorter.hasNext()).isFalse()
+  }
+
+  @Test
+  fun linesAreSortedStablyAcrossSpilledRuns() {
+    // A budget small enough for a few dozen lines per run.
+    val sorter = PerfettoPacketSorter(1024)
+    val random = Random(1)
+    val lines = (0 until 5000).map { random.nextInt(100).toLong() to "line $it é" }
+    lines.forEach { (timestamp, line) -> sorter.addLine(timestamp, line) }
+    sorter.resetForIterator()
+
+    val sorted = mutableListOf<String>()
+    sorter.forEachRemaining { sorted.add(it) }
+    assertThat(sorted).containsExactlyElementsIn(lines.sortedBy { it.first }.map { it.second }).inOrder()
+    sorter.close()
+  }
+
+  @Test
+  fun linesLargerThanBudgetAreKept() {
+    val sorter = PerfettoPacketSorter(1024)
+    val longLine = "x".repeat(4096)
+    sorter.addLine(2, "short")
+    sorter.addLine(1, longLine)
+    sorter.addLine(0, "first")
+    sorter.resetForIterator()
+
+    val sorted = mutableListOf<String>()
+    sorter.forEachRemaining { sorted.add(it) }
+    assertThat(sorted).containsExactly("first", longLine, "short").inOrder()
+    sorter.close()
+    assertThat(sorter.hasNext()).isFalse()
+  }
+}
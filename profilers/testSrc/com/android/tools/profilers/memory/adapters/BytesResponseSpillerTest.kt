@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.android.tools.idea.protobuf.ByteString
+import com.android.tools.profiler.proto.Transport
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class BytesResponseSpillerTest {
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  @Test
+  fun parseWritesContentsToFile() {
+    val contents = ByteArray(200_000) { it.toByte() }
+    val response = Transport.BytesResponse.newBuilder().setContents(ByteString.copyFrom(contents)).build()
+    val file = temporaryFolder.newFile()
+
+    val size = BytesResponseSpiller.SpillingMarshaller(file).parse(response.toByteString().newInput())
+
+    assertThat(size).isEqualTo(contents.size.toLong())
+    assertThat(file.readBytes()).isEqualTo(contents)
+  }
+
+  @Test
+  fun streamSerializesContentsOfFile() {
+    val contents = ByteArray(200_000) { it.toByte() }
+    val file = temporaryFolder.newFile().apply { writeBytes(contents) }
+
+    val response = Transport.BytesResponse.parseFrom(BytesResponseSpiller.SpillingMarshaller(file).stream(contents.size.toLong()))
+
+    assertThat(response.contents.toByteArray()).isEqualTo(contents)
+  }
+}
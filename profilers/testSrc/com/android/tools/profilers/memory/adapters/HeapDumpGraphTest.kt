@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.android.tools.perflib.heap.Instance
+import com.android.tools.perflib.heap.Snapshot
+import com.android.tools.perflib.heap.SnapshotBuilder
+import com.android.tools.perflib.heap.io.InMemoryBuffer
+import com.android.tools.proguard.ProguardMap
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.concurrent.CancellationException
+
+class HeapDumpGraphTest {
+
+  @Test
+  fun depthsAndRetainedSizesMatchPerflib() {
+    // 1 -> 2 -> 4 -> 6 and 1 -> 3 -> 4, with a cycle 6 -> 5 -> 6 and an extra root on 5.
+    val builder = SnapshotBuilder(6, 0, 0)
+      .addReferences(1, 2, 3)
+      .addReferences(2, 4)
+      .addReferences(3, 4)
+      .addReferences(4, 6)
+      .addReferences(5, 6)
+      .addReferences(6, 5)
+      .addRoot(1)
+      .addRoot(5)
+    val graph = HeapDumpGraph(createSnapshot(builder))
+    assertThat(graph.hasRetainedSizes).isFalse()
+    val progress = mutableListOf<Double>()
+    graph.computeRetainedSizes { progress.add(it) }
+    assertThat(graph.hasRetainedSizes).isTrue()
+    assertThat(progress.last()).isEqualTo(1.0)
+
+    // Compare with perflib's own, single-threaded computation over a separately parsed copy. Instances are looked up by id.
+    val expected = createSnapshot(builder).apply { computeDominators() }
+    val instances = instancesOf(expected)
+    assertThat(instances).isNotEmpty()
+    instances.forEach {
+      assertThat(graph.getDepth(it)).isEqualTo(it.distanceToGcRoot)
+      assertThat(graph.getRetainedSize(it)).isEqualTo(it.totalRetainedSize)
+    }
+  }
+
+  @Test
+  fun retainedSizesAreInvalidUntilComputed() {
+    val snapshot = createSnapshot(SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1))
+    val graph = HeapDumpGraph(snapshot)
+    instancesOf(snapshot).forEach { assertThat(graph.getRetainedSize(it)).isEqualTo(ValueObject.INVALID_VALUE.toLong()) }
+  }
+
+  @Test(expected = CancellationException::class)
+  fun cancelledComputationThrows() {
+    val graph = HeapDumpGraph(createSnapshot(SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1)))
+    graph.cancel()
+    graph.computeRetainedSizes {}
+  }
+
+  private fun createSnapshot(builder: SnapshotBuilder) =
+    Snapshot.createSnapshot(InMemoryBuffer(builder.byteBuffer), ProguardMap(), listOf())
+
+  private fun instancesOf(snapshot: Snapshot) = mutableListOf<Instance>().apply {
+    snapshot.heaps.forEach { heap -> heap.forEachInstance { add(it); true } }
+  }
+}
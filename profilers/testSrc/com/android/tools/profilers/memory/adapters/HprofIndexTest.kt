@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+class HprofIndexTest {
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  @Test
+  fun countsObjectsOfEveryKind() {
+    val file = temporaryFolder.newFile("test.hprof").apply { writeBytes(createHprof()) }
+    val index = HprofIndex.build(file)
+    assertThat(index.idSize).isEqualTo(4)
+    assertThat(index.classCount).isEqualTo(1)
+    assertThat(index.instanceCount).isEqualTo(2)
+    assertThat(index.objectArrayCount).isEqualTo(1)
+    assertThat(index.primitiveArrayCount).isEqualTo(1)
+    assertThat(index.primitiveArrayBytes).isEqualTo(12)
+    assertThat(index.objectCount).isEqualTo(4)
+    assertThat(index.estimatedHeapBytes).isEqualTo(4 * HprofIndex.BYTES_PER_OBJECT + HprofIndex.BYTES_PER_CLASS)
+  }
+
+  @Test(expected = IOException::class)
+  fun truncatedFileThrows() {
+    val bytes = createHprof()
+    val file = temporaryFolder.newFile("truncated.hprof").apply { writeBytes(bytes.copyOf(bytes.size - 10)) }
+    HprofIndex.build(file)
+  }
+
+  private fun createHprof(): ByteArray {
+    val heapDump = ByteArrayOutputStream()
+    DataOutputStream(heapDump).apply {
+      // Android heap dump info and a sticky class root.
+      writeByte(0xFE); writeInt(1); writeInt(100)
+      writeByte(0x05); writeInt(10)
+      // Class with one static int and one instance int field.
+      writeByte(0x20); writeInt(10); writeInt(0); repeat(6) { writeInt(0) }; writeInt(4)
+      writeShort(0)
+      writeShort(1); writeInt(101); writeByte(10); writeInt(42)
+      writeShort(1); writeInt(102); writeByte(10)
+      // Two instances.
+      for (id in 20..21) {
+        writeByte(0x21); writeInt(id); writeInt(0); writeInt(10); writeInt(4); writeInt(id)
+      }
+      // Object array holding both instances, and an int array.
+      writeByte(0x22); writeInt(30); writeInt(0); writeInt(2); writeInt(11); writeInt(20); writeInt(21)
+      writeByte(0x23); writeInt(31); writeInt(0); writeInt(3); writeByte(10); writeInt(1); writeInt(2); writeInt(3)
+    }
+
+    val hprof = ByteArrayOutputStream()
+    DataOutputStream(hprof).apply {
+      write("JAVA PROFILE 1.0.3".toByteArray()); writeByte(0)
+      writeInt(4)
+      writeLong(0)
+      // A string record, which is skipped.
+      val string = "java.lang.Object".toByteArray()
+      writeByte(0x01); writeInt(0); writeInt(4 + string.size); writeInt(100); write(string)
+      writeByte(0x1C); writeInt(0); writeInt(heapDump.size()); write(heapDump.toByteArray())
+      writeByte(0x2C); writeInt(0); writeInt(0)
+    }
+    return hprof.toByteArray()
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.Random
+
+class LiveAllocationStoreTest {
+
+  @Test
+  fun liveRowsAtPointInTime() {
+    val store = LiveAllocationStore()
+    // Tag 1 lives for the whole session, tag 2 is freed at 25, and tag 3 is reused after being freed at 35.
+    store.addAllocation(10, 1, 100, 1000, 7, 16, 3)
+    store.addAllocation(20, 2, 101, 0, 0, 32, 3)
+    store.addFree(25, 2)
+    store.addAllocation(30, 3, 102, 0, 0, 8, 2)
+    store.addFree(35, 3)
+    store.addAllocation(40, 3, 103, 0, 0, 24, 2)
+
+    assertThat(liveTagsAt(store, 10)).isEmpty()
+    assertThat(liveTagsAt(store, 21)).containsExactly(1, 2).inOrder()
+    assertThat(liveTagsAt(store, 25)).containsExactly(1, 2).inOrder()
+    assertThat(liveTagsAt(store, 26)).containsExactly(1)
+    assertThat(liveTagsAt(store, 31)).containsExactly(1, 3).inOrder()
+    assertThat(liveTagsAt(store, 50)).containsExactly(1, 3).inOrder()
+
+    assertThat(store.size).isEqualTo(4)
+    assertThat(store.getClassId(3)).isEqualTo(103)
+    assertThat(store.getStackId(0)).isEqualTo(1000)
+    assertThat(store.getThreadId(0)).isEqualTo(7)
+    assertThat(store.getSize(1)).isEqualTo(32)
+    assertThat(store.getHeapId(2)).isEqualTo(2)
+    assertThat(store.getFreeTime(2)).isEqualTo(35)
+    assertThat(store.getFreeTime(3)).isEqualTo(Long.MAX_VALUE)
+  }
+
+  @Test
+  fun addingEventsAgainIsNoOp() {
+    val store = LiveAllocationStore()
+    repeat(2) {
+      store.addAllocation(10, 1, 100, 0, 0, 16, 3)
+      store.addFree(15, 1)
+      store.addAllocation(20, 1, 100, 0, 0, 16, 3)
+    }
+    assertThat(store.size).isEqualTo(2)
+    assertThat(store.getFreeTime(0)).isEqualTo(15)
+    assertThat(store.getFreeTime(1)).isEqualTo(Long.MAX_VALUE)
+  }
+
+  @Test
+  fun growsPastInitialCapacity() {
+    val store = LiveAllocationStore()
+    for (i in 0 until 5000) {
+      store.addAllocation(i.toLong(), i, i, 0, 0, 1, 3)
+    }
+    assertThat(store.size).isEqualTo(5000)
+    assertThat(store.countAllocatedBefore(2500)).isEqualTo(2500)
+    assertThat(store.getTag(4999)).isEqualTo(4999)
+  }
+
+  @Test
+  fun checkpointsMatchFullScan() {
+    val store = LiveAllocationStore(minCheckpointInterval = 8)
+    val random = Random(1)
+    val live = mutableListOf<Int>()
+    val expected = mutableMapOf<Long, List<Int>>()
+    for (time in 1L..2000L) {
+      expected[time] = live.toList()
+      if (live.isNotEmpty() && random.nextInt(3) == 0) {
+        store.addFree(time, live.removeAt(random.nextInt(live.size)))
+      }
+      else {
+        store.addAllocation(time, time.toInt(), 0, 0, 0, 1, 3)
+        live.add(time.toInt())
+      }
+    }
+    assertThat(store.checkpointCount).isGreaterThan(1)
+    expected.forEach { (time, tags) -> assertThat(liveTagsAt(store, time)).containsExactlyElementsIn(tags).inOrder() }
+  }
+
+  @Test
+  fun lateAllocationsAreFound() {
+    val store = LiveAllocationStore()
+    store.addAllocation(10, 1, 0, 0, 0, 1, 3)
+    store.addAllocation(30, 2, 0, 0, 0, 1, 3)
+    // Arrives after the allocation at 30.
+    store.addAllocation(20, 3, 0, 0, 0, 1, 3)
+    store.addFree(40, 3)
+
+    assertThat(liveTagsAt(store, 15)).containsExactly(1)
+    assertThat(liveTagsAt(store, 25)).containsExactly(1, 3).inOrder()
+    assertThat(liveTagsAt(store, 35)).containsExactly(1, 2, 3).inOrder()
+    assertThat(liveTagsAt(store, 45)).containsExactly(1, 2).inOrder()
+    assertThat(store.countAllocatedBefore(25)).isEqualTo(2)
+    assertThat(store.countAllocatedBefore(31)).isEqualTo(3)
+  }
+
+  @Test
+  fun lateAllocationsAcrossChunksAndCheckpointsMatchFullScan() {
+    val store = LiveAllocationStore(minCheckpointInterval = 8, chunkRows = 16)
+    val random = Random(1)
+    val allocTimes = mutableMapOf<Int, Long>()
+    val freeTimes = mutableMapOf<Int, Long>()
+    for (time in 1L..2000L) {
+      val live = allocTimes.keys.filter { !freeTimes.containsKey(it) }
+      if (live.isNotEmpty() && random.nextInt(3) == 0) {
+        val tag = live[random.nextInt(live.size)]
+        store.addFree(time, tag)
+        freeTimes[tag] = time
+      }
+      else {
+        // One allocation in five arrives late.
+        val allocTime = if (random.nextInt(5) == 0) maxOf(1L, time - random.nextInt(20)) else time
+        store.addAllocation(allocTime, time.toInt(), 0, 0, 0, 1, 3)
+        allocTimes[time.toInt()] = allocTime
+      }
+    }
+    assertThat(store.checkpointCount).isGreaterThan(1)
+    for (time in 1L..2001L) {
+      val expected = allocTimes.filter { (tag, allocTime) -> allocTime < time && (freeTimes[tag] ?: Long.MAX_VALUE) >= time }.keys
+      assertThat(liveTagsAt(store, time)).containsExactlyElementsIn(expected)
+      assertThat(store.countAllocatedBefore(time)).isEqualTo(allocTimes.values.count { it < time })
+    }
+    store.close()
+  }
+
+  @Test
+  fun rowsStayReadableAfterClose() {
+    val store = LiveAllocationStore(chunkRows = 2)
+    for (tag in 1..3) {
+      store.addAllocation(tag.toLong(), tag, 0, 0, 0, 1, 3)
+    }
+    store.close()
+    store.addAllocation(10, 4, 0, 0, 0, 1, 3)
+    assertThat(store.size).isEqualTo(3)
+    assertThat(liveTagsAt(store, 5)).containsExactly(1, 2, 3).inOrder()
+  }
+
+  private fun liveTagsAt(store: LiveAllocationStore, timeNs: Long) =
+    mutableListOf<Int>().also { tags -> store.forEachLiveRow(timeNs) { tags.add(store.getTag(it)) } }
+}
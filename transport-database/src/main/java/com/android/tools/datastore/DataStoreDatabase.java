@@ -15,12 +15,14 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.datastore.database.DataStoreWriteBehind;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class DataStoreDatabase {
   public enum Characteristic {
@@ -38,6 +40,8 @@ public class DataStoreDatabase {
 
   private final Connection myConnection;
 
+  @Nullable private final DataStoreWriteBehind myWriteBehind;
+
   /**
    * @param dbPath the path to the backing DB file, if {@link Characteristic#DURABLE}.
    */
@@ -51,8 +55,20 @@ public class DataStoreDatabase {
                            @NotNull Characteristic characteristic,
                            @NotNull LogService logService,
                            @NotNull Consumer<Throwable> noPiiExceptionHandler) {
+    this(dbPath, characteristic, logService, noPiiExceptionHandler, DataStoreWriteBehind.Config.DEFAULT);
+  }
+
+  /**
+   * @param writeBehindConfig batching and commit thresholds of the {@link DataStoreWriteBehind} stage tables of this database write through.
+   */
+  public DataStoreDatabase(@NotNull String dbPath,
+                           @NotNull Characteristic characteristic,
+                           @NotNull LogService logService,
+                           @NotNull Consumer<Throwable> noPiiExceptionHandler,
+                           @NotNull DataStoreWriteBehind.Config writeBehindConfig) {
     myLogService = logService;
     Connection connection = null;
+    DataStoreWriteBehind writeBehind = null;
     try {
       // For older versions of the JDBC we need to force load the sqlite.JDBC driver to trigger static initializer's and register
       // the JDBC driver with the java DriverMangaer.
@@ -83,9 +99,9 @@ public class DataStoreDatabase {
           throw new RuntimeException("Characteristic not handled!");
       }
 
-      // Performance optimization.
-      // TODO: Create a timer and commit the database transaction every X seconds.
+      // Performance optimization: inserts are batched and the transaction is committed periodically by the write-behind stage.
       connection.setAutoCommit(false);
+      writeBehind = DataStoreWriteBehind.start(connection, writeBehindConfig);
     }
     catch (ClassNotFoundException e) {
       getLogger().error(e);
@@ -97,9 +113,13 @@ public class DataStoreDatabase {
       noPiiExceptionHandler.accept(e);
     }
     myConnection = connection;
+    myWriteBehind = writeBehind;
   }
 
   public void disconnect() {
+    if (myWriteBehind != null) {
+      myWriteBehind.shutdown();
+    }
     try {
       myConnection.commit();
     }
@@ -121,4 +141,9 @@ public class DataStoreDatabase {
   public Connection getConnection() {
     return myConnection;
   }
+
+  @Nullable
+  public DataStoreWriteBehind getWriteBehind() {
+    return myWriteBehind;
+  }
 }
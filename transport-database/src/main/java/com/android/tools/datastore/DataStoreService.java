@@ -196,7 +196,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   public void createPollers() {
     // TODO b/73538507 shared between all services to support inserting file content into generic byte cache (e.g. importing hprof)
     // We should be able to keep this inside TransportService after legacy pipeline removal.
-    UnifiedEventsTable unifiedTable = new UnifiedEventsTable();
+    UnifiedEventsTable unifiedTable = new UnifiedEventsTable(createEventPartitionConfig());
     myTransportService = new TransportService(this, unifiedTable, myFetchExecutor, !PROFILER_UNIFIED_PIPELINE.get());
     registerService(myTransportService);
     registerService(new ProfilerService(this, myLogService));
@@ -207,6 +207,19 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     registerService(new EnergyService(this, myFetchExecutor, myLogService));
   }
 
+  @NotNull
+  private static UnifiedEventsTable.PartitionConfig createEventPartitionConfig() {
+    if (!StudioFlags.PROFILER_EVENT_PARTITIONING.get()) {
+      return UnifiedEventsTable.PartitionConfig.UNPARTITIONED;
+    }
+    int retentionMinutes = StudioFlags.PROFILER_EVENT_RETENTION_MINUTES.get();
+    int diskBudgetMb = StudioFlags.PROFILER_EVENT_DISK_BUDGET_MB.get();
+    return new UnifiedEventsTable.PartitionConfig(
+      TimeUnit.MINUTES.toNanos(Math.max(1, StudioFlags.PROFILER_EVENT_PARTITION_MINUTES.get())),
+      retentionMinutes > 0 ? TimeUnit.MINUTES.toNanos(retentionMinutes) : Long.MAX_VALUE,
+      diskBudgetMb > 0 ? diskBudgetMb * 1024L * 1024L : Long.MAX_VALUE);
+  }
+
   @VisibleForTesting
   @NotNull
   public DataStoreDatabase createDatabase(@NotNull String dbPath,
@@ -411,6 +424,9 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
         dbStats.setTotalDiskMb((int)(dbFile.length() / 1024 / 1024)); // Bytes -> MB
 
         for (DataStoreDatabase db : myDatabases.values()) {
+          if (db.getWriteBehind() != null) {
+            getLogger().debug("Write-behind stats: " + db.getWriteBehind());
+          }
           try (
             Statement tableStatement = db.getConnection().createStatement();
             ResultSet tableResults = tableStatement.executeQuery("SELECT name FROM sqlite_master WHERE type='table'")) {
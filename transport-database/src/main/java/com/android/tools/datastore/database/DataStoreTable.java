@@ -20,14 +20,21 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Interface a {@link com.android.tools.datastore.ServicePassThrough} object returns to indicate this object is
@@ -39,8 +46,17 @@ public abstract class DataStoreTable<T extends Enum> {
   private Connection myConnection;
   private final ThreadLocal<Map<T, PreparedStatement>> myStatementMap = new ThreadLocal<>();
 
-  // Cache custom queries we have a limited number and we call the same query multiple times.
-  private final ThreadLocal<Map<String, PreparedStatement>> myCustomQueryCache = new ThreadLocal<>();
+  // Cache custom queries we call the same query multiple times. Tables creating tables at runtime may build many different queries, so
+  // only the most recently used statements are kept.
+  private static final int MAX_CACHED_CUSTOM_QUERIES = 64;
+  private final ThreadLocal<CustomQueryCache> myCustomQueryCache = new ThreadLocal<>();
+  // Incremented whenever a table is dropped, so that each thread closes the statements it cached for it.
+  private final AtomicInteger myDroppedTableCount = new AtomicInteger();
+
+  // Rows queued by executeWriteBehind, only set if the connection has a DataStoreWriteBehind stage.
+  @Nullable private DataStoreWriteBehind myWriteBehind;
+  @Nullable private BlockingQueue<PendingWrite> myPendingWrites;
+  private final Object myFlushLock = new Object();
 
   public interface DataStoreTableErrorCallback {
     void onDataStoreError(Throwable t);
@@ -53,6 +69,11 @@ public abstract class DataStoreTable<T extends Enum> {
    */
   public void initialize(@NotNull Connection connection) {
     myConnection = connection;
+    myWriteBehind = DataStoreWriteBehind.forConnection(connection);
+    if (myWriteBehind != null) {
+      myPendingWrites = new ArrayBlockingQueue<>(myWriteBehind.getConfig().myQueueCapacity);
+      myWriteBehind.register(this);
+    }
   }
 
   /**
@@ -125,6 +146,13 @@ public abstract class DataStoreTable<T extends Enum> {
     executeUniqueStatement(statement, indexList);
   }
 
+  protected void dropTable(@NotNull String table) throws SQLException {
+    // Queued rows may target the table being dropped.
+    flushPendingWrites();
+    myConnection.createStatement().execute(String.format("DROP TABLE IF EXISTS %s", table));
+    myDroppedTableCount.incrementAndGet();
+  }
+
   private void executeUniqueStatement(@NotNull StringBuilder statement, @NotNull String[] params) throws SQLException {
     myConnection.createStatement().execute(String.format("%s ( %s )", statement, String.join(",", params)));
   }
@@ -149,8 +177,18 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return;
     }
+    executeBatch(getStatementMap().get(statement), batchParams, paramConverter, null);
+  }
+
+  /**
+   * @param onUnchanged if not null, returns a callback to run for each object whose statement did not change any row, e.g. an
+   *                    "INSERT OR IGNORE" of a row that already exists.
+   */
+  private <K> void executeBatch(@NotNull PreparedStatement stmt,
+                                @NotNull List<K> batchParams,
+                                @NotNull Function<K, Object[]> paramConverter,
+                                @Nullable Function<K, Runnable> onUnchanged) {
     try {
-      PreparedStatement stmt = getStatementMap().get(statement);
       batchParams.forEach((object) -> {
         try {
           applyParams(stmt, paramConverter.apply(object));
@@ -164,17 +202,125 @@ public abstract class DataStoreTable<T extends Enum> {
         if (results[i] == Statement.EXECUTE_FAILED) {
           throw new SQLException(String.format("Failed to insert batch element %d with result %d", i, results[i]));
         }
+        if (results[i] == 0 && onUnchanged != null && results.length == batchParams.size()) {
+          Runnable callback = onUnchanged.apply(batchParams.get(i));
+          if (callback != null) {
+            callback.run();
+          }
+        }
       }
+      stmt.clearParameters();
     }
     catch (SQLException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * Same as {@link #execute(Enum, Object...)}, but if the connection has a {@link DataStoreWriteBehind} stage the row is queued and
+   * written later as part of a batch. Pending rows are always written before this table executes any other statement or query, so
+   * callers keep observing their own writes.
+   */
+  protected void executeWriteBehind(@NotNull T statement, Object... params) {
+    if (myPendingWrites == null) {
+      execute(statement, params);
+      return;
+    }
+    enqueueWrite(new PendingWrite(statement, null, params));
+  }
+
+  /**
+   * Same as {@link #executeWriteBehind(Enum, Object...)} for a statement that is not known when the table is prepared, e.g. one that
+   * targets a table created at runtime. The statement is cached the same way as {@link #executeOneTimeQuery(String, Object[])}.
+   */
+  protected void executeWriteBehind(@NotNull String sql, Object... params) {
+    if (myPendingWrites == null) {
+      executeOneTime(sql, params);
+      return;
+    }
+    enqueueWrite(new PendingWrite(sql, null, params));
+  }
+
+  /**
+   * Same as {@link #executeWriteBehind(String, Object...)}, and runs {@code onUnchanged} once the statement is executed if it did not
+   * change any row, e.g. an "INSERT OR IGNORE" of a row that already exists. This lets callers keep estimates of what they wrote
+   * up to date without waiting for the row to be written.
+   */
+  protected void executeWriteBehind(@NotNull String sql, @NotNull Runnable onUnchanged, Object... params) {
+    if (myPendingWrites == null) {
+      if (executeOneTimeUpdate(sql, params) == 0) {
+        onUnchanged.run();
+      }
+      return;
+    }
+    enqueueWrite(new PendingWrite(sql, onUnchanged, params));
+  }
+
+  private void enqueueWrite(@NotNull PendingWrite write) {
+    BlockingQueue<PendingWrite> pendingWrites = myPendingWrites;
+    assert pendingWrites != null && myWriteBehind != null;
+    if (isClosed()) {
+      return;
+    }
+    while (!pendingWrites.offer(write)) {
+      // The queue is full, so the producer pays for the flush. This applies backpressure to the pollers.
+      flushPendingWrites();
+    }
+    int depth = pendingWrites.size();
+    myWriteBehind.onQueueDepthChanged(depth);
+    if (depth >= myWriteBehind.getConfig().myBatchSize) {
+      flushPendingWrites();
+    }
+  }
+
+  /**
+   * Writes all rows queued by {@link #executeWriteBehind(Enum, Object...)}, coalescing consecutive rows of the same statement into a
+   * single JDBC batch.
+   */
+  void flushPendingWrites() {
+    BlockingQueue<PendingWrite> pendingWrites = myPendingWrites;
+    if (pendingWrites == null) {
+      return;
+    }
+    // Flushes are serialized so rows hit the database in the order they were queued. The queue is only checked once the lock is held:
+    // another thread may have drained it and still be writing those rows, and callers must not return before they are written.
+    synchronized (myFlushLock) {
+      if (pendingWrites.isEmpty()) {
+        return;
+      }
+      List<PendingWrite> writes = new ArrayList<>(pendingWrites.size());
+      pendingWrites.drainTo(writes);
+      if (writes.isEmpty() || isClosed()) {
+        return;
+      }
+      int runStart = 0;
+      for (int i = 1; i <= writes.size(); i++) {
+        Object runKey = writes.get(runStart).myKey;
+        if (i == writes.size() || !writes.get(i).myKey.equals(runKey)) {
+          try {
+            PreparedStatement stmt = runKey instanceof String ? getOneTimeStatement((String)runKey) : getStatementMap().get(runKey);
+            executeBatch(stmt, writes.subList(runStart, i), write -> write.myParams, write -> write.myOnUnchanged);
+            myWriteBehind.onBatchWritten(i - runStart);
+          }
+          catch (SQLException ex) {
+            onError(ex);
+          }
+          runStart = i;
+        }
+      }
+    }
+  }
+
+  int getPendingWriteCount() {
+    BlockingQueue<PendingWrite> pendingWrites = myPendingWrites;
+    return pendingWrites == null ? 0 : pendingWrites.size();
+  }
+
   protected void execute(@NotNull T statement, Object... params) {
     if (isClosed()) {
       return;
     }
+    flushPendingWrites();
     try {
       PreparedStatement stmt = getStatementMap().get(statement);
       applyParams(stmt, params);
@@ -192,6 +338,7 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return new EmptyResultSet();
     }
+    flushPendingWrites();
     PreparedStatement stmt = getStatementMap().get(statement);
     applyParams(stmt, params);
     return stmt.executeQuery();
@@ -201,24 +348,67 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return new EmptyResultSet();
     }
-    if (myCustomQueryCache.get() == null) {
-      myCustomQueryCache.set(new HashMap<>());
+    flushPendingWrites();
+    PreparedStatement statement = getOneTimeStatement(sql);
+    applyParams(statement, params);
+    return statement.executeQuery();
+  }
+
+  /**
+   * Executes a statement that is not known when the table is prepared, e.g. one that targets a table created at runtime.
+   */
+  protected void executeOneTime(@NotNull String sql, Object... params) {
+    executeOneTimeUpdate(sql, params);
+  }
+
+  /**
+   * @return the number of rows changed by the statement, or -1 if it failed or did not run.
+   */
+  private int executeOneTimeUpdate(@NotNull String sql, Object... params) {
+    if (isClosed()) {
+      return -1;
     }
+    flushPendingWrites();
+    try {
+      PreparedStatement statement = getOneTimeStatement(sql);
+      applyParams(statement, params);
+      statement.execute();
+      int updateCount = statement.getUpdateCount();
+      statement.clearParameters();
+      return updateCount;
+    }
+    catch (SQLException ex) {
+      onError(ex);
+      return -1;
+    }
+  }
 
-    Map<String, PreparedStatement> queryCache = myCustomQueryCache.get();
-    if (!queryCache.containsKey(sql)) {
-      queryCache.put(sql, myConnection.prepareStatement(sql));
+  @NotNull
+  private PreparedStatement getOneTimeStatement(@NotNull String sql) throws SQLException {
+    int droppedTableCount = myDroppedTableCount.get();
+    CustomQueryCache queryCache = myCustomQueryCache.get();
+    if (queryCache == null || queryCache.myDroppedTableCount != droppedTableCount) {
+      // Statements may target a dropped table. Tables are rarely dropped, so all statements of the thread are closed.
+      if (queryCache != null) {
+        queryCache.closeAll();
+      }
+      queryCache = new CustomQueryCache(droppedTableCount);
+      myCustomQueryCache.set(queryCache);
     }
 
     PreparedStatement statement = queryCache.get(sql);
-    applyParams(statement, params);
-    return statement.executeQuery();
+    if (statement == null) {
+      statement = myConnection.prepareStatement(sql);
+      queryCache.put(sql, statement);
+    }
+    return statement;
   }
 
   protected void applyParams(@NotNull PreparedStatement statement, Object... params) throws SQLException {
     for (int i = 0; params != null && i < params.length; i++) {
       if (params[i] == null) {
-        continue;
+        // Bound explicitly, as a statement reused in a batch would otherwise keep the value of the previous row.
+        statement.setNull(i + 1, Types.NULL);
       }
       else if (params[i] instanceof String) {
         statement.setString(i + 1, (String)params[i]);
@@ -241,4 +431,52 @@ public abstract class DataStoreTable<T extends Enum> {
       }
     }
   }
+
+  /**
+   * Least recently used statements of a thread, closed when evicted.
+   */
+  private static final class CustomQueryCache extends LinkedHashMap<String, PreparedStatement> {
+    private final int myDroppedTableCount;
+
+    private CustomQueryCache(int droppedTableCount) {
+      super(16, 0.75f, true);
+      myDroppedTableCount = droppedTableCount;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+      if (size() <= MAX_CACHED_CUSTOM_QUERIES) {
+        return false;
+      }
+      closeStatement(eldest.getValue());
+      return true;
+    }
+
+    private void closeAll() {
+      values().forEach(CustomQueryCache::closeStatement);
+      clear();
+    }
+
+    private static void closeStatement(@NotNull PreparedStatement statement) {
+      try {
+        statement.close();
+      }
+      catch (SQLException ex) {
+        onError(ex);
+      }
+    }
+  }
+
+  private static final class PendingWrite {
+    // Either a statement enum value or the sql of a one time statement.
+    @NotNull private final Object myKey;
+    @Nullable private final Runnable myOnUnchanged;
+    private final Object[] myParams;
+
+    private PendingWrite(@NotNull Object key, @Nullable Runnable onUnchanged, Object[] params) {
+      myKey = key;
+      myOnUnchanged = onUnchanged;
+      myParams = params;
+    }
+  }
 }
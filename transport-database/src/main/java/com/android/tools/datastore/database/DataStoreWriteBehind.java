@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Write-behind ingest stage for a single database {@link Connection}.
+ * <p>
+ * Tables initialized against a connection that has a write-behind stage queue their high volume inserts (see
+ * {@link DataStoreTable#executeWriteBehind}) into a bounded per-table queue instead of executing them one row at a time. Queued rows are
+ * coalesced into JDBC batches once a table has {@link Config#myBatchSize} pending rows, when the table is read from, or when the periodic
+ * flush runs. The underlying transaction is committed every {@link Config#myCommitIntervalMs} or once {@link Config#myCommitRowThreshold}
+ * rows have been written, whichever comes first.
+ * <p>
+ * When a table queue is full, the producing thread flushes it itself. This throttles the pollers to the speed of the database instead of
+ * letting the queue grow without bound.
+ */
+public final class DataStoreWriteBehind {
+  private static final Map<Connection, DataStoreWriteBehind> INSTANCES = new ConcurrentHashMap<>();
+
+  public static final class Config {
+    public static final Config DEFAULT = new Config(4096, 256, 8192, TimeUnit.SECONDS.toMillis(1));
+
+    public final int myQueueCapacity;
+    public final int myBatchSize;
+    public final int myCommitRowThreshold;
+    public final long myCommitIntervalMs;
+
+    public Config(int queueCapacity, int batchSize, int commitRowThreshold, long commitIntervalMs) {
+      assert queueCapacity > 0 && batchSize > 0 && batchSize <= queueCapacity;
+      myQueueCapacity = queueCapacity;
+      myBatchSize = batchSize;
+      myCommitRowThreshold = commitRowThreshold;
+      myCommitIntervalMs = commitIntervalMs;
+    }
+  }
+
+  @NotNull private final Connection myConnection;
+  @NotNull private final Config myConfig;
+  @NotNull private final Set<DataStoreTable<?>> myTables = ConcurrentHashMap.newKeySet();
+  @NotNull private final ScheduledExecutorService myCommitExecutor;
+  @NotNull private final Object myCommitLock = new Object();
+
+  private final AtomicLong myUncommittedRows = new AtomicLong();
+  private final AtomicLong myMaxQueueDepth = new AtomicLong();
+  private final AtomicLong myBatchCount = new AtomicLong();
+  private final AtomicLong myBatchedRowCount = new AtomicLong();
+  private final AtomicLong myMaxBatchSize = new AtomicLong();
+  private final AtomicLong myCommitCount = new AtomicLong();
+  private final AtomicLong myTotalCommitLatencyNs = new AtomicLong();
+  private final AtomicLong myMaxCommitLatencyNs = new AtomicLong();
+
+  private DataStoreWriteBehind(@NotNull Connection connection, @NotNull Config config) {
+    myConnection = connection;
+    myConfig = config;
+    myCommitExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "DataStoreWriteBehind");
+      thread.setDaemon(true);
+      return thread;
+    });
+    myCommitExecutor.scheduleWithFixedDelay(this::flushAndCommit, config.myCommitIntervalMs, config.myCommitIntervalMs,
+                                            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts a write-behind stage for the given connection. Every {@link DataStoreTable} initialized with this connection afterwards
+   * batches its inserts through the returned instance, until {@link #shutdown()} is called.
+   */
+  @NotNull
+  public static DataStoreWriteBehind start(@NotNull Connection connection, @NotNull Config config) {
+    DataStoreWriteBehind writeBehind = new DataStoreWriteBehind(connection, config);
+    DataStoreWriteBehind previous = INSTANCES.put(connection, writeBehind);
+    if (previous != null) {
+      previous.shutdown();
+    }
+    return writeBehind;
+  }
+
+  @Nullable
+  static DataStoreWriteBehind forConnection(@NotNull Connection connection) {
+    return INSTANCES.get(connection);
+  }
+
+  @NotNull
+  Config getConfig() {
+    return myConfig;
+  }
+
+  void register(@NotNull DataStoreTable<?> table) {
+    myTables.add(table);
+  }
+
+  /**
+   * Writes out every pending row of every table attached to this stage. Does not commit.
+   */
+  public void flushAll() {
+    for (DataStoreTable<?> table : myTables) {
+      table.flushPendingWrites();
+    }
+  }
+
+  /**
+   * Commits the current transaction if any rows have been written since the last commit.
+   */
+  public void commit() {
+    synchronized (myCommitLock) {
+      if (myUncommittedRows.get() == 0) {
+        return;
+      }
+      try {
+        if (myConnection.isClosed()) {
+          return;
+        }
+        long startNs = System.nanoTime();
+        myConnection.commit();
+        long latencyNs = System.nanoTime() - startNs;
+        myUncommittedRows.set(0);
+        myCommitCount.incrementAndGet();
+        myTotalCommitLatencyNs.addAndGet(latencyNs);
+        myMaxCommitLatencyNs.accumulateAndGet(latencyNs, Math::max);
+      }
+      catch (SQLException ex) {
+        DataStoreTable.onError(ex);
+      }
+    }
+  }
+
+  /**
+   * Stops the periodic commit and writes out all pending rows. The caller is responsible for the final commit and for closing the
+   * connection.
+   */
+  public void shutdown() {
+    INSTANCES.remove(myConnection, this);
+    myCommitExecutor.shutdownNow();
+    flushAll();
+    myTables.clear();
+  }
+
+  void onQueueDepthChanged(int tableDepth) {
+    myMaxQueueDepth.accumulateAndGet(tableDepth, Math::max);
+  }
+
+  void onBatchWritten(int rows) {
+    myBatchCount.incrementAndGet();
+    myBatchedRowCount.addAndGet(rows);
+    myMaxBatchSize.accumulateAndGet(rows, Math::max);
+    if (myUncommittedRows.addAndGet(rows) >= myConfig.myCommitRowThreshold) {
+      commit();
+    }
+  }
+
+  private void flushAndCommit() {
+    flushAll();
+    commit();
+  }
+
+  /**
+   * @return the number of rows currently waiting to be written, across all tables.
+   */
+  public int getQueueDepth() {
+    int depth = 0;
+    for (DataStoreTable<?> table : myTables) {
+      depth += table.getPendingWriteCount();
+    }
+    return depth;
+  }
+
+  /**
+   * @return the largest number of rows seen waiting in a single table queue.
+   */
+  public long getMaxQueueDepth() {
+    return myMaxQueueDepth.get();
+  }
+
+  public long getBatchCount() {
+    return myBatchCount.get();
+  }
+
+  public long getBatchedRowCount() {
+    return myBatchedRowCount.get();
+  }
+
+  public long getMaxBatchSize() {
+    return myMaxBatchSize.get();
+  }
+
+  public long getCommitCount() {
+    return myCommitCount.get();
+  }
+
+  public long getTotalCommitLatencyNs() {
+    return myTotalCommitLatencyNs.get();
+  }
+
+  public long getMaxCommitLatencyNs() {
+    return myMaxCommitLatencyNs.get();
+  }
+
+  @Override
+  public String toString() {
+    long batches = getBatchCount();
+    long commits = getCommitCount();
+    return String.format("queue depth %d (max %d), %d batches (avg %d rows, max %d), %d commits (avg %d us, max %d us)",
+                         getQueueDepth(), getMaxQueueDepth(),
+                         batches, batches == 0 ? 0 : getBatchedRowCount() / batches, getMaxBatchSize(),
+                         commits, commits == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getTotalCommitLatencyNs() / commits),
+                         TimeUnit.NANOSECONDS.toMicros(getMaxCommitLatencyNs()));
+  }
+}
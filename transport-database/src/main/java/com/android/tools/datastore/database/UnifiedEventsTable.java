@@ -22,29 +22,41 @@ import com.android.tools.profiler.proto.Transport.BytesResponse;
 import com.android.tools.profiler.proto.Transport.EventGroup;
 import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * Stores {@link Event}s in time partitioned tables. Each partition holds the events whose timestamp falls in one
+ * {@link PartitionConfig#myBucketDurationNs} wide bucket, so range queries only touch the partitions that overlap the range and dropping
+ * old data is a matter of dropping whole tables.
+ * <p>
+ * Every partition also has a carry-over table holding, for each (Kind, StreamId, ProcessId, GroupId, CommandId), the latest event that
+ * precedes the partition. This lets {@link #queryUnifiedEventGroups} find the event before the requested range by looking at a single
+ * partition, and keeps that event available after the partitions it was inserted into have been evicted.
+ */
 public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statements> {
   public enum Statements {
-    // Since no data should be updated after it has been inserted we drop any duplicated request from the poller.
-    INSERT_EVENT(
-      "INSERT OR IGNORE INTO [UnifiedEventsTable] (StreamId, ProcessId, GroupId, Kind, CommandId, Timestamp, IsEnded, Data) " +
-      "VALUES (?, ?, ?, ?, ?, ?, ?, ?)"),
-    DELETE_EVENTS(
-      "DELETE FROM [UnifiedEventsTable] " +
-      "WHERE StreamId = ? AND ProcessId = ? And GroupId = ? And Kind = ? AND Timestamp >= ? AND Timestamp <= ?"),
-    // Only used for test.
-    QUERY_EVENTS("SELECT Data FROM [UnifiedEventsTable]"),
+    INSERT_PARTITION("INSERT OR IGNORE INTO [UnifiedEventsPartitions] (Bucket) VALUES (?)"),
+    DELETE_PARTITION("DELETE FROM [UnifiedEventsPartitions] WHERE Bucket = ?"),
+    QUERY_PARTITIONS("SELECT Bucket FROM [UnifiedEventsPartitions] ORDER BY Bucket"),
     INSERT_BYTES("INSERT OR IGNORE INTO [BytesTable] (StreamId, Id, Data) VALUES (?, ?, ?)"),
     GET_BYTES("SELECT Data FROM [BytesTable] WHERE StreamId = ? AND Id = ?");
 
@@ -60,6 +72,101 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     }
   }
 
+  /**
+   * Controls how events are partitioned and how much history is kept.
+   */
+  public static final class PartitionConfig {
+    /**
+     * Default for {@link #myMaxPartitions}. A query reads up to one table per partition, and SQLite limits the number of terms and
+     * parameters of a statement, so the number of partitions is bounded even when neither retention nor a disk budget is set.
+     */
+    public static final int DEFAULT_MAX_PARTITIONS = 100;
+    public static final PartitionConfig DEFAULT = new PartitionConfig(TimeUnit.MINUTES.toNanos(5), Long.MAX_VALUE, Long.MAX_VALUE);
+    /**
+     * Keeps all events in a single partition, like before events were partitioned.
+     */
+    public static final PartitionConfig UNPARTITIONED = new PartitionConfig(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /**
+     * Width of the time bucket each partition covers.
+     */
+    public final long myBucketDurationNs;
+    /**
+     * Partitions that end more than this long before the latest event are dropped.
+     */
+    public final long myRetentionNs;
+    /**
+     * Oldest partitions are dropped while the estimated size of all partitions exceeds this budget.
+     */
+    public final long myDiskBudgetBytes;
+    /**
+     * Oldest partitions are dropped while there are more than this many partitions.
+     */
+    public final int myMaxPartitions;
+
+    public PartitionConfig(long bucketDurationNs, long retentionNs, long diskBudgetBytes) {
+      this(bucketDurationNs, retentionNs, diskBudgetBytes, DEFAULT_MAX_PARTITIONS);
+    }
+
+    public PartitionConfig(long bucketDurationNs, long retentionNs, long diskBudgetBytes, int maxPartitions) {
+      assert bucketDurationNs > 0;
+      assert maxPartitions > 0;
+      myBucketDurationNs = bucketDurationNs;
+      myRetentionNs = retentionNs;
+      myDiskBudgetBytes = diskBudgetBytes;
+      myMaxPartitions = maxPartitions;
+    }
+  }
+
+  private static final String EVENT_COLUMNS = "StreamId, ProcessId, GroupId, Kind, CommandId, Timestamp, IsEnded, Data";
+  // Rough per row cost of the indexed columns, added to the size of the event blob when estimating the size of a partition.
+  private static final int ROW_OVERHEAD_BYTES = 64;
+
+  // Optional filters of a GetEventGroupsRequest, used to identify the shape of a query.
+  private static final int FILTER_STREAM = 1;
+  private static final int FILTER_PROCESS = 1 << 1;
+  private static final int FILTER_GROUP = 1 << 2;
+  private static final int FILTER_COMMAND = 1 << 3;
+  // Value of the Part column of queryUnifiedEventGroups results.
+  private static final int PART_BEFORE = 0;
+  private static final int PART_IN_RANGE = 1;
+  private static final int PART_AFTER = 2;
+  private static final int MAX_CACHED_QUERY_SHAPES = 256;
+  // SQLite allows 500 terms per compound SELECT and 999 parameters per statement by default. Requests that would read more partitions
+  // than fit in one statement are queried a chunk of partitions at a time.
+  private static final int MAX_QUERY_TERMS = 400;
+  private static final int MAX_QUERY_PARAMS = 900;
+  private static final int MAX_CACHED_EVENTS = 16384;
+
+  @NotNull private final PartitionConfig myConfig;
+  // The [UnifiedEventsPartitions] table is the source of truth for which partitions exist. This map only tracks their in-memory state.
+  @NotNull private final ConcurrentSkipListMap<Long, Partition> myPartitions = new ConcurrentSkipListMap<>();
+  @NotNull private final Object myPartitionLock = new Object();
+  @NotNull private final AtomicLong myTotalBytes = new AtomicLong();
+  @NotNull private final AtomicLong myLatestTimestamp = new AtomicLong(Long.MIN_VALUE);
+  // The partitions listed in [UnifiedEventsPartitions], ordered by bucket. Reset when a partition is created or dropped.
+  @Nullable private volatile List<Partition> myPartitionList;
+  // Events older than this bucket have been evicted and are not accepted anymore.
+  private volatile long myFirstRetainedBucket = Long.MIN_VALUE;
+  // SQL of queryUnifiedEventGroups for each combination of filters and partitions seen. The prepared statements themselves are cached by
+  // executeOneTimeQuery.
+  @NotNull private final Map<QueryShape, String> myQueryShapes = new ConcurrentHashMap<>();
+  // Events parsed by queryUnifiedEventGroups, keyed by the partition and row they were read from.
+  @NotNull private final Map<RowKey, Event> myEventCache = new LinkedHashMap<RowKey, Event>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<RowKey, Event> eldest) {
+      return size() > MAX_CACHED_EVENTS;
+    }
+  };
+
+  public UnifiedEventsTable() {
+    this(PartitionConfig.DEFAULT);
+  }
+
+  public UnifiedEventsTable(@NotNull PartitionConfig config) {
+    myConfig = config;
+  }
+
   @Override
   public void prepareStatements() {
     try {
@@ -75,18 +182,17 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
+    myPartitions.clear();
+    myTotalBytes.set(0);
+    myLatestTimestamp.set(Long.MIN_VALUE);
+    myFirstRetainedBucket = Long.MIN_VALUE;
+    myPartitionList = null;
+    myQueryShapes.clear();
+    clearEventCache();
     try {
-      createTable("UnifiedEventsTable",
-                  "StreamId INTEGER NOT NULL", // Optional filter, required for all data.
-                  "ProcessId INTEGER NOT NULL", // Optional filter, not required for data (eg device/process).
-                  "GroupId INTEGER NOT NULL", // Optional filter, not required for data.
-                  "Kind INTEGER NOT NULL", // Required filter, required for all data.
-                  "CommandId INTEGER NOT NULL", // Optional filter, not required for data.
-                  "Timestamp INTEGER NOT NULL", // Optional filter, required for all data.
-                  "IsEnded INTEGER NOT NULL", // Optional filter, required for all data.
-                  "Data BLOB");
+      createTable("UnifiedEventsPartitions", "Bucket INTEGER NOT NULL");
       createTable("BytesTable", "StreamId INTEGER NOT NULL", "Id STRING NOT NULL", "Data BLOB");
-      createUniqueIndex("UnifiedEventsTable", "Kind", "StreamId", "ProcessId", "GroupId", "Timestamp", "IsEnded");
+      createUniqueIndex("UnifiedEventsPartitions", "Bucket");
       createUniqueIndex("BytesTable", "StreamId", "Id");
     }
     catch (SQLException ex) {
@@ -95,24 +201,70 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   }
 
   public void insertUnifiedEvent(long streamId, @NotNull Event event) {
-    execute(Statements.INSERT_EVENT,
-            streamId,
-            event.getPid(),
-            event.getGroupId(),
-            event.getKind().getNumber(),
-            event.getCommandId(),
-            event.getTimestamp(),
-            event.getIsEnded() ? 1 : 0,
-            event.toByteArray());
+    if (isClosed()) {
+      return;
+    }
+    long bucket = getBucket(event.getTimestamp());
+    Partition partition = getOrCreatePartition(bucket);
+    if (partition == null) {
+      return;
+    }
+    byte[] data = event.toByteArray();
+    long rowBytes = data.length + ROW_OVERHEAD_BYTES;
+    // The row is counted right away so that the disk budget is enforced while rows are queued, and uncounted once written if it turns
+    // out to be a duplicate dropped by "INSERT OR IGNORE".
+    executeWriteBehind(partition.myInsertSql,
+                       () -> {
+                         if (myPartitions.get(bucket) == partition) {
+                           partition.myBytes.addAndGet(-rowBytes);
+                           myTotalBytes.addAndGet(-rowBytes);
+                         }
+                       },
+                       streamId,
+                       event.getPid(),
+                       event.getGroupId(),
+                       event.getKind().getNumber(),
+                       event.getCommandId(),
+                       event.getTimestamp(),
+                       event.getIsEnded() ? 1 : 0,
+                       data);
+    // An event arriving late invalidates the carry-over of every partition after it.
+    markCarryOverStaleAfter(bucket);
+    partition.myBytes.addAndGet(rowBytes);
+    myTotalBytes.addAndGet(rowBytes);
+    myLatestTimestamp.accumulateAndGet(event.getTimestamp(), Math::max);
+    if (shouldEvictOldestPartition()) {
+      evictPartitions();
+    }
   }
 
   public void deleteEvents(long streamId, int pid, long groupId, Event.Kind kind, long fromTimestamp, long toTimestamp) {
-    execute(Statements.DELETE_EVENTS, streamId, pid, groupId, kind.getNumber(), fromTimestamp, toTimestamp);
+    List<Partition> partitions = getPartitions(getBucket(fromTimestamp), getBucket(toTimestamp));
+    for (Partition partition : partitions) {
+      executeOneTime(partition.myDeleteSql, streamId, pid, groupId, kind.getNumber(), fromTimestamp, toTimestamp);
+    }
+    if (!partitions.isEmpty()) {
+      markCarryOverStaleAfter(partitions.get(0).myBucket);
+      // Row ids may be reused once deleted.
+      clearEventCache();
+    }
   }
 
   @VisibleForTesting
   public List<Event> queryUnifiedEvents() {
-    return queryUnifiedEvents(Statements.QUERY_EVENTS);
+    List<Event> records = new ArrayList<>();
+    for (Partition partition : getPartitions(Long.MIN_VALUE, Long.MAX_VALUE)) {
+      try {
+        ResultSet results = executeOneTimeQuery(partition.myQuerySql, new Object[0]);
+        while (results.next()) {
+          records.add(Event.parser().parseFrom(results.getBytes(1)));
+        }
+      }
+      catch (SQLException | InvalidProtocolBufferException ex) {
+        onError(ex);
+      }
+    }
+    return records;
   }
 
   /**
@@ -154,93 +306,169 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
    * @param request
    */
   public List<EventGroup> queryUnifiedEventGroups(@NotNull GetEventGroupsRequest request) {
-    ArrayList<Object> baseParams = new ArrayList<>();
-    List<Object> beforeRangeParams = null;
-    List<Object> afterRangeParams = null;
-
-    HashMap<Long, EventGroup.Builder> builderGroups = new HashMap<>();
-    // The string format allows for altering the group by results for +1 and -1 queries.
-    String sql = "SELECT Data, GroupId%s From [UnifiedEventsTable] WHERE Kind = ? %s";
-    StringBuilder filter = new StringBuilder();
-    baseParams.add(request.getKind().getNumber());
-
-    if (request.getStreamId() != 0) {
-      filter.append(" AND StreamId = ?");
-      baseParams.add(request.getStreamId());
+    List<Partition> partitions = getPartitions(Long.MIN_VALUE, Long.MAX_VALUE);
+    if (partitions.isEmpty()) {
+      return new ArrayList<>();
     }
 
-    if (request.getPid() != 0) {
-      filter.append(" AND ProcessId = ?");
-      baseParams.add(request.getPid());
-    }
+    boolean hasFrom = request.getFromTimestamp() > 0;
+    boolean hasTo = request.getToTimestamp() > 0 && request.getToTimestamp() != Long.MAX_VALUE;
+    long fromBucket = hasFrom ? getBucket(request.getFromTimestamp()) : Long.MIN_VALUE;
+    long toBucket = hasTo ? getBucket(request.getToTimestamp()) : Long.MAX_VALUE;
 
-    if (request.getGroupId() != 0) {
-      filter.append(" AND GroupId = ?");
-      baseParams.add(request.getGroupId());
+    // The latest event before the range is in the partition containing the timestamp right before the range, or in that partition's
+    // carry-over table. Carry-over tables are only rebuilt when inserting, so if it is stale the partitions before it are read as well,
+    // back to the latest one with an up to date carry-over.
+    List<Partition> beforePartitions = new ArrayList<>();
+    if (hasFrom) {
+      int beforeIndex = findPartitionAtOrBefore(partitions, getBucket(request.getFromTimestamp() - 1));
+      int carryOverIndex = beforeIndex;
+      while (carryOverIndex > 0 && !partitions.get(carryOverIndex).isCarryOverFresh()) {
+        carryOverIndex--;
+      }
+      beforePartitions = partitions.subList(carryOverIndex, beforeIndex + 1);
     }
-
-    if (request.getCommandId() != 0) {
-      filter.append(" AND CommandId = ?");
-      baseParams.add(request.getCommandId());
+    List<Partition> inRangePartitions = new ArrayList<>();
+    List<Partition> afterPartitions = new ArrayList<>();
+    for (Partition partition : partitions) {
+      if (partition.myBucket >= fromBucket && partition.myBucket <= toBucket) {
+        inRangePartitions.add(partition);
+      }
+      if (hasTo && partition.myBucket >= toBucket) {
+        afterPartitions.add(partition);
+      }
     }
 
-    String sqlBefore =
-      String.format(sql, ", IsEnded, MAX(Timestamp), MAX(ROWID)", filter.toString() + " AND Timestamp < ? GROUP BY GroupId");
-    String sqlAfter = String.format(sql, ", MIN(Timestamp), MIN(ROWID)", filter.toString() + " AND Timestamp > ? GROUP BY GroupId");
-    ArrayList<Object> inRangeQueryParams = new ArrayList<>(baseParams);
-    if (request.getFromTimestamp() > 0) {
-      beforeRangeParams = new ArrayList<>(baseParams);
-      beforeRangeParams.add(request.getFromTimestamp());
-      filter.append(" AND Timestamp >= ?");
-      inRangeQueryParams.add(request.getFromTimestamp());
+    int filterMask = (request.getStreamId() != 0 ? FILTER_STREAM : 0) |
+                     (request.getPid() != 0 ? FILTER_PROCESS : 0) |
+                     (request.getGroupId() != 0 ? FILTER_GROUP : 0) |
+                     (request.getCommandId() != 0 ? FILTER_COMMAND : 0);
+    QueryShape shape = new QueryShape(filterMask, hasFrom, hasTo, beforePartitions, inRangePartitions, afterPartitions);
+    if (!shape.fitsInOneStatement()) {
+      return queryUnifiedEventGroupsInChunks(request, filterMask, hasFrom, hasTo, beforePartitions, inRangePartitions, afterPartitions);
     }
-
-    if (request.getToTimestamp() > 0 && request.getToTimestamp() != Long.MAX_VALUE) {
-      afterRangeParams = new ArrayList<>(baseParams);
-      afterRangeParams.add(request.getToTimestamp());
-      filter.append(" AND Timestamp <= ?");
-      inRangeQueryParams.add(request.getToTimestamp());
+    String sql = getSql(shape, beforePartitions, inRangePartitions, afterPartitions);
+    if (sql.isEmpty()) {
+      return new ArrayList<>();
     }
 
-    // Gather before range events if needed.
-    // Query before example:
-    // SELECT [Data], [GroupId], [IsEnded], MAX(Timestamp), MAX(ROWID) From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp < ?
-    // GROUP BY GroupId;
-    if (beforeRangeParams != null) {
-      gatherEvents(sqlBefore, beforeRangeParams, builderGroups, resultSet -> {
-        try {
-          return !resultSet.getBoolean("IsEnded");
+    HashMap<Long, EventGroup.Builder> builderGroups = new HashMap<>();
+    try {
+      ResultSet results = executeOneTimeQuery(sql, shape.buildParams(request));
+      while (results.next()) {
+        int part = results.getInt(1);
+        long groupId = results.getLong(2);
+        // Groups whose last event before the range ended are not returned, and the event after the range is only returned for groups
+        // that have an event before or in the range. Rows are ordered by part, so all such groups are known by the time we get there.
+        if ((part == PART_BEFORE && results.getBoolean(3)) || (part == PART_AFTER && !builderGroups.containsKey(groupId))) {
+          continue;
         }
-        catch (SQLException e) {
-          onError(e);
+        EventGroup.Builder group = builderGroups.get(groupId);
+        if (group == null) {
+          group = EventGroup.newBuilder().setGroupId(groupId);
+          builderGroups.put(groupId, group);
         }
-        return false;
-      });
+        group.addEvents(getOrParseEvent(results));
+      }
+    }
+    catch (SQLException | InvalidProtocolBufferException ex) {
+      onError(ex);
     }
 
-    // Query example:
-    // SELECT [Data], [GroupId] From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp >= ? AND Timestamp <= ?;
-    String query = String.format(sql, "", filter.toString());
-    gatherEvents(query, inRangeQueryParams, builderGroups, Predicates.alwaysTrue());
+    return builderGroups.values().stream().map(EventGroup.Builder::build).collect(Collectors.toList());
+  }
 
-    // Gather after range events if needed.
-    // Query after example:
-    // SELECT [Data], [GroupId], MIN(Timestamp), MIN(ROWID) From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp > ? GROUP BY GroupId;
-    if (afterRangeParams != null) {
-      gatherEvents(sqlAfter, afterRangeParams, builderGroups, resultSet -> {
-        try {
-          return builderGroups.containsKey(resultSet.getLong("GroupId"));
-        }
-        catch (SQLException e) {
-          onError(e);
-        }
-        return false;
-      });
+  /**
+   * Answers {@link #queryUnifiedEventGroups} for requests that read too many partitions for a single statement. Each part of the query is
+   * run a chunk of partitions at a time, and the latest event before and the first event after the range are picked across chunks.
+   */
+  @NotNull
+  private List<EventGroup> queryUnifiedEventGroupsInChunks(@NotNull GetEventGroupsRequest request,
+                                                           int filterMask,
+                                                           boolean hasFrom,
+                                                           boolean hasTo,
+                                                           @NotNull List<Partition> beforePartitions,
+                                                           @NotNull List<Partition> inRangePartitions,
+                                                           @NotNull List<Partition> afterPartitions) {
+    // Every partition read adds a term, plus the carry-over table of the first partition before the range.
+    int paramsPerTerm = 3 + Integer.bitCount(filterMask);
+    int chunkSize = Math.max(1, Math.min(MAX_QUERY_TERMS, MAX_QUERY_PARAMS / paramsPerTerm) - 1);
+    List<Partition> none = Collections.emptyList();
+
+    Map<Long, EventRow> beforeRows = new HashMap<>();
+    for (List<Partition> chunk : Lists.partition(beforePartitions, chunkSize)) {
+      for (EventRow row : queryRows(request, new QueryShape(filterMask, hasFrom, hasTo, chunk, none, none), chunk, none, none)) {
+        beforeRows.merge(row.myGroupId, row, (current, other) -> other.myTimestamp > current.myTimestamp ? other : current);
+      }
+    }
+    List<EventRow> inRangeRows = new ArrayList<>();
+    for (List<Partition> chunk : Lists.partition(inRangePartitions, chunkSize)) {
+      inRangeRows.addAll(queryRows(request, new QueryShape(filterMask, hasFrom, hasTo, none, chunk, none), none, chunk, none));
+    }
+    Map<Long, EventRow> afterRows = new HashMap<>();
+    for (List<Partition> chunk : Lists.partition(afterPartitions, chunkSize)) {
+      for (EventRow row : queryRows(request, new QueryShape(filterMask, hasFrom, hasTo, none, none, chunk), none, none, chunk)) {
+        afterRows.merge(row.myGroupId, row, (current, other) -> other.myTimestamp < current.myTimestamp ? other : current);
+      }
     }
 
+    // Same filtering and order as the single statement, see queryUnifiedEventGroups.
+    Comparator<EventRow> byTimestamp = Comparator.comparingLong(row -> row.myTimestamp);
+    HashMap<Long, EventGroup.Builder> builderGroups = new HashMap<>();
+    beforeRows.values().stream().filter(row -> !row.myIsEnded).sorted(byTimestamp).forEachOrdered(row -> addEvent(builderGroups, row));
+    inRangeRows.sort(byTimestamp);
+    inRangeRows.forEach(row -> addEvent(builderGroups, row));
+    afterRows.values().stream().filter(row -> builderGroups.containsKey(row.myGroupId)).sorted(byTimestamp)
+      .forEachOrdered(row -> addEvent(builderGroups, row));
     return builderGroups.values().stream().map(EventGroup.Builder::build).collect(Collectors.toList());
   }
 
+  @NotNull
+  private List<EventRow> queryRows(@NotNull GetEventGroupsRequest request,
+                                   @NotNull QueryShape shape,
+                                   @NotNull List<Partition> beforePartitions,
+                                   @NotNull List<Partition> inRangePartitions,
+                                   @NotNull List<Partition> afterPartitions) {
+    List<EventRow> rows = new ArrayList<>();
+    String sql = getSql(shape, beforePartitions, inRangePartitions, afterPartitions);
+    if (sql.isEmpty()) {
+      return rows;
+    }
+    try {
+      ResultSet results = executeOneTimeQuery(sql, shape.buildParams(request));
+      while (results.next()) {
+        rows.add(new EventRow(results.getLong(2), results.getBoolean(3), results.getLong(7), getOrParseEvent(results)));
+      }
+    }
+    catch (SQLException | InvalidProtocolBufferException ex) {
+      onError(ex);
+    }
+    return rows;
+  }
+
+  private static void addEvent(@NotNull Map<Long, EventGroup.Builder> builderGroups, @NotNull EventRow row) {
+    builderGroups.computeIfAbsent(row.myGroupId, groupId -> EventGroup.newBuilder().setGroupId(groupId)).addEvents(row.myEvent);
+  }
+
+  /**
+   * @return the SQL of the given query shape, built once per shape.
+   */
+  @NotNull
+  private String getSql(@NotNull QueryShape shape,
+                        @NotNull List<Partition> beforePartitions,
+                        @NotNull List<Partition> inRangePartitions,
+                        @NotNull List<Partition> afterPartitions) {
+    String sql = myQueryShapes.get(shape);
+    if (sql == null) {
+      if (myQueryShapes.size() >= MAX_CACHED_QUERY_SHAPES) {
+        myQueryShapes.clear();
+      }
+      sql = shape.buildSql(beforePartitions, inRangePartitions, afterPartitions);
+      myQueryShapes.put(shape, sql);
+    }
+    return sql;
+  }
+
   public void insertBytes(long streamId, @NotNull String id, @NotNull BytesResponse response) {
     execute(Statements.INSERT_BYTES, streamId, id, response.toByteArray());
   }
@@ -261,45 +489,472 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   }
 
   /**
-   * Executes the sql statement and passes each event through the filter. If the filter returns true, the event is added
-   * to the hashmap. Otherwise it is ignored.
-   *
-   * @param sql           Statement to execute and gather a list of events
-   * @param params        List of params to pass to the sql statement.
-   * @param builderGroups map of event group ids to event groups used to collect events into respective groups.
-   * @param filter        predicate to determine which events are included in the event group.
+   * Returns the event of the current row, reusing the instance parsed by a previous query when the row comes from a partition table.
+   * Consecutive queries of a panning or zooming timeline mostly overlap, so most rows do not need to be parsed again.
    */
-  private void gatherEvents(String sql,
-                            List<Object> params,
-                            HashMap<Long, EventGroup.Builder> builderGroups,
-                            Predicate<ResultSet> filter) {
-    try {
-      ResultSet results = executeOneTimeQuery(sql, params.toArray());
-      while (results.next()) {
-        Long groupId = results.getLong("GroupId");
-        if (filter.test(results)) {
-          EventGroup.Builder group =
-            builderGroups.computeIfAbsent(groupId, EventGroup.newBuilder()::setGroupId);
-          group.addEvents(Event.parser().parseFrom(results.getBytes("Data")));
+  @NotNull
+  private Event getOrParseEvent(@NotNull ResultSet results) throws SQLException, InvalidProtocolBufferException {
+    long rowId = results.getLong(5);
+    if (results.wasNull()) {
+      // Rows of carry-over tables are rebuilt over time and have no stable identity.
+      return Event.parser().parseFrom(results.getBytes(6));
+    }
+    RowKey key = new RowKey(results.getLong(4), rowId);
+    synchronized (myEventCache) {
+      Event event = myEventCache.get(key);
+      if (event != null) {
+        return event;
+      }
+    }
+    Event event = Event.parser().parseFrom(results.getBytes(6));
+    synchronized (myEventCache) {
+      myEventCache.put(key, event);
+    }
+    return event;
+  }
+
+  private void clearEventCache() {
+    synchronized (myEventCache) {
+      myEventCache.clear();
+    }
+  }
+
+  private long getBucket(long timestamp) {
+    return Math.floorDiv(timestamp, myConfig.myBucketDurationNs);
+  }
+
+  @Nullable
+  private Partition getOrCreatePartition(long bucket) {
+    Partition partition = myPartitions.get(bucket);
+    if (partition != null) {
+      return partition;
+    }
+    synchronized (myPartitionLock) {
+      partition = myPartitions.get(bucket);
+      if (partition != null || bucket < myFirstRetainedBucket) {
+        return partition;
+      }
+      partition = new Partition(bucket);
+      try {
+        createTable(partition.myEventsTable,
+                    "StreamId INTEGER NOT NULL", // Optional filter, required for all data.
+                    "ProcessId INTEGER NOT NULL", // Optional filter, not required for data (eg device/process).
+                    "GroupId INTEGER NOT NULL", // Optional filter, not required for data.
+                    "Kind INTEGER NOT NULL", // Required filter, required for all data.
+                    "CommandId INTEGER NOT NULL", // Optional filter, not required for data.
+                    "Timestamp INTEGER NOT NULL", // Optional filter, required for all data.
+                    "IsEnded INTEGER NOT NULL", // Optional filter, required for all data.
+                    "Data BLOB");
+        createUniqueIndex(partition.myEventsTable, "Kind", "StreamId", "ProcessId", "GroupId", "Timestamp", "IsEnded");
+        createTable(partition.myCarryTable,
+                    "StreamId INTEGER NOT NULL",
+                    "ProcessId INTEGER NOT NULL",
+                    "GroupId INTEGER NOT NULL",
+                    "Kind INTEGER NOT NULL",
+                    "CommandId INTEGER NOT NULL",
+                    "Timestamp INTEGER NOT NULL",
+                    "IsEnded INTEGER NOT NULL",
+                    "Data BLOB");
+      }
+      catch (SQLException ex) {
+        onError(ex);
+        return null;
+      }
+      execute(Statements.INSERT_PARTITION, bucket);
+      myPartitions.put(bucket, partition);
+      myPartitionList = null;
+      // The new partition may sit between existing ones.
+      markCarryOverStaleAfter(bucket);
+      // Partitions are created as time moves on, which is when the carry-over of the previous ones stops changing. Rebuilding them here
+      // keeps that work out of queries, and takes care of the partitions made stale by late events since.
+      refreshCarryOver(myPartitions.lastEntry().getValue());
+      return partition;
+    }
+  }
+
+  /**
+   * @return the partitions whose bucket is in [fromBucket, toBucket], ordered by bucket.
+   */
+  @NotNull
+  private List<Partition> getPartitions(long fromBucket, long toBucket) {
+    List<Partition> partitions = myPartitionList;
+    if (partitions == null) {
+      synchronized (myPartitionLock) {
+        partitions = myPartitionList;
+        if (partitions == null) {
+          partitions = loadPartitions();
         }
       }
     }
-    catch (SQLException | InvalidProtocolBufferException ex) {
-      onError(ex);
+    if (fromBucket == Long.MIN_VALUE && toBucket == Long.MAX_VALUE) {
+      return partitions;
+    }
+    List<Partition> result = new ArrayList<>();
+    for (Partition partition : partitions) {
+      if (partition.myBucket >= fromBucket && partition.myBucket <= toBucket) {
+        result.add(partition);
+      }
     }
+    return result;
   }
 
-  private List<Event> queryUnifiedEvents(Statements stmt, Object... args) {
-    List<Event> records = new ArrayList<>();
+  /**
+   * Reads the list of partitions from the database, and caches it unless the database could not be read. Must hold myPartitionLock.
+   */
+  @NotNull
+  private List<Partition> loadPartitions() {
+    List<Partition> partitions = new ArrayList<>();
     try {
-      ResultSet results = executeQuery(stmt, args);
+      ResultSet results = executeQuery(Statements.QUERY_PARTITIONS);
       while (results.next()) {
-        records.add(Event.parser().parseFrom(results.getBytes(1)));
+        Partition partition = myPartitions.get(results.getLong(1));
+        if (partition != null) {
+          partitions.add(partition);
+        }
       }
     }
-    catch (SQLException | InvalidProtocolBufferException ex) {
+    catch (SQLException ex) {
       onError(ex);
+      return partitions;
+    }
+    partitions = Collections.unmodifiableList(partitions);
+    myPartitionList = partitions;
+    return partitions;
+  }
+
+  /**
+   * @return the index of the last partition at or before the given bucket. If there is none, the first partition is returned instead, as
+   * its carry-over table may still hold events from evicted partitions.
+   */
+  private static int findPartitionAtOrBefore(@NotNull List<Partition> partitions, long bucket) {
+    int result = 0;
+    for (int i = 0; i < partitions.size() && partitions.get(i).myBucket <= bucket; i++) {
+      result = i;
+    }
+    return result;
+  }
+
+  private void markCarryOverStaleAfter(long bucket) {
+    for (Partition partition : myPartitions.tailMap(bucket, false).values()) {
+      partition.myChangeCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Rebuilds the carry-over table of the given partition, and of any stale partition before it, from the previous partition's events and
+   * carry-over. Only called when inserting or evicting, never by queries.
+   */
+  private void refreshCarryOver(@NotNull Partition target) {
+    if (target.isCarryOverFresh()) {
+      return;
+    }
+    synchronized (myPartitionLock) {
+      Partition previous = null;
+      for (Partition partition : myPartitions.headMap(target.myBucket, true).values()) {
+        // Read before rebuilding, so an event inserted concurrently leaves the partition stale.
+        long changeCount = partition.myChangeCount.get();
+        // The first partition has nothing to carry over, or keeps what it inherited from evicted partitions.
+        if (previous != null && !partition.isCarryOverFresh()) {
+          executeOneTime(partition.myClearCarrySql);
+          executeOneTime(String.format("INSERT INTO [%s] SELECT StreamId, ProcessId, GroupId, Kind, CommandId, MAX(Timestamp), IsEnded, Data " +
+                                       "FROM (SELECT * FROM [%s] UNION ALL SELECT * FROM [%s]) GROUP BY Kind, StreamId, ProcessId, GroupId, CommandId",
+                                       partition.myCarryTable, previous.myCarryTable, previous.myEventsTable));
+        }
+        // Queries skip the carry-over table of a stale partition, including while it is being rebuilt.
+        partition.myCarryOverVersion = changeCount;
+        previous = partition;
+      }
+    }
+  }
+
+  private boolean shouldEvictOldestPartition() {
+    if (myPartitions.size() <= 1) {
+      return false;
+    }
+    if (myTotalBytes.get() > myConfig.myDiskBudgetBytes || myPartitions.size() > myConfig.myMaxPartitions) {
+      return true;
+    }
+    long oldestEndNs = (myPartitions.firstKey() + 1) * myConfig.myBucketDurationNs;
+    return myConfig.myRetentionNs != Long.MAX_VALUE && oldestEndNs < myLatestTimestamp.get() - myConfig.myRetentionNs;
+  }
+
+  /**
+   * Drops the oldest partitions while they are past the retention period, or the disk budget or the maximum number of partitions is
+   * exceeded. The latest partition is always kept.
+   */
+  private void evictPartitions() {
+    synchronized (myPartitionLock) {
+      while (shouldEvictOldestPartition()) {
+        Partition oldest = myPartitions.firstEntry().getValue();
+        // Carry the latest event of each group over before the partition goes away.
+        Partition next = myPartitions.higherEntry(oldest.myBucket).getValue();
+        refreshCarryOver(next);
+        try {
+          dropTable(oldest.myEventsTable);
+          dropTable(oldest.myCarryTable);
+        }
+        catch (SQLException ex) {
+          onError(ex);
+          return;
+        }
+        execute(Statements.DELETE_PARTITION, oldest.myBucket);
+        myPartitions.remove(oldest.myBucket);
+        myPartitionList = null;
+        myTotalBytes.addAndGet(-oldest.myBytes.get());
+        myFirstRetainedBucket = next.myBucket;
+        myQueryShapes.clear();
+        clearEventCache();
+      }
+    }
+  }
+
+  private static final class Partition {
+    private final long myBucket;
+    @NotNull private final String myEventsTable;
+    @NotNull private final String myCarryTable;
+    @NotNull private final String myInsertSql;
+    @NotNull private final String myDeleteSql;
+    @NotNull private final String myQuerySql;
+    @NotNull private final String myClearCarrySql;
+    @NotNull private final AtomicLong myBytes = new AtomicLong();
+    // Incremented whenever an event is inserted before this partition. The carry-over table is up to date if it was rebuilt since.
+    @NotNull private final AtomicLong myChangeCount = new AtomicLong(1);
+    private volatile long myCarryOverVersion;
+
+    private Partition(long bucket) {
+      myBucket = bucket;
+      String suffix = bucket < 0 ? "N" + -bucket : Long.toString(bucket);
+      myEventsTable = "UnifiedEvents_" + suffix;
+      myCarryTable = "UnifiedEventsCarry_" + suffix;
+      // Since no data should be updated after it has been inserted we drop any duplicated request from the poller.
+      myInsertSql = String.format("INSERT OR IGNORE INTO [%s] (%s) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", myEventsTable, EVENT_COLUMNS);
+      myDeleteSql = String.format("DELETE FROM [%s] WHERE StreamId = ? AND ProcessId = ? And GroupId = ? And Kind = ? " +
+                                  "AND Timestamp >= ? AND Timestamp <= ?", myEventsTable);
+      myQuerySql = String.format("SELECT Data FROM [%s]", myEventsTable);
+      myClearCarrySql = String.format("DELETE FROM [%s]", myCarryTable);
+    }
+
+    private boolean isCarryOverFresh() {
+      return myCarryOverVersion == myChangeCount.get();
+    }
+  }
+
+  /**
+   * Identifies the SQL queryUnifiedEventGroups needs for a request: which optional filters are set, and which partitions are read for the
+   * events before, in and after the range.
+   */
+  private static final class QueryShape {
+    private final int myFilterMask;
+    private final boolean myHasFrom;
+    private final boolean myHasTo;
+    @NotNull private final long[] myBeforeBuckets;
+    @NotNull private final long[] myInRangeBuckets;
+    @NotNull private final long[] myAfterBuckets;
+
+    private QueryShape(int filterMask,
+                       boolean hasFrom,
+                       boolean hasTo,
+                       @NotNull List<Partition> beforePartitions,
+                       @NotNull List<Partition> inRangePartitions,
+                       @NotNull List<Partition> afterPartitions) {
+      myFilterMask = filterMask;
+      myHasFrom = hasFrom;
+      myHasTo = hasTo;
+      myBeforeBuckets = beforePartitions.stream().mapToLong(partition -> partition.myBucket).toArray();
+      myInRangeBuckets = inRangePartitions.stream().mapToLong(partition -> partition.myBucket).toArray();
+      myAfterBuckets = afterPartitions.stream().mapToLong(partition -> partition.myBucket).toArray();
+    }
+
+    /**
+     * @return whether the statement built by {@link #buildSql} stays within SQLite's limits on compound SELECT terms and parameters.
+     */
+    private boolean fitsInOneStatement() {
+      int filterParams = 1 + Integer.bitCount(myFilterMask);
+      int beforeTerms = myBeforeBuckets.length > 0 ? myBeforeBuckets.length + 1 : 0;
+      int terms = beforeTerms + myInRangeBuckets.length + myAfterBuckets.length;
+      int params = beforeTerms * (filterParams + 1) +
+                   myInRangeBuckets.length * (filterParams + (myHasFrom ? 1 : 0) + (myHasTo ? 1 : 0)) +
+                   myAfterBuckets.length * (filterParams + 1);
+      return terms <= MAX_QUERY_TERMS && params <= MAX_QUERY_PARAMS;
+    }
+
+    /**
+     * Builds a single statement returning the latest event before the range per group, all events in the range and the first event after
+     * the range per group, tagged by part and ordered by part then timestamp.
+     * <p>
+     * Example with a from and a to timestamp:
+     * SELECT 0 AS Part, GroupId, IsEnded, Bucket, RowKey, Data, MAX(Timestamp) AS Timestamp FROM (
+     * SELECT GroupId, IsEnded, Timestamp, NULL AS Bucket, NULL AS RowKey, Data FROM [UnifiedEventsCarry_1] WHERE Kind = ? AND Timestamp < ?
+     * UNION ALL SELECT GroupId, IsEnded, Timestamp, 1 AS Bucket, ROWID AS RowKey, Data FROM [UnifiedEvents_1]
+     * WHERE Kind = ? AND Timestamp < ?)
+     * GROUP BY GroupId
+     * UNION ALL SELECT 1 AS Part, GroupId, IsEnded, 1 AS Bucket, ROWID AS RowKey, Data, Timestamp FROM [UnifiedEvents_1]
+     * WHERE Kind = ? AND Timestamp >= ? AND Timestamp <= ?
+     * UNION ALL SELECT 2 AS Part, GroupId, IsEnded, Bucket, RowKey, Data, MIN(Timestamp) AS Timestamp FROM (
+     * SELECT GroupId, IsEnded, Timestamp, 1 AS Bucket, ROWID AS RowKey, Data FROM [UnifiedEvents_1] WHERE Kind = ? AND Timestamp > ?)
+     * GROUP BY GroupId
+     * ORDER BY Part, Timestamp
+     *
+     * @return the statement, or an empty string if no partition needs to be read.
+     */
+    @NotNull
+    private String buildSql(@NotNull List<Partition> beforePartitions,
+                            @NotNull List<Partition> inRangePartitions,
+                            @NotNull List<Partition> afterPartitions) {
+      StringBuilder filter = new StringBuilder(" WHERE Kind = ?");
+      if ((myFilterMask & FILTER_STREAM) != 0) {
+        filter.append(" AND StreamId = ?");
+      }
+      if ((myFilterMask & FILTER_PROCESS) != 0) {
+        filter.append(" AND ProcessId = ?");
+      }
+      if ((myFilterMask & FILTER_GROUP) != 0) {
+        filter.append(" AND GroupId = ?");
+      }
+      if ((myFilterMask & FILTER_COMMAND) != 0) {
+        filter.append(" AND CommandId = ?");
+      }
+
+      List<String> parts = new ArrayList<>();
+      if (!beforePartitions.isEmpty()) {
+        // The carry-over of the first partition covers everything before it, and the events of the partitions read cover the rest.
+        List<String> beforeSources = new ArrayList<>();
+        beforeSources.add(String.format(
+          "SELECT GroupId, IsEnded, Timestamp, NULL AS Bucket, NULL AS RowKey, Data FROM [%s]%s AND Timestamp < ?",
+          beforePartitions.get(0).myCarryTable, filter));
+        for (Partition partition : beforePartitions) {
+          beforeSources.add(String.format(
+            "SELECT GroupId, IsEnded, Timestamp, %d AS Bucket, ROWID AS RowKey, Data FROM [%s]%s AND Timestamp < ?",
+            partition.myBucket, partition.myEventsTable, filter));
+        }
+        parts.add(String.format("SELECT %d AS Part, GroupId, IsEnded, Bucket, RowKey, Data, MAX(Timestamp) AS Timestamp " +
+                                "FROM (%s) GROUP BY GroupId",
+                                PART_BEFORE, String.join(" UNION ALL ", beforeSources)));
+      }
+      String inRangeFilter = filter + (myHasFrom ? " AND Timestamp >= ?" : "") + (myHasTo ? " AND Timestamp <= ?" : "");
+      for (Partition partition : inRangePartitions) {
+        parts.add(String.format("SELECT %d AS Part, GroupId, IsEnded, %d AS Bucket, ROWID AS RowKey, Data, Timestamp FROM [%s]%s",
+                                PART_IN_RANGE, partition.myBucket, partition.myEventsTable, inRangeFilter));
+      }
+      if (!afterPartitions.isEmpty()) {
+        List<String> afterSources = new ArrayList<>();
+        for (Partition partition : afterPartitions) {
+          afterSources.add(String.format("SELECT GroupId, IsEnded, Timestamp, %d AS Bucket, ROWID AS RowKey, Data " +
+                                         "FROM [%s]%s AND Timestamp > ?",
+                                         partition.myBucket, partition.myEventsTable, filter));
+        }
+        parts.add(String.format("SELECT %d AS Part, GroupId, IsEnded, Bucket, RowKey, Data, MIN(Timestamp) AS Timestamp " +
+                                "FROM (%s) GROUP BY GroupId",
+                                PART_AFTER, String.join(" UNION ALL ", afterSources)));
+      }
+      return parts.isEmpty() ? "" : String.join(" UNION ALL ", parts) + " ORDER BY Part, Timestamp";
+    }
+
+    /**
+     * @return the parameters of the statement built by {@link #buildSql}, in order.
+     */
+    @NotNull
+    private Object[] buildParams(@NotNull GetEventGroupsRequest request) {
+      List<Object> filterParams = new ArrayList<>();
+      filterParams.add(request.getKind().getNumber());
+      if ((myFilterMask & FILTER_STREAM) != 0) {
+        filterParams.add(request.getStreamId());
+      }
+      if ((myFilterMask & FILTER_PROCESS) != 0) {
+        filterParams.add(request.getPid());
+      }
+      if ((myFilterMask & FILTER_GROUP) != 0) {
+        filterParams.add(request.getGroupId());
+      }
+      if ((myFilterMask & FILTER_COMMAND) != 0) {
+        filterParams.add(request.getCommandId());
+      }
+
+      List<Object> params = new ArrayList<>();
+      if (myBeforeBuckets.length > 0) {
+        // One carry-over table and the events of each partition.
+        for (int i = 0; i <= myBeforeBuckets.length; i++) {
+          params.addAll(filterParams);
+          params.add(request.getFromTimestamp());
+        }
+      }
+      for (int i = 0; i < myInRangeBuckets.length; i++) {
+        params.addAll(filterParams);
+        if (myHasFrom) {
+          params.add(request.getFromTimestamp());
+        }
+        if (myHasTo) {
+          params.add(request.getToTimestamp());
+        }
+      }
+      for (int i = 0; i < myAfterBuckets.length; i++) {
+        params.addAll(filterParams);
+        params.add(request.getToTimestamp());
+      }
+      return params.toArray();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof QueryShape)) {
+        return false;
+      }
+      QueryShape other = (QueryShape)obj;
+      return myFilterMask == other.myFilterMask &&
+             myHasFrom == other.myHasFrom &&
+             myHasTo == other.myHasTo &&
+             Arrays.equals(myBeforeBuckets, other.myBeforeBuckets) &&
+             Arrays.equals(myInRangeBuckets, other.myInRangeBuckets) &&
+             Arrays.equals(myAfterBuckets, other.myAfterBuckets);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = Objects.hash(myFilterMask, myHasFrom, myHasTo);
+      result = 31 * result + Arrays.hashCode(myBeforeBuckets);
+      result = 31 * result + Arrays.hashCode(myInRangeBuckets);
+      return 31 * result + Arrays.hashCode(myAfterBuckets);
+    }
+  }
+
+  /**
+   * A row of a queryUnifiedEventGroups statement, kept when the query runs in chunks.
+   */
+  private static final class EventRow {
+    private final long myGroupId;
+    private final boolean myIsEnded;
+    private final long myTimestamp;
+    @NotNull private final Event myEvent;
+
+    private EventRow(long groupId, boolean isEnded, long timestamp, @NotNull Event event) {
+      myGroupId = groupId;
+      myIsEnded = isEnded;
+      myTimestamp = timestamp;
+      myEvent = event;
+    }
+  }
+
+  private static final class RowKey {
+    private final long myBucket;
+    private final long myRowId;
+
+    private RowKey(long bucket, long rowId) {
+      myBucket = bucket;
+      myRowId = rowId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof RowKey)) {
+        return false;
+      }
+      RowKey other = (RowKey)obj;
+      return myBucket == other.myBucket && myRowId == other.myRowId;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(myBucket) + Long.hashCode(myRowId);
     }
-    return records;
   }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.tools.datastore.DataStoreDatabase;
+import com.android.tools.datastore.FakeLogService;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataStoreWriteBehindTest {
+  private static final int QUEUE_CAPACITY = 16;
+  private static final int BATCH_SIZE = 8;
+  private static final int COMMIT_ROW_THRESHOLD = 32;
+
+  private File myDbFile;
+  private DataStoreDatabase myDatabase;
+  private WriteBehindTestTable myTable;
+
+  public enum WriteBehindStatement {
+    INSERT_DATA,
+    COUNT_DATA,
+    COUNT_NULL_DATA
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    myDbFile = File.createTempFile("DataStoreWriteBehindTest", "sql");
+    // Use a long commit interval so only the row threshold triggers commits during the test.
+    DataStoreWriteBehind.Config config =
+      new DataStoreWriteBehind.Config(QUEUE_CAPACITY, BATCH_SIZE, COMMIT_ROW_THRESHOLD, TimeUnit.HOURS.toMillis(1));
+    myDatabase = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE, new FakeLogService(),
+                                       t -> {}, config);
+    myTable = new WriteBehindTestTable();
+    myTable.initialize(myDatabase.getConnection());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (!myDatabase.getConnection().isClosed()) {
+      myDatabase.disconnect();
+    }
+    myDbFile.delete();
+  }
+
+  @Test
+  public void rowsAreQueuedUntilBatchSizeIsReached() {
+    DataStoreWriteBehind writeBehind = myDatabase.getWriteBehind();
+    for (int i = 0; i < BATCH_SIZE - 1; i++) {
+      myTable.insertData(i);
+    }
+    assertThat(writeBehind.getQueueDepth()).isEqualTo(BATCH_SIZE - 1);
+    assertThat(writeBehind.getBatchCount()).isEqualTo(0);
+
+    myTable.insertData(BATCH_SIZE - 1);
+    assertThat(writeBehind.getQueueDepth()).isEqualTo(0);
+    assertThat(writeBehind.getBatchCount()).isEqualTo(1);
+    assertThat(writeBehind.getMaxBatchSize()).isEqualTo(BATCH_SIZE);
+  }
+
+  @Test
+  public void queriesObservePendingWrites() throws Exception {
+    myTable.insertData(1);
+    myTable.insertData(2);
+    assertThat(myDatabase.getWriteBehind().getQueueDepth()).isEqualTo(2);
+
+    assertThat(myTable.countData()).isEqualTo(2);
+    assertThat(myDatabase.getWriteBehind().getQueueDepth()).isEqualTo(0);
+  }
+
+  @Test
+  public void commitsOnRowThreshold() throws Exception {
+    DataStoreWriteBehind writeBehind = myDatabase.getWriteBehind();
+    for (int i = 0; i < COMMIT_ROW_THRESHOLD; i++) {
+      myTable.insertData(i);
+    }
+    assertThat(writeBehind.getBatchedRowCount()).isEqualTo(COMMIT_ROW_THRESHOLD);
+    assertThat(writeBehind.getCommitCount()).isEqualTo(1);
+    assertThat(writeBehind.getMaxCommitLatencyNs()).isAtLeast(0L);
+
+    // Committing with nothing written since the last commit is a no-op.
+    writeBehind.commit();
+    assertThat(writeBehind.getCommitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void producersNeverOutgrowQueueCapacity() throws Exception {
+    int rowCount = QUEUE_CAPACITY * 10;
+    Thread[] producers = new Thread[4];
+    for (int t = 0; t < producers.length; t++) {
+      producers[t] = new Thread(() -> {
+        for (int i = 0; i < rowCount; i++) {
+          myTable.insertData(i);
+        }
+      });
+      producers[t].start();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    DataStoreWriteBehind writeBehind = myDatabase.getWriteBehind();
+    assertThat(writeBehind.getMaxQueueDepth()).isAtMost(QUEUE_CAPACITY);
+    assertThat(myTable.countData()).isEqualTo(rowCount * producers.length);
+  }
+
+  @Test
+  public void nullParametersAreWrittenAsNullInBatches() throws Exception {
+    myTable.insertData(1);
+    myTable.insertData(null);
+    myTable.insertData(2);
+    myTable.insertData(null);
+
+    assertThat(myTable.countData()).isEqualTo(4);
+    assertThat(myTable.countNullData()).isEqualTo(2);
+  }
+
+  @Test
+  public void disconnectFlushesPendingWrites() throws Exception {
+    myTable.insertData(1);
+    assertThat(myDatabase.getWriteBehind().getBatchedRowCount()).isEqualTo(0);
+
+    myDatabase.disconnect();
+    assertThat(myDatabase.getWriteBehind().getBatchedRowCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void tablesWithoutWriteBehindExecuteImmediately() throws Exception {
+    myDatabase.disconnect();
+    DataStoreDatabase database =
+      new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.PERFORMANT, new FakeLogService());
+    database.getWriteBehind().shutdown();
+    WriteBehindTestTable table = new WriteBehindTestTable();
+    table.initialize(database.getConnection());
+    table.insertData(1);
+    assertThat(database.getWriteBehind().getBatchCount()).isEqualTo(0);
+    assertThat(table.countData()).isEqualTo(1);
+    database.disconnect();
+  }
+
+  private static class WriteBehindTestTable extends DataStoreTable<WriteBehindStatement> {
+    @Override
+    public void initialize(@NotNull Connection connection) {
+      super.initialize(connection);
+      try {
+        createTable("WriteBehind_Table", "DataColumn INTEGER");
+      }
+      catch (SQLException ex) {
+        onError(ex);
+      }
+    }
+
+    @Override
+    public void prepareStatements() {
+      try {
+        createStatement(WriteBehindStatement.INSERT_DATA, "INSERT INTO WriteBehind_Table (DataColumn) VALUES (?)");
+        createStatement(WriteBehindStatement.COUNT_DATA, "SELECT COUNT(*) FROM WriteBehind_Table");
+        createStatement(WriteBehindStatement.COUNT_NULL_DATA, "SELECT COUNT(*) FROM WriteBehind_Table WHERE DataColumn IS NULL");
+      }
+      catch (SQLException ex) {
+        onError(ex);
+      }
+    }
+
+    public void insertData(Integer data) {
+      executeWriteBehind(WriteBehindStatement.INSERT_DATA, data);
+    }
+
+    public int countData() throws SQLException {
+      ResultSet results = executeQuery(WriteBehindStatement.COUNT_DATA);
+      return results.next() ? results.getInt(1) : -1;
+    }
+
+    public int countNullData() throws SQLException {
+      ResultSet results = executeQuery(WriteBehindStatement.COUNT_NULL_DATA);
+      return results.next() ? results.getInt(1) : -1;
+    }
+  }
+}
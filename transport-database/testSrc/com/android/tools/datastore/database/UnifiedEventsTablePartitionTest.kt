@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database
+
+import com.android.tools.datastore.DataStoreDatabase
+import com.android.tools.datastore.FakeLogService
+import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+class UnifiedEventsTablePartitionTest {
+  companion object {
+    const val BUCKET_DURATION = 10L
+  }
+
+  private lateinit var dbFile: File
+  private lateinit var database: DataStoreDatabase
+
+  @Before
+  fun before() {
+    dbFile = File.createTempFile("UnifiedEventsTablePartitionTest", "sql")
+    dbFile.deleteOnExit()
+    database = DataStoreDatabase(dbFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+  }
+
+  @After
+  fun after() {
+    database.disconnect()
+  }
+
+  @Test
+  fun eventsArePartitionedByBucket() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, Long.MAX_VALUE))
+    table.insertUnifiedEvent(1, event(1, 5))
+    table.insertUnifiedEvent(1, event(1, 15))
+    table.insertUnifiedEvent(1, event(1, 35))
+
+    assertThat(partitionBuckets()).containsExactly(0L, 1L, 3L).inOrder()
+    assertThat(table.queryUnifiedEvents().map { it.timestamp }).containsExactly(5L, 15L, 35L).inOrder()
+  }
+
+  @Test
+  fun rangeQueryFindsNeighborsInOtherPartitions() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, Long.MAX_VALUE))
+    // Group 1 starts long before the range and ends long after it. Group 2 ends before the range.
+    table.insertUnifiedEvent(1, event(1, 5))
+    table.insertUnifiedEvent(1, event(2, 6))
+    table.insertUnifiedEvent(1, event(2, 7, true))
+    table.insertUnifiedEvent(1, event(1, 45))
+    table.insertUnifiedEvent(1, event(3, 46))
+    table.insertUnifiedEvent(1, event(1, 95))
+
+    val groups = table.queryUnifiedEventGroups(request(40, 50))
+    assertThat(groups.associate { group -> group.groupId to group.eventsList.map { it.timestamp } })
+      .containsExactly(1L, listOf(5L, 45L, 95L), 3L, listOf(46L))
+  }
+
+  @Test
+  fun lateEventsRefreshCarryOver() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, Long.MAX_VALUE))
+    table.insertUnifiedEvent(1, event(1, 5))
+    table.insertUnifiedEvent(1, event(1, 45))
+    assertThat(table.queryUnifiedEventGroups(request(40, 50)).single().eventsList.map { it.timestamp }).containsExactly(5L, 45L)
+
+    // An event arriving after the carry-over of bucket 4 was computed must still be visible as the event before the range.
+    table.insertUnifiedEvent(1, event(1, 25))
+    assertThat(table.queryUnifiedEventGroups(request(40, 50)).single().eventsList.map { it.timestamp }).containsExactly(25L, 45L)
+  }
+
+  @Test
+  fun rangeQueryOverManyPartitionsIsChunked() {
+    // More partitions than terms fit in a single SQLite statement.
+    val partitionCount = 450
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, Long.MAX_VALUE, partitionCount))
+    table.insertUnifiedEvent(1, event(1, 0))
+    (0 until partitionCount).forEach { table.insertUnifiedEvent(1, event(2, it * BUCKET_DURATION + 5)) }
+    // Group 3 only has an event after the range, so it is not returned.
+    table.insertUnifiedEvent(1, event(3, (partitionCount - 1) * BUCKET_DURATION + 6))
+
+    val groups = table.queryUnifiedEventGroups(request(1, (partitionCount - 2) * BUCKET_DURATION + 5))
+    assertThat(groups.associate { group -> group.groupId to group.eventsList.map { it.timestamp } })
+      .containsExactly(1L, listOf(0L), 2L, (0 until partitionCount).map { it * BUCKET_DURATION + 5 })
+  }
+
+  @Test
+  fun retentionDropsOldPartitionsButKeepsOpenGroups() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, 2 * BUCKET_DURATION, Long.MAX_VALUE))
+    table.insertUnifiedEvent(1, event(1, 5))
+    table.insertUnifiedEvent(1, event(2, 6))
+    table.insertUnifiedEvent(1, event(2, 16, true))
+    table.insertUnifiedEvent(1, event(3, 55))
+    assertThat(partitionBuckets()).containsExactly(5L)
+
+    // Group 1's start event survives eviction through the carry-over, group 2 ended and is not returned.
+    val groups = table.queryUnifiedEventGroups(request(50, 60))
+    assertThat(groups.associate { group -> group.groupId to group.eventsList.map { it.timestamp } })
+      .containsExactly(1L, listOf(5L), 3L, listOf(55L))
+
+    // Events older than the retained partitions are dropped.
+    table.insertUnifiedEvent(1, event(4, 8))
+    assertThat(partitionBuckets()).containsExactly(5L)
+  }
+
+  @Test
+  fun diskBudgetDropsOldestPartitions() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, 1))
+    table.insertUnifiedEvent(1, event(1, 5))
+    table.insertUnifiedEvent(1, event(1, 15))
+    table.insertUnifiedEvent(1, event(1, 25))
+
+    // The latest partition is always kept.
+    assertThat(partitionBuckets()).containsExactly(2L)
+    assertThat(table.queryUnifiedEvents().map { it.timestamp }).containsExactly(25L)
+  }
+
+  @Test
+  fun maxPartitionsDropsOldestPartitions() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, Long.MAX_VALUE, 2))
+    table.insertUnifiedEvent(1, event(1, 5))
+    table.insertUnifiedEvent(1, event(2, 15))
+    table.insertUnifiedEvent(1, event(3, 25))
+
+    assertThat(partitionBuckets()).containsExactly(1L, 2L).inOrder()
+    // Group 1's start event survives eviction through the carry-over.
+    assertThat(table.queryUnifiedEventGroups(request(20, 30)).map { it.groupId }).containsExactly(1L, 2L, 3L)
+  }
+
+  @Test
+  fun defaultConfigBoundsPartitionCount() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, Long.MAX_VALUE))
+    val partitionCount = UnifiedEventsTable.PartitionConfig.DEFAULT_MAX_PARTITIONS + 10
+    (0 until partitionCount).forEach { table.insertUnifiedEvent(1, event(1, it * BUCKET_DURATION)) }
+
+    assertThat(partitionBuckets()).hasSize(UnifiedEventsTable.PartitionConfig.DEFAULT_MAX_PARTITIONS)
+    assertThat(partitionBuckets().first()).isEqualTo(10L)
+  }
+
+  @Test
+  fun duplicateEventsDoNotCountTowardsDiskBudget() {
+    val rowBytes = event(1, 5).toByteArray().size + 64L
+    val table = createTable(UnifiedEventsTable.PartitionConfig(BUCKET_DURATION, Long.MAX_VALUE, 2 * rowBytes))
+    repeat(3) { table.insertUnifiedEvent(1, event(1, 5)) }
+    assertThat(table.queryUnifiedEvents().map { it.timestamp }).containsExactly(5L)
+
+    // The duplicates were dropped by the database, so both partitions fit in the budget.
+    table.insertUnifiedEvent(1, event(1, 15))
+    assertThat(partitionBuckets()).containsExactly(0L, 1L).inOrder()
+  }
+
+  @Test
+  fun unpartitionedConfigUsesSinglePartition() {
+    val table = createTable(UnifiedEventsTable.PartitionConfig.UNPARTITIONED)
+    table.insertUnifiedEvent(1, event(1, 5))
+    table.insertUnifiedEvent(1, event(1, 45))
+    table.insertUnifiedEvent(1, event(1, 95))
+
+    assertThat(partitionBuckets()).containsExactly(0L)
+    assertThat(table.queryUnifiedEventGroups(request(40, 50)).single().eventsList.map { it.timestamp }).containsExactly(5L, 45L, 95L)
+  }
+
+  private fun createTable(config: UnifiedEventsTable.PartitionConfig): UnifiedEventsTable {
+    val table = UnifiedEventsTable(config)
+    table.initialize(database.connection)
+    return table
+  }
+
+  private fun partitionBuckets(): List<Long> {
+    val buckets = mutableListOf<Long>()
+    database.connection.createStatement().use { statement ->
+      statement.executeQuery("SELECT Bucket FROM [UnifiedEventsPartitions] ORDER BY Bucket").use { results ->
+        while (results.next()) {
+          buckets.add(results.getLong(1))
+        }
+      }
+    }
+    return buckets
+  }
+
+  private fun request(from: Long, to: Long) = GetEventGroupsRequest.newBuilder()
+    .setKind(Common.Event.Kind.SESSION)
+    .setStreamId(1)
+    .setFromTimestamp(from)
+    .setToTimestamp(to)
+    .build()
+
+  private fun event(groupId: Long, timestamp: Long, isEnded: Boolean = false) = Common.Event.newBuilder()
+    .setKind(Common.Event.Kind.SESSION)
+    .setPid(1)
+    .setGroupId(groupId)
+    .setTimestamp(timestamp)
+    .setIsEnded(isEnded)
+    .build()
+}
@@ -282,10 +282,27 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
                    SESSION_1_1_4)
   }
 
+  @Test
+  fun overlappingQueriesReuseParsedEvents() {
+    insertData(5, false)
+    val first = table.queryUnifiedEventGroups(
+      GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).setFromTimestamp(2).setToTimestamp(3).build())
+    val second = table.queryUnifiedEventGroups(
+      GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).setFromTimestamp(3).setToTimestamp(4).build())
+
+    // Events are returned in timestamp order, including the ones before and after the range.
+    assertThat(first.single().eventsList.map { it.timestamp }).containsExactly(1L, 2L, 3L, 4L).inOrder()
+    assertThat(second.single().eventsList.map { it.timestamp }).containsExactly(2L, 3L, 4L, 5L).inOrder()
+    // Events read by both queries are only parsed once.
+    for (i in 1..3) {
+      assertThat(second.single().getEvents(i - 1)).isSameAs(first.single().getEvents(i))
+    }
+  }
+
   @Test
   fun queryReturnsSameStatement() {
-    val results = table.executeOneTimeQuery("SELECT * FROM [UnifiedEventsTable]", arrayOf())
-    val repeatedResults = table.executeOneTimeQuery("SELECT * FROM [UnifiedEventsTable]", arrayOf())
+    val results = table.executeOneTimeQuery("SELECT * FROM [UnifiedEventsPartitions]", arrayOf())
+    val repeatedResults = table.executeOneTimeQuery("SELECT * FROM [UnifiedEventsPartitions]", arrayOf())
     assertThat(results.statement).isSameAs(repeatedResults.statement)
   }
 